@@ -25,25 +25,88 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.io;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.StringUtil;
 
+/**
+ * SeekableStream over HTTP using the apache http client.
+ * 
+ * The remote file is read by blocks of {@link #BLOCK_SIZE_PROPERTY} bytes that are kept in a LRU cache.
+ * When the blocks are read sequentially, the number of blocks fetched with a single request
+ * is doubled (up to {@link #READ_AHEAD_PROPERTY} blocks) and the next blocks are
+ * fetched in a background thread. A random access resets the read-ahead to one block.
+ * The responses are fully consumed so the http client can re-use the connections (keep-alive).
+ * 
+ * If {@link #DISK_CACHE_PROPERTY} is defined, the blocks are also saved in this directory and re-used
+ * by the next streams for the same URL. Nothing is removed from this directory.
+ */
 public class ApacheSeekableHTTPStream extends SeekableStream {
+	private static final Logger LOG = Logger.build(ApacheSeekableHTTPStream.class).make();
+	/** size of a block */
+	public static final String BLOCK_SIZE_PROPERTY = "jvarkit.http.block.size";
+	/** max number of blocks in memory */
+	public static final String CACHE_BLOCKS_PROPERTY = "jvarkit.http.cache.blocks";
+	/** max number of blocks fetched with one request */
+	public static final String READ_AHEAD_PROPERTY = "jvarkit.http.read.ahead";
+	/** fetch the next blocks in a background thread */
+	public static final String PREFETCH_PROPERTY = "jvarkit.http.prefetch";
+	/** directory where the blocks are saved. Default: none */
+	public static final String DISK_CACHE_PROPERTY = "jvarkit.http.cache.dir";
 
     private long position = 0L;
     private final long contentLength ;
     private final URL url;
     private final CloseableHttpClient httpClient;
+    private int blockSize = Integer.parseInt(System.getProperty(BLOCK_SIZE_PROPERTY, String.valueOf(64*1024)));
+    private int maxBlocksInMemory = Integer.parseInt(System.getProperty(CACHE_BLOCKS_PROPERTY, "256"));
+    private int maxReadAhead = Integer.parseInt(System.getProperty(READ_AHEAD_PROPERTY, "16"));
+    private boolean prefetch = !System.getProperty(PREFETCH_PROPERTY, "true").equals("false");
+    private File diskCacheDir = null;
+    /** LRU cache of blocks, also used as the lock for 'inFlight' */
+    private final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(100, 0.75f, true) {
+    	private static final long serialVersionUID = 1L;
+		@Override
+    	protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+    		return size() > Math.max(1, maxBlocksInMemory);
+    		}
+    	};
+    /** blocks being fetched by the prefetch thread */
+    private final Map<Long, Future<?>> inFlight = new HashMap<>();
+    private ExecutorService prefetchService = null;
+    private long lastBlock = -2L;
+    private int readAhead = 1;
+    private long nRequests = 0L;
+    private long nBytesFetched = 0L;
+    private long nCacheHits = 0L;
 
     /* use CustomSeekableStreamFactory */ ApacheSeekableHTTPStream(
     	final URL url,
@@ -53,7 +116,60 @@ public class ApacheSeekableHTTPStream extends SeekableStream {
         this.url = url;
         this.contentLength = contentLength;
         this.httpClient = httpClient;
+        final String dir = System.getProperty(DISK_CACHE_PROPERTY, "");
+        if(!StringUtil.isBlank(dir)) setDiskCacheDirectory(new File(dir));
     }
+    
+    /** set the size of a block. Must be called before the first read */
+    public ApacheSeekableHTTPStream setBlockSize(final int blockSize) {
+    	if(blockSize<1) throw new IllegalArgumentException("bad block size: "+blockSize);
+    	if(this.nRequests>0L) throw new IllegalStateException("stream was already read");
+    	this.blockSize = blockSize;
+    	return this;
+    	}
+    
+    /** set the max number of blocks in memory */
+    public ApacheSeekableHTTPStream setMaxBlocksInMemory(final int maxBlocksInMemory) {
+    	this.maxBlocksInMemory = maxBlocksInMemory;
+    	return this;
+    	}
+    
+    /** set the max number of blocks fetched with one request */
+    public ApacheSeekableHTTPStream setMaxReadAhead(final int maxReadAhead) {
+    	this.maxReadAhead = Math.max(1, maxReadAhead);
+    	return this;
+    	}
+    
+    /** enable/disable the fetching of the next blocks in a background thread */
+    public ApacheSeekableHTTPStream setPrefetch(final boolean prefetch) {
+    	this.prefetch = prefetch;
+    	return this;
+    	}
+    
+    /** set the directory where the blocks are saved. May be null */
+    public ApacheSeekableHTTPStream setDiskCacheDirectory(final File dir) {
+    	this.diskCacheDir = dir;
+    	return this;
+    	}
+    
+    /** number of http requests sent by this stream */
+    public long getRequestCount() {
+    	synchronized (this.blocks) {
+    		return this.nRequests;
+    		}
+    	}
+    
+    /** number of bytes downloaded by this stream */
+    public long getBytesFetched() {
+    	synchronized (this.blocks) {
+    		return this.nBytesFetched;
+    		}
+    	}
+    
+    /** number of blocks found in the memory cache */
+    public long getCacheHits() {
+    	return this.nCacheHits;
+    	}
 
     @Override
     public long position() {
@@ -91,25 +207,137 @@ public class ApacheSeekableHTTPStream extends SeekableStream {
         if (len == 0 ) {
             return 0;
         }
-        if (this.position == this.contentLength) {
+        if (this.position >= this.contentLength) {
             return -1;
         }
-
+        int n = 0;
+        while(n < len && this.position < this.contentLength) {
+        	final long blockIndex = this.position / this.blockSize;
+        	final byte[] block = getBlock(blockIndex);
+        	final int inBlock = (int)(this.position - blockIndex * this.blockSize);
+        	final int count = Math.min(len - n, block.length - inBlock);
+        	if(count <= 0) break;
+        	System.arraycopy(block, inBlock, buffer, offset + n, count);
+        	n += count;
+        	this.position += count;
+        	}
+        return n == 0 ? -1 : n;
+    }
+    
+    /** number of bytes in the block 'blockIndex' */
+    private int blockLength(final long blockIndex) {
+    	return (int)Math.min(this.blockSize, this.contentLength - blockIndex * this.blockSize);
+    	}
+    
+    private long blockCount() {
+    	return (this.contentLength + this.blockSize - 1) / this.blockSize;
+    	}
+    
+    private byte[] getBlock(final long blockIndex) throws IOException {
+    	// adaptive read-ahead: grows on sequential access, reset on random access
+    	if(blockIndex != this.lastBlock) {
+    		if(blockIndex == this.lastBlock + 1) {
+    			this.readAhead = Math.min(this.maxReadAhead, this.readAhead * 2);
+    			}
+    		else
+    			{
+    			this.readAhead = 1;
+    			}
+    		this.lastBlock = blockIndex;
+    		}
+    	
+    	byte[] block;
+    	final Future<?> pending;
+    	synchronized (this.blocks) {
+    		block = this.blocks.get(blockIndex);
+    		pending = (block == null ? this.inFlight.get(blockIndex) : null);
+    		}
+    	if(block != null) {
+    		this.nCacheHits++;
+    		}
+    	else
+    		{
+	    	if(pending != null) {
+	    		try {
+	    			pending.get();
+	    			}
+	    		catch(final ExecutionException err) {
+	    			LOG.debug("prefetch failed for "+this.url+" "+err.getCause());
+	    			}
+	    		catch(final InterruptedException err) {
+	    			throw new IOException(err);
+	    			}
+	    		synchronized (this.blocks) {
+	        		block = this.blocks.get(blockIndex);
+	        		}
+	    		}
+	    	if(block == null) block = readFromDisk(blockIndex);
+	    	if(block == null) block = fetch(blockIndex, this.readAhead, null);
+	    	}
+    	if(this.prefetch && this.readAhead > 1) prefetch(blockIndex);
+    	return block;
+    	}
+    
+    /** fetch in background the first missing block after 'blockIndex' */
+    private void prefetch(final long blockIndex) {
+    	final long last = Math.min(blockCount(), blockIndex + 1 + this.readAhead);
+    	final int count = this.readAhead;
+    	synchronized (this.blocks) {
+	    	for(long i = blockIndex + 1; i < last; ++i) {
+	    		if(this.blocks.containsKey(i) || this.inFlight.containsKey(i)) continue;
+	    		final long first = i;
+	    		final FutureTask<?>[] self = new FutureTask<?>[1];
+	    		final FutureTask<Void> task = new FutureTask<>(()->{
+	    			try {
+	    				if(readFromDisk(first) == null) fetch(first, count, self[0]);
+	    				}
+	    			finally
+	    				{
+	    				synchronized (this.blocks) {
+	    					for(long j = first; j < first + count; ++j) this.inFlight.remove(j);
+	    					}
+	    				}
+	    			return null;
+	    			});
+	    		self[0] = task;
+	    		for(long j = first; j < first + count && j < blockCount(); ++j) {
+	    			if(!this.blocks.containsKey(j)) this.inFlight.putIfAbsent(j, task);
+	    			}
+	    		if(this.prefetchService == null) {
+	    			this.prefetchService = Executors.newSingleThreadExecutor(R->{
+	    				final Thread t = new Thread(R, "prefetch "+this.url);
+	    				t.setDaemon(true);
+	    				return t;
+	    				});
+	    			}
+	    		this.prefetchService.execute(task);
+	    		break;
+	    		}
+    		}
+    	}
+    
+    /** fetch at most 'count' blocks starting from 'firstBlock' with one request, returns the first block. 'owner' is the prefetch task calling this method or null */
+    private byte[] fetch(final long firstBlock, int count, final Future<?> owner) throws IOException {
+    	synchronized (this.blocks) {
+    		// don't download the blocks that are already available or fetched by another task
+    		for(int i = 1; i < count; ++i) {
+    			final long idx = firstBlock + i;
+    			final Future<?> other = this.inFlight.get(idx);
+    			if(idx >= blockCount() || this.blocks.containsKey(idx) || (other != null && other != owner)) {
+    				count = i;
+    				break;
+    				}
+    			}
+    		}
+    	final long start = firstBlock * this.blockSize;
+    	final long end = Math.min(this.contentLength, (firstBlock + count) * this.blockSize);
+    	final byte[] data = new byte[(int)(end - start)];
+    	
         CloseableHttpResponse httpResponse = null;
         InputStream is = null;
-        int n = 0;
         try {
         	final HttpGet httpGet = new HttpGet(this.url.toExternalForm());
-        	
-        	
-
-            long endRange = position + len - 1;
-            // IF we know the total content length, limit the end range to that.
-            if (contentLength > 0) {
-                endRange = Math.min(endRange, contentLength);
-            }
-            final String byteRange = "bytes=" + position + "-" + endRange;
-            
+            final String byteRange = "bytes=" + start + "-" + (end - 1);
             httpGet.addHeader("Range", byteRange);
           
             httpResponse = this.httpClient.execute(httpGet);
@@ -121,41 +349,117 @@ public class ApacheSeekableHTTPStream extends SeekableStream {
  		        throw new IOException(msg);
  		   		}
             final HttpEntity entity = httpResponse.getEntity();
-            
             is = entity.getContent();
-
-            while (n < len) {
-                int count = is.read(buffer, offset + n, len - n);
-                if (count < 0) {
-                    if (n == 0) {
-                        return -1;
-                    } else {
-                        break;
-                    }
-                }
-                n += count;
+            int n = 0;
+            while (n < data.length) {
+                final int nRead = is.read(data, n, data.length - n);
+                if (nRead < 0) throw new IOException("Unexpected end of stream for "+url+" in range "+byteRange);
+                n += nRead;
             	}
-            this.position += n;
-
-            return n;
+            // consume the response so the connection can be re-used
+            EntityUtils.consume(entity);
         	}
         finally {
             CloserUtil.close(is);
             CloserUtil.close(httpResponse);
         }
-    }
-
+        byte[] first = null;
+        synchronized (this.blocks) {
+        	this.nRequests++;
+        	this.nBytesFetched += data.length;
+	        for(int i = 0; i < count; ++i) {
+	        	final long idx = firstBlock + i;
+	        	final int from = i * this.blockSize;
+	        	final byte[] block = new byte[blockLength(idx)];
+	        	System.arraycopy(data, from, block, 0, block.length);
+	        	if(i == 0) first = block;
+	        	this.blocks.put(idx, block);
+	        	}
+        	}
+        for(int i = 0; i < count; ++i) {
+        	final long idx = firstBlock + i;
+        	final int from = i * this.blockSize;
+        	writeToDisk(idx, data, from, blockLength(idx));
+        	}
+        return first;
+    	}
+    
+    /** directory for this URL in the disk cache or null */
+    private File getDiskDirectory() {
+    	if(this.diskCacheDir == null) return null;
+    	try {
+	    	final MessageDigest md = MessageDigest.getInstance("SHA-1");
+	    	md.update((this.url.toExternalForm()+"\t"+this.contentLength+"\t"+this.blockSize).getBytes(StandardCharsets.UTF_8));
+	    	final StringBuilder sb = new StringBuilder();
+	    	for(final byte b: md.digest()) sb.append(String.format("%02x", b));
+	    	return new File(this.diskCacheDir, sb.toString());
+    		}
+    	catch(final NoSuchAlgorithmException err) {
+    		throw new IllegalStateException(err);
+    		}
+    	}
+    
+    private byte[] readFromDisk(final long blockIndex) {
+    	final File dir = getDiskDirectory();
+    	if(dir == null) return null;
+    	final File f = new File(dir, String.valueOf(blockIndex));
+    	if(!f.exists() || f.length() != blockLength(blockIndex)) return null;
+    	try {
+    		final byte[] block = Files.readAllBytes(f.toPath());
+    		synchronized (this.blocks) {
+    			this.blocks.put(blockIndex, block);
+    			}
+    		return block;
+    		}
+    	catch(final IOException err) {
+    		LOG.warning("Cannot read "+f+" "+err.getMessage());
+    		return null;
+    		}
+    	}
+    
+    private void writeToDisk(final long blockIndex,final byte[] data,final int offset,final int len) {
+    	final File dir = getDiskDirectory();
+    	if(dir == null) return;
+    	final File f = new File(dir, String.valueOf(blockIndex));
+    	if(f.exists()) return;
+    	File tmp = null;
+    	try {
+    		if(!dir.exists() && !dir.mkdirs() && !dir.exists()) throw new IOException("Cannot create "+dir);
+    		tmp = File.createTempFile("tmp.", ".block", dir);
+    		try(FileOutputStream out = new FileOutputStream(tmp)) {
+    			out.write(data, offset, len);
+    			}
+    		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    		tmp = null;
+    		}
+    	catch(final IOException err) {
+    		LOG.warning("Cannot save block in "+f+" "+err.getMessage());
+    		}
+    	finally
+    		{
+    		if(tmp != null) tmp.delete();
+    		}
+    	}
 
     @Override
     public void close() throws IOException {
+    	if(this.prefetchService != null) {
+    		this.prefetchService.shutdownNow();
+    		this.prefetchService = null;
+    		}
+    	LOG.debug(getSource()+": "+getRequestCount()+" request(s), "+getBytesFetched()+" byte(s), "+getCacheHits()+" cache hit(s).");
         CloserUtil.close(this.httpClient);
+        synchronized (this.blocks) {
+        	this.blocks.clear();
+        	this.inFlight.clear();
+        	}
     }
 
 
     @Override
     public int read() throws IOException {
     	byte []tmp=new byte[1];
-    	read(tmp,0,1);
+    	if(read(tmp,0,1)!=1) return -1;
     	return (int) tmp[0] & 0xFF; 
     }
 
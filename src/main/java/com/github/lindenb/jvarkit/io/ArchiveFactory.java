@@ -31,10 +31,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
-
-
+/**
+ * Writes a set of files in a directory or in a zip.
+ * 'openOuputStream' can be called by several threads, each stream being used by one thread:
+ * the zip entries are compressed concurrently and added to the zip when they are closed.
+ */
 public interface ArchiveFactory extends Closeable{
 
 	
@@ -61,100 +62,28 @@ public interface ArchiveFactory extends Closeable{
 		}
 	
 	
+	/** entries are compressed by the thread writing them, see {@link ParallelZipOutput} */
 	static class ZipInstance
 		implements ArchiveFactory
 		{
-		FileOutputStream fout;
-		ZipOutputStream zout;
+		private final ParallelZipOutput zout;
 		
 		ZipInstance(final File f) throws IOException
 			{
-			fout=new FileOutputStream(f);
-			zout=new ZipOutputStream(fout);
+			this.zout = new ParallelZipOutput(f);
 			}
 		
 		@Override
 		public OutputStream openOuputStream(final String filename) throws IOException
 			{
-			final ZipOS os =new ZipOS(filename);
-			return os;
+			return this.zout.openEntry(filename);
 			}
 		
 		@Override
 		public void close() throws IOException
 			{
-			if(this.zout!=null)
-				{
-				this.zout.finish();
-				this.zout.flush();
-				this.fout.flush();
-				this.zout.close();
-				this.fout.close();
-				this.zout=null;
-				this.fout=null;
-				}
+			this.zout.close();
 			}
-		
-		private class ZipOS extends OutputStream
-			{
-			ZipEntry ze;
-			File tmp;
-			OutputStream out;
-			
-			ZipOS(String filename) throws IOException
-				{
-				while(filename.startsWith("/")) filename=filename.substring(1);
-				this.ze=new ZipEntry(filename);
-				
-				this.tmp=File.createTempFile("tmp", ".zipentry");
-				this.tmp.deleteOnExit();
-				this.out=new FileOutputStream(this.tmp);
-				}
-			
-			@Override
-			public void write(final int b) throws IOException {
-				if(out!=null) out.write(b);
-				}
-			
-			@Override
-			public void write(final byte[] b) throws IOException {
-				if(out!=null)  out.write(b);
-				}
-			
-			@Override
-			public void write(final byte[] b, final int off, final int len) throws IOException {
-				if(out!=null) out.write(b, off, len);
-				}
-			
-			@Override
-			public void flush() throws IOException
-				{
-				if(out!=null) out.flush();
-				}
-			
-			@Override
-			public void close() throws IOException
-				{
-				if(out!=null)
-					{
-					out.flush();
-					out.close();
-					
-					if(ZipInstance.this.zout!=null)
-						{
-						zout.putNextEntry(this.ze);
-						IOUtils.copyTo(this.tmp,ZipInstance.this.zout );
-						ZipInstance.this.zout.flush();
-						ZipInstance.this.zout.closeEntry();
-						}
-					ze=null;
-					out=null;
-					tmp.delete();
-					tmp=null;
-					}
-				}
-			}
-		
 		}
 	
 	static class FileInstance implements ArchiveFactory
@@ -0,0 +1,166 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An InputStream reading its delegate in a background thread. 
+ * Used to pipeline a costly decoder (e.g. GZIPInputStream) with the
+ * consumer of the data.
+ *
+ */
+public class AsyncInputStream extends InputStream
+	{
+	private static final byte[] EOF_MARKER = new byte[0];
+	private final InputStream delegate;
+	private final BlockingQueue<byte[]> queue;
+	private final Thread thread;
+	private volatile Throwable error = null;
+	private volatile boolean closed = false;
+	private byte[] current = null;
+	private int currentPos = 0;
+	private boolean eof = false;
+	
+	public AsyncInputStream(final InputStream delegate)
+		{
+		this(delegate,1<<16,8);
+		}
+	
+	/**
+	 * @param delegate the stream to read
+	 * @param bufferSize size of the chunks read by the background thread
+	 * @param queueSize max number of chunks waiting to be consumed
+	 */
+	public AsyncInputStream(final InputStream delegate,final int bufferSize,final int queueSize)
+		{
+		this.delegate = delegate;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+		this.thread = new Thread(()->{
+			try {
+				for(;;)
+					{
+					final byte[] buffer = new byte[bufferSize];
+					int n = 0;
+					while(n < buffer.length)
+						{
+						final int c = this.delegate.read(buffer, n, buffer.length - n);
+						if(c==-1) break;
+						n+=c;
+						}
+					if(n>0) this.queue.put(n==buffer.length?buffer:Arrays.copyOf(buffer, n));
+					if(n<buffer.length) break;
+					}
+				}
+			catch(final InterruptedException err)
+				{
+				if(!this.closed) this.error = new IOException(err);
+				}
+			catch(final Throwable err)
+				{
+				// e.g. a RuntimeException from a corrupt gzip member must not look like a clean EOF
+				if(!this.closed) this.error = err;
+				}
+			finally
+				{
+				try { if(!this.closed) this.queue.put(EOF_MARKER);}
+				catch(final InterruptedException err) {}
+				}
+			},"async-input-stream");
+		this.thread.setDaemon(true);
+		this.thread.start();
+		}
+	
+	/** fetch the next chunk. returns false at EOF */
+	private boolean fill() throws IOException
+		{
+		if(this.closed) throw new IOException("stream was closed");
+		while(!this.eof && (this.current==null || this.currentPos>=this.current.length))
+			{
+			try {
+				this.current = this.queue.take();
+				this.currentPos = 0;
+				}
+			catch(final InterruptedException err)
+				{
+				throw new IOException(err);
+				}
+			if(this.current==EOF_MARKER)
+				{
+				this.eof = true;
+				this.current = null;
+				}
+			}
+		if(this.error!=null) rethrow();
+		return !this.eof;
+		}
+	
+	private void rethrow() throws IOException
+		{
+		final Throwable err = this.error;
+		if(err instanceof IOException) throw (IOException)err;
+		if(err instanceof RuntimeException) throw (RuntimeException)err;
+		if(err instanceof Error) throw (Error)err;
+		throw new IOException(err);
+		}
+	
+	@Override
+	public int read() throws IOException
+		{
+		if(!fill()) return -1;
+		return this.current[this.currentPos++] & 0xFF;
+		}
+	
+	@Override
+	public int read(final byte[] b,final int off,final int len) throws IOException
+		{
+		if(len==0) return 0;
+		if(!fill()) return -1;
+		final int n = Math.min(len, this.current.length - this.currentPos);
+		System.arraycopy(this.current, this.currentPos, b, off, n);
+		this.currentPos += n;
+		return n;
+		}
+	
+	@Override
+	public int available() throws IOException
+		{
+		return this.current==null?0:this.current.length - this.currentPos;
+		}
+	
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		this.closed = true;
+		this.thread.interrupt();
+		this.queue.clear();
+		this.delegate.close();
+		}
+	}
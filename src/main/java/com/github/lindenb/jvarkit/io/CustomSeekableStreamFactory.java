@@ -47,11 +47,15 @@ import htsjdk.samtools.util.StringUtil;
 
 /**
  * 
- * Custom ISeekableStreamFactory, handle user/password for URLs
+ * Custom ISeekableStreamFactory, handle user/password for URLs.
+ * http(s) URLs are opened with a {@link ApacheSeekableHTTPStream} (block cache, read-ahead)
+ * unless the system property {@value #BLOCK_CACHE_PROPERTY} is 'false'.
  *
  */
 public class CustomSeekableStreamFactory 
 	implements ISeekableStreamFactory {
+	/** use ApacheSeekableHTTPStream for all http URLs, not only for those with user/password */
+	public static final String BLOCK_CACHE_PROPERTY = "jvarkit.http.cache";
 	private final ISeekableStreamFactory defaultInstance;
 	private String user = null;
 	private String password = null;
@@ -88,6 +92,10 @@ public class CustomSeekableStreamFactory
 		return setUser(null).setPassword(null);
 		}
 	
+	private static boolean isBlockCacheEnabled() {
+		return !System.getProperty(BLOCK_CACHE_PROPERTY, "true").equals("false");
+		}
+	
 	private ISeekableStreamFactory getDelegate() {
 		return this.defaultInstance;
 	}
@@ -121,7 +129,14 @@ public class CustomSeekableStreamFactory
     		 	}
     		if(StringUtil.isBlank(p_user) || StringUtil.isBlank(p_password)) 
     			{
-    			return  getDelegate().getStreamFor(path);
+    			if(!isBlockCacheEnabled()) return  getDelegate().getStreamFor(path);
+    			try {
+    				return openHttp(url,null,null);
+    				}
+    			catch(final IOException err) {
+    				// e.g. HEAD not supported, use the default implementation
+    				return  getDelegate().getStreamFor(path);
+    				}
     			}
     		 return openHttp(url,p_user,p_password);
 	    	 }
@@ -141,9 +156,13 @@ public class CustomSeekableStreamFactory
     private SeekableStream openHttp(final URL url,final String p_user,final String p_password) 
     	throws IOException {
 		final HttpClientBuilder hb = HttpClients.custom();
-		final BasicCredentialsProvider provider = new BasicCredentialsProvider();
-		provider.setCredentials( AuthScope.ANY, new UsernamePasswordCredentials(p_user,p_password));
-		hb.setDefaultCredentialsProvider(provider);
+		if(p_user!=null && p_password!=null) {
+			final BasicCredentialsProvider provider = new BasicCredentialsProvider();
+			provider.setCredentials( AuthScope.ANY, new UsernamePasswordCredentials(p_user,p_password));
+			hb.setDefaultCredentialsProvider(provider);
+			}
+		// one connection for the reader, one for the prefetch thread. Kept alive between the requests.
+		hb.setMaxConnPerRoute(2);
 			
 		
 		final CloseableHttpClient httpClient = hb.build();
@@ -0,0 +1,231 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * An InputStream decompressing a BGZF stream. The compressed blocks are read
+ * on the calling thread and inflated in parallel on a pool of threads. The
+ * uncompressed blocks are returned in their original order.
+ *
+ */
+public class ParallelBgzfInputStream extends InputStream
+	{
+	/** size of a BGZF header: 12 bytes of gzip header + 6 bytes of extra field */
+	private static final int BGZF_HEADER_SIZE = 18;
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(()->new Inflater(true));
+	private final InputStream in;
+	private final ExecutorService executor;
+	private final int maxPendingBlocks;
+	private final ArrayDeque<Future<byte[]>> pending;
+	private byte[] current = null;
+	private int currentPos = 0;
+	private boolean eof = false;
+	private boolean closed = false;
+	private long blockCount = 0L;
+	
+	/**
+	 * @param in the raw compressed stream
+	 * @param nThreads number of inflating threads
+	 */
+	public ParallelBgzfInputStream(final InputStream in,final int nThreads)
+		{
+		this.in = in;
+		final int n = Math.max(1, nThreads);
+		this.maxPendingBlocks = n * 4;
+		this.pending = new ArrayDeque<>(this.maxPendingBlocks);
+		this.executor = Executors.newFixedThreadPool(n,R->{
+			final Thread t = new Thread(R,"bgzf-inflater");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+	
+	/** return true if the first bytes of a stream look like a BGZF header */
+	public static boolean isBgzfHeader(final byte[] b,final int len)
+		{
+		return len >= BGZF_HEADER_SIZE &&
+			b[0] == (byte)GZIPInputStream.GZIP_MAGIC &&
+			b[1] == (byte)(GZIPInputStream.GZIP_MAGIC >> 8) &&
+			(b[3] & 4) != 0 && /* FEXTRA */
+			b[10] == 6 && b[11] == 0 && /* XLEN */
+			b[12] == 'B' && b[13] == 'C' &&
+			b[14] == 2 && b[15] == 0
+			;
+		}
+	
+	/** number of blocks uncompressed so far */
+	public long getBlockCount()
+		{
+		return this.blockCount;
+		}
+	
+	private static int readFully(final InputStream in,final byte[] b,int off,final int len) throws IOException
+		{
+		int n = 0;
+		while(n < len)
+			{
+			final int c = in.read(b, off + n, len - n);
+			if(c==-1) break;
+			n+=c;
+			}
+		return n;
+		}
+	
+	/** read the next compressed block, returns null at end of file */
+	private byte[] readCompressedBlock() throws IOException
+		{
+		final byte[] header = new byte[BGZF_HEADER_SIZE];
+		final int n = readFully(this.in, header, 0, header.length);
+		if(n==0) return null;
+		if(!isBgzfHeader(header, n))
+			{
+			throw new IOException("Not a valid BGZF block after block "+ this.blockCount);
+			}
+		final int blockSize = ((header[16] & 0xFF) | ((header[17] & 0xFF) << 8)) + 1;
+		if(blockSize < BGZF_HEADER_SIZE + 8) throw new IOException("Bad BGZF block size "+blockSize);
+		final byte[] block = new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, header.length);
+		if(readFully(this.in, block, header.length, blockSize - header.length) != blockSize - header.length)
+			{
+			throw new EOFException("Truncated BGZF block");
+			}
+		return block;
+		}
+	
+	/** inflate a BGZF block, called from the worker threads */
+	private static byte[] inflate(final byte[] block) throws IOException
+		{
+		final int len = block.length;
+		final int isize = (block[len-4] & 0xFF) | ((block[len-3] & 0xFF) << 8) | ((block[len-2] & 0xFF) << 16) | ((block[len-1] & 0xFF) << 24);
+		final int crc = (block[len-8] & 0xFF) | ((block[len-7] & 0xFF) << 8) | ((block[len-6] & 0xFF) << 16) | ((block[len-5] & 0xFF) << 24);
+		final byte[] out = new byte[isize];
+		final Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(block, BGZF_HEADER_SIZE, len - BGZF_HEADER_SIZE - 8);
+		try {
+			int n = 0;
+			while(n < isize)
+				{
+				final int c = inflater.inflate(out, n, isize - n);
+				if(c==0 && (inflater.finished() || inflater.needsInput())) break;
+				n += c;
+				}
+			if(n!=isize) throw new IOException("Expected "+isize+" uncompressed bytes but got "+n);
+			}
+		catch(final DataFormatException err)
+			{
+			throw new IOException(err);
+			}
+		final CRC32 crc32 = new CRC32();
+		crc32.update(out, 0, isize);
+		if((int)crc32.getValue()!=crc) throw new IOException("CRC mismatch in BGZF block");
+		return out;
+		}
+	
+	/** fill the queue of pending blocks and fetch the next uncompressed block. returns false at EOF */
+	private boolean fill() throws IOException
+		{
+		if(this.closed) throw new IOException("stream was closed");
+		while(this.current==null || this.currentPos>=this.current.length)
+			{
+			while(!this.eof && this.pending.size() < this.maxPendingBlocks)
+				{
+				final byte[] block = readCompressedBlock();
+				if(block==null)
+					{
+					this.eof = true;
+					}
+				else
+					{
+					this.pending.add(this.executor.submit(()->inflate(block)));
+					}
+				}
+			final Future<byte[]> future = this.pending.poll();
+			if(future==null) return false;
+			try {
+				this.current = future.get();
+				this.currentPos = 0;
+				this.blockCount++;
+				}
+			catch(final InterruptedException err)
+				{
+				throw new IOException(err);
+				}
+			catch(final ExecutionException err)
+				{
+				if(err.getCause() instanceof IOException) throw IOException.class.cast(err.getCause());
+				throw new IOException(err.getCause());
+				}
+			}
+		return true;
+		}
+	
+	@Override
+	public int read() throws IOException
+		{
+		if(!fill()) return -1;
+		return this.current[this.currentPos++] & 0xFF;
+		}
+	
+	@Override
+	public int read(final byte[] b,final int off,final int len) throws IOException
+		{
+		if(len==0) return 0;
+		if(!fill()) return -1;
+		final int n = Math.min(len, this.current.length - this.currentPos);
+		System.arraycopy(this.current, this.currentPos, b, off, n);
+		this.currentPos += n;
+		return n;
+		}
+	
+	@Override
+	public int available() throws IOException
+		{
+		return this.current==null?0:this.current.length - this.currentPos;
+		}
+	
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		this.closed = true;
+		this.pending.clear();
+		this.executor.shutdownNow();
+		this.in.close();
+		}
+	}
@@ -0,0 +1,276 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * An OutputStream writing BGZF. The uncompressed data are buffered into blocks
+ * that are deflated on a (possibly shared) pool of threads. The compressed blocks are written
+ * in their original order. The number of blocks waiting to be compressed is bounded.
+ * 
+ * The ExecutorService is not owned by this stream and is not shut down by {@link #close()}.
+ *
+ */
+public class ParallelBgzfOutputStream extends OutputStream
+	{
+	/** notified each time a compressed block is written to the output */
+	public interface BlockListener
+		{
+		/**
+		 * @param blockIndex 0-based index of the block. The last block is the empty BGZF terminator
+		 * @param address offset of the block in the compressed output
+		 */
+		public void blockWritten(long blockIndex,long address) throws IOException;
+		}
+	private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(()->new Deflater[10]);
+	private static final ThreadLocal<Deflater> NO_COMPRESSION_DEFLATERS = ThreadLocal.withInitial(()->new Deflater(Deflater.NO_COMPRESSION, true));
+	private final OutputStream out;
+	private final ExecutorService executor;
+	private final int compressionLevel;
+	private final int maxPendingBlocks;
+	private final ArrayDeque<Future<byte[]>> pending;
+	private byte[] buffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+	private int bufferLen = 0;
+	private long uncompressedCount = 0L;
+	private long compressedCount = 0L;
+	private long submittedBlocks = 0L;
+	private long writtenBlocks = 0L;
+	private BlockListener blockListener = null;
+	private final long startMillis = System.currentTimeMillis();
+	private boolean closed = false;
+	
+	/**
+	 * @param out the output stream receiving the BGZF blocks
+	 * @param executor the pool of threads deflating the blocks
+	 * @param compressionLevel deflater level (0-9)
+	 * @param maxPendingBlocks max number of blocks waiting to be compressed/written
+	 */
+	public ParallelBgzfOutputStream(final OutputStream out,final ExecutorService executor,final int compressionLevel,final int maxPendingBlocks)
+		{
+		this.out = out;
+		this.executor = executor;
+		this.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
+		this.maxPendingBlocks = Math.max(1, maxPendingBlocks);
+		this.pending = new ArrayDeque<>(this.maxPendingBlocks);
+		}
+	
+	public void setBlockListener(final BlockListener blockListener)
+		{
+		this.blockListener = blockListener;
+		}
+	
+	/** index of the block currently being filled. Its compressed address is only known when
+	 * the block is written, see {@link BlockListener} */
+	public long getCurrentBlockIndex()
+		{
+		return this.submittedBlocks;
+		}
+	
+	/** offset in the uncompressed block currently being filled. Always lower than the size of a block:
+	 * a full block is submitted as soon as it is filled */
+	public int getCurrentBlockOffset()
+		{
+		return this.bufferLen;
+		}
+	
+	/** number of uncompressed bytes received so far */
+	public long getUncompressedByteCount()
+		{
+		return this.uncompressedCount;
+		}
+	
+	/** number of compressed bytes written so far */
+	public long getCompressedByteCount()
+		{
+		return this.compressedCount;
+		}
+	
+	/** uncompressed throughput in bytes per second since the creation of this stream */
+	public double getThroughput()
+		{
+		final long millis = Math.max(1L, System.currentTimeMillis() - this.startMillis);
+		return this.uncompressedCount / (millis/1000.0);
+		}
+	
+	/** deflate 'len' bytes of 'data' into a BGZF block. called by the worker threads */
+	private static byte[] deflateBlock(final byte[] data,final int len,final int level)
+		{
+		final byte[] compressed = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+		final int headerLen = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+		final int maxDeflated = compressed.length - headerLen - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final Deflater[] deflaters = DEFLATERS.get();
+		if(deflaters[level]==null) deflaters[level] = new Deflater(level, true);
+		Deflater deflater = deflaters[level];
+		deflater.reset();
+		deflater.setInput(data, 0, len);
+		deflater.finish();
+		int deflatedLen = deflater.deflate(compressed, headerLen, maxDeflated);
+		if(!deflater.finished())
+			{
+			/* data don't compress: store it */
+			deflater = NO_COMPRESSION_DEFLATERS.get();
+			deflater.reset();
+			deflater.setInput(data, 0, len);
+			deflater.finish();
+			deflatedLen = deflater.deflate(compressed, headerLen, maxDeflated);
+			if(!deflater.finished()) throw new IllegalStateException("unpossible");
+			}
+		final int blockSize = headerLen + deflatedLen + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		/* gzip header with the BGZF extra field */
+		compressed[0] = BlockCompressedStreamConstants.GZIP_ID1;
+		compressed[1] = (byte)BlockCompressedStreamConstants.GZIP_ID2;
+		compressed[2] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+		compressed[3] = (byte)BlockCompressedStreamConstants.GZIP_FLG;
+		compressed[4] = compressed[5] = compressed[6] = compressed[7] = 0;/* mtime */
+		compressed[8] = (byte)BlockCompressedStreamConstants.GZIP_XFL;
+		compressed[9] = (byte)BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+		compressed[10] = (byte)BlockCompressedStreamConstants.GZIP_XLEN;
+		compressed[11] = 0;
+		compressed[12] = BlockCompressedStreamConstants.BGZF_ID1;
+		compressed[13] = BlockCompressedStreamConstants.BGZF_ID2;
+		compressed[14] = BlockCompressedStreamConstants.BGZF_LEN;
+		compressed[15] = 0;
+		writeInt16(compressed, 16, blockSize - 1);
+		/* footer */
+		final CRC32 crc32 = new CRC32();
+		crc32.update(data, 0, len);
+		writeInt32(compressed, headerLen + deflatedLen, (int)crc32.getValue());
+		writeInt32(compressed, headerLen + deflatedLen + 4, len);
+		return Arrays.copyOf(compressed, blockSize);
+		}
+	
+	private static void writeInt16(final byte[] b,final int off,final int v)
+		{
+		b[off] = (byte)(v & 0xFF);
+		b[off+1] = (byte)((v >> 8) & 0xFF);
+		}
+	
+	private static void writeInt32(final byte[] b,final int off,final int v)
+		{
+		writeInt16(b, off, v & 0xFFFF);
+		writeInt16(b, off+2, (v >> 16) & 0xFFFF);
+		}
+	
+	/** write the oldest pending block */
+	private void writePendingBlock() throws IOException
+		{
+		final Future<byte[]> future = this.pending.poll();
+		if(future==null) return;
+		try {
+			final byte[] block = future.get();
+			final long address = this.compressedCount;
+			this.out.write(block);
+			this.compressedCount += block.length;
+			if(this.blockListener!=null) this.blockListener.blockWritten(this.writtenBlocks, address);
+			this.writtenBlocks++;
+			}
+		catch(final InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err)
+			{
+			throw new IOException(err.getCause());
+			}
+		}
+	
+	/** send the current buffer to the pool of deflaters */
+	private void submitBuffer() throws IOException
+		{
+		if(this.bufferLen==0) return;
+		while(this.pending.size() >= this.maxPendingBlocks)
+			{
+			writePendingBlock();
+			}
+		final byte[] data = this.buffer;
+		final int len = this.bufferLen;
+		final int level = this.compressionLevel;
+		this.pending.add(this.executor.submit(()->deflateBlock(data, len, level)));
+		this.buffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+		this.bufferLen = 0;
+		this.submittedBlocks++;
+		}
+	
+	@Override
+	public void write(final int b) throws IOException
+		{
+		if(this.closed) throw new IOException("stream was closed");
+		this.buffer[this.bufferLen++] = (byte)b;
+		this.uncompressedCount++;
+		/* like BlockCompressedOutputStream, a full block is sent at once: the next byte is at offset 0 of the next block */
+		if(this.bufferLen == this.buffer.length) submitBuffer();
+		}
+	
+	@Override
+	public void write(final byte[] b,int off,int len) throws IOException
+		{
+		if(this.closed) throw new IOException("stream was closed");
+		while(len > 0)
+			{
+			final int n = Math.min(len, this.buffer.length - this.bufferLen);
+			System.arraycopy(b, off, this.buffer, this.bufferLen, n);
+			this.bufferLen += n;
+			this.uncompressedCount += n;
+			off += n;
+			len -= n;
+			if(this.bufferLen == this.buffer.length) submitBuffer();
+			}
+		}
+	
+	/** compress the current buffer and write all the pending blocks */
+	@Override
+	public void flush() throws IOException
+		{
+		submitBuffer();
+		while(!this.pending.isEmpty()) writePendingBlock();
+		this.out.flush();
+		}
+	
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		flush();
+		/* the terminator is a block too: the data ending at a block boundary end at offset 0 of this block */
+		final long address = this.compressedCount;
+		this.out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+		this.compressedCount += BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+		if(this.blockListener!=null) this.blockListener.blockWritten(this.writtenBlocks, address);
+		this.writtenBlocks++;
+		this.closed = true;
+		this.out.close();
+		}
+	}
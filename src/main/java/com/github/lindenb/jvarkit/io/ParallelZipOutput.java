@@ -0,0 +1,325 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * A zip writer where the entries can be written concurrently.
+ * 
+ * Each entry is deflated by the thread writing it, into a memory buffer, or into a temporary file
+ * when the compressed bytes buffered by all the open entries exceed 'maxMemory'.
+ * When an entry is closed, its compressed data are appended to the zip: the entries appear in the
+ * zip in the order they were closed. ZIP64 is used when needed.
+ * 
+ * {@link #openEntry(String)} is thread-safe, but a stream returned by this method must be used by only one thread.
+ */
+public class ParallelZipOutput implements Closeable {
+	/** max number of compressed bytes kept in memory by all the open entries */
+	public static final String MAX_MEMORY_PROPERTY = "jvarkit.zip.max.memory";
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private final OutputStream out;
+	private long position = 0L;
+	private final List<CentralRecord> centralDirectory = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private final long maxMemory;
+	private final AtomicLong memoryUsed = new AtomicLong(0L);
+	private final int compressionLevel;
+	private boolean closed = false;
+	
+	/** info saved for the central directory */
+	private static class CentralRecord {
+		byte[] name;
+		long crc;
+		long compressedSize;
+		long size;
+		long offset;
+		int dosTime;
+		}
+	
+	public ParallelZipOutput(final File zipFile) throws IOException {
+		this(zipFile,
+			Long.parseLong(System.getProperty(MAX_MEMORY_PROPERTY, String.valueOf(64L*1024L*1024L))),
+			Deflater.DEFAULT_COMPRESSION
+			);
+		}
+	
+	public ParallelZipOutput(final File zipFile,final long maxMemory,final int compressionLevel) throws IOException {
+		this.out = new BufferedOutputStream(new FileOutputStream(zipFile), 1<<16);
+		this.maxMemory = maxMemory;
+		this.compressionLevel = compressionLevel;
+		}
+	
+	/** open a new entry. The entry is added to the zip when the returned stream is closed */
+	public OutputStream openEntry(String filename) throws IOException {
+		while(filename.startsWith("/")) filename=filename.substring(1);
+		synchronized (this) {
+			if(this.closed) throw new IOException("zip was closed");
+			if(!this.names.add(filename)) throw new ZipException("duplicate entry: "+filename);
+			}
+		return new EntryOutputStream(filename);
+		}
+	
+	private class EntryOutputStream extends OutputStream {
+		private final String filename;
+		private final int dosTime = toDosTime(System.currentTimeMillis());
+		private final Deflater deflater = new Deflater(ParallelZipOutput.this.compressionLevel, true);
+		private final CRC32 crc = new CRC32();
+		private final byte[] buffer = new byte[8192];
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+		private File tmpFile = null;
+		private OutputStream fileOut = null;
+		private long reserved = 0L;
+		private long size = 0L;
+		private long compressedSize = 0L;
+		private boolean entryClosed = false;
+		
+		EntryOutputStream(final String filename) {
+			this.filename = filename;
+			}
+		
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+			}
+		
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if(this.entryClosed) throw new IOException("entry "+filename+" was closed");
+			if(len<=0) return;
+			this.crc.update(b, off, len);
+			this.size += len;
+			this.deflater.setInput(b, off, len);
+			while(!this.deflater.needsInput()) {
+				drain(this.deflater.deflate(this.buffer, 0, this.buffer.length, Deflater.NO_FLUSH));
+				}
+			}
+		
+		/** save the compressed bytes in memory, or in the tmp file if there is no more memory available */
+		private void drain(final int n) throws IOException {
+			if(n<=0) return;
+			this.compressedSize += n;
+			if(this.memory!=null) {
+				if(memoryUsed.addAndGet(n) <= maxMemory) {
+					this.reserved += n;
+					this.memory.write(this.buffer, 0, n);
+					return;
+					}
+				memoryUsed.addAndGet(-n);
+				// spill to disk
+				this.tmpFile = File.createTempFile("tmp.", ".zipentry");
+				this.tmpFile.deleteOnExit();
+				this.fileOut = new BufferedOutputStream(new FileOutputStream(this.tmpFile));
+				this.memory.writeTo(this.fileOut);
+				this.memory = null;
+				memoryUsed.addAndGet(-this.reserved);
+				this.reserved = 0L;
+				}
+			this.fileOut.write(this.buffer, 0, n);
+			}
+		
+		@Override
+		public void close() throws IOException {
+			if(this.entryClosed) return;
+			this.entryClosed = true;
+			try {
+				this.deflater.finish();
+				while(!this.deflater.finished()) {
+					drain(this.deflater.deflate(this.buffer));
+					}
+				if(this.fileOut!=null) this.fileOut.close();
+				append(this);
+				}
+			finally
+				{
+				this.deflater.end();
+				this.memory = null;
+				memoryUsed.addAndGet(-this.reserved);
+				this.reserved = 0L;
+				if(this.tmpFile!=null) this.tmpFile.delete();
+				}
+			}
+		}
+	
+	/** append a closed entry to the zip */
+	private synchronized void append(final EntryOutputStream e) throws IOException {
+		if(this.closed) throw new IOException("zip was closed before entry "+e.filename);
+		final CentralRecord rec = new CentralRecord();
+		rec.name = e.filename.getBytes(StandardCharsets.UTF_8);
+		rec.crc = e.crc.getValue();
+		rec.compressedSize = e.compressedSize;
+		rec.size = e.size;
+		rec.offset = this.position;
+		rec.dosTime = e.dosTime;
+		final boolean zip64 = rec.size >= ZIP64_MAGIC || rec.compressedSize >= ZIP64_MAGIC;
+		
+		// local file header
+		writeInt(0x04034b50L);
+		writeShort(zip64?45:20);
+		writeShort(0x0800);// UTF-8 names
+		writeShort(8);// deflated
+		writeInt(rec.dosTime & 0xFFFFFFFFL);
+		writeInt(rec.crc);
+		writeInt(zip64?ZIP64_MAGIC:rec.compressedSize);
+		writeInt(zip64?ZIP64_MAGIC:rec.size);
+		writeShort(rec.name.length);
+		writeShort(zip64?20:0);
+		writeBytes(rec.name);
+		if(zip64) {
+			writeShort(0x0001);
+			writeShort(16);
+			writeLong(rec.size);
+			writeLong(rec.compressedSize);
+			}
+		// data
+		if(e.memory!=null) {
+			e.memory.writeTo(this.out);
+			this.position += e.memory.size();
+			}
+		else
+			{
+			this.position += Files.copy(e.tmpFile.toPath(), this.out);
+			}
+		this.centralDirectory.add(rec);
+		}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		final long cdOffset = this.position;
+		for(final CentralRecord rec: this.centralDirectory) {
+			final boolean zip64 = rec.size >= ZIP64_MAGIC || rec.compressedSize >= ZIP64_MAGIC || rec.offset >= ZIP64_MAGIC;
+			writeInt(0x02014b50L);
+			writeShort(zip64?45:20);
+			writeShort(zip64?45:20);
+			writeShort(0x0800);
+			writeShort(8);
+			writeInt(rec.dosTime & 0xFFFFFFFFL);
+			writeInt(rec.crc);
+			writeInt(zip64?ZIP64_MAGIC:rec.compressedSize);
+			writeInt(zip64?ZIP64_MAGIC:rec.size);
+			writeShort(rec.name.length);
+			writeShort(zip64?28:0);
+			writeShort(0);// comment
+			writeShort(0);// disk
+			writeShort(0);// internal attributes
+			writeInt(0L);// external attributes
+			writeInt(zip64?ZIP64_MAGIC:rec.offset);
+			writeBytes(rec.name);
+			if(zip64) {
+				writeShort(0x0001);
+				writeShort(24);
+				writeLong(rec.size);
+				writeLong(rec.compressedSize);
+				writeLong(rec.offset);
+				}
+			}
+		final long cdSize = this.position - cdOffset;
+		final long nEntries = this.centralDirectory.size();
+		if(nEntries >= 0xFFFF || cdSize >= ZIP64_MAGIC || cdOffset >= ZIP64_MAGIC) {
+			final long zip64EndOffset = this.position;
+			// zip64 end of central directory record
+			writeInt(0x06064b50L);
+			writeLong(44L);
+			writeShort(45);
+			writeShort(45);
+			writeInt(0L);
+			writeInt(0L);
+			writeLong(nEntries);
+			writeLong(nEntries);
+			writeLong(cdSize);
+			writeLong(cdOffset);
+			// zip64 end of central directory locator
+			writeInt(0x07064b50L);
+			writeInt(0L);
+			writeLong(zip64EndOffset);
+			writeInt(1L);
+			}
+		// end of central directory record
+		writeInt(0x06054b50L);
+		writeShort(0);
+		writeShort(0);
+		writeShort((int)Math.min(nEntries, 0xFFFF));
+		writeShort((int)Math.min(nEntries, 0xFFFF));
+		writeInt(Math.min(cdSize, ZIP64_MAGIC));
+		writeInt(Math.min(cdOffset, ZIP64_MAGIC));
+		writeShort(0);
+		this.out.flush();
+		this.out.close();
+		this.centralDirectory.clear();
+		}
+	
+	private void writeShort(final int v) throws IOException {
+		this.out.write(v & 0xFF);
+		this.out.write((v >>> 8) & 0xFF);
+		this.position += 2;
+		}
+	
+	private void writeInt(final long v) throws IOException {
+		writeShort((int)(v & 0xFFFF));
+		writeShort((int)((v >>> 16) & 0xFFFF));
+		}
+	
+	private void writeLong(final long v) throws IOException {
+		writeInt(v & ZIP64_MAGIC);
+		writeInt(v >>> 32);
+		}
+	
+	private void writeBytes(final byte[] b) throws IOException {
+		this.out.write(b);
+		this.position += b.length;
+		}
+	
+	private static int toDosTime(final long millis) {
+		final Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(millis);
+		final int year = c.get(Calendar.YEAR);
+		if(year < 1980) return (1 << 21) | (1 << 16);
+		return (year - 1980) << 25 |
+			(c.get(Calendar.MONTH) + 1) << 21 |
+			c.get(Calendar.DAY_OF_MONTH) << 16 |
+			c.get(Calendar.HOUR_OF_DAY) << 11 |
+			c.get(Calendar.MINUTE) << 5 |
+			c.get(Calendar.SECOND) >> 1;
+		}
+	}
@@ -0,0 +1,228 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.lang;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+import com.github.lindenb.jvarkit.util.JVarkitVersion;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.StringUtil;
+
+/**
+ * On-disk cache of the jars produced by {@link OpenJdkCompiler} and {@link InMemoryCompiler}.
+ * 
+ * The key of an entry is a hash of the java source (where the name of the class and the date of the
+ * '@Generated' annotation are ignored), of the version of java and of the version of jvarkit.
+ * Each entry is a jar 'key.jar' and a file 'key.txt' containing the name of the compiled class.
+ * When the total size of the jars is larger than the limit, the least recently used entries are removed.
+ * 
+ * The cache is shared by all the processes of the user and can be configured with the following java properties:
+ * <ul>
+ * <li>-Djvarkit.compiler.cache=false disable the cache</li>
+ * <li>-Djvarkit.compiler.cache.dir=dir cache directory. Default is ~/.cache/jvarkit/classes</li>
+ * <li>-Djvarkit.compiler.cache.max.size=bytes max size of the cache. Default is 100Mb</li>
+ * </ul>
+ */
+public class CompiledClassCache {
+	private static final Logger LOG = Logger.build(CompiledClassCache.class).make();
+	public static final String ENABLE_PROPERTY = "jvarkit.compiler.cache";
+	public static final String DIRECTORY_PROPERTY = "jvarkit.compiler.cache.dir";
+	public static final String MAX_SIZE_PROPERTY = "jvarkit.compiler.cache.max.size";
+	private static final long DEFAULT_MAX_SIZE = 100L*1024L*1024L;
+	private static final Pattern GENERATED_DATE = Pattern.compile("date=\"[^\"]*\"");
+	private static CompiledClassCache INSTANCE = null;
+	private static boolean INSTANCE_CREATED = false;
+	
+	private final File directory;
+	private final long maxSize;
+	
+	/** a cached jar and the name of the compiled class */
+	public static class Entry {
+		private final File jarFile;
+		private final String className;
+		private Entry(final File jarFile,final String className) {
+			this.jarFile = jarFile;
+			this.className = className;
+			}
+		public File getJarFile() {
+			return this.jarFile;
+			}
+		public String getClassName() {
+			return this.className;
+			}
+		}
+	
+	public CompiledClassCache(final File directory,final long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		}
+	
+	/** get the default cache, configured with the java properties. Returns null if the cache is disabled or cannot be created */
+	public static CompiledClassCache getDefault() {
+		synchronized (CompiledClassCache.class) {
+			if(!INSTANCE_CREATED) {
+				INSTANCE_CREATED = true;
+				INSTANCE = createDefault();
+				}
+			return INSTANCE;
+			}
+		}
+	
+	private static CompiledClassCache createDefault() {
+		try {
+			if(System.getProperty(ENABLE_PROPERTY,"true").equals("false")) return null;
+			final String dirStr = System.getProperty(DIRECTORY_PROPERTY,"");
+			final File dir = StringUtil.isBlank(dirStr)?
+					new File(new File(new File(System.getProperty("user.home"),".cache"),"jvarkit"),"classes"):
+					new File(dirStr);
+			if(!dir.exists() && !dir.mkdirs()) {
+				LOG.warn("cannot create compiler cache directory "+dir);
+				return null;
+				}
+			if(!dir.isDirectory() || !dir.canWrite()) {
+				LOG.warn("compiler cache "+dir+" is not a writable directory");
+				return null;
+				}
+			final long maxSize = Long.parseLong(System.getProperty(MAX_SIZE_PROPERTY,String.valueOf(DEFAULT_MAX_SIZE)));
+			return new CompiledClassCache(dir, maxSize);
+			}
+		catch(final RuntimeException err) {
+			LOG.warn("cannot create compiler cache: "+err.getMessage());
+			return null;
+			}
+		}
+	
+	public File getDirectory() {
+		return this.directory;
+		}
+	
+	/** compute the key for a class */
+	public String getKey(final String className,final String javaCode) {
+		final String normalized = GENERATED_DATE.matcher(javaCode.replace(className, "__CLASSNAME__")).replaceAll("date=\"\"");
+		final JVarkitVersion version = JVarkitVersion.getInstance();
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for(final String s: new String[] {
+					normalized,
+					System.getProperty("java.version",""),
+					System.getProperty("java.vendor",""),
+					version.getGitHash(),
+					version.getCompilationDate(),
+					version.getHtsjdkVersion()
+					}) {
+				md.update(s.getBytes(StandardCharsets.UTF_8));
+				md.update((byte)0);
+				}
+			final StringBuilder sb = new StringBuilder(40);
+			for(final byte b: md.digest()) {
+				sb.append(String.format("%02x", b));
+				}
+			return sb.toString();
+			}
+		catch(final NoSuchAlgorithmException err) {
+			throw new RuntimeException(err);
+			}
+		}
+	
+	/** return the cached entry for this key or null */
+	public Entry get(final String key) {
+		final File jarFile = new File(this.directory,key+".jar");
+		final File nameFile = new File(this.directory,key+".txt");
+		try {
+			if(!jarFile.exists() || !nameFile.exists()) return null;
+			final String className = new String(Files.readAllBytes(nameFile.toPath()),StandardCharsets.UTF_8).trim();
+			if(StringUtil.isBlank(className)) return null;
+			// least recently used
+			jarFile.setLastModified(System.currentTimeMillis());
+			return new Entry(jarFile, className);
+			}
+		catch(final IOException err) {
+			LOG.warn("cannot read compiler cache entry "+key+": "+err.getMessage());
+			return null;
+			}
+		}
+	
+	/** remove an invalid entry */
+	public void remove(final String key) {
+		new File(this.directory,key+".jar").delete();
+		new File(this.directory,key+".txt").delete();
+		}
+	
+	/** copy the jar containing the class 'className' into the cache */
+	public void put(final String key,final String className,final File jarFile) {
+		File tmp1 = null;
+		File tmp2 = null;
+		try {
+			// other processes may read the cache, the files are moved atomically
+			tmp1 = File.createTempFile("tmp.", ".txt", this.directory);
+			Files.write(tmp1.toPath(), className.getBytes(StandardCharsets.UTF_8));
+			tmp2 = File.createTempFile("tmp.", ".jar.tmp", this.directory);
+			Files.copy(jarFile.toPath(), tmp2.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(tmp1.toPath(), new File(this.directory,key+".txt").toPath(), StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+			tmp1 = null;
+			Files.move(tmp2.toPath(), new File(this.directory,key+".jar").toPath(), StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+			tmp2 = null;
+			}
+		catch(final IOException err) {
+			LOG.warn("cannot write compiler cache entry "+key+": "+err.getMessage());
+			}
+		finally
+			{
+			if(tmp1!=null) tmp1.delete();
+			if(tmp2!=null) tmp2.delete();
+			}
+		evict();
+		}
+	
+	/** remove the least recently used entries until the size of the cache is lower than the limit */
+	private void evict() {
+		final File jars[] = this.directory.listFiles(F->F.getName().endsWith(".jar") && F.isFile());
+		if(jars==null) return;
+		long total = Arrays.stream(jars).mapToLong(F->F.length()).sum();
+		if(total <= this.maxSize) return;
+		Arrays.sort(jars,Comparator.comparingLong(F->F.lastModified()));
+		for(final File jar:jars) {
+			if(total <= this.maxSize) break;
+			total -= jar.length();
+			final String name = jar.getName();
+			remove(name.substring(0, name.length()-4));
+			}
+		}
+	
+	@Override
+	public String toString() {
+		return "CompiledClassCache("+this.directory+")";
+		}
+	}
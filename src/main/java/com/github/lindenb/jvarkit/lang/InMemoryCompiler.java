@@ -27,6 +27,8 @@ package com.github.lindenb.jvarkit.lang;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -42,6 +44,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 
@@ -87,6 +92,32 @@ public class InMemoryCompiler {
 	    void addClass(final String name,final MemoryByteCode mbc) {       
 	    	this.class2code.put(name, mbc);   
 	    	}
+	    
+	    /** save the compiled classes in a jar */
+	    void writeJar(final File jarFile) throws IOException {
+	    	try(JarOutputStream jos = new JarOutputStream(new FileOutputStream(jarFile))) {
+	    		for(final String name:this.class2code.keySet()) {
+	    			jos.putNextEntry(new JarEntry(name.replace('.', '/')+".class"));
+	    			jos.write(this.class2code.get(name).getBytes());
+	    			jos.closeEntry();
+	    			}
+	    		}
+	    	}
+	    
+	    /** load the classes saved with writeJar */
+	    void readJar(final File jarFile) throws IOException {
+	    	try(JarInputStream jis = new JarInputStream(new FileInputStream(jarFile))) {
+	    		JarEntry entry;
+	    		while((entry=jis.getNextJarEntry())!=null) {
+	    			final String path = entry.getName();
+	    			if(!path.endsWith(".class")) continue;
+	    			final String name = path.substring(0, path.length()-6).replace('/', '.');
+	    			final MemoryByteCode mbc = new MemoryByteCode(name);
+	    			IOUtil.copyStream(jis, mbc.openOutputStream());
+	    			addClass(name, mbc);
+	    			}
+	    		}
+	    	}
 		}
 	
 	/** custom SimpleJavaFileObject storing code in memory */ 
@@ -156,9 +187,27 @@ public class InMemoryCompiler {
 	    }
 	}
 	 
-	/** compile a new class */
+	/** compile a new class. The bytecode may come from the {@link CompiledClassCache}, so the name of the returned class can be different from 'className' */
 	public Class<?> compileClass(final String className,final String javaCode)
 		{
+		final CompiledClassCache cache = CompiledClassCache.getDefault();
+		final String cacheKey = (cache==null?null:cache.getKey(className, javaCode));
+		if(cache!=null) {
+			final CompiledClassCache.Entry entry = cache.get(cacheKey);
+			if(entry!=null) {
+				try {
+					final SpecialClassLoader cl = new SpecialClassLoader();
+					cl.readJar(entry.getJarFile());
+					final Class<?> compiledClass = cl.findClass(entry.getClassName());
+					LOG.debug("loaded "+entry.getClassName()+" from "+cache);
+					return compiledClass;
+					}
+				catch(final Exception|LinkageError err) {
+					LOG.warn("cannot load "+entry.getClassName()+" from "+cache+", compiling it again. "+err.getMessage());
+					cache.remove(cacheKey);
+					}
+				}
+			}
 		 try{           
 			final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
 			if(javac==null)
@@ -223,6 +272,17 @@ public class InMemoryCompiler {
 					err, (JavaFileManager) fileManager, dianosticListener,
 					options, classes, compilationUnits);
 			if (compile.call()) {
+				if(cache!=null) {
+					final File jarFile = File.createTempFile("jvarkit", ".jar");
+					try {
+						cl.writeJar(jarFile);
+						cache.put(cacheKey, className, jarFile);
+						}
+					finally
+						{
+						jarFile.delete();
+						}
+					}
 				return cl.findClass(className);
 				}
 			else
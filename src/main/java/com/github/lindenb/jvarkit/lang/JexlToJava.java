@@ -0,0 +1,776 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.lang;
+
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.commons.jexl2.parser.ASTAdditiveNode;
+import org.apache.commons.jexl2.parser.ASTAdditiveOperator;
+import org.apache.commons.jexl2.parser.ASTAndNode;
+import org.apache.commons.jexl2.parser.ASTDivNode;
+import org.apache.commons.jexl2.parser.ASTEQNode;
+import org.apache.commons.jexl2.parser.ASTFalseNode;
+import org.apache.commons.jexl2.parser.ASTGENode;
+import org.apache.commons.jexl2.parser.ASTGTNode;
+import org.apache.commons.jexl2.parser.ASTIdentifier;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.apache.commons.jexl2.parser.ASTLENode;
+import org.apache.commons.jexl2.parser.ASTLTNode;
+import org.apache.commons.jexl2.parser.ASTMethodNode;
+import org.apache.commons.jexl2.parser.ASTModNode;
+import org.apache.commons.jexl2.parser.ASTMulNode;
+import org.apache.commons.jexl2.parser.ASTNENode;
+import org.apache.commons.jexl2.parser.ASTNotNode;
+import org.apache.commons.jexl2.parser.ASTNullLiteral;
+import org.apache.commons.jexl2.parser.ASTNumberLiteral;
+import org.apache.commons.jexl2.parser.ASTOrNode;
+import org.apache.commons.jexl2.parser.ASTReference;
+import org.apache.commons.jexl2.parser.ASTReferenceExpression;
+import org.apache.commons.jexl2.parser.ASTStringLiteral;
+import org.apache.commons.jexl2.parser.ASTTernaryNode;
+import org.apache.commons.jexl2.parser.ASTTrueNode;
+import org.apache.commons.jexl2.parser.ASTUnaryMinusNode;
+import org.apache.commons.jexl2.parser.JexlNode;
+import org.apache.commons.jexl2.parser.Parser;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+/**
+ * Translates a JEXL expression into a java expression that can be compiled
+ * with {@link InMemoryCompiler}.
+ * 
+ * Only a subset of JEXL is supported: the variables declared with 'bind', literals,
+ * boolean, comparison and arithmetic operators, the ternary operator and the calls
+ * of public methods/getters that can be resolved from the static type of their target.
+ * Anything else throws an {@link UnsupportedJexlException} and the caller
+ * should keep on interpreting the expression.
+ * 
+ * Constant sub-expressions are folded and, in a chain of '&&' or '||', the operands 
+ * that cannot throw and have no side effect are sorted by increasing estimated cost so the cheapest
+ * tests short-circuit the most expensive ones. A method call is only known to be such an operand
+ * if it was declared with 'safe' (e.g. SAMRecord.getFirstOfPairFlag() throws on an unpaired read and
+ * must not be moved before 'getReadPairedFlag()'): the other operands keep their source order.
+ * 
+ * Because the generated code may still diverge from the interpreter on some corner cases
+ * (e.g. null values, arithmetic errors), the callers should re-evaluate the original
+ * JEXL expression when the compiled code throws a RuntimeException.
+ */
+public class JexlToJava {
+	private static final Logger LOG = Logger.build(JexlToJava.class).make();
+	/** system property enabling the compilation of the JEXL expressions */
+	public static final String COMPILE_PROPERTY = "jvarkit.jexl.compile";
+	private static final AtomicLong ID_GENERATOR = new AtomicLong(0L);
+	/** cost of a call to a getter */
+	private static final int GETTER_COST = 2;
+	/** cost of a call to any other method */
+	private static final int METHOD_COST = 10;
+	/** marker type for the 'null' literal */
+	private static final class NullType {}
+	
+	/** thrown when a JEXL expression cannot be translated */
+	@SuppressWarnings("serial")
+	public static class UnsupportedJexlException extends UnsupportedOperationException {
+		public UnsupportedJexlException(final String msg) {
+			super(msg);
+			}
+		}
+	
+	/** a named variable available in the expression */
+	private static class Binding {
+		final Class<?> type;
+		final String code;
+		final int cost;
+		Binding(final Class<?> type,final String code,final int cost) {
+			this.type = type;
+			this.code = code;
+			this.cost = cost;
+			}
+		}
+	
+	/** result of the translation of a JEXL node */
+	private static class Code {
+		final String java;
+		final Class<?> type;
+		final int cost;
+		/** evaluation cannot throw an exception and has no side effect */
+		final boolean safe;
+		/** evaluation never returns null */
+		final boolean nonNull;
+		final boolean constant;
+		final Object value;
+		Code(final String java,final Class<?> type,final int cost,final boolean safe,final boolean nonNull) {
+			this.java = java;
+			this.type = type;
+			this.cost = cost;
+			this.safe = safe;
+			this.nonNull = nonNull || type.isPrimitive();
+			this.constant = false;
+			this.value = null;
+			}
+		Code(final Object value) {
+			this.java = literal(value);
+			this.type = typeOf(value);
+			this.cost = 0;
+			this.safe = true;
+			this.nonNull = value!=null;
+			this.constant = true;
+			this.value = value;
+			}
+		/** true if this code can be used as a primitive without any risk of NullPointerException */
+		boolean isSafePrimitive() {
+			return this.safe && !isBoxed(this.type);
+			}
+		}
+	
+	private final Map<String,Binding> bindings = new HashMap<>();
+	/** type -> names of the methods without argument that never throw and have no side effect */
+	private final Map<Class<?>,Set<String>> safeMethods = new HashMap<>();
+	
+	public JexlToJava() {
+		safe(String.class,"length","isEmpty");
+		}
+	/** @return true if the system property {@value #COMPILE_PROPERTY} is set to 'true' */
+	public static boolean isCompilationEnabled() {
+		return System.getProperty(COMPILE_PROPERTY,"").equals("true");
+		}
+	
+	/** declare a variable named 'name', of type 'type' that will be translated to 'javaCode' */
+	public JexlToJava bind(final String name,final Class<?> type,final String javaCode) {
+		return bind(name,type,javaCode,0);
+		}
+	
+	/** declare a variable named 'name', of type 'type' that will be translated to 'javaCode'
+	 * with an estimated evaluation cost. 'javaCode' must never return null and must not have any side effect.
+	 */
+	public JexlToJava bind(final String name,final Class<?> type,final String javaCode,int cost) {
+		this.bindings.put(name, new Binding(type, javaCode, cost));
+		return this;
+		}
+	
+	/** declare the methods of 'type' (and of its subclasses) without argument that never throw and have no side effect.
+	 * Only those calls can be reordered in a chain of '&&' or '||'.
+	 */
+	public JexlToJava safe(final Class<?> type,final String...methodNames) {
+		this.safeMethods.computeIfAbsent(type, K->new HashSet<>()).addAll(Arrays.asList(methodNames));
+		return this;
+		}
+	
+	/** was 'method' invoked on an instance of 'targetType' declared with 'safe' */
+	private boolean isSafeMethod(final Class<?> targetType,final Method method) {
+		if(method.getParameterCount()!=0) return false;
+		for(final Map.Entry<Class<?>,Set<String>> kv:this.safeMethods.entrySet()) {
+			if(kv.getKey().isAssignableFrom(targetType) && kv.getValue().contains(method.getName())) return true;
+			}
+		return false;
+		}
+	
+	/** translate a JEXL expression to a java boolean expression.
+	 * @param jexl the JEXL expression
+	 * @param integerIsBoolean if true, an integer result is converted to a boolean as 'value!=0'
+	 * @return the java code
+	 * @throws UnsupportedJexlException if the expression cannot be translated 
+	 */
+	public String toJavaBoolean(final String jexl,final boolean integerIsBoolean) {
+		final Code code = translate(parse(jexl));
+		if(code.type.equals(boolean.class)) {
+			return code.java;
+			}
+		if(integerIsBoolean && isIntegral(code.type) && !isBoxed(code.type)) {
+			return JexlToJava.class.getName()+".nonZeroInt("+code.java+")";
+			}
+		throw new UnsupportedJexlException("expression doesn't return a boolean but a "+code.type.getName());
+		}
+	
+	/** compile and instanciate a class
+	 * @param implementsClause the interfaces implemented by the class e.g 'java.util.function.Predicate&lt;String&gt;'
+	 * @param body the body of the class
+	 * @return a new instance of the class
+	 */
+	@SuppressWarnings("deprecation")
+	public static Object compile(final String implementsClause,final String body) {
+		final String className = "JexlCompiled"+ID_GENERATOR.incrementAndGet();
+		final String code = "public class "+className+" implements "+implementsClause+" {\n"+
+				body+
+				"\n}\n";
+		LOG.debug("Compiling\n" + InMemoryCompiler.beautifyCode(code));
+		final Class<?> clazz = new InMemoryCompiler().compileClass(className, code);
+		try {
+			return clazz.getConstructor().newInstance();
+			}
+		catch(final ReflectiveOperationException err) {
+			throw new RuntimeException("Cannot instanciate "+className, err);
+			}
+		}
+	
+	/** used by the generated code: JEXL only converts an Integer to a boolean, a Long throws an exception */
+	public static boolean nonZeroInt(final long v) {
+		if(v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw new IllegalArgumentException("not an integer "+v);
+		return v!=0L;
+		}
+	/** used by the generated code: JEXL division by zero throws an exception */
+	public static double div(final double a,final double b) {
+		if(b==0.0) throw new ArithmeticException("/");
+		return a/b;
+		}
+	/** used by the generated code: JEXL uses BigInteger.mod */
+	public static long mod(final long a,final long b) {
+		if(b<=0L) throw new ArithmeticException("%");
+		return Math.floorMod(a, b);
+		}
+	/** used by the generated code: JEXL modulo by zero throws an exception */
+	public static double mod(final double a,final double b) {
+		if(b==0.0) throw new ArithmeticException("%");
+		return a%b;
+		}
+	
+	private static JexlNode parse(final String jexl) {
+		final ASTJexlScript script;
+		try {
+			script = new Parser(new StringReader(";")).parse(new StringReader(jexl), null);
+			}
+		catch(final Exception err) {
+			throw new UnsupportedJexlException("Cannot parse "+jexl+" : "+err.getMessage());
+			}
+		if(script.jjtGetNumChildren()!=1) throw new UnsupportedJexlException("expected one statement in "+jexl);
+		return script.jjtGetChild(0);
+		}
+	
+	private static Class<?> unboxed(final Class<?> c) {
+		if(c.equals(Integer.class)) return int.class;
+		if(c.equals(Long.class)) return long.class;
+		if(c.equals(Short.class)) return short.class;
+		if(c.equals(Byte.class)) return byte.class;
+		if(c.equals(Float.class)) return float.class;
+		if(c.equals(Double.class)) return double.class;
+		if(c.equals(Boolean.class)) return boolean.class;
+		if(c.equals(Character.class)) return char.class;
+		return c;
+		}
+	private static boolean isBoxed(final Class<?> c) {
+		return !c.equals(unboxed(c));
+		}
+	private static boolean isIntegral(final Class<?> c) {
+		final Class<?> u = unboxed(c);
+		return u.equals(int.class) || u.equals(long.class) || u.equals(short.class) || u.equals(byte.class);
+		}
+	private static boolean isFloating(final Class<?> c) {
+		final Class<?> u = unboxed(c);
+		return u.equals(float.class) || u.equals(double.class);
+		}
+	private static boolean isNumeric(final Class<?> c) {
+		return isIntegral(c) || isFloating(c);
+		}
+	private static boolean isBoolean(final Class<?> c) {
+		return unboxed(c).equals(boolean.class);
+		}
+	/** rank for the widening primitive conversions */
+	private static int numericRank(final Class<?> c) {
+		final Class<?> u = unboxed(c);
+		if(u.equals(byte.class)) return 0;
+		if(u.equals(short.class)) return 1;
+		if(u.equals(int.class)) return 2;
+		if(u.equals(long.class)) return 3;
+		if(u.equals(float.class)) return 4;
+		if(u.equals(double.class)) return 5;
+		return -1;
+		}
+	
+	private static Class<?> typeOf(final Object o) {
+		if(o==null) return NullType.class;
+		return unboxed(o.getClass());
+		}
+	
+	/** convert a constant to a java literal */
+	private static String literal(final Object o) {
+		if(o==null) return "null";
+		if(o instanceof Boolean) return o.toString();
+		if(o instanceof String) return quote(String.class.cast(o));
+		if(o instanceof Integer) {
+			final int v = Integer.class.cast(o);
+			return v<0?"("+v+")":String.valueOf(v);
+			}
+		if(o instanceof Long) {
+			final long v = Long.class.cast(o);
+			return v<0L?"("+v+"L)":v+"L";
+			}
+		if(o instanceof Float) {
+			final float v = Float.class.cast(o);
+			if(Float.isNaN(v)) return "Float.NaN";
+			if(Float.isInfinite(v)) return v>0?"Float.POSITIVE_INFINITY":"Float.NEGATIVE_INFINITY";
+			final String s = Float.toString(v)+"f";
+			return s.startsWith("-")?"("+s+")":s;
+			}
+		if(o instanceof Double) {
+			final double v = Double.class.cast(o);
+			if(Double.isNaN(v)) return "Double.NaN";
+			if(Double.isInfinite(v)) return v>0?"Double.POSITIVE_INFINITY":"Double.NEGATIVE_INFINITY";
+			final String s = Double.toString(v)+"d";
+			return s.startsWith("-")?"("+s+")":s;
+			}
+		throw new UnsupportedJexlException("unsupported literal "+o.getClass());
+		}
+	
+	private static String quote(final String s) {
+		final StringBuilder sb = new StringBuilder(s.length()+2);
+		sb.append('\"');
+		for(int i=0;i< s.length();i++) {
+			final char c = s.charAt(i);
+			switch(c) {
+				case '\"': sb.append("\\\"");break;
+				case '\\': sb.append("\\\\");break;
+				case '\n': sb.append("\\n");break;
+				case '\r': sb.append("\\r");break;
+				case '\t': sb.append("\\t");break;
+				default:
+					if(c<32 || c>126) {
+						sb.append(String.format("\\u%04x", (int)c));
+						}
+					else
+						{
+						sb.append(c);
+						}
+					break;
+				}
+			}
+		sb.append('\"');
+		return sb.toString();
+		}
+	
+	/** remove the useless parentheses */
+	private static JexlNode unwrap(JexlNode node) {
+		for(;;) {
+			if((node instanceof ASTReference || node instanceof ASTReferenceExpression) &&
+				node.jjtGetNumChildren()==1 &&
+				!(node.jjtGetChild(0) instanceof ASTIdentifier)) {
+				node = node.jjtGetChild(0);
+				}
+			else
+				{
+				return node;
+				}
+			}
+		}
+	
+	private Code translate(JexlNode node) {
+		node = unwrap(node);
+		if(node instanceof ASTTrueNode) return new Code(Boolean.TRUE);
+		if(node instanceof ASTFalseNode) return new Code(Boolean.FALSE);
+		if(node instanceof ASTNullLiteral) return new Code(null);
+		if(node instanceof ASTStringLiteral) return new Code(ASTStringLiteral.class.cast(node).getLiteral());
+		if(node instanceof ASTNumberLiteral) {
+			final Number n = ASTNumberLiteral.class.cast(node).getLiteral();
+			if(!(n instanceof Integer || n instanceof Long || n instanceof Float || n instanceof Double)) {
+				throw new UnsupportedJexlException("unsupported number "+n.getClass());
+				}
+			return new Code(n);
+			}
+		if(node instanceof ASTOrNode) return logical(node,false);
+		if(node instanceof ASTAndNode) return logical(node,true);
+		if(node instanceof ASTNotNode) return not(translate(node.jjtGetChild(0)));
+		if(node instanceof ASTEQNode) return equals(translate(node.jjtGetChild(0)),translate(node.jjtGetChild(1)),true);
+		if(node instanceof ASTNENode) return equals(translate(node.jjtGetChild(0)),translate(node.jjtGetChild(1)),false);
+		if(node instanceof ASTLTNode) return compare(translate(node.jjtGetChild(0)),"<",translate(node.jjtGetChild(1)));
+		if(node instanceof ASTGTNode) return compare(translate(node.jjtGetChild(0)),">",translate(node.jjtGetChild(1)));
+		if(node instanceof ASTLENode) return compare(translate(node.jjtGetChild(0)),"<=",translate(node.jjtGetChild(1)));
+		if(node instanceof ASTGENode) return compare(translate(node.jjtGetChild(0)),">=",translate(node.jjtGetChild(1)));
+		if(node instanceof ASTAdditiveNode) {
+			Code left = translate(node.jjtGetChild(0));
+			for(int i=1;i+1< node.jjtGetNumChildren();i+=2) {
+				final String op = ASTAdditiveOperator.class.cast(node.jjtGetChild(i)).image;
+				left = arithmetic(left,op,translate(node.jjtGetChild(i+1)));
+				}
+			return left;
+			}
+		if(node instanceof ASTMulNode) return arithmetic(translate(node.jjtGetChild(0)),"*",translate(node.jjtGetChild(1)));
+		if(node instanceof ASTDivNode) return arithmetic(translate(node.jjtGetChild(0)),"/",translate(node.jjtGetChild(1)));
+		if(node instanceof ASTModNode) return arithmetic(translate(node.jjtGetChild(0)),"%",translate(node.jjtGetChild(1)));
+		if(node instanceof ASTUnaryMinusNode) return negate(translate(node.jjtGetChild(0)));
+		if(node instanceof ASTTernaryNode) return ternary(node);
+		if(node instanceof ASTReference) return reference(node);
+		throw new UnsupportedJexlException("unsupported JEXL node "+node.getClass().getSimpleName());
+		}
+	
+	private void flatten(final JexlNode node,final Class<?> clazz,final List<Code> operands) {
+		for(int i=0;i< node.jjtGetNumChildren();i++) {
+			final JexlNode c = unwrap(node.jjtGetChild(i));
+			if(clazz.isInstance(c)) {
+				flatten(c,clazz,operands);
+				}
+			else
+				{
+				operands.add(translate(c));
+				}
+			}
+		}
+	
+	/** translate a chain of '&&' or '||' */
+	private Code logical(final JexlNode node,final boolean isAnd) {
+		final List<Code> operands = new ArrayList<>();
+		flatten(node, node.getClass(), operands);
+		final List<Code> kept = new ArrayList<>(operands.size());
+		for(final Code c:operands) {
+			if(!isBoolean(c.type)) throw new UnsupportedJexlException("not a boolean: "+c.java);
+			if(c.constant) {
+				// neutral element
+				if(Boolean.class.cast(c.value).booleanValue()==isAnd) continue;
+				// absorbing element, the remaining operands will never be evaluated
+				if(kept.stream().allMatch(K->K.isSafePrimitive())) return new Code(!isAnd);
+				kept.add(c);
+				break;
+				}
+			kept.add(c);
+			}
+		if(kept.isEmpty()) return new Code(isAnd);
+		
+		// sort each run of safe operands by increasing cost
+		final List<Code> ordered = new ArrayList<>(kept.size());
+		int i=0;
+		while(i< kept.size()) {
+			if(!kept.get(i).isSafePrimitive()) {
+				ordered.add(kept.get(i));
+				i++;
+				continue;
+				}
+			int j=i;
+			while(j< kept.size() && kept.get(j).isSafePrimitive()) j++;
+			final List<Code> run = new ArrayList<>(kept.subList(i, j));
+			run.sort(Comparator.comparingInt(C->C.cost));
+			ordered.addAll(run);
+			i=j;
+			}
+		if(ordered.size()==1) return toPrimitiveBoolean(ordered.get(0));
+		return new Code(
+			"("+ordered.stream().map(C->C.java).collect(Collectors.joining(isAnd?" && ":" || "))+")",
+			boolean.class,
+			ordered.stream().mapToInt(C->C.cost).sum(),
+			ordered.stream().allMatch(C->C.isSafePrimitive()),
+			true
+			);
+		}
+	
+	private Code toPrimitiveBoolean(final Code c) {
+		if(c.type.equals(boolean.class)) return c;
+		return new Code("((boolean)"+c.java+")",boolean.class,c.cost,false,true);
+		}
+	
+	private Code not(final Code c) {
+		if(!isBoolean(c.type)) throw new UnsupportedJexlException("not a boolean: "+c.java);
+		if(c.constant) return new Code(!Boolean.class.cast(c.value));
+		return new Code("(!"+c.java+")",boolean.class,c.cost+1,c.isSafePrimitive(),true);
+		}
+	
+	private Code negate(final Code c) {
+		if(!isNumeric(c.type)) throw new UnsupportedJexlException("not a number: "+c.java);
+		if(c.constant) {
+			final Object v = c.value;
+			if(v instanceof Integer) return new Code(-Integer.class.cast(v));
+			if(v instanceof Long) return new Code(-Long.class.cast(v));
+			if(v instanceof Float) return new Code(-Float.class.cast(v));
+			return new Code(-Double.class.cast(v));
+			}
+		// like java, the negation of a byte or a short is an int
+		final Class<?> type = numericRank(c.type)<2?int.class:unboxed(c.type);
+		return new Code("(-"+c.java+")",type,c.cost+1,c.isSafePrimitive(),true);
+		}
+	
+	private Code equals(final Code left,final Code right,final boolean eq) {
+		final String op = eq?" == ":" != ";
+		final int cost = left.cost+right.cost+1;
+		if(isNumeric(left.type) && isNumeric(right.type)) {
+			final boolean floating = isFloating(left.type) || isFloating(right.type);
+			if(left.constant && right.constant) {
+				final boolean b = floating?
+					Number.class.cast(left.value).doubleValue() == Number.class.cast(right.value).doubleValue():
+					Number.class.cast(left.value).longValue() == Number.class.cast(right.value).longValue();
+				return new Code(b==eq);
+				}
+			return new Code("(("+(floating?"double":"long")+")"+left.java+op+right.java+")",
+				boolean.class,cost,left.isSafePrimitive() && right.isSafePrimitive(),true);
+			}
+		if(isBoolean(left.type) && isBoolean(right.type)) {
+			if(left.constant && right.constant) return new Code(left.value.equals(right.value)==eq);
+			return new Code("((boolean)"+left.java+op+right.java+")",
+				boolean.class,cost,left.isSafePrimitive() && right.isSafePrimitive(),true);
+			}
+		if(left.type.equals(NullType.class) || right.type.equals(NullType.class)) {
+			final Code other = left.type.equals(NullType.class)?right:left;
+			if(other.type.isPrimitive()) throw new UnsupportedJexlException("comparing a primitive with null");
+			if(other.constant) return new Code((other.value==null)==eq);
+			if(other.nonNull && other.safe) return new Code(!eq);
+			return new Code("("+other.java+op+"null)",boolean.class,cost,other.safe,true);
+			}
+		if(left.type.isPrimitive() || right.type.isPrimitive() || isBoxed(left.type) || isBoxed(right.type)) {
+			throw new UnsupportedJexlException("cannot compare "+left.type+" and "+right.type);
+			}
+		if(!(left.type.equals(right.type) || (!left.type.equals(String.class) && !right.type.equals(String.class)))) {
+			// JEXL compares the toString() of a String and of an Object
+			throw new UnsupportedJexlException("cannot compare "+left.type+" and "+right.type);
+			}
+		if(left.constant && right.constant) return new Code(left.value.equals(right.value)==eq);
+		return new Code("("+(eq?"":"!")+"java.util.Objects.equals("+left.java+","+right.java+"))",
+			boolean.class,cost,left.safe && right.safe,true);
+		}
+	
+	private Code compare(final Code left,final String op,final Code right) {
+		final int cost = left.cost+right.cost+1;
+		if(isNumeric(left.type) && isNumeric(right.type)) {
+			final boolean floating = isFloating(left.type) || isFloating(right.type);
+			if(left.constant && right.constant) {
+				final int cmp = floating?
+					Double.compare(Number.class.cast(left.value).doubleValue(), Number.class.cast(right.value).doubleValue()):
+					Long.compare(Number.class.cast(left.value).longValue(), Number.class.cast(right.value).longValue());
+				if(!floating || !(Double.isNaN(Number.class.cast(left.value).doubleValue()) || Double.isNaN(Number.class.cast(right.value).doubleValue()))) {
+					return new Code(compareResult(cmp,op));
+					}
+				}
+			return new Code("("+(floating?"(double)":"")+left.java+" "+op+" "+right.java+")",
+				boolean.class,cost,left.isSafePrimitive() && right.isSafePrimitive(),true);
+			}
+		if(left.type.equals(String.class) && right.type.equals(String.class)) {
+			if(left.constant && right.constant) return new Code(compareResult(String.class.cast(left.value).compareTo(String.class.cast(right.value)),op));
+			return new Code("("+left.java+".compareTo("+right.java+") "+op+" 0)",
+				boolean.class,cost+METHOD_COST,left.safe && left.nonNull && right.safe && right.nonNull,true);
+			}
+		throw new UnsupportedJexlException("cannot compare "+left.type+" and "+right.type);
+		}
+	
+	private static boolean compareResult(final int cmp,final String op) {
+		switch(op) {
+			case "<": return cmp<0;
+			case ">": return cmp>0;
+			case "<=": return cmp<=0;
+			case ">=": return cmp>=0;
+			default: throw new IllegalArgumentException(op);
+			}
+		}
+	
+	private Code arithmetic(final Code left,final String op,final Code right) {
+		if(!(isNumeric(left.type) && isNumeric(right.type))) {
+			throw new UnsupportedJexlException("cannot apply '"+op+"' to "+left.type+" and "+right.type);
+			}
+		final boolean floating = isFloating(left.type) || isFloating(right.type);
+		if(left.constant && right.constant) {
+			final Number a = Number.class.cast(left.value);
+			final Number b = Number.class.cast(right.value);
+			if(floating) {
+				final double x = a.doubleValue();
+				final double y = b.doubleValue();
+				switch(op) {
+					case "+": return new Code(x+y);
+					case "-": return new Code(x-y);
+					case "*": return new Code(x*y);
+					case "/": if(y!=0.0) return new Code(x/y); break;
+					case "%": if(y!=0.0) return new Code(x%y); break;
+					default: break;
+					}
+				}
+			else
+				{
+				final long x = a.longValue();
+				final long y = b.longValue();
+				switch(op) {
+					case "+": return new Code(x+y);
+					case "-": return new Code(x-y);
+					case "*": return new Code(x*y);
+					case "/": if(y!=0L) return new Code(x/y); break;
+					case "%": if(y>0L) return new Code(Math.floorMod(x,y)); break;
+					default: break;
+					}
+				}
+			}
+		final String type = floating?"double":"long";
+		final int cost = left.cost+right.cost+1;
+		final boolean safe = left.isSafePrimitive() && right.isSafePrimitive();
+		switch(op) {
+			case "+": case "-": case "*":
+				return new Code("(("+type+")"+left.java+" "+op+" "+right.java+")",floating?double.class:long.class,cost,safe,true);
+			case "/":
+				if(floating) {
+					return new Code(JexlToJava.class.getName()+".div("+left.java+","+right.java+")",double.class,cost,false,true);
+					}
+				return new Code("(("+type+")"+left.java+" / "+right.java+")",long.class,cost,false,true);
+			case "%":
+				return new Code(JexlToJava.class.getName()+".mod(("+type+")"+left.java+",("+type+")"+right.java+")",floating?double.class:long.class,cost,false,true);
+			default: throw new UnsupportedJexlException("unsupported operator "+op);
+			}
+		}
+	
+	private Code ternary(final JexlNode node) {
+		if(node.jjtGetNumChildren()!=3) throw new UnsupportedJexlException("unsupported ?: operator");
+		final Code cond = translate(node.jjtGetChild(0));
+		if(!isBoolean(cond.type)) throw new UnsupportedJexlException("not a boolean: "+cond.java);
+		final Code a = translate(node.jjtGetChild(1));
+		final Code b = translate(node.jjtGetChild(2));
+		final Class<?> type;
+		if(isNumeric(a.type) && isNumeric(b.type)) {
+			type = numericRank(a.type) >= numericRank(b.type)?unboxed(a.type):unboxed(b.type);
+			}
+		else if(isBoolean(a.type) && isBoolean(b.type)) {
+			type = boolean.class;
+			}
+		else if(a.type.equals(b.type) && !a.type.equals(NullType.class)) {
+			type = a.type;
+			}
+		else
+			{
+			throw new UnsupportedJexlException("cannot mix "+a.type+" and "+b.type);
+			}
+		if(cond.constant && (!type.isPrimitive() || (a.isSafePrimitive() && b.isSafePrimitive()))) {
+			return Boolean.class.cast(cond.value)?a:b;
+			}
+		final boolean safe = type.isPrimitive()?
+				cond.isSafePrimitive() && a.isSafePrimitive() && b.isSafePrimitive():
+				cond.isSafePrimitive() && a.safe && b.safe;
+		return new Code("("+cond.java+" ? "+a.java+" : "+b.java+")",type,
+			cond.cost+Math.max(a.cost, b.cost)+1,safe,
+			a.nonNull && b.nonNull);
+		}
+	
+	private Code reference(final JexlNode node) {
+		final JexlNode first = node.jjtGetChild(0);
+		Code current;
+		if(first instanceof ASTIdentifier) {
+			final String name = ASTIdentifier.class.cast(first).image;
+			final Binding binding = this.bindings.get(name);
+			if(binding==null) throw new UnsupportedJexlException("unknown variable "+name);
+			current = new Code(binding.code,binding.type,binding.cost,true,true);
+			}
+		else
+			{
+			current = translate(first);
+			}
+		for(int i=1;i< node.jjtGetNumChildren();i++) {
+			final JexlNode child = node.jjtGetChild(i);
+			if(child instanceof ASTMethodNode) {
+				final String name = ASTIdentifier.class.cast(child.jjtGetChild(0)).image;
+				final List<Code> args = new ArrayList<>();
+				for(int j=1;j< child.jjtGetNumChildren();j++) {
+					args.add(translate(child.jjtGetChild(j)));
+					}
+				current = invoke(current,name,args);
+				}
+			else if(child instanceof ASTIdentifier) {
+				current = property(current,ASTIdentifier.class.cast(child).image);
+				}
+			else
+				{
+				throw new UnsupportedJexlException("unsupported JEXL node "+child.getClass().getSimpleName());
+				}
+			}
+		return current;
+		}
+	
+	private static boolean isAccessible(final Method m) {
+		return Modifier.isPublic(m.getModifiers()) &&
+			Modifier.isPublic(m.getDeclaringClass().getModifiers()) &&
+			!Modifier.isStatic(m.getModifiers()) &&
+			!m.isBridge();
+		}
+	
+	/** can a value of type 'arg' be passed to a parameter of type 'param' */
+	private static boolean isAssignable(final Class<?> param,final Class<?> arg) {
+		if(arg.equals(NullType.class)) return !param.isPrimitive();
+		if(param.isPrimitive()) {
+			if(param.equals(boolean.class)) return isBoolean(arg);
+			final int r1 = numericRank(param);
+			final int r2 = numericRank(arg);
+			return r1>=0 && r2>=0 && r2<=r1;
+			}
+		if(arg.isPrimitive()) {
+			return param.isAssignableFrom(boxed(arg));
+			}
+		return param.isAssignableFrom(arg);
+		}
+	
+	private static Class<?> boxed(final Class<?> c) {
+		if(c.equals(int.class)) return Integer.class;
+		if(c.equals(long.class)) return Long.class;
+		if(c.equals(short.class)) return Short.class;
+		if(c.equals(byte.class)) return Byte.class;
+		if(c.equals(float.class)) return Float.class;
+		if(c.equals(double.class)) return Double.class;
+		if(c.equals(boolean.class)) return Boolean.class;
+		if(c.equals(char.class)) return Character.class;
+		return c;
+		}
+	
+	private static boolean isGetter(final String name) {
+		return name.startsWith("get") || name.startsWith("is") || name.startsWith("has");
+		}
+	
+	private Code invoke(final Code target,final String name,final List<Code> args) {
+		if(target.type.isPrimitive() || target.type.equals(NullType.class)) {
+			throw new UnsupportedJexlException("cannot invoke "+name+" on "+target.java);
+			}
+		Method method = null;
+		for(final Method m: target.type.getMethods()) {
+			if(!m.getName().equals(name)) continue;
+			if(m.getParameterCount()!=args.size()) continue;
+			if(!isAccessible(m)) continue;
+			final Class<?> params[] = m.getParameterTypes();
+			boolean ok = true;
+			for(int i=0;ok && i< params.length;i++) {
+				ok = isAssignable(params[i], args.get(i).type);
+				}
+			if(!ok) continue;
+			if(method!=null) throw new UnsupportedJexlException("ambiguous method "+name+" in "+target.type.getName());
+			method = m;
+			}
+		if(method==null) throw new UnsupportedJexlException("cannot find method "+name+" in "+target.type.getName());
+		final Class<?> returnType = method.getReturnType();
+		if(returnType.equals(void.class)) throw new UnsupportedJexlException("method "+name+" returns void");
+		final boolean getter = args.isEmpty() && isGetter(name);
+		return new Code(
+			target.java+"."+name+"("+args.stream().map(C->C.java).collect(Collectors.joining(","))+")",
+			returnType,
+			target.cost+args.stream().mapToInt(C->C.cost).sum()+(getter?GETTER_COST:METHOD_COST),
+			isSafeMethod(target.type,method) && target.safe && target.nonNull,
+			false
+			);
+		}
+	
+	private Code property(final Code target,final String name) {
+		if(name.isEmpty()) throw new UnsupportedJexlException("empty property");
+		final String suffix = Character.toUpperCase(name.charAt(0))+name.substring(1);
+		try {
+			return invoke(target,"get"+suffix,new ArrayList<>());
+			}
+		catch(final UnsupportedJexlException err) {
+			return invoke(target,"is"+suffix,new ArrayList<>());
+			}
+		}
+	}
@@ -30,6 +30,8 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -59,6 +61,7 @@ public abstract class OpenJdkCompiler {
 		}
 	
 	
+	/** compile a new class. The bytecode may come from the {@link CompiledClassCache}, so the name of the returned class can be different from 'className' */
 	public abstract Class<?> compileClass(final String className,final String javaCode);
 	
 	/** get full class name for the @Generated annotation. May be null. */
@@ -180,8 +183,36 @@ public abstract class OpenJdkCompiler {
 			throw new RuntimeException("Cannot "+definition);
 			}
 		
+		/** load a class from a jar. The jar is copied because the cache may be cleaned by another process */
+		private Class<?> loadFromCache(final CompiledClassCache.Entry entry) throws Exception {
+			final File jarFile = File.createTempFile("jvarkit", ".jar");
+			jarFile.deleteOnExit();
+			Files.copy(entry.getJarFile().toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			final URLClassLoader child = new URLClassLoader(
+					new URL[] {jarFile.toURI().toURL()},
+					this.getClass().getClassLoader()
+					);
+			return Class.forName(entry.getClassName(), true, child);
+			}
+		
 		@Override
 		public Class<?> compileClass(final String className,final String javaCode) {
+			final CompiledClassCache cache = CompiledClassCache.getDefault();
+			final String cacheKey = (cache==null?null:cache.getKey(className, javaCode));
+			if(cache!=null) {
+				final CompiledClassCache.Entry entry = cache.get(cacheKey);
+				if(entry!=null) {
+					try {
+						final Class<?> compiledClass = loadFromCache(entry);
+						LOG.debug("loaded "+entry.getClassName()+" from "+cache);
+						return compiledClass;
+						}
+					catch(final Exception|LinkageError err) {
+						LOG.warn("cannot load "+entry.getClassName()+" from "+cache+", compiling it again. "+err.getMessage());
+						cache.remove(cacheKey);
+						}
+					}
+				}
 			File javaSsrcDir = null;
 			PrintWriter cw = null;
 			File jarFile = null;
@@ -242,7 +273,7 @@ public abstract class OpenJdkCompiler {
 				cmd.add(javaSsrcDir.getPath());
 				cmd.add(".");
 				exec("jar",cmd);
-				
+				if(cache!=null) cache.put(cacheKey, className, jarFile);
 				
 				final URLClassLoader child = new URLClassLoader(
 						new URL[] {jarFile.toURI().toURL()},
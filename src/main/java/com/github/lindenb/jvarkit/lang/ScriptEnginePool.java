@@ -0,0 +1,190 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.lang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+
+import com.github.lindenb.jvarkit.util.concurrent.OrderedBatchExecutor;
+import com.github.lindenb.jvarkit.util.log.Logger;
+/**
+ * Pool of compiled scripts for the javascript-based tools.
+ * 
+ * The javascript engines are not thread-safe: each thread gets its own {@link Context}, that is
+ * an engine, the compiled script and a {@link Bindings} object where the static variables (header, pedigree...)
+ * are set once. Only the variable holding the current record is changed before each evaluation.
+ * 
+ * Each context counts the number of evaluations and the time spent in the script.
+ */
+public class ScriptEnginePool {
+	private static final Logger LOG = Logger.build(ScriptEnginePool.class).make();
+	private final Callable<CompiledScript> compiler;
+	private final Map<String,Supplier<?>> staticBindings = new LinkedHashMap<>();
+	private final List<Context> contexts = Collections.synchronizedList(new ArrayList<>());
+	private final ThreadLocal<Context> threadContext = new ThreadLocal<>();
+	
+	/** a compiled script and its bindings. Must be used by only one thread. */
+	public class Context {
+		private final CompiledScript script;
+		private final Bindings bindings;
+		private long nCalls = 0L;
+		private long nanos = 0L;
+		
+		private Context(final CompiledScript script) {
+			this.script = script;
+			this.bindings = script.getEngine().createBindings();
+			for(final String name: ScriptEnginePool.this.staticBindings.keySet()) {
+				this.bindings.put(name, ScriptEnginePool.this.staticBindings.get(name).get());
+				}
+			}
+		
+		/** set the per-record variable 'name' and evaluate the script */
+		public Object eval(final String name,final Object value) throws ScriptException {
+			this.bindings.put(name, value);
+			final long start = System.nanoTime();
+			try {
+				return this.script.eval(this.bindings);
+				}
+			finally
+				{
+				this.nanos += System.nanoTime() - start;
+				this.nCalls++;
+				}
+			}
+		
+		/** set the per-record variable 'name' and evaluate the script as a boolean. See Launcher.evalJavaScriptBoolean */
+		public boolean evalBoolean(final String name,final Object value) throws ScriptException {
+			final Object result = eval(name,value);
+			if(result==null) return false;
+			if(result instanceof Boolean) return Boolean.TRUE.equals(result);
+			if(result instanceof Number) return ((Number)result).intValue()==1;
+			LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+			return false;
+			}
+		}
+	
+	/** function evaluating an item with a context */
+	@FunctionalInterface
+	public interface ScriptFunction<T,R> {
+		public R apply(Context ctx,T item) throws ScriptException;
+		}
+	
+	/**
+	 * @param compiler creates a new compiled script. Called once per thread
+	 */
+	public ScriptEnginePool(final Callable<CompiledScript> compiler) {
+		this.compiler = compiler;
+		}
+	
+	/** set a variable that will be shared by all the contexts. Must be called before the first call to 'getContext' */
+	public ScriptEnginePool put(final String name,final Object value) {
+		return putSupplier(name,()->value);
+		}
+	
+	/** set a variable that will be created once for each context, for objects that are not thread-safe. Must be called before the first call to 'getContext' */
+	public ScriptEnginePool putSupplier(final String name,final Supplier<?> supplier) {
+		if(!this.contexts.isEmpty()) throw new IllegalStateException("contexts were already created");
+		this.staticBindings.put(name, supplier);
+		return this;
+		}
+	
+	/** get the context associated to the current thread */
+	public Context getContext() {
+		Context ctx = this.threadContext.get();
+		if(ctx==null) {
+			final CompiledScript script;
+			try {
+				script = this.compiler.call();
+				}
+			catch(final Exception err) {
+				throw new RuntimeException("Cannot compile script",err);
+				}
+			ctx = new Context(script);
+			this.contexts.add(ctx);
+			this.threadContext.set(ctx);
+			}
+		return ctx;
+		}
+	
+	/** get the number of evaluations in all the contexts */
+	public long getCount() {
+		synchronized(this.contexts) {
+			return this.contexts.stream().mapToLong(C->C.nCalls).sum();
+			}
+		}
+	
+	/** get the time (nanoseconds) spent in the evaluation of the scripts in all the contexts */
+	public long getNanos() {
+		synchronized(this.contexts) {
+			return this.contexts.stream().mapToLong(C->C.nanos).sum();
+			}
+		}
+	
+	/** a short report of the time spent in the scripts */
+	public String getStatistics() {
+		final long n = getCount();
+		final long nanos = getNanos();
+		return "script evaluated "+n+" time(s) in "+this.contexts.size()+" engine(s). "+
+			"Total time: "+(nanos/1_000_000L)+" ms. "+
+			"Mean: "+(n==0L?0L:(nanos/n)/1_000L)+" µs/record.";
+		}
+	
+	/**
+	 * Evaluate the items with a pool of threads, the results are consumed in the input order by the calling thread.
+	 * @param iter the items, only consumed by the calling thread
+	 * @param nThreads number of threads. If lower than 2, everything runs in the calling thread
+	 * @param batchSize number of items sent to a thread at once
+	 * @param fun the evaluation of an item
+	 * @param consumer consumes the results. Returns false to stop the iteration
+	 */
+	public <T,R> void forEachOrdered(
+			final Iterator<T> iter,
+			final int nThreads,
+			final int batchSize,
+			final ScriptFunction<T,R> fun,
+			final Predicate<R> consumer
+			) throws ScriptException {
+		try {
+			OrderedBatchExecutor.forEachOrdered(iter, nThreads, batchSize, this::getContext, fun::apply, consumer);
+			}
+		catch(final ScriptException|RuntimeException err) {
+			throw err;
+			}
+		catch(final Exception err) {
+			throw new RuntimeException(err);
+			}
+		}
+	}
@@ -0,0 +1,129 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.math.stats;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exact histogram of non-negative integers.
+ * The dense array of counts grows up to the largest observed value
+ * but never beyond 'maxDenseValue': larger values are counted in a
+ * sparse sorted map, so a few outliers don't allocate a huge array.
+ * Two histograms can be merged, e.g. when they were filled by
+ * different threads.
+ */
+public class IntHistogram {
+	/** default upper bound of the dense array: 512 kb of counts */
+	public static final int DEFAULT_MAX_DENSE_VALUE = (1<<16) - 1;
+	private final int maxDenseValue;
+	private long counts[];
+	/** counts for the values greater than maxDenseValue */
+	private final TreeMap<Integer,Long> overflow = new TreeMap<>();
+	private long total = 0L;
+	/** largest value stored in the dense array */
+	private int maxValue = -1;
+	
+	public IntHistogram() {
+		this(1_000);
+		}
+	public IntHistogram(final int initialCapacity) {
+		this(initialCapacity,DEFAULT_MAX_DENSE_VALUE);
+		}
+	public IntHistogram(final int initialCapacity,final int maxDenseValue) {
+		if(maxDenseValue < 0) throw new IllegalArgumentException("negative maxDenseValue "+maxDenseValue);
+		this.maxDenseValue = maxDenseValue;
+		this.counts = new long[Math.max(1, Math.min(initialCapacity,maxDenseValue+1))];
+		}
+	
+	private void ensureCapacity(final int value) {
+		if(value < this.counts.length) return;
+		this.counts = Arrays.copyOf(this.counts, (int)Math.min(this.maxDenseValue + 1L, Math.max(value + 1L, this.counts.length * 2L)));
+		}
+	
+	/** add one occurence of value */
+	public void add(final int value) {
+		add(value,1L);
+		}
+	
+	/** add 'n' occurences of value */
+	public void add(final int value,final long n) {
+		if(value < 0) throw new IllegalArgumentException("negative value "+value);
+		if(n <= 0L) return;
+		if(value > this.maxDenseValue) {
+			this.overflow.merge(value, n, Long::sum);
+			}
+		else {
+			ensureCapacity(value);
+			this.counts[value] += n;
+			this.maxValue = Math.max(this.maxValue, value);
+			}
+		this.total += n;
+		}
+	
+	/** merge another histogram into this one */
+	public IntHistogram merge(final IntHistogram other) {
+		for(int i=0;i<= other.maxValue;i++) {
+			if(other.counts[i]==0L) continue;
+			add(i,other.counts[i]);
+			}
+		for(final Map.Entry<Integer,Long> kv: other.overflow.entrySet()) {
+			add(kv.getKey(),kv.getValue());
+			}
+		return this;
+		}
+	
+	/** number of occurences of 'value' */
+	public long count(final int value) {
+		if(value > this.maxDenseValue) return this.overflow.getOrDefault(value, 0L);
+		return value < 0 || value >= this.counts.length ? 0L : this.counts[value];
+		}
+	
+	/** total number of values inserted */
+	public long getCount() {
+		return this.total;
+		}
+	
+	/** return the value at the given 1-based 'rank' in the sorted list of values */
+	public int getValueAtRank(final long rank) {
+		if(rank <= 0L || rank > this.total) throw new IllegalArgumentException("rank "+rank+" out of range 1-"+this.total);
+		long n = 0L;
+		for(int i=0;i<= this.maxValue;i++) {
+			n += this.counts[i];
+			if(n >= rank) return i;
+			}
+		for(final Map.Entry<Integer,Long> kv: this.overflow.entrySet()) {
+			n += kv.getValue();
+			if(n >= rank) return kv.getKey();
+			}
+		throw new IllegalStateException();
+		}
+	
+	@Override
+	public String toString() {
+		return "IntHistogram N="+this.total+" max="+(this.overflow.isEmpty()?this.maxValue:this.overflow.lastKey());
+		}
+	}
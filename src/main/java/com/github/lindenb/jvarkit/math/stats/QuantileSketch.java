@@ -0,0 +1,152 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.math.stats;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch for non-negative values with a bounded relative error.
+ * Values are counted in logarithmic bins: a value 'v' is stored in the bin 'ceil(log(v)/log(gamma))'
+ * with 'gamma=(1+accuracy)/(1-accuracy)', so any returned quantile is within 'accuracy'
+ * (relative) of the true value. The memory used only depends on the range of the values.
+ * Sketches having the same accuracy can be merged.
+ */
+public class QuantileSketch {
+	/** values lower than this are counted as zero */
+	private static final double MIN_POSITIVE = 1E-9;
+	private final double accuracy;
+	private final double logGamma;
+	private final double gamma;
+	/** bin index of counts[0] */
+	private int offset = 0;
+	private long counts[] = null;
+	private long zeroCount = 0L;
+	private long total = 0L;
+	
+	public QuantileSketch(final double accuracy) {
+		if(accuracy <= 0.0 || accuracy >= 1.0) throw new IllegalArgumentException("accuracy should be in ]0,1[ :"+accuracy);
+		this.accuracy = accuracy;
+		this.gamma = (1.0 + accuracy)/(1.0 - accuracy);
+		this.logGamma = Math.log(this.gamma);
+		}
+	
+	public double getAccuracy() {
+		return this.accuracy;
+		}
+	
+	private int binIndex(final double v) {
+		return (int)Math.ceil(Math.log(v)/this.logGamma);
+		}
+	
+	private double binValue(final int index) {
+		return 2.0 * Math.pow(this.gamma, index) / (this.gamma + 1.0);
+		}
+	
+	/** make sure bin 'index' can be stored in 'counts' */
+	private void ensureBin(final int index) {
+		if(this.counts == null) {
+			this.offset = index;
+			this.counts = new long[64];
+			return;
+			}
+		if(index < this.offset) {
+			final int shift = Math.max(this.offset - index, this.counts.length/2);
+			final long copy[] = new long[this.counts.length + shift];
+			System.arraycopy(this.counts, 0, copy, shift, this.counts.length);
+			this.counts = copy;
+			this.offset -= shift;
+			}
+		else if(index - this.offset >= this.counts.length) {
+			this.counts = Arrays.copyOf(this.counts, Math.max(index - this.offset + 1, this.counts.length*2));
+			}
+		}
+	
+	/** add one occurence of v */
+	public void add(final double v) {
+		add(v,1L);
+		}
+	
+	/** add 'n' occurences of v */
+	public void add(final double v,final long n) {
+		if(Double.isNaN(v) || v < 0.0) throw new IllegalArgumentException("bad value "+v);
+		if(n <= 0L) return;
+		if(v < MIN_POSITIVE) {
+			this.zeroCount += n;
+			}
+		else
+			{
+			final int index = binIndex(v);
+			ensureBin(index);
+			this.counts[index - this.offset] += n;
+			}
+		this.total += n;
+		}
+	
+	/** merge another sketch into this one. Both sketches must have the same accuracy */
+	public QuantileSketch merge(final QuantileSketch other) {
+		if(Double.compare(this.accuracy, other.accuracy)!=0) throw new IllegalArgumentException("cannot merge sketches with different accuracies");
+		this.zeroCount += other.zeroCount;
+		this.total += other.zeroCount;
+		if(other.counts != null) {
+			for(int i=0;i< other.counts.length;i++) {
+				final long n = other.counts[i];
+				if(n == 0L) continue;
+				final int index = other.offset + i;
+				ensureBin(index);
+				this.counts[index - this.offset] += n;
+				this.total += n;
+				}
+			}
+		return this;
+		}
+	
+	/** total number of values inserted */
+	public long getCount() {
+		return this.total;
+		}
+	
+	/** return an approximation of the value at the given 1-based 'rank' in the sorted list of values */
+	public double getValueAtRank(final long rank) {
+		if(rank <= 0L || rank > this.total) throw new IllegalArgumentException("rank "+rank+" out of range 1-"+this.total);
+		long n = this.zeroCount;
+		if(n >= rank) return 0.0;
+		for(int i=0;i< this.counts.length;i++) {
+			n += this.counts[i];
+			if(n >= rank) return binValue(this.offset + i);
+			}
+		throw new IllegalStateException();
+		}
+	
+	/** return an approximation of the quantile 'q' in [0,1] */
+	public double getQuantile(final double q) {
+		if(q < 0.0 || q > 1.0) throw new IllegalArgumentException("bad quantile "+q);
+		return getValueAtRank(Math.max(1L, (long)Math.ceil(q * this.total)));
+		}
+	
+	@Override
+	public String toString() {
+		return "QuantileSketch N="+this.total+" accuracy="+this.accuracy;
+		}
+	}
@@ -47,17 +47,20 @@ import javax.imageio.ImageIO;
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.ArchiveFactory;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.bio.DistanceParser;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.hershey.Hershey;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
 import com.github.lindenb.jvarkit.util.swing.ColorUtils;
 
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloseableIterator;
@@ -104,7 +107,12 @@ public abstract class AbstractBam2Raster extends Launcher{
 	private enum AlphaHandler {all_opaque,handler1}
 	@Parameter(names={"--mapqopacity"},description="How to handle the MAPQ/ opacity of the reads. all_opaque: no opacity, handler 1: transparency under MAPQ=60")
 	private AlphaHandler alpha_handler=AlphaHandler.handler1;
-
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads used to read the BAM. Each thread reads a distinct tile of the region. Value < 1 means 'all processors'.")
+	protected int nThreads = 1;
+	@Parameter(names={"--tile-size"},description="The region is read by tiles of 'N' bases aligned on the genome, so the tiles are shared by overlapping regions. "+DistanceParser.OPT_DESCRIPTION,converter=DistanceParser.StringConverter.class,splitter=NoSplitter.class)
+	protected int tileSize = 50_000;
+	@Parameter(names={"--tile-cache"},description="Optional directory where the reads of each tile are saved and re-used by the next invocations with the same BAM and the same tile-size. A modified BAM invalidates its tiles.")
+	protected File tileCacheDir = null;
 	protected final Function<SAMRecord,Color> samRecord2color = new ColorUtils.SAMRecordColorExtractor();
 
 	
@@ -229,6 +237,13 @@ public abstract class AbstractBam2Raster extends Launcher{
 			vcfFileReader.close();
 			}
 		}
+	
+	/** open a tiled reader on the BAM using the options '--threads', '--tile-size' and '--tile-cache' */
+	protected BamTileScanner openTileScanner(final SamReaderFactory srf,final String bamFile) throws IOException {
+		final int n = this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads;
+		return new BamTileScanner(srf, bamFile, this.tileSize, n, this.tileCacheDir);
+		}
+	
 	protected  Shape createTriange(double cx,double cy,double r,double angle)
 		{
 		final GeneralPath gp = new GeneralPath();
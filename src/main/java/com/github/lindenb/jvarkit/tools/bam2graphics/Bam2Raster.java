@@ -74,6 +74,7 @@ import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -103,12 +104,10 @@ import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMFileHeader;
-import htsjdk.samtools.SamInputResource;
-import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.StringUtil;
 
@@ -795,39 +794,38 @@ public class Bam2Raster extends AbstractBam2Raster
 			}
 		}
 	
-	private void scan(final SamReader r,final String normalizedContig ) {
-		final SAMRecordIterator iter=r.query(
+	private void scan(final BamTileScanner r,final String normalizedContig ) throws IOException {
+		try(CloseableIterator<SAMRecord> iter = r.query(
 					normalizedContig,
 					interval.getStart(),
-					interval.getEnd(),
-					false
-					);
-		while(iter.hasNext())
-			{
-			final SAMRecord rec=iter.next();
-			if(rec.getReadUnmappedFlag()) continue;
-			if(this.samRecordFilter.filterOut(rec)) continue;
-		
-			if(!normalizedContig.equals(rec.getReferenceName())) continue;
-			if(super.readRight.apply(rec) < this.interval.getStart()) 
+					interval.getEnd()
+					)) {
+			while(iter.hasNext())
 				{
-				continue;
-				}
-			if(super.readLeft.apply(rec) > this.interval.getEnd()) {
-				break;
-				}
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				if(this.samRecordFilter.filterOut(rec)) continue;
+		
+				if(!normalizedContig.equals(rec.getReferenceName())) continue;
+				if(super.readRight.apply(rec) < this.interval.getStart()) 
+					{
+					continue;
+					}
+				if(super.readLeft.apply(rec) > this.interval.getEnd()) {
+					break;
+					}
 			
-			final String group=this.groupBy.apply(rec.getReadGroup());
-			if(group==null) continue;
-			PartitionImage partition =  this.key2partition.get(group);
-			if( partition == null)
-				{
-				partition=new PartitionImage(group);
-				this.key2partition.put(group,partition);
+				final String group=this.groupBy.apply(rec.getReadGroup());
+				if(group==null) continue;
+				PartitionImage partition =  this.key2partition.get(group);
+				if( partition == null)
+					{
+					partition=new PartitionImage(group);
+					this.key2partition.put(group,partition);
+					}
+				partition.add(rec);
 				}
-			partition.add(rec);
 			}
-		iter.close();
 		}
 	
 	
@@ -845,7 +843,7 @@ public class Bam2Raster extends AbstractBam2Raster
 		    	this.WIDTH=100;
 		    	}
 			
-			SamReader samFileReader=null;
+			BamTileScanner samFileReader=null;
 			try
 				{
 				final SamReaderFactory srf = super.createSamReaderFactory();
@@ -884,7 +882,7 @@ public class Bam2Raster extends AbstractBam2Raster
 
 				for(final String bamFile: IOUtils.unrollFiles(args))
 					{
-					samFileReader = srf.open(SamInputResource.of(bamFile));
+					samFileReader = openTileScanner(srf, bamFile);
 					final SAMFileHeader header=samFileReader.getFileHeader();
 					final SAMSequenceDictionary dict=header.getSequenceDictionary();
 					if(dict==null) {
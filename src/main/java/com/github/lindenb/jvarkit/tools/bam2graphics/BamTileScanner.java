@@ -0,0 +1,293 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bam2graphics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+/**
+ * Reads the mapped SAMRecords overlapping an interval, like <code>SamReader.query(contig,start,end,false)</code>,
+ * but the interval is cut into tiles aligned on a fixed grid of 'tileSize' bases. The tiles are
+ * queried in parallel, each worker thread using its own SamReader. A tile contains the reads starting in
+ * that tile. The records are returned in the order of the BAM.
+ * With one thread and no cache, the interval is simply streamed from the BAM.
+ * 
+ * If a cache directory is defined, the content of each tile is saved there and re-used by the next runs: the key is 
+ * the BAM path, size and modification date, the contig and the tile, so a modified BAM invalidates its tiles.
+ * The cache holds the reads, not a pileup or coverage summary: Bam2Raster paints each read and the rows depend on the
+ * whole region, so a per-tile summary could not be reused. Nothing is removed from this directory.
+ */
+class BamTileScanner implements Closeable {
+	private static final Logger LOG = Logger.build(BamTileScanner.class).make();
+	/* change this if the format of the cached files changes */
+	private static final String CACHE_VERSION = "1";
+	private final SamReaderFactory samReaderFactory;
+	private final String bamPath;
+	private final int tileSize;
+	private final int nThreads;
+	private final File cacheDir;
+	private final SamReader mainReader;
+	private final SAMFileHeader header;
+	private final List<SamReader> workerReaders = Collections.synchronizedList(new ArrayList<>());
+	private final ThreadLocal<SamReader> threadReader = new ThreadLocal<>();
+	private final String bamSignature;
+	
+	BamTileScanner(
+			final SamReaderFactory samReaderFactory,
+			final String bamPath,
+			final int tileSize,
+			final int nThreads,
+			final File cacheDir
+			) throws IOException {
+		this.samReaderFactory = samReaderFactory;
+		this.bamPath = bamPath;
+		this.tileSize = Math.max(1, tileSize);
+		this.nThreads = Math.max(1, nThreads);
+		this.cacheDir = cacheDir;
+		this.mainReader = samReaderFactory.open(SamInputResource.of(bamPath));
+		this.header = this.mainReader.getFileHeader();
+		if(!IOUtils.isRemoteURI(bamPath) && new File(bamPath).exists()) {
+			final File f = new File(bamPath);
+			this.bamSignature = f.getCanonicalPath()+"|"+f.length()+"|"+f.lastModified();
+			}
+		else
+			{
+			this.bamSignature = bamPath;
+			}
+		}
+	
+	public SAMFileHeader getFileHeader() {
+		return this.header;
+		}
+	
+	/** returns the records overlapping contig:start-end. Unmapped records may be returned when the BAM is streamed. */
+	public CloseableIterator<SAMRecord> query(final String contig,final int start,final int end) throws IOException {
+		if(this.nThreads <= 1 && this.cacheDir == null) {
+			return this.mainReader.query(contig, start, end, false);
+			}
+		final List<SAMRecord> records = new ArrayList<>();
+		// reads starting before 'start' and overlapping it
+		try(SAMRecordIterator iter = this.mainReader.query(contig, start, start, false)) {
+			while(iter.hasNext()) {
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag() || rec.getAlignmentStart() >= start) continue;
+				records.add(rec);
+				}
+			}
+		final int firstTile = (start-1) / this.tileSize;
+		final int lastTile = (end-1) / this.tileSize;
+		final ExecutorService executorService = this.nThreads > 1 && firstTile != lastTile?
+				Executors.newFixedThreadPool(Math.min(this.nThreads, 1 + lastTile - firstTile)):
+				null;
+		final List<Future<List<SAMRecord>>> futures = new ArrayList<>();
+		try {
+			for(int t = firstTile; t <= lastTile; ++t) {
+				final int tile = t;
+				if(executorService == null) {
+					records.addAll(select(loadTile(this.mainReader, contig, tile), start, end));
+					}
+				else
+					{
+					futures.add(executorService.submit(()->select(loadTile(getWorkerReader(), contig, tile), start, end)));
+					}
+				}
+			for(final Future<List<SAMRecord>> f: futures) {
+				records.addAll(f.get());
+				}
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof IOException) throw (IOException)err.getCause();
+			throw new RuntimeException(err.getCause());
+			}
+		catch(final InterruptedException err) {
+			throw new IOException(err);
+			}
+		finally
+			{
+			if(executorService != null) {
+				futures.forEach(F->F.cancel(true));
+				executorService.shutdown();
+				try {
+					executorService.awaitTermination(365, TimeUnit.DAYS);
+					}
+				catch(final InterruptedException err) {
+					// ignore
+					}
+				}
+			}
+		final Iterator<SAMRecord> iter = records.iterator();
+		return new CloseableIterator<SAMRecord>() {
+			@Override
+			public boolean hasNext() {
+				return iter.hasNext();
+				}
+			@Override
+			public SAMRecord next() {
+				return iter.next();
+				}
+			@Override
+			public void close() {
+				}
+			};
+		}
+	
+	private static List<SAMRecord> select(final List<SAMRecord> tileRecords,final int start,final int end) {
+		final List<SAMRecord> L = new ArrayList<>(tileRecords.size());
+		for(final SAMRecord rec: tileRecords) {
+			if(rec.getAlignmentStart() < start || rec.getAlignmentStart() > end) continue;
+			L.add(rec);
+			}
+		return L;
+		}
+	
+	private SamReader getWorkerReader() {
+		SamReader r = this.threadReader.get();
+		if(r == null) {
+			r = this.samReaderFactory.open(SamInputResource.of(this.bamPath));
+			this.workerReaders.add(r);
+			this.threadReader.set(r);
+			}
+		return r;
+		}
+	
+	/** load the records starting in the tile, from the cache or from the BAM */
+	private List<SAMRecord> loadTile(final SamReader reader,final String contig,final int tile) throws IOException {
+		final File cacheFile = getCacheFile(contig, tile);
+		if(cacheFile != null && cacheFile.exists()) {
+			try {
+				return readCache(cacheFile);
+				}
+			catch(final Exception err) {
+				LOG.warning("Cannot read "+cacheFile+" "+err.getMessage());
+				}
+			}
+		final int tileStart = tile * this.tileSize + 1;
+		final int tileEnd = tileStart + this.tileSize - 1;
+		final List<SAMRecord> records = new ArrayList<>();
+		try(SAMRecordIterator iter = reader.query(contig, tileStart, tileEnd, false)) {
+			while(iter.hasNext()) {
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag() || rec.getAlignmentStart() < tileStart) continue;
+				records.add(rec);
+				}
+			}
+		if(cacheFile != null) writeCache(cacheFile, records);
+		return records;
+		}
+	
+	private File getCacheFile(final String contig,final int tile) {
+		if(this.cacheDir == null) return null;
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(String.join("\t", CACHE_VERSION, this.bamSignature, contig, String.valueOf(tile), String.valueOf(this.tileSize)).getBytes(StandardCharsets.UTF_8));
+			final StringBuilder sb = new StringBuilder();
+			for(final byte b: md.digest()) sb.append(String.format("%02x", b));
+			return new File(this.cacheDir, sb.toString()+".tile.gz");
+			}
+		catch(final NoSuchAlgorithmException err) {
+			throw new IllegalStateException(err);
+			}
+		}
+	
+	private List<SAMRecord> readCache(final File f) throws IOException {
+		final List<SAMRecord> records = new ArrayList<>();
+		try(InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+			final BAMRecordCodec codec = new BAMRecordCodec(this.header);
+			codec.setInputStream(in, f.getPath());
+			for(;;) {
+				final SAMRecord rec = codec.decode();
+				if(rec == null) break;
+				records.add(rec);
+				}
+			}
+		return records;
+		}
+	
+	private void writeCache(final File f,final List<SAMRecord> records) {
+		File tmp = null;
+		try {
+			if(!this.cacheDir.exists() && !this.cacheDir.mkdirs() && !this.cacheDir.exists()) throw new IOException("Cannot create "+this.cacheDir);
+			tmp = File.createTempFile("tmp.", ".tile.gz", this.cacheDir);
+			try(OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				final BAMRecordCodec codec = new BAMRecordCodec(this.header);
+				codec.setOutputStream(out, f.getPath());
+				for(final SAMRecord rec: records) codec.encode(rec);
+				}
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			tmp = null;
+			}
+		catch(final IOException err) {
+			LOG.warning("Cannot save tile in "+f+" "+err.getMessage());
+			}
+		finally
+			{
+			if(tmp != null) tmp.delete();
+			}
+		}
+	
+	@Override
+	public void close() {
+		CloserUtil.close(this.mainReader);
+		synchronized (this.workerReaders) {
+			this.workerReaders.forEach(R->CloserUtil.close(R));
+			this.workerReaders.clear();
+			}
+		}
+	}
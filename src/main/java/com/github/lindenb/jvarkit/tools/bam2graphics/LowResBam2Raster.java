@@ -32,6 +32,7 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -62,13 +63,11 @@ import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMUtils;
-import htsjdk.samtools.SamInputResource;
-import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
@@ -947,59 +946,51 @@ public class LowResBam2Raster extends AbstractBam2Raster {
 				}
 			}
 		
-		private void scan(final SamReader r,final String normalizedContig) {
+		private void scan(final BamTileScanner r,final String normalizedContig) throws IOException {
 			//paranoid
 			if(!isQueryIntervalContig(normalizedContig)) throw new IllegalStateException(normalizedContig);
 			
-			final SAMRecordIterator iter=r.query(
+			try(CloseableIterator<SAMRecord> iter = r.query(
 						normalizedContig,
 						interval.getStart(),
-						interval.getEnd(),
-						false
-						);
-			while(iter.hasNext())
-				{
-				final SAMRecord rec=iter.next();
-				if(rec.getReadUnmappedFlag()) continue;
-				
-				if(this.samRecordFilter.filterOut(rec)) 
+						interval.getEnd()
+						)) {
+				while(iter.hasNext())
 					{
-					//don't dicard now, we need to build pairs of reads
-					if(!rec.getReadPairedFlag()) continue;
-					if(rec.getMateUnmappedFlag()) continue;
-					if(!normalizedContig.equals(rec.getMateReferenceName())) continue;
-					}
+					final SAMRecord rec = iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+				
+					if(this.samRecordFilter.filterOut(rec)) 
+						{
+						//don't dicard now, we need to build pairs of reads
+						if(!rec.getReadPairedFlag()) continue;
+						if(rec.getMateUnmappedFlag()) continue;
+						if(!normalizedContig.equals(rec.getMateReferenceName())) continue;
+						}
 			
-				if(!normalizedContig.equals(rec.getReferenceName())) continue;
+					if(!normalizedContig.equals(rec.getReferenceName())) continue;
 				
-				final SamRecordPair srp = new SamRecordPair(rec);
+					final SamRecordPair srp = new SamRecordPair(rec);
 				
-				if(srp.getEnd() < this.interval.getStart()) 
-					{
-					continue;
-					}
-				if(srp.getStart() > this.interval.getEnd()) {
-					break;
-					}
+					if(srp.getEnd() < this.interval.getStart()) 
+						{
+						continue;
+						}
+					if(srp.getStart() > this.interval.getEnd()) {
+						break;
+						}
 				
-				final String group=this.groupBy.apply(rec.getReadGroup());
-				if(StringUtil.isBlank(group)) continue;
-				PartitionImage partition =  this.key2partition.get(group);
-				if( partition == null)
-					{
-					partition=new PartitionImage(group);
-					this.key2partition.put(group,partition);
+					final String group=this.groupBy.apply(rec.getReadGroup());
+					if(StringUtil.isBlank(group)) continue;
+					PartitionImage partition =  this.key2partition.get(group);
+					if( partition == null)
+						{
+						partition=new PartitionImage(group);
+						this.key2partition.put(group,partition);
+						}
+					partition.visit(rec);
 					}
-				partition.visit(rec);
-				
-				
-				
 				}
-			iter.close();
-			
-			
-			
-			
 			}
 
 		
@@ -1022,7 +1013,7 @@ public class LowResBam2Raster extends AbstractBam2Raster {
 			    	this.gcWinSize=5;
 					}
 			    
-				SamReader samFileReader=null;
+				BamTileScanner samFileReader=null;
 				try
 					{
 				    if(this.referenceFile==null)
@@ -1071,7 +1062,7 @@ public class LowResBam2Raster extends AbstractBam2Raster {
 
 					for(final String bamFile: IOUtils.unrollFiles(args))
 						{
-						samFileReader = srf.open(SamInputResource.of(bamFile));
+						samFileReader = openTileScanner(srf, bamFile);
 						final SAMFileHeader header=samFileReader.getFileHeader();
 						final SAMSequenceDictionary dict=header.getSequenceDictionary();
 						
@@ -62,6 +62,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.ns.XLINK;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
+import com.github.lindenb.jvarkit.util.samtools.DepthPyramid;
 import com.github.lindenb.jvarkit.util.svg.SVG;
 
 import htsjdk.samtools.Cigar;
@@ -99,6 +100,14 @@ $ find dir -name "*.bam"  > bam.list
 $ java -jar dist/wescnvsvg.jar -R ref.fasta -B cnv.bed bam.list > cnv.svg 
 ```
 
+## Depth pyramid
+
+With `--pyramid`, the depth is read from the files created by `bamdepthpyramid` instead of the BAMs.
+The pyramid must have been built with the same `--filter`, otherwise the BAM is read.
+```
+$ java -jar dist/bamdepthpyramid.jar -B capture.bed bam.list
+$ java -jar dist/wescnvsvg.jar --pyramid -R ref.fasta -B cnv.bed bam.list > cnv.svg 
+```
 ## Screenshots
 
 https://twitter.com/yokofakun/status/1022503372669300738 : 
@@ -181,6 +190,8 @@ public class WesCnvSvg  extends Launcher {
 	private File cssFile = null;
 	@Parameter(names={"-x","--extend"},description="Extend each region in the bed by 'x' bases. If the argument ends with '%' it is interpreted as a percentage.")
 	private String extendStr = null;
+	@Parameter(names={"--pyramid"},description="Read the depth from the depth pyramid '${bam}"+DepthPyramid.SUFFIX+"' (see bamdepthpyramid) when it exists, is up to date, was built with the same '--filter' and contains the region. Otherwise, the BAM is read.")
+	private boolean usePyramid = false;
 	
 	
 	private class BamInput implements Closeable
@@ -188,6 +199,7 @@ public class WesCnvSvg  extends Launcher {
 		int index;
 		File bamFile;
 		SamReader samReader=null;
+		DepthPyramid pyramid=null;
 		String sample;
 		ContigNameConverter contigNameConverter;
 		@SuppressWarnings("unused")
@@ -196,6 +208,7 @@ public class WesCnvSvg  extends Launcher {
 		@Override
 		public void close() throws IOException {
 			CloserUtil.close(samReader);
+			CloserUtil.close(pyramid);
 			}
 		double getPixelHeight() {
 			return WesCnvSvg.this.sampleTrackHeight;
@@ -288,6 +301,65 @@ public class WesCnvSvg  extends Launcher {
 		return gcpercent.getGCPercent();
 		}	
 	
+	/** fill the pixels of the sample using the reads of the BAM */
+	private void fillCoverageFromBam(final BamInput bi,final String newContig,final CaptureInterval ci,final SampleInfo si,final Percentile thePercentile)
+		{
+		final int base_coverage[] = new int[ci.getBaseLength()];
+		Arrays.fill(base_coverage, 0);
+		final int clip_coverage[] = new int[ci.getBaseLength()];
+		Arrays.fill(clip_coverage, 0);
+		final SAMRecordIterator iter=bi.samReader.queryOverlapping(newContig,ci.getStart(),ci.getEnd());
+		while(iter.hasNext())
+			{
+			final SAMRecord rec = iter.next();
+			if(rec.getReadUnmappedFlag()) continue;
+			if(this.samRecordFilter.filterOut(rec)) continue;
+			final Cigar cigar=rec.getCigar();
+			if(cigar==null || cigar.isEmpty()) continue;
+			int ref1=rec.getUnclippedStart();
+		
+		
+			for(final CigarElement ce:cigar) {
+				final CigarOperator op = ce.getOperator();
+			
+			
+				if(op.isClipping())
+					{
+					for(int x=0;x< ce.getLength();++x){
+						final int pos=ref1+x;
+						if(pos< ci.getStart()) continue;
+						if(pos> ci.getEnd()) break;
+						clip_coverage[pos-ci.getStart()]++;
+						}
+					ref1 +=  ce.getLength();
+					continue;
+					}
+			
+				if(op.consumesReferenceBases())
+					{
+					if(op.consumesReadBases()){
+						for(int x=0;x< ce.getLength();++x){
+							final int pos=ref1+x;
+							if(pos< ci.getStart()) continue;
+							if(pos> ci.getEnd()) break;
+							base_coverage[pos-ci.getStart()]++;
+							}
+						}
+					ref1+=ce.getLength();
+					}
+				}
+			}
+		iter.close();
+	
+	
+		for(int x=0;x< si.pixel_coverage.length;x++) {
+			final int pos0 = Math.min(base_coverage.length, (int)(((x+0)/ci.getPixelWidth())*ci.getBaseLength()));
+			final int pos1 = Math.min(base_coverage.length, (int)Math.ceil(((x+1)/ci.getPixelWidth())*ci.getBaseLength()));
+			if(pos0>=pos1) continue;
+			si.pixel_coverage[x] = thePercentile.evaluate(base_coverage,pos0,(pos1-pos0));
+			si.pixel_clipping[x] = thePercentile.evaluate(clip_coverage,pos0,(pos1-pos0));
+			}
+		}
 	@Override
 	public int doWork(final List<String> args) {
 		XMLStreamWriter w = null;
@@ -350,6 +422,9 @@ public class WesCnvSvg  extends Launcher {
 				bi.sample = bi.samReader.getFileHeader().getReadGroups().stream().
 					map(V->V.getSample()).
 					filter(S->!StringUtil.isBlank(S)).findFirst().orElse(bamFile.getName());
+				if(this.usePyramid) {
+					bi.pyramid = DepthPyramid.openForBam(bamFile, this.samRecordFilter);
+					}
 				this.bamInputs.add(bi);
 				}
 			if(this.bamInputs.isEmpty()) {
@@ -440,66 +515,25 @@ public class WesCnvSvg  extends Launcher {
 					Arrays.fill(si.pixel_clipping, 0.0);
 					LOG.info("get cov "+ci.getName()+" for "+bi.bamFile);
 					ci.sampleInfos.add(si);
-					final int base_coverage[] = new int[ci.getBaseLength()];
-					Arrays.fill(base_coverage, 0);
-					final int clip_coverage[] = new int[ci.getBaseLength()];
-					Arrays.fill(clip_coverage, 0);
 					final String newContig = bi.contigNameConverter.apply(ci.getContig());
 					if(newContig==null) {
 						LOG.error("cannot find contig "+ci.getContig()+" in "+bi.bamFile);
 						return -1;
 						}
-					final SAMRecordIterator iter=bi.samReader.queryOverlapping(newContig,ci.getStart(),ci.getEnd());
-					while(iter.hasNext())
-						{
-						final SAMRecord rec = iter.next();
-						if(rec.getReadUnmappedFlag()) continue;
-						if(this.samRecordFilter.filterOut(rec)) continue;
-						final Cigar cigar=rec.getCigar();
-						if(cigar==null || cigar.isEmpty()) continue;
-						int ref1=rec.getUnclippedStart();
-						
-						
-						for(final CigarElement ce:cigar) {
-							final CigarOperator op = ce.getOperator();
-							
-							
-							if(op.isClipping())
-								{
-								for(int x=0;x< ce.getLength();++x){
-									final int pos=ref1+x;
-									if(pos< ci.getStart()) continue;
-									if(pos> ci.getEnd()) break;
-									clip_coverage[pos-ci.getStart()]++;
-									}
-								ref1 +=  ce.getLength();
-								continue;
-								}
-							
-							if(op.consumesReferenceBases())
-								{
-								if(op.consumesReadBases()){
-									for(int x=0;x< ce.getLength();++x){
-										final int pos=ref1+x;
-										if(pos< ci.getStart()) continue;
-										if(pos> ci.getEnd()) break;
-										base_coverage[pos-ci.getStart()]++;
-										}
-									}
-								ref1+=ce.getLength();
-								}
+					if(bi.pyramid!=null && bi.pyramid.contains(newContig, ci.getStart(), ci.getEnd())) {
+						for(int x=0;x< si.pixel_coverage.length;x++) {
+							final int pos0 = Math.min(ci.getBaseLength(), (int)(((x+0)/ci.getPixelWidth())*ci.getBaseLength()));
+							final int pos1 = Math.min(ci.getBaseLength(), (int)Math.ceil(((x+1)/ci.getPixelWidth())*ci.getBaseLength()));
+							if(pos0>=pos1) continue;
+							final DepthPyramid.Value value = bi.pyramid.evaluate(newContig, ci.getStart()+pos0, ci.getStart()+pos1-1, this.percentile);
+							si.pixel_coverage[x] = value.getDepth();
+							si.pixel_clipping[x] = value.getClipping();
 							}
 						}
-					iter.close();
-					
-					
-					for(int x=0;x< si.pixel_coverage.length;x++) {
-						final int pos0 = Math.min(base_coverage.length, (int)(((x+0)/ci.getPixelWidth())*ci.getBaseLength()));
-						final int pos1 = Math.min(base_coverage.length, (int)Math.ceil(((x+1)/ci.getPixelWidth())*ci.getBaseLength()));
-						if(pos0>=pos1) continue;
-						si.pixel_coverage[x] = thePercentile.evaluate(base_coverage,pos0,(pos1-pos0));
-						si.pixel_clipping[x] = thePercentile.evaluate(clip_coverage,pos0,(pos1-pos0));
-					}
+					else
+						{
+						fillCoverageFromBam(bi, newContig, ci, si, thePercentile);
+						}
 					
 					if(this.pixSmoothSize>0)
 						{
@@ -0,0 +1,215 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.bio.DistanceParser;
+import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
+import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
+import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
+import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.samtools.DepthPyramid;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.StringUtil;
+
+/**
+BEGIN_DOC
+
+## Motivation
+
+`wescnvsvg` and `wescnvtview` compute the depth of each base from the BAM for each region and for each invocation.
+This tool pre-computes, for each BAM, a file `${bam}.dpyr` containing a multi-resolution 'pyramid' of the depth:
+the depth and the clipping of each base, then the min/max/mean of those values in bins of 2,4,8,16... bases.
+Both tools can then use the option `--pyramid` to read the depth from those files instead of the BAMs.
+
+Only the regions of the BED file (optionally extended with `--padding`) are saved. If no BED is given,
+the whole contigs are saved: the file takes about 32 bytes per base (8 bytes for the bases, 24 bytes for all the bins),
+but the memory is bounded: the depth is computed in a sliding window of about 1Mb per thread.
+
+The filter expression (`--filter`) and the regions are saved in the file. `wescnvsvg` and `wescnvtview` ignore a pyramid
+built with another `--filter` than their own, and a pyramid is re-built when the BAM, the regions or the filter change.
+## Input
+
+input is a set of indexed bam file or a file with the '*.list' suffix containing the path to the bam files.
+
+## Example
+
+```
+$ find dir -name "*.bam"  > bam.list
+$ java -jar dist/bamdepthpyramid.jar -B capture.bed --padding 1000 --threads 4 bam.list
+$ java -jar dist/wescnvsvg.jar --pyramid -R ref.fasta -B cnv.bed bam.list > cnv.svg 
+```
+
+END_DOC
+*/
+@Program(name="bamdepthpyramid",
+	description="Pre-compute a multi-resolution depth of coverage for wescnvsvg and wescnvtview",
+	keywords={"bam","depth","coverage","cnv","wes","bed","capture","exome"}
+	)
+public class BamDepthPyramid extends Launcher {
+	private static final Logger LOG = Logger.build(BamDepthPyramid.class).make();
+	
+	@Parameter(names={"-B","--bed","-b","--capture"},description="BED Capture. Only the regions of this BED file will be saved. If undefined, the whole genome is saved.")
+	private File bedFile = null;
+	@Parameter(names={"-x","--padding"},description="Extend each region of the BED by 'x' bases on both sides. "+DistanceParser.OPT_DESCRIPTION,converter=DistanceParser.StringConverter.class,splitter=NoSplitter.class)
+	private int padding = 0;
+	@Parameter(names={"-R","--reference"},description="Indexed fasta reference, required for CRAM files. "+INDEXED_FASTA_REFERENCE_DESCRIPTION)
+	private File referenceFile = null;
+	@Parameter(names={"--filter"},description=SamFilterParser.FILTER_DESCRIPTION,converter=SamFilterParser.StringConverter.class)
+	private SamRecordFilter samRecordFilter = SamFilterParser.ACCEPT_ALL;
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of BAMs processed in parallel. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
+	@Parameter(names={"-f","--force"},description="Re-build the pyramids that are up to date. A pyramid is up to date if the BAM was not modified and if it was built with the same regions and the same '--filter'.")
+	private boolean force = false;
+	
+	private void build(final SamReaderFactory srf,final File bamFile,final List<Interval> bedRegions) throws Exception {
+		final File out = DepthPyramid.getDefaultFile(bamFile);
+		try(SamReader sr = srf.open(bamFile)) {
+			JvarkitException.BamHasIndex.verify(sr);
+			final SAMSequenceDictionary dict = JvarkitException.BamDictionaryMissing.mustHaveDictionary(sr);
+			final List<Interval> regions = new ArrayList<>();
+			if(bedRegions==null) {
+				for(final SAMSequenceRecord ssr: dict.getSequences()) {
+					regions.add(new Interval(ssr.getSequenceName(),1,ssr.getSequenceLength()));
+					}
+				}
+			else
+				{
+				final ContigNameConverter converter = ContigNameConverter.fromOneDictionary(dict);
+				for(final Interval r: bedRegions) {
+					final String ctg = converter.apply(r.getContig());
+					if(StringUtil.isBlank(ctg)) {
+						LOG.warning("contig "+r.getContig()+" not found in "+bamFile);
+						continue;
+						}
+					final SAMSequenceRecord ssr = dict.getSequence(ctg);
+					regions.add(new Interval(ctg,
+						Math.max(1, r.getStart()-this.padding),
+						Math.min(ssr.getSequenceLength(), r.getEnd()+this.padding)
+						));
+					}
+				}
+			if(!this.force && out.exists()) {
+				try(DepthPyramid old = DepthPyramid.open(out)) {
+					if(old.isUpToDate(bamFile, regions, this.samRecordFilter)) {
+						LOG.info(out+" is up to date.");
+						return;
+						}
+					}
+				catch(final Exception err) {
+					LOG.warning("cannot read "+out+" "+err.getMessage());
+					}
+				}
+			LOG.info("building "+out);
+			DepthPyramid.build(sr, bamFile, regions, this.samRecordFilter, out);
+			}
+		}
+	
+	@Override
+	public int doWork(final List<String> args) {
+		ExecutorService executorService = null;
+		try
+			{
+			final List<File> bams = IOUtils.unrollFiles2018(args);
+			if(bams.isEmpty()) {
+				LOG.error("no bam input");
+				return -1;
+				}
+			final List<Interval> bedRegions;
+			if(this.bedFile!=null) {
+				bedRegions = new ArrayList<>();
+				final BedLineCodec codec = new BedLineCodec();
+				try(BufferedReader br = IOUtils.openFileForBufferedReading(this.bedFile)) {
+					String line;
+					while((line=br.readLine())!=null) {
+						if(BedLine.isBedHeader(line)) continue;
+						final BedLine bed = codec.decode(line);
+						if(bed==null || bed.getStart()>bed.getEnd()) continue;
+						bedRegions.add(bed.toInterval());
+						}
+					}
+				}
+			else
+				{
+				bedRegions = null;
+				}
+			
+			final SamReaderFactory srf = super.createSamReaderFactory();
+			if(this.referenceFile!=null) srf.referenceSequence(this.referenceFile);
+			
+			final int nThreads = this.nJobs<1?Runtime.getRuntime().availableProcessors():this.nJobs;
+			if(nThreads==1 || bams.size()==1) {
+				for(final File bam: bams) build(srf, bam, bedRegions);
+				}
+			else
+				{
+				executorService = Executors.newFixedThreadPool(Math.min(nThreads,bams.size()));
+				final List<Future<?>> futures = new ArrayList<>(bams.size());
+				for(final File bam: bams) {
+					futures.add(executorService.submit(()->{build(srf, bam, bedRegions);return null;}));
+					}
+				for(final Future<?> f:futures) f.get();
+				}
+			return 0;
+			}
+		catch(final Exception err) {
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			if(executorService!=null) {
+				executorService.shutdownNow();
+				try {executorService.awaitTermination(365, TimeUnit.DAYS);}
+				catch(final InterruptedException err) {}
+				}
+			}
+		}
+	
+	public static void main(final String[] args) {
+		new BamDepthPyramid().instanceMainWithExit(args);
+		}
+	}
@@ -25,23 +25,17 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.blast2sam;
 
-import gov.nih.nlm.ncbi.blast.Hit;
-import gov.nih.nlm.ncbi.blast.Hsp;
-import gov.nih.nlm.ncbi.blast.Iteration;
-
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLResolver;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import htsjdk.samtools.DefaultSAMRecordFactory;
 import htsjdk.samtools.SAMFileHeader;
@@ -61,7 +55,9 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.bio.blast.BlastHspAlignment;
+import com.github.lindenb.jvarkit.util.bio.blast.BlastHspRecord;
+import com.github.lindenb.jvarkit.util.bio.blast.BlastIterationRecord;
+import com.github.lindenb.jvarkit.util.bio.blast.BlastXmlStreamReader;
 
 
 
@@ -273,15 +269,14 @@ public class BlastToSam extends Launcher
 	@Parameter(names={"-r","--reference"},description="Indexed fasta Reference")
 	private File faidx = null;
 	
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads converting the HSPs to SAM records. The output keeps the input order. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
 
 	private SAMSequenceDictionary dictionary;
-	private Unmarshaller unmarshaller;
-	//fool javac
-	@SuppressWarnings("unused")
-	private final static gov.nih.nlm.ncbi.blast.ObjectFactory _foolJavac=null;
 	
 	private static class SequenceIteration
 		{
@@ -390,122 +385,117 @@ public class BlastToSam extends Launcher
 			}
 		}
 	
-	private BlastToSam()
-		{
-		
-		}
 	
 	
 	
 
-	private Iteration peekIteration(XMLEventReader r) throws XMLStreamException,JAXBException
+	private void dumpSingle(final List<SAMRecord> out,final SequenceIteration si)
 		{
-		while(r.hasNext())
+		boolean first=true;
+		for(final SAMRecord rec:si.records)
 			{
-			XMLEvent evt=r.peek();
-		
-			if(!(evt.isStartElement() && evt.asStartElement().getName().getLocalPart().equals("Iteration")))
-				{
-				r.next();
-				continue;
-				}
-			return this.unmarshaller.unmarshal(r, Iteration.class).getValue();
+			rec.setSecondaryAlignment(!first);
+			first=false;
+			out.add(rec);
 			}
-		return null;
+		si.records.clear();
 		}
 	
-	private void fillHeader(XMLEventReader r,SAMProgramRecord prog) throws XMLStreamException,JAXBException
+	/** write the records of the finished groups, keeps at most 'maxPending' groups in the queue */
+	private void flushGroups(final SAMFileWriter w,final Deque<Future<List<SAMRecord>>> pending,final int maxPending) throws IOException
 		{
-		while(r.hasNext())
+		while(pending.size() > maxPending)
 			{
-			XMLEvent evt=r.peek();
-		
-			if(!(evt.isStartElement()))
+			try
 				{
-				r.next();
-				continue;
+				for(final SAMRecord rec: pending.removeFirst().get())
+					{
+					w.addAlignment(rec);
+					}
 				}
-			StartElement E=evt.asStartElement();
-			String name=E.getName().getLocalPart();
-			if(name.equals("BlastOutput_iterations")) break;
-			r.next();
-			if(name.equals("BlastOutput_program"))
+			catch(final InterruptedException err)
 				{
-				prog.setProgramName(r.getElementText());
+				throw new IOException(err);
 				}
-			else if(name.equals("BlastOutput_version"))
+			catch(final ExecutionException err)
 				{
-				prog.setProgramVersion(r.getElementText().replace(' ', '_'));
+				throw new IOException(err.getCause());
 				}
 			}
 		}
 	
-	private void dumpSingle(final SAMFileWriter w,final SequenceIteration si)
-		{
-		boolean first=true;
-		for(final SAMRecord rec:si.records)
-			{
-			rec.setSecondaryAlignment(!first);
-			first=false;
-			w.addAlignment(rec);
-			}
-		si.records.clear();
-		}
-	
 	private void run_single(
 			final SAMFileWriter w,
-			final XMLEventReader r,
-			final SAMFileHeader header
+			final BlastXmlStreamReader r,
+			final SAMFileHeader header,
+			final ExecutorService executor,
+			final int maxPending
 			)
-			throws XMLStreamException,JAXBException
+			throws IOException
 		{
-		final List<Iteration> stack=new ArrayList<Iteration>();
-		String prev=null;
-		for(;;)
+		final Deque<Future<List<SAMRecord>>> pending = new ArrayDeque<>();
+		try
 			{
-			final Iteration iter1=peekIteration(r);
-			if(iter1==null || !(iter1.getIterationQueryDef().equals(prev)))
+			List<BlastIterationRecord> stack=new ArrayList<>();
+			String prev=null;
+			for(;;)
 				{
-				final SequenceIteration si=convertIterationToSequenceIteration(stack,header);
-				dumpSingle(w,si);
-				if(iter1==null) break;
-				stack.clear();
-				prev=iter1.getIterationQueryDef();
+				final BlastIterationRecord iter1=r.next();
+				if(iter1==null || !(iter1.getQueryDef().equals(prev)))
+					{
+					if(!stack.isEmpty())
+						{
+						final List<BlastIterationRecord> group = stack;
+						pending.add(executor.submit(()->{
+							final List<SAMRecord> L = new ArrayList<>();
+							dumpSingle(L,convertIterationToSequenceIteration(group,header));
+							return L;
+							}));
+						flushGroups(w, pending, maxPending);
+						}
+					if(iter1==null) break;
+					stack=new ArrayList<>();
+					prev=iter1.getQueryDef();
+					}
+				stack.add(iter1);
 				}
-			stack.add(iter1);
+			flushGroups(w, pending, 0);
+			}
+		finally
+			{
+			pending.forEach(F->F.cancel(true));
 			}
 		}
 	
 	private SequenceIteration convertIterationToSequenceIteration(
-			final List<Iteration> stack,
+			final List<BlastIterationRecord> stack,
 			final SAMFileHeader header
 			)
-			throws XMLStreamException,JAXBException
 			{
 			final SequenceIteration sequenceIteration=new SequenceIteration(); 
 			if(stack.isEmpty()) return sequenceIteration;
 			
 			final SAMReadGroupRecord rg1=header.getReadGroup("g1");
-			//sequenceIteration.iteration=iter1;
 			
 			final SAMRecordFactory samRecordFactory=new DefaultSAMRecordFactory();
 
 			
 			
 			final StringBuilder readContent=new StringBuilder();
-			final int iterLength=Integer.parseInt(stack.get(0).getIterationQueryLen());
+			final int iterLength=stack.get(0).getQueryLen();
 			
-			for(final Iteration iter1:stack)
+			for(final BlastIterationRecord iter1:stack)
 				{
-				for(final Hit hit: iter1.getIterationHits().getHit())
+				for(final BlastHspRecord hsp: iter1.getHsps())
 					{
-					for(final Hsp hsp: hit.getHitHsps().getHsp())
+					final String qseq=hsp.getQseq();
+					int queryIndex1=hsp.getQueryFrom1();
+					for(int i=0;i< hsp.getAlignLength();++i)
 						{
-						for(final BlastHspAlignment.Align a:new BlastHspAlignment(hsp))
+						final char c=qseq.charAt(i);
+						if(Character.isLetter(c))
 							{
-							char c=a.getQueryChar();
-							if(!Character.isLetter(c)) continue;
-							final int queryIndex0=a.getQueryIndex1()-1;
+							final int queryIndex0=queryIndex1-1;
 							while(readContent.length()<=queryIndex0) readContent.append('N');
 							if(readContent.charAt(queryIndex0)=='N')
 								{
@@ -515,137 +505,133 @@ public class BlastToSam extends Launcher
 								{
 								throw new IllegalStateException(
 									"Expected character '"+readContent.charAt(queryIndex0)+"' but got '"+c+"' at "+queryIndex0+"\n"+
-									hsp.getHspQseq()+"\n"+
-									hsp.getHspMidline()+"\n"+
-									hsp.getHspHseq()+"\n"+
+									hsp.getQseq()+"\n"+
+									hsp.getMidline()+"\n"+
+									hsp.getHseq()+"\n"+
 									readContent+"\n"
 									);
 								}
 							}
+						if(c!='-' && c!=' ') queryIndex1++;
 						}
 					}
 				}
 			
 			
-			for(Iteration iter1:stack)
+			for(final BlastIterationRecord iter1:stack)
 				{
-				for(Hit hit: iter1.getIterationHits().getHit())
+				for(final BlastHspRecord hsp: iter1.getHsps())
 					{
-					for(Hsp hsp: hit.getHitHsps().getHsp())
+					final SAMRecord rec=samRecordFactory.createSAMRecord(header);
+					rec.setReadUnmappedFlag(false);
+					rec.setReadName(iter1.getQueryDef());
+					if( !hsp.getHitAccession().trim().isEmpty() &&
+						this.dictionary.getSequence(hsp.getHitAccession())!=null
+						)
 						{
-						SAMRecord rec=samRecordFactory.createSAMRecord(header);
-						rec.setReadUnmappedFlag(false);
-						rec.setReadName(iter1.getIterationQueryDef());
-						if( hit.getHitAccession()!=null &&
-							!hit.getHitAccession().trim().isEmpty() &&
-							this.dictionary.getSequence(hit.getHitAccession())!=null
-							)
-							{
-							rec.setReferenceName(hit.getHitAccession());
-							}
-						else
-							{
-							rec.setReferenceName(hit.getHitDef());
-							}
-						final SAMSequenceRecord ssr=this.dictionary.getSequence(hit.getHitDef());
-						if(ssr==null)
-							{
-							LOG.warn("Hit is not in SAMDictionary "+hit.getHitDef());
-							rec.setReferenceIndex(-1);
-							}
-						else
-							{
-							rec.setReferenceIndex(ssr.getSequenceIndex());
-							}
-						
-						final BlastHspAlignment blastHspAlignment=new BlastHspAlignment(hsp);
-						rec.setReadNegativeStrandFlag(blastHspAlignment.isPlusMinus());
-	
-						
-						final List<CigarOperator> cigarL=new ArrayList<CigarOperator>();
-						for(BlastHspAlignment.Align a:blastHspAlignment)
+						rec.setReferenceName(hsp.getHitAccession());
+						}
+					else
+						{
+						rec.setReferenceName(hsp.getHitDef());
+						}
+					final SAMSequenceRecord ssr=this.dictionary.getSequence(hsp.getHitDef());
+					if(ssr==null)
+						{
+						LOG.warn("Hit is not in SAMDictionary "+hsp.getHitDef());
+						rec.setReferenceIndex(-1);
+						}
+					else
+						{
+						rec.setReferenceIndex(ssr.getSequenceIndex());
+						}
+					
+					rec.setReadNegativeStrandFlag(hsp.isPlusMinus());
+
+					
+					final List<CigarOperator> cigarL=new ArrayList<CigarOperator>(hsp.getAlignLength());
+					for(int i=0;i< hsp.getAlignLength();++i)
+						{
+						final char midChar = hsp.getMidline().charAt(i);
+						if(midChar=='|')
 							{
-							//System.err.println("##"+a);
-							if(a.getMidChar()=='|')
-								{
-								cigarL.add(CigarOperator.EQ);
-								}
-							else if(a.getMidChar()==':')
-								{
-								cigarL.add(CigarOperator.M);
-								}
-							else if(a.getHitChar()=='-')
-								{
-								cigarL.add(CigarOperator.I);
-								}
-							else if(a.getQueryChar()=='-')
-								{
-								cigarL.add(CigarOperator.D);
-								}
-							else
-								{
-								cigarL.add(CigarOperator.X);
-								}
-	
+							cigarL.add(CigarOperator.EQ);
 							}
-	
-						
-						if(cigarL.size()!=hsp.getHspMidline().length())
+						else if(midChar==':')
 							{
-							throw new IllegalStateException("Boumm");
+							cigarL.add(CigarOperator.M);
 							}
-						
-						
-						Cigar cigarE=new Cigar();
-						
-						if(blastHspAlignment.getQueryFrom1()>1)
+						else if(hsp.getHseq().charAt(i)=='-')
 							{
-							cigarE.add(new CigarElement(
-									blastHspAlignment.getQueryFrom1()-1,
-									CigarOperator.S
-									));
+							cigarL.add(CigarOperator.I);
 							}
-						int x=0;
-						while(x< cigarL.size())
+						else if(hsp.getQseq().charAt(i)=='-')
 							{
-							int y=x+1;
-							while(y< cigarL.size() && cigarL.get(x)==cigarL.get(y))
-								{
-								++y;
-								}
-							cigarE.add(new CigarElement(y-x, cigarL.get(x)));
-							x=y;
+							cigarL.add(CigarOperator.D);
 							}
-						/* soft clip */ 
-						if(blastHspAlignment.getQueryTo1()< readContent.length())
+						else
 							{
-							cigarE.add(new CigarElement(
-									(readContent.length()-blastHspAlignment.getQueryTo1()),
-									CigarOperator.S 
-									));
+							cigarL.add(CigarOperator.X);
 							}
-						/* hard clip */
-						if(readContent.length() < iterLength)
+
+						}
+
+					
+					if(cigarL.size()!=hsp.getMidline().length())
+						{
+						throw new IllegalStateException("Boumm");
+						}
+					
+					
+					final Cigar cigarE=new Cigar();
+					
+					if(hsp.getQueryFrom1()>1)
+						{
+						cigarE.add(new CigarElement(
+								hsp.getQueryFrom1()-1,
+								CigarOperator.S
+								));
+						}
+					int x=0;
+					while(x< cigarL.size())
+						{
+						int y=x+1;
+						while(y< cigarL.size() && cigarL.get(x)==cigarL.get(y))
 							{
-							cigarE.add(new CigarElement(
-									(iterLength-readContent.length()),
-									CigarOperator.H
-									));
+							++y;
 							}
-						
-						
-						rec.setCigar(cigarE);
-						rec.setMappingQuality(40);
-						rec.setAlignmentStart(Math.min(blastHspAlignment.getHitFrom1(),blastHspAlignment.getHitTo1()));
-						rec.setAttribute("BB", Float.parseFloat(hsp.getHspBitScore()));
-						rec.setAttribute("BE", Float.parseFloat(hsp.getHspEvalue()));
-						rec.setAttribute("BS", Float.parseFloat(hsp.getHspScore()));
-						rec.setAttribute("NM", Integer.parseInt(hsp.getHspGaps()));
-						rec.setAttribute("RG", rg1.getId());
-						// setAlignmentEnd not supported in SAM API
-						//rec.setAlignmentEnd(Math.max(blastHspAlignment.getHitFrom1(),blastHspAlignment.getHitTo1())); 
-						sequenceIteration.records.add(rec);
+						cigarE.add(new CigarElement(y-x, cigarL.get(x)));
+						x=y;
 						}
+					/* soft clip */ 
+					if(hsp.getQueryTo1()< readContent.length())
+						{
+						cigarE.add(new CigarElement(
+								(readContent.length()-hsp.getQueryTo1()),
+								CigarOperator.S 
+								));
+						}
+					/* hard clip */
+					if(readContent.length() < iterLength)
+						{
+						cigarE.add(new CigarElement(
+								(iterLength-readContent.length()),
+								CigarOperator.H
+								));
+						}
+					
+					
+					rec.setCigar(cigarE);
+					rec.setMappingQuality(40);
+					rec.setAlignmentStart(Math.min(hsp.getHitFrom1(),hsp.getHitTo1()));
+					rec.setAttribute("BB", (float)hsp.getBitScore());
+					rec.setAttribute("BE", (float)hsp.getEvalue());
+					rec.setAttribute("BS", (float)hsp.getScore());
+					rec.setAttribute("NM", hsp.getGaps());
+					rec.setAttribute("RG", rg1.getId());
+					// setAlignmentEnd not supported in SAM API
+					//rec.setAlignmentEnd(Math.max(hsp.getHitFrom1(),hsp.getHitTo1())); 
+					sequenceIteration.records.add(rec);
 					}
 				}
 			
@@ -669,7 +655,7 @@ public class BlastToSam extends Launcher
 			if(sequenceIteration.records.isEmpty())
 				{
 				SAMRecord rec=samRecordFactory.createSAMRecord(header);
-				rec.setReadName(stack.get(0).getIterationQueryDef());
+				rec.setReadName(stack.get(0).getQueryDef());
 				rec.setReadUnmappedFlag(true);
 				rec.setAttribute("RG", rg1.getId());
 				sequenceIteration.records.add(rec);
@@ -699,7 +685,7 @@ public class BlastToSam extends Launcher
 			}
 		}
 	
-	private void dumpPaired(SAMFileWriter w,SequenceIteration si1,SequenceIteration si2)
+	private void dumpPaired(final List<SAMRecord> out,final SequenceIteration si1,final SequenceIteration si2)
 		{
 		if(si1.records.isEmpty()) return;
 		
@@ -773,75 +759,105 @@ public class BlastToSam extends Launcher
 				{
 				pair.rec2.setSecondaryAlignment(i!=0);
 				}
-			w.addAlignment(pair.rec1);
-			w.addAlignment(pair.rec2);
+			out.add(pair.rec1);
+			out.add(pair.rec2);
 			}
 		si1.records.clear();
 		si2.records.clear();
 		}
 	
+	/** converts a pair of reads in a background thread */
+	private class PairedTask implements Callable<List<SAMRecord>>
+		{
+		private final List<BlastIterationRecord> stack1;
+		private final List<BlastIterationRecord> stack2;
+		private final SAMFileHeader header;
+		PairedTask(final List<BlastIterationRecord> stack1,final List<BlastIterationRecord> stack2,final SAMFileHeader header)
+			{
+			this.stack1 = stack1;
+			this.stack2 = stack2;
+			this.header = header;
+			}
+		@Override
+		public List<SAMRecord> call()
+			{
+			final List<SAMRecord> L = new ArrayList<>();
+			final SequenceIteration si1=convertIterationToSequenceIteration(this.stack1, this.header);
+			final SequenceIteration si2=convertIterationToSequenceIteration(this.stack2, this.header);
+			dumpPaired(L,si1,si2);
+			return L;
+			}
+		}
+	
 	private void run_paired(
-			SAMFileWriter w,
-			XMLEventReader r,
-			SAMFileHeader header
+			final SAMFileWriter w,
+			final BlastXmlStreamReader r,
+			final SAMFileHeader header,
+			final ExecutorService executor,
+			final int maxPending
 			)
-			throws XMLStreamException,JAXBException
+			throws IOException
 		{
-		List<Iteration> stack1=new ArrayList<Iteration>();
-		Iteration iter=null;
-		for(;;)
+		final Deque<Future<List<SAMRecord>>> pending = new ArrayDeque<>();
+		try
 			{
-			String prev_name=null;
-			if( iter==null)
-				{
-				iter=peekIteration(r);
-				if(iter==null) break;
-				}
-			stack1.add(iter);
-			List<Iteration> stack2=new ArrayList<Iteration>();
-			prev_name=iter.getIterationQueryDef();
-			
-			//pileup first of pair
+			BlastIterationRecord iter=null;
 			for(;;)
 				{
-				iter=peekIteration(r);
-				if(iter==null)
-					{
-					throw new RuntimeException("Illegal number of read forward/reverse");
-					}
-				else if(iter.getIterationQueryDef().equals(prev_name))
-					{
-					stack1.add(iter);
-					}
-				else
+				String prev_name=null;
+				if( iter==null)
 					{
-					stack2.add(iter);
-					prev_name=iter.getIterationQueryDef();
-					break;
+					iter=r.next();
+					if(iter==null) break;
 					}
-				}
-			
-			//pileup second of pair
-			for(;;)
-				{
-				iter=peekIteration(r);
-				if(iter==null || !iter.getIterationQueryDef().equals(prev_name))
+				final List<BlastIterationRecord> stack1=new ArrayList<>();
+				final List<BlastIterationRecord> stack2=new ArrayList<>();
+				stack1.add(iter);
+				prev_name=iter.getQueryDef();
+				
+				//pileup first of pair
+				for(;;)
 					{
-					SequenceIteration si1=convertIterationToSequenceIteration(stack1, header);
-					SequenceIteration si2=convertIterationToSequenceIteration(stack2, header);
-					dumpPaired(w,si1,si2);
-					stack1.clear();
-					stack2.clear();
-					break;
+					iter=r.next();
+					if(iter==null)
+						{
+						throw new RuntimeException("Illegal number of read forward/reverse");
+						}
+					else if(iter.getQueryDef().equals(prev_name))
+						{
+						stack1.add(iter);
+						}
+					else
+						{
+						stack2.add(iter);
+						prev_name=iter.getQueryDef();
+						break;
+						}
 					}
-				else
+				
+				//pileup second of pair
+				for(;;)
 					{
-					stack2.add(iter);
+					iter=r.next();
+					if(iter==null || !iter.getQueryDef().equals(prev_name))
+						{
+						pending.add(executor.submit(new PairedTask(stack1, stack2, header)));
+						flushGroups(w, pending, maxPending);
+						break;
+						}
+					else
+						{
+						stack2.add(iter);
+						}
 					}
+				if(iter==null) break;
 				}
-			if(iter==null) break;
+			flushGroups(w, pending, 0);
+			}
+		finally
+			{
+			pending.forEach(F->F.cancel(true));
 			}
-		
 		}
 	
 	@Override
@@ -854,7 +870,8 @@ public class BlastToSam extends Launcher
 		final boolean interleaved_input=this.EXPECTED_SIZE>0;
 		final int maxRecordsInRam=5000;
 		SAMFileWriter sfw=null;
-		XMLEventReader rx=null;
+		BlastXmlStreamReader rx=null;
+		ExecutorService executor = null;
 		final SAMFileWriterFactory sfwf=new SAMFileWriterFactory();
 		sfwf.setCreateIndex(false);
 		sfwf.setMaxRecordsInRam(maxRecordsInRam);
@@ -868,34 +885,16 @@ public class BlastToSam extends Launcher
 			header.setSortOrder(SortOrder.unsorted);
 			header.setSequenceDictionary(this.dictionary);
 			
-			
-			final JAXBContext jc = JAXBContext.newInstance("gov.nih.nlm.ncbi.blast");
-			this.unmarshaller=jc.createUnmarshaller();
-			final XMLInputFactory xmlInputFactory=XMLInputFactory.newFactory();
-			xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
-			xmlInputFactory.setXMLResolver(new XMLResolver()
-				{
-				@Override
-				public Object resolveEntity(String arg0, String arg1, String arg2,
-						String arg3) throws XMLStreamException
-					{
-					LOG.info("resolveEntity:" +arg0+"/"+arg1+"/"+arg2);
-					return null;
-					}
-				});
 			final String inputName=oneFileOrNull(args);
 			if(inputName==null)
 				{
 				LOG.info("Reading from stdin");
-				rx=xmlInputFactory.createXMLEventReader(stdin());
+				rx=new BlastXmlStreamReader(stdin());
 				}
 			else if(args.size()==1)
 				{
 				LOG.info("Reading from "+inputName);
-				rx=xmlInputFactory.createXMLEventReader(IOUtils.openURIForBufferedReading(inputName));
+				rx=new BlastXmlStreamReader(IOUtils.openURIForBufferedReading(inputName));
 				}
 			else
 				{
@@ -905,7 +904,14 @@ public class BlastToSam extends Launcher
 			
 			
 			final SAMProgramRecord prg2=header.createProgramRecord();
-			fillHeader(rx,prg2);
+			if(!rx.getProgram().isEmpty())
+				{
+				prg2.setProgramName(rx.getProgram());
+				}
+			if(!rx.getVersion().isEmpty())
+				{
+				prg2.setProgramVersion(rx.getVersion().replace(' ', '_'));
+				}
 			final SAMProgramRecord prg1=header.createProgramRecord();
 			prg1.setCommandLine(getProgramCommandLine());
 			prg1.setProgramVersion(getVersion());
@@ -919,13 +925,17 @@ public class BlastToSam extends Launcher
 			
 			sfw = this.writingBamArgs.openSAMFileWriter(outputFile,header, true);
 			
+			final int jobs = this.nThreads<1?Runtime.getRuntime().availableProcessors():this.nThreads;
+			executor = Executors.newFixedThreadPool(jobs);
+			final int maxPending = jobs*2;
+			
 			if(interleaved_input)
 				{
-				run_paired(sfw,rx,header);
+				run_paired(sfw,rx,header,executor,maxPending);
 				}
 			else
 				{
-				run_single(sfw,rx,header);
+				run_single(sfw,rx,header,executor,maxPending);
 				}
 			return RETURN_OK;
 			}
@@ -936,6 +946,7 @@ public class BlastToSam extends Launcher
 			}	
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			CloserUtil.close(sfw);
 			CloserUtil.close(rx);
 			}
@@ -27,18 +27,34 @@ History:
 
 */
 package com.github.lindenb.jvarkit.tools.cmpbams;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -57,6 +73,7 @@ import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.SortingCollection;
 /*
@@ -265,6 +282,17 @@ HWI-1KL149:20:C1CU7ACXX:2:2311:14082:99026/2	EQ|EQ|EQ	K01:2081=163/100M	K01:2081
 HWI-1KL149:20:C1CU7ACXX:2:2315:4940:7934/1	EQ|EQ|EQ	K01:2133=83/100M	K01:2133=83/100M	K01:2133=83/100M
 HWI-1KL149:20:C1CU7ACXX:2:2315:4940:7934/2	EQ|EQ|EQ	K01:2059=163/100M	K01:2059=163/100M	K01:2059=163/100M</h:pre>
 ```
+
+## Large BAMs
+
+With `--buckets N`, the alignments are not globally sorted: they are hash-partitioned on their read name
+into N temporary files (the BAMs are scanned in parallel using `--jobs` threads) and each bucket is
+joined in memory. The rows are only sorted on read name within each bucket.
+
+```
+$ java -jar dist/cmpbams.jar --buckets 500 --jobs 8 -o diff.txt file1.bam file2.bam
+```
+
 END_DOC
 */
 
@@ -293,6 +321,12 @@ public class CompareBams  extends Launcher
 	@Parameter(names={"-r","--region"},description=IntervalParser.OPT_DESC)
 	private String REGION = "";
 
+	@Parameter(names={"--buckets"},description="Hash-partition the alignments on their read name into 'N' temporary files instead of sorting all the alignments. Each bucket is then joined in memory. Reads are only sorted on their names within each bucket. A value lower than 1 means: use a global sort. Max: 4096.")
+	private int n_buckets = 0;
+
+	@Parameter(names={"-j","--jobs"},description="With --buckets: number of threads scanning the bams and joining the buckets. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
+
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 	
@@ -453,22 +487,22 @@ public class CompareBams  extends Launcher
 		return compare(chrom1,chrom2);
 		}
 	
-	private void print(final Set<Match> set,final SAMSequenceDictionary dict)
+	private void print(final PrintWriter pw,final Set<Match> set,final SAMSequenceDictionary dict)
 		{
 		boolean first=true;
 		for(final Match m:set)
 			{
-			if(!first)this.out.print(',');
+			if(!first)pw.print(',');
 			first=false;
-			if(m.tid<0){ this.out.print("unmapped"); continue;}
+			if(m.tid<0){ pw.print("unmapped"); continue;}
 			final SAMSequenceRecord ssr=(dict==null?null:dict.getSequence(m.tid));
 			String seqName=(ssr==null?null:ssr.getSequenceName());
 			if(seqName==null) seqName="tid"+m.tid;
-			this.out.print(String.valueOf(seqName+":"+(m.pos)));
-			if(this.useSamFlag) this.out.print("="+m.flag);
-			if(this.useCigar) this.out.print("/"+m.cigar);
+			pw.print(String.valueOf(seqName+":"+(m.pos)));
+			if(this.useSamFlag) pw.print("="+m.flag);
+			if(this.useCigar) pw.print("/"+m.cigar);
 			}
-		if(first) this.out.print("(empty)");
+		if(first) pw.print("(empty)");
 		}
 	
 	
@@ -503,12 +537,394 @@ public class CompareBams  extends Launcher
     	return false;
     	}
     
+    /** convert a SAMRecord to a Match, returns null if the record must be ignored */
+    private Match toMatch(final SAMRecord rec,final int bamIndex)
+    	{
+		if(!rec.getReadUnmappedFlag())
+			{
+			if(rec.getMappingQuality() < this.min_mapq) return null;
+			if(rec.isSecondaryOrSupplementary()) return null;
+			}
+		final Match m=new Match();
+		if(rec.getReadPairedFlag())
+			{
+			m.num_in_pair=(rec.getFirstOfPairFlag()?1:2);
+			}
+		else
+			{
+			m.num_in_pair=0;
+			}
+		m.readName=rec.getReadName();
+		m.bamIndex=bamIndex;
+		m.flag=rec.getFlags();
+		m.cigar=rec.getCigarString();
+		if(m.cigar==null ) m.cigar="";
+		if(rec.getReadUnmappedFlag())
+			{
+			m.tid=-1;
+			m.pos=-1;
+			}
+		else
+			{
+			m.tid=rec.getReferenceIndex();
+			m.pos=rec.getAlignmentStart();
+			}
+		return m;
+    	}
+    
+    /** scan the bam file at index 'bamIndex', send the Match to the consumer */
+    private void scanBam(final int bamIndex,final Optional<Interval> interval,final Consumer<Match> consumer) throws IOException
+    	{
+		final File samFile=this.IN.get(bamIndex);
+		LOG.info("Opening "+samFile);
+		try(SamReader samFileReader= super.createSamReaderFactory().open(samFile)) {
+			final SAMRecordIterator it;
+			if(!interval.isPresent())
+				{
+				it=samFileReader.iterator();
+				}
+			else
+				{
+				it=samFileReader.queryOverlapping(
+						interval.get().getContig(),
+						interval.get().getStart(),
+						interval.get().getEnd()
+						);
+				}
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.sequenceDictionaries.get(bamIndex));
+			while(it.hasNext() )
+				{
+				final Match m = toMatch(progress.watch(it.next()),bamIndex);
+				if(m==null) continue;
+				consumer.accept(m);
+				}
+			it.close();
+			}
+		LOG.info("Close "+samFile);
+    	}
+    
+    private void printHeader(final PrintWriter pw)
+    	{
+		pw.print("#READ-Name\t");
+		for(int x=0;x<this.IN.size();++x)
+			{
+			for(int y=x+1;y<this.IN.size();++y)
+				{
+				if(!(x==0 && y==1)) pw.print("|");
+				pw.print(IN.get(x));
+				pw.print(" ");
+				pw.print(IN.get(y));
+				}
+			}
+		for(int x=0;x<this.IN.size();++x)
+			{
+			pw.print("\t"+IN.get(x));
+			}
+		pw.println();
+    	}
+    
+    /** print the comparison for one read. 'countEQ' is the number of EQ for each pair of bam, can be null */
+    private void printRow(final PrintWriter pw,final String readName,int num_in_pair,final List<Set<Match>> matches,final long countEQ[])
+    	{
+		pw.print(readName);
+		if(num_in_pair>0)
+			{
+			pw.print("/");
+			pw.print(num_in_pair);
+			}
+		pw.print("\t");
+		
+		int pairIndex=0;
+		for(int x=0;x<this.IN.size();++x)
+			{
+			final Set<Match> first=matches.get(x);
+			for(int y=x+1;y<this.IN.size();++y)
+				{
+				if(!(x==0 && y==1)) pw.print("|");
+				Set<Match> second=matches.get(y);
+				if(same(first,second))
+					{
+					pw.print("EQ");
+					if(countEQ!=null) countEQ[pairIndex]++;
+					}
+				else
+					{
+					pw.print("NE");
+					}
+				pairIndex++;
+				}
+			}
+
+		for(int x=0;x<this.IN.size();++x)
+			{
+			pw.print("\t");
+			print(pw,matches.get(x),sequenceDictionaries.get(x));
+			}
+		
+		pw.println();
+    	}
+    
+    /** max number of buckets */
+    private static final int MAX_BUCKETS = 4096;
+    /** size of the in-memory buffer of each bucket, flushed as a gzip member */
+    private static final int BUCKET_BUFFER_SIZE = 1<<15;
+    
+    /** result of the join of one bucket */
+    private static class BucketResult
+    	{
+    	final StringWriter rows = new StringWriter();
+    	long countReads = 0L;
+    	long countEQ[];
+    	}
+    
+    /** buffers the Match of one bam for one bucket. The buffer is appended to the bucket file
+     * as a new gzip member when it is full, so no stream stays open between two flushes */
+    private class BucketWriter
+    	{
+    	final File file;
+    	final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUCKET_BUFFER_SIZE);
+    	final MatchCodec codec = new MatchCodec();
+    	BucketWriter(final File file)
+    		{
+    		this.file = file;
+    		this.codec.setOutputStream(new DataOutputStream(this.buffer));
+    		}
+    	void add(final Match m) throws IOException
+    		{
+    		this.codec.encode(m);
+    		if(this.buffer.size()>=BUCKET_BUFFER_SIZE) flush();
+    		}
+    	void flush() throws IOException
+    		{
+    		if(this.buffer.size()==0) return;
+    		try(GZIPOutputStream gzout=new GZIPOutputStream(new FileOutputStream(this.file,true),8192)) {
+    			this.buffer.writeTo(gzout);
+    			}
+    		this.buffer.reset();
+    		}
+    	}
+    
+    /** the alignments of one read (one side of a pair) in a bucket, stored as
+     * primitive signatures: two longs per alignment.
+     * <ul>
+     *   <li>(tid&lt;&lt;32) | pos</li>
+     *   <li>(bamIndex&lt;&lt;48) | (flag&lt;&lt;32) | cigarId</li>
+     * </ul>
+     */
+    private static class ReadSignatures
+    	{
+    	final String readName;
+    	final int num_in_pair;
+    	long data[] = new long[4];
+    	int size = 0;
+    	ReadSignatures(final String readName,final int num_in_pair)
+    		{
+    		this.readName = readName;
+    		this.num_in_pair = num_in_pair;
+    		}
+    	void add(final long a,final long b)
+    		{
+    		if(this.size+2 > this.data.length) this.data = Arrays.copyOf(this.data, this.data.length*2);
+    		this.data[this.size++] = a;
+    		this.data[this.size++] = b;
+    		}
+    	}
+    
+    /** join the content of one bucket in memory */
+    private BucketResult joinBucket(final List<File> bamFiles) throws IOException
+    	{
+    	final BucketResult result = new BucketResult();
+    	result.countEQ = new long[(this.IN.size()*(this.IN.size()-1))/2];
+    	/* cigar strings are shared by most alignments: store each of them once */
+    	final Map<String,Integer> cigar2id = new HashMap<>();
+    	final List<String> cigars = new ArrayList<>();
+    	/* read name -> signatures for num_in_pair=0,1,2 */
+    	final Map<String,ReadSignatures[]> name2sigs = new HashMap<>();
+    	final MatchCodec codec = new MatchCodec();
+    	for(final File bucketFile:bamFiles)
+    		{
+    		if(bucketFile.length()>0L)
+	    		{
+	    		try(DataInputStream dis = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(bucketFile))))) {
+	    			codec.setInputStream(dis);
+	    			Match m;
+	    			while((m=codec.decode())!=null)
+	    				{
+	    				ReadSignatures sigs[] = name2sigs.get(m.readName);
+	    				if(sigs==null)
+	    					{
+	    					sigs = new ReadSignatures[3];
+	    					name2sigs.put(m.readName, sigs);
+	    					}
+	    				if(sigs[m.num_in_pair]==null) sigs[m.num_in_pair] = new ReadSignatures(m.readName, m.num_in_pair);
+	    				Integer cigarId = cigar2id.get(m.cigar);
+	    				if(cigarId==null)
+	    					{
+	    					cigarId = cigars.size();
+	    					cigars.add(m.cigar);
+	    					cigar2id.put(m.cigar, cigarId);
+	    					}
+	    				sigs[m.num_in_pair].add(
+	    					((long)m.tid<<32) | (m.pos & 0xFFFFFFFFL),
+	    					((long)m.bamIndex<<48) | ((long)(m.flag & 0xFFFF)<<32) | (cigarId & 0xFFFFFFFFL)
+	    					);
+	    				}
+	    			}
+	    		}
+    		bucketFile.delete();
+    		}
+    	final List<ReadSignatures> rows = new ArrayList<>(name2sigs.size());
+    	for(final ReadSignatures sigs[]:name2sigs.values())
+    		{
+    		for(final ReadSignatures sig:sigs) if(sig!=null) rows.add(sig);
+    		}
+    	name2sigs.clear();
+    	rows.sort((A,B)->{
+    		final int i = A.readName.compareTo(B.readName);
+    		if(i!=0) return i;
+    		return A.num_in_pair - B.num_in_pair;
+    		});
+    	
+    	/* Match objects are only created for the row being printed */
+    	final MatchComparator match_comparator=new MatchComparator();
+    	final List<Set<Match>> matches=new ArrayList<>(this.IN.size());
+    	while(matches.size() < this.IN.size())
+    		{
+    		matches.add(new TreeSet<Match>(match_comparator));
+    		}
+    	try(PrintWriter pw = new PrintWriter(result.rows)) {
+	    	for(int r=0;r< rows.size();++r)
+	    		{
+	    		final ReadSignatures sig = rows.get(r);
+	    		rows.set(r, null);
+	    		for(final Set<Match> set:matches) set.clear();
+	    		for(int i=0;i+1< sig.size;i+=2)
+	    			{
+	    			final long a = sig.data[i];
+	    			final long b = sig.data[i+1];
+	    			final Match m = new Match();
+	    			m.readName = sig.readName;
+	    			m.num_in_pair = sig.num_in_pair;
+	    			m.tid = (int)(a>>32);
+	    			m.pos = (int)a;
+	    			m.bamIndex = (int)(b>>>48);
+	    			m.flag = (int)((b>>>32) & 0xFFFF);
+	    			m.cigar = cigars.get((int)b);
+	    			matches.get(m.bamIndex).add(m);
+	    			}
+	    		printRow(pw, sig.readName, sig.num_in_pair, matches, result.countEQ);
+	    		result.countReads++;
+	    		}
+	    	}
+    	return result;
+    	}
+    
+    /** hash-partition the alignments by read name into 'n_buckets' files, join each bucket in memory */
+    private void runBuckets(final List<Optional<Interval>> intervals) throws Exception
+    	{
+    	if(this.n_buckets > MAX_BUCKETS)
+    		{
+    		LOG.warn("Too many buckets. Setting buckets to "+MAX_BUCKETS);
+    		this.n_buckets = MAX_BUCKETS;
+    		}
+    	final File tmpDir = this.writingSortingCollection.getTmpDirectories().get(0);
+    	/* one file per bam and per bucket, so bams can be scanned in parallel */
+    	final File bucketFiles[][] = new File[this.IN.size()][this.n_buckets];
+    	final ExecutorService executorService = Executors.newFixedThreadPool(this.nJobs);
+    	try
+	    	{
+	    	final List<Future<Long>> scans = new ArrayList<>(this.IN.size());
+	    	for(int i=0;i< this.IN.size();++i)
+	    		{
+	    		final int bamIndex = i;
+	    		for(int b=0;b< this.n_buckets;++b)
+	    			{
+	    			bucketFiles[bamIndex][b] = File.createTempFile("cmpbams.", ".bucket.gz", tmpDir);
+	    			bucketFiles[bamIndex][b].deleteOnExit();
+	    			}
+	    		scans.add(executorService.submit(()->{
+	    			final BucketWriter writers[] = new BucketWriter[this.n_buckets];
+	    			for(int b=0;b< this.n_buckets;++b)
+	    				{
+	    				writers[b] = new BucketWriter(bucketFiles[bamIndex][b]);
+	    				}
+	    			final long count[]={0L};
+	    			scanBam(bamIndex, intervals.get(bamIndex), M->{
+	    				final int b = (M.readName.hashCode() & Integer.MAX_VALUE) % this.n_buckets;
+	    				try {
+	    					writers[b].add(M);
+	    					}
+	    				catch(final IOException err)
+	    					{
+	    					throw new RuntimeIOException(err);
+	    					}
+	    				count[0]++;
+	    				});
+	    			for(final BucketWriter w:writers) w.flush();
+	    			return count[0];
+	    			}));
+	    		}
+	    	for(final Future<Long> f: scans) f.get();
+	    	
+	    	this.out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+	    	printHeader(this.out);
+	    	
+	    	/* join the buckets in parallel, print the results in the order of the buckets.
+	    	 * At most 2*nJobs buckets are pending, so only their rows are kept in memory */
+	    	final Deque<Future<BucketResult>> pending = new ArrayDeque<>();
+	    	final long countReads[] = {0L};
+	    	final long countEQ[] = new long[(this.IN.size()*(this.IN.size()-1))/2];
+	    	final Consumer<BucketResult> flush = R->{
+	    		this.out.print(R.rows.toString());
+	    		countReads[0] += R.countReads;
+	    		for(int k=0;k< countEQ.length;++k) countEQ[k]+=R.countEQ[k];
+	    		};
+	    	for(int b=0;b< this.n_buckets && !this.out.checkError();++b)
+	    		{
+	    		final List<File> files = new ArrayList<>(this.IN.size());
+	    		for(int i=0;i< this.IN.size();++i) files.add(bucketFiles[i][b]);
+	    		pending.add(executorService.submit(()->joinBucket(files)));
+	    		while(pending.size() >= 2*this.nJobs)
+	    			{
+	    			flush.accept(pending.pollFirst().get());
+	    			}
+	    		}
+	    	while(!pending.isEmpty())
+	    		{
+	    		flush.accept(pending.pollFirst().get());
+	    		}
+	    	this.out.flush();
+	    	
+	    	int pairIndex=0;
+	    	for(int x=0;x<this.IN.size();++x)
+				{
+				for(int y=x+1;y<this.IN.size();++y)
+					{
+					LOG.info(IN.get(x)+" "+IN.get(y)+" : EQ="+countEQ[pairIndex]+" NE="+(countReads[0]-countEQ[pairIndex]));
+					pairIndex++;
+					}
+				}
+	    	}
+    	finally
+    		{
+    		executorService.shutdownNow();
+    		for(final File array[]:bucketFiles)
+    			{
+    			for(final File f:array) if(f!=null) f.delete();
+    			}
+    		}
+    	}
+    
     @Override
     public int doWork(final List<String> args) {
     	this.IN.addAll(args.stream().map(S->new File(S)).collect(Collectors.toList()));
    		SortingCollection<Match> database = null;
-		SamReader samFileReader=null;
 		CloseableIterator<Match> iter=null;
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
 		try
 			{
 			if(this.IN.size() <2)
@@ -517,25 +933,18 @@ public class CompareBams  extends Launcher
 				return -1;
 				}
 			
-			database = SortingCollection.newInstance(
-					Match.class,
-					new MatchCodec(),
-					new MatchOrderer(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
-					);
 			this.samSequenceDictAreTheSame=true;
-			database.setDestructiveIteration(true);
-	
 			
+			final List<Optional<Interval>> intervals = new ArrayList<>(this.IN.size());
 			for(int currentSamFileIndex=0;
 					currentSamFileIndex<this.IN.size();
 					currentSamFileIndex++ )
 				{
 				final File samFile=this.IN.get(currentSamFileIndex);
-				LOG.info("Opening "+samFile);
-				samFileReader= super.createSamReaderFactory().open(samFile);
-				final SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
+				final SAMSequenceDictionary dict;
+				try(SamReader samFileReader= super.createSamReaderFactory().open(samFile)) {
+					dict=samFileReader.getFileHeader().getSequenceDictionary();
+					}
 				if(dict==null || dict.isEmpty())
 					{
 					LOG.error("Empty Dict  in "+samFile);
@@ -567,60 +976,29 @@ public class CompareBams  extends Launcher
 					{
 					interval = Optional.empty();
 					}
-				
-				
-				SAMRecordIterator it=null;
-				if(!interval.isPresent())
-					{
-					it=samFileReader.iterator();
-					}
-				else
-					{
-					it=samFileReader.queryOverlapping(
-							interval.get().getContig(),
-							interval.get().getStart(),
-							interval.get().getEnd()
-							);
-					}
-				final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict);
-				while(it.hasNext() )
-					{
-					final SAMRecord rec=progress.watch(it.next());
-					if(!rec.getReadUnmappedFlag())
-						{
-						if(rec.getMappingQuality() < this.min_mapq) continue;
-						if(rec.isSecondaryOrSupplementary()) continue;
-						}
-					final Match m=new Match();
-					if(rec.getReadPairedFlag())
-						{
-						m.num_in_pair=(rec.getFirstOfPairFlag()?1:2);
-						}
-					else
-						{
-						m.num_in_pair=0;
-						}
-					m.readName=rec.getReadName();
-					m.bamIndex=currentSamFileIndex;
-					m.flag=rec.getFlags();
-					m.cigar=rec.getCigarString();
-					if(m.cigar==null ) m.cigar="";
-					if(rec.getReadUnmappedFlag())
-						{
-						m.tid=-1;
-						m.pos=-1;
-						}
-					else
-						{
-						m.tid=rec.getReferenceIndex();
-						m.pos=rec.getAlignmentStart();
-						}
-					database.add(m);
-					}
-				it.close();
-				samFileReader.close();
-				samFileReader=null;
-				LOG.info("Close "+samFile);
+				intervals.add(interval);
+				}
+			
+			if(this.n_buckets>0)
+				{
+				runBuckets(intervals);
+				return RETURN_OK;
+				}
+			
+			database = SortingCollection.newInstance(
+					Match.class,
+					new MatchCodec(),
+					new MatchOrderer(),
+					this.writingSortingCollection.getMaxRecordsInRam(),
+					this.writingSortingCollection.getTmpPaths()
+					);
+			database.setDestructiveIteration(true);
+			
+			for(int currentSamFileIndex=0;
+					currentSamFileIndex<this.IN.size();
+					currentSamFileIndex++ )
+				{
+				scanBam(currentSamFileIndex, intervals.get(currentSamFileIndex), database::add);
 				}
 			database.doneAdding();
 			LOG.info("Writing results....");
@@ -628,22 +1006,7 @@ public class CompareBams  extends Launcher
 			this.out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
 			
 			//compute the differences for each read
-			this.out.print("#READ-Name\t");
-			for(int x=0;x<this.IN.size();++x)
-				{
-				for(int y=x+1;y<this.IN.size();++y)
-					{
-					if(!(x==0 && y==1)) this.out.print("|");
-					this.out.print(IN.get(x));
-					this.out.print(" ");
-					this.out.print(IN.get(y));
-					}
-				}
-			for(int x=0;x<this.IN.size();++x)
-				{
-				this.out.print("\t"+IN.get(x));
-				}
-			this.out.println();
+			printHeader(this.out);
 			
 			/* create an array of set<Match> */
 			final MatchComparator match_comparator=new MatchComparator();
@@ -669,40 +1032,7 @@ public class CompareBams  extends Launcher
 					{
 					if(currReadName!=null)
 						{
-						this.out.print(currReadName);
-						if(curr_num_in_pair>0)
-							{
-							this.out.print("/");
-							this.out.print(curr_num_in_pair);
-							}
-						this.out.print("\t");
-						
-						
-						for(int x=0;x<this.IN.size();++x)
-							{
-							final Set<Match> first=matches.get(x);
-							for(int y=x+1;y<this.IN.size();++y)
-								{
-								if(!(x==0 && y==1)) this.out.print("|");
-								Set<Match> second=matches.get(y);
-								if(same(first,second))
-									{
-									this.out.print("EQ");
-									}
-								else
-									{
-									this.out.print("NE");
-									}
-								}
-							}
-	
-						for(int x=0;x<this.IN.size();++x)
-							{
-							this.out.print("\t");
-							print(matches.get(x),sequenceDictionaries.get(x));
-							}
-						
-						this.out.println();
+						printRow(this.out, currReadName, curr_num_in_pair, matches, null);
 						}
 					if(nextMatch==null) break;
 					for(Set<Match> set:matches) set.clear();
@@ -725,7 +1055,6 @@ public class CompareBams  extends Launcher
 		finally
 			{
 			if(database!=null) database.cleanup();
-			CloserUtil.close(samFileReader);
 			CloserUtil.close(this.out);this.out=null;
 			}
 		}
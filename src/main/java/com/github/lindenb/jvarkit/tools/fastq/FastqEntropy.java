@@ -32,8 +32,6 @@ import java.util.List;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
-import htsjdk.samtools.fastq.FastqRecord;
-
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.io.NullOuputStream;
@@ -41,8 +39,7 @@ import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.BatchFastqReader;
 
 /**
 BEGIN_DOC
@@ -162,6 +159,8 @@ public class FastqEntropy extends Launcher
 
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File fileout = null;
+	@Parameter(names={"-j","--jobs"},description="Number of threads used to uncompress BGZF fastq files. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
 
 	private PrintStream pw= System.out;
 	private final Counter<Long> length2count=new Counter<Long>();
@@ -184,38 +183,51 @@ public class FastqEntropy extends Launcher
 	
 	
 	
-	private void convert(InputStream in) throws IOException
+	private void convert(final BatchFastqReader r) throws IOException
 		{
-		FastqReader r=new FourLinesFastqReader(in);
-		while(r.hasNext())
+		BatchFastqReader.Batch batch;
+		while((batch=r.nextBatch())!=null)
 			{
-			FastqRecord rec=r.next();
-			BestCompressionOutputStream gzout=new BestCompressionOutputStream();
-			gzout.write(rec.getBaseQualityString().getBytes());
-			gzout.flush();
-			gzout.close();
-			this.length2count.incr(gzout.getByteWrittenCount());
+			for(final BatchFastqReader.Record rec:batch)
+				{
+				final BestCompressionOutputStream gzout=new BestCompressionOutputStream();
+				gzout.write(rec.getData(),rec.getQualityOffset(),rec.length());
+				gzout.flush();
+				gzout.close();
+				this.length2count.incr(gzout.getByteWrittenCount());
+				}
 			}
 		r.close();
 		}
 	@Override
 	public int doWork(List<String> args) {
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
 		try
 			{
 			this.pw = super.openFileOrStdoutAsPrintStream(this.fileout);
 			if(args.isEmpty())
 				{
 				LOG.info("Reading from stdin");
-				convert(stdin());
+				convert(BatchFastqReader.open(stdin(),this.nJobs));
 				}
 			else
 				{
 				for(String filename: args)
 					{
 					LOG.info("Reading from "+filename);
-					InputStream in=IOUtils.openURIForReading(filename);
-					convert(in);
-					in.close();
+					if(IOUtils.isRemoteURI(filename))
+						{
+						final InputStream in=IOUtils.openURIForReading(filename);
+						convert(BatchFastqReader.open(in,this.nJobs));
+						}
+					else
+						{
+						convert(BatchFastqReader.open(new File(filename),this.nJobs));
+						}
 					}
 				}
 			for(Long n:this.length2count.keySetIncreasing())
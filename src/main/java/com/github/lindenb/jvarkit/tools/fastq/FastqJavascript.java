@@ -31,24 +31,26 @@ package com.github.lindenb.jvarkit.tools.fastq;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.AbstractMap;
 import java.util.List;
+import java.util.Map;
 
-import javax.script.Bindings;
-import javax.script.CompiledScript;
 import javax.script.ScriptException;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.lang.ScriptEnginePool;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.BatchFastqReader;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
-
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.fastq.BasicFastqWriter;
 import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.fastq.FastqWriter;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 
 
 /**
@@ -67,8 +69,10 @@ import htsjdk.samtools.util.CloserUtil;
 
 The script puts 'rec' a FastqRecord, or 'pair' for an interleaved input, into the script context 
 
+## Multithreading
 
-
+With `--threads N`, each thread compiles its own copy of the script. The records are sent to the threads by batches and the output keeps the input order.
+The script must not rely on a state shared between the records.
 ## Example
 
 Find pairs of fastq where both reads contains a **PmeI** restriction site ( `GTTT/AAAC` )
@@ -132,10 +136,14 @@ public class FastqJavascript
 	private String javascriptExpr = null;
 	@Parameter(names={"-f"},description="javascript file")
 	private File javascriptFile = null;
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads. If greater than 1, each thread uses its own script engine and the output keeps the input order. BGZF fastq files are also uncompressed on this number of threads. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="With --threads: number of records sent to a thread at once.")
+	private int batchSize = 1_000;
 
 	
 	
-	private CompiledScript  script=null;
+	private ScriptEnginePool pool=null;
 	//private File failingReadsFile=null;
 	private FastqWriter failingReadsWriter=null;
 	//
@@ -325,51 +333,66 @@ public class FastqJavascript
 						}
 					}
 			
-				long count=0L;
-				final Bindings bindings = this.script.getEngine().createBindings();
-		        
-				while(r.hasNext())
-					{
-					final Record record=new Record(r.next());
-					record.nLine=count;
-					
-					if(this.interleaved)
-						{
-						if(!r.hasNext()) throw new IOException("interleaved: mate missing");
-						final Record mate= new Record(r.next());
-						mate.nLine=count;
-						final Pair pair=new Pair(record, mate);
-						pair.nLine=count;
-						
-						
+				/* the records (or the pairs) are numbered in the reading thread */
+				final AbstractIterator<Object> iter = new AbstractIterator<Object>() {
+					long count=0L;
+					@Override
+					protected Object advance() {
+						if(!r.hasNext()) return null;
+						if(LIMIT>0L && count>=LIMIT) return null;
+						final Record record=new Record(r.next());
+						record.nLine=count;
 						
-						bindings.put("pair", pair);
-						if(!super.evalJavaScriptBoolean(this.script, bindings))
+						if(interleaved)
 							{
-							failing(pair.get(0));
-							failing(pair.get(1));
-							}
-						else
-							{
-							fastqWriters[0].write(pair.get(0).toFastqRecord());
-							fastqWriters[1].write(pair.get(1).toFastqRecord());
+							if(!r.hasNext()) throw new RuntimeIOException("interleaved: mate missing");
+							final Record mate= new Record(r.next());
+							mate.nLine=count;
+							final Pair pair=new Pair(record, mate);
+							pair.nLine=count;
+							++count;
+							return pair;
 							}
+						++count;
+						return record;
 						}
-					else
-						{
-						bindings.put("rec", record);
-						if(!super.evalJavaScriptBoolean(this.script, bindings))
+					};
+				
+				this.pool.forEachOrdered(
+					iter,
+					this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads,
+					this.batchSize,
+					(ctx,item)->new AbstractMap.SimpleEntry<>(item,ctx.evalBoolean(item instanceof Pair?"pair":"rec", item)),
+					(Map.Entry<Object,Boolean> entry)->{
+						if(entry.getKey() instanceof Pair)
 							{
-							failing(record);
+							final Pair pair = Pair.class.cast(entry.getKey());
+							if(!entry.getValue())
+								{
+								failing(pair.get(0));
+								failing(pair.get(1));
+								}
+							else
+								{
+								fastqWriters[0].write(pair.get(0).toFastqRecord());
+								fastqWriters[1].write(pair.get(1).toFastqRecord());
+								}
 							}
 						else
 							{
-							fastqWriters[0].write(record.toFastqRecord());
+							final Record record = Record.class.cast(entry.getKey());
+							if(!entry.getValue())
+								{
+								failing(record);
+								}
+							else
+								{
+								fastqWriters[0].write(record.toFastqRecord());
+								}
 							}
+						return true;
 						}
-					++count;
-					if(this.LIMIT>0L && count>=this.LIMIT) break;
-					}
+					);
 				openFailing();
 				}
 			finally 
@@ -391,21 +414,21 @@ public class FastqJavascript
 		
 		try
 			{
-			this.script  = super.compileJavascript(this.javascriptExpr,this.javascriptFile);
+			this.pool  = new ScriptEnginePool(()->super.compileJavascript(this.javascriptExpr,this.javascriptFile));
 			
 			
 			
 			if(args.isEmpty())
 				{				
-				final FastqReader in=new FourLinesFastqReader(stdin());
+				final FastqReader in=BatchFastqReader.open(stdin(),this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads);
 				doWork(in);
 				in.close();
 				}
 			else if(args.size()==2)
 				{
 				LOG.info("2 fastqs: Reading as interleavel fastqs");
-				final FastqReader in1=new FourLinesFastqReader(new File(args.get(0)));
-				final FastqReader in2=new FourLinesFastqReader(new File(args.get(1)));
+				final FastqReader in1=BatchFastqReader.open(new File(args.get(0)),this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads);
+				final FastqReader in2=BatchFastqReader.open(new File(args.get(1)),this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads);
 				final FastqReader in=new InterleavedFastqReader(in1,in2);
 				this.interleaved = true;
 				doWork(in);
@@ -413,7 +436,7 @@ public class FastqJavascript
 				}
 			else if(args.size()==1)
 				{
-				final FastqReader in=new FourLinesFastqReader(new File(args.get(0)));
+				final FastqReader in=BatchFastqReader.open(new File(args.get(0)),this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads);
 				doWork(in);
 				in.close();
 				}
@@ -422,6 +445,7 @@ public class FastqJavascript
 				LOG.error("Illegal number of arguments");
 				return -1;
 				}
+			LOG.info(this.pool.getStatistics());
 			return RETURN_OK;
 			}
 		catch(final Exception err)
@@ -432,6 +456,7 @@ public class FastqJavascript
 		finally
 			{
 			CloserUtil.close(failingReadsWriter);
+			this.pool=null;
 			}
 		}
 	
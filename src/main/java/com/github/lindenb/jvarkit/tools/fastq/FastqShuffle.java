@@ -25,13 +25,26 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.fastq;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import htsjdk.samtools.fastq.BasicFastqWriter;
 import htsjdk.samtools.fastq.FastqRecord;
@@ -95,6 +108,17 @@ TAACCCTAACCCTAACCCTAACCCTAACCCTAACCCTAACCCTAACCCTAACCCTAACCCTAACCCTACCCCTAACCCTA
 ==;<?>@@@<>>@??<>>???<=>>?>:><@?4=:>7=5=>:<=@;'@A?########################################################################################################################################################################################################
 ```
 
+## Bucketed shuffle
+
+By default, the reads are sorted on a random key using a SortingCollection. 
+With `--buckets N`, a two-pass shuffle is used instead: the reads (or pairs of reads)
+are dispatched at random into N compressed temporary files (compressed by `--jobs` threads),
+then each bucket is loaded, shuffled in memory and written. Each bucket must fit in memory,
+so N should be about the number of reads divided by the number of reads that can be held in RAM.
+
+```
+$ java -jar dist/fastqshuffle.jar --buckets 100 --jobs 4 -o out.fq.gz R1.fq.gz R2.fq.gz
+```
 
 END_DOC
  *
@@ -117,9 +141,40 @@ public class FastqShuffle extends Launcher
 	@Parameter(names={"-r"},description="random seed ",converter=Launcher.RandomConverter.class)
 	private Random random=new Random(-1L);
 	
+	@Parameter(names={"--buckets"},description="Use a two-pass bucketed shuffle: reads are dispatched at random into 'N' compressed temporary files, each bucket is then shuffled in memory. Each bucket must fit in memory. A value lower than 1 means: use a SortingCollection sorted on a random key.")
+	private int n_buckets = 0;
+
+	@Parameter(names={"-j","--jobs"},description="With --buckets: number of threads compressing the buckets. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
+
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
 	
+	/** a temporary file containing a random subset of the reads */
+	private static class Bucket
+		{
+		final File file;
+		final DataOutputStream dos;
+		/** number of reads or pairs written in this bucket */
+		long count = 0L;
+		/** reads waiting to be sent to this bucket */
+		List<FastqRecord> buffer = new ArrayList<>();
+		Bucket(final File file) throws IOException
+			{
+			this.file = file;
+			this.dos = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file)),65536));
+			}
+		/** called by the compressing threads */
+		synchronized void write(final List<FastqRecord> records,final int recordsPerItem) throws IOException
+			{
+			for(final FastqRecord rec:records)
+				{
+				writeFastqRecord(this.dos,rec);
+				}
+			this.count += records.size()/recordsPerItem;
+			}
+		}
+	
 	private static class OneRead
 		{
 		long random;
@@ -241,9 +296,121 @@ public class FastqShuffle extends Launcher
 		{
 		}
 	
+	/** two-pass shuffle: dispatch the reads into 'n_buckets' files, then shuffle each bucket in memory */
+	private void runBuckets(final FastqReader r1, final FastqReader r2,final boolean paired,final FastqWriter w1) throws IOException
+		{
+		final int recordsPerItem = (paired?2:1);
+		final int batchSize = Math.max(1,this.writingSortingCollection.getMaxRecordsInRam()/this.n_buckets)*recordsPerItem;
+		final File tmpDir = this.writingSortingCollection.getTmpDirectories().get(0);
+		final List<Bucket> buckets = new ArrayList<>(this.n_buckets);
+		final AtomicReference<Throwable> writeError = new AtomicReference<>(null);
+		/* when the queue is full, the reading thread compresses the batch itself */
+		final ExecutorService executorService = new ThreadPoolExecutor(
+				this.nJobs, this.nJobs,
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(this.nJobs*2),
+				new ThreadPoolExecutor.CallerRunsPolicy()
+				);
+		try
+			{
+			for(int i=0;i< this.n_buckets;i++)
+				{
+				final File f = File.createTempFile("shuffle.", ".fq.gz", tmpDir);
+				f.deleteOnExit();
+				buckets.add(new Bucket(f));
+				}
+			
+			/* first pass: dispatch the reads */
+			long nReads=0;
+			while(r1.hasNext())
+				{
+				final Bucket bucket = buckets.get(this.random.nextInt(buckets.size()));
+				bucket.buffer.add(r1.next());
+				if(paired)
+					{
+					final FastqReader r = (r2==null?r1:r2);
+					if(!r.hasNext())  throw new IOException("fastq.paired.read.missing");
+					bucket.buffer.add(r.next());
+					}
+				if((++nReads)%this.writingSortingCollection.getMaxRecordsInRam()==0)
+					{
+					LOG.info("Read "+nReads+" reads");
+					}
+				if(bucket.buffer.size()>=batchSize)
+					{
+					final List<FastqRecord> batch = bucket.buffer;
+					bucket.buffer = new ArrayList<>(batchSize);
+					executorService.execute(()->{
+						try {
+							bucket.write(batch, recordsPerItem);
+							}
+						catch(final Throwable err) {
+							writeError.compareAndSet(null, err);
+							}
+						});
+					}
+				if(writeError.get()!=null) throw new IOException(writeError.get());
+				}
+			if(r2!=null && r2.hasNext()) throw new IOException("fastq.paired.read.missing");
+			executorService.shutdown();
+			executorService.awaitTermination(365, TimeUnit.DAYS);
+			if(writeError.get()!=null) throw new IOException(writeError.get());
+			
+			for(final Bucket bucket:buckets)
+				{
+				bucket.write(bucket.buffer, recordsPerItem);
+				bucket.buffer = null;
+				bucket.dos.close();
+				}
+			
+			/* second pass: shuffle each bucket in memory */
+			for(int i=0;i< buckets.size();i++)
+				{
+				final Bucket bucket = buckets.get(i);
+				LOG.info("shuffling bucket "+(i+1)+"/"+buckets.size()+" N="+bucket.count);
+				final List<FastqRecord[]> items = new ArrayList<>((int)Math.min(Integer.MAX_VALUE-8,bucket.count));
+				try(DataInputStream dis = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(bucket.file)),65536))) {
+					for(long n=0;n< bucket.count;n++)
+						{
+						final FastqRecord item[]=new FastqRecord[recordsPerItem];
+						for(int j=0;j< recordsPerItem;j++)
+							{
+							item[j] = readFastqRecord(dis);
+							}
+						items.add(item);
+						}
+					}
+				Collections.shuffle(items, this.random);
+				for(final FastqRecord item[]:items)
+					{
+					for(final FastqRecord rec:item) w1.write(rec);
+					}
+				bucket.file.delete();
+				}
+			}
+		catch(final InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		finally
+			{
+			executorService.shutdownNow();
+			for(final Bucket bucket:buckets)
+				{
+				CloserUtil.close(bucket.dos);
+				bucket.file.delete();
+				}
+			}
+		}
+	
 	
 	private void runPaired(final FastqReader r1, final FastqReader r2,final FastqWriter w1) throws IOException
 		{
+		if(this.n_buckets>0)
+			{
+			runBuckets(r1, r2, true, w1);
+			return;
+			}
 		long nReads=0;
 		final SortingCollection<TwoReads> sorting= SortingCollection.newInstance(
 				TwoReads.class,
@@ -298,6 +465,11 @@ public class FastqShuffle extends Launcher
 	
 	private void runSingle(final FastqReader r1,final FastqWriter w1) throws IOException
 		{
+		if(this.n_buckets>0)
+			{
+			runBuckets(r1, null, false, w1);
+			return;
+			}
 		long nReads=0;
 		final  SortingCollection<OneRead> sorting= SortingCollection.newInstance(
 				OneRead.class,
@@ -341,7 +513,11 @@ public class FastqShuffle extends Launcher
 		FastqReader r1=null;
 		FastqReader r2=null;
 		FastqWriter w=null;
-		
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
 		try
 			{
 			if(fileout==null)
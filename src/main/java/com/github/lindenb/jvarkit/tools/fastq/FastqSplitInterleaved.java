@@ -39,9 +39,8 @@ import com.github.lindenb.jvarkit.io.NullOuputStream;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.BatchFastqReader;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
-
 /**
 
 BEGIN_DOC
@@ -79,8 +78,8 @@ public class FastqSplitInterleaved extends Launcher
 	private String fileA=null;
 	@Parameter(names={"-b"},description="(fastq2 file or '-' for stdout). Ignore 2nd read if omitted. Optional.")
 	private String fileB=null;
-
-	
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads used to uncompress BGZF fastq files. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
 	private FastqSplitInterleaved() {
 		}
 	
@@ -94,11 +93,11 @@ public class FastqSplitInterleaved extends Launcher
 			{
 			if(args.isEmpty())
 				{
-				r1=new FourLinesFastqReader(stdin());				
+				r1=BatchFastqReader.open(stdin(),Math.max(1,this.nJobs<1?Runtime.getRuntime().availableProcessors():this.nJobs));				
 				}
 			else if(args.size()==1)
 				{
-				r1=new FourLinesFastqReader(new File(args.get(0)));				
+				r1=BatchFastqReader.open(new File(args.get(0)),Math.max(1,this.nJobs<1?Runtime.getRuntime().availableProcessors():this.nJobs));				
 				}
 			else
 				{
@@ -29,9 +29,16 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.tribble.readers.LineIterator;
@@ -87,107 +94,133 @@ public class GenomicJaspar extends Launcher
 	private double fraction_of_max=0.95;
 
 	
+	private static final int CHUNK_SIZE = 1_000_000;
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads. The sequences are scanned by chunks of "+CHUNK_SIZE+" bases in parallel, the output keeps the input order. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	
 	private final List<Matrix> jasparDb=new ArrayList<Matrix>();
+	private MatrixScanner scanner = null;
 	GenomicJaspar()
 		{
 		}
 	
+	/** scans a chunk of sequence, returns the BED lines */
+	private class Chunk implements Callable<String>
+		{
+		private final String seqName;
+		/** position of the first base of 'sequence' in the contig */
+		private final int position0;
+		private final String sequence;
+		/** number of windows to test, starting at 0 */
+		private final int n_windows;
+		Chunk(final String seqName,final int position0,final String sequence,final int n_windows)
+			{
+			this.seqName = seqName;
+			this.position0 = position0;
+			this.sequence = sequence;
+			this.n_windows = n_windows;
+			}
+		@Override
+		public String call()
+			{
+			final StringBuilder out = new StringBuilder();
+			final byte codes[] = MatrixScanner.encode(this.sequence, 0, this.sequence.length());
+			scanner.scan(codes, codes.length, 0, this.n_windows, (M,POS,STRAND,SCORE)->{
+				final Matrix matrix = scanner.getMatrix(M);
+				final CharSequence forward=new SubSequence(this.sequence,POS,POS+matrix.length());
+				out.append(this.seqName);
+				out.append('\t');
+				out.append(this.position0+POS);
+				out.append('\t');
+				out.append(this.position0+POS+matrix.length());
+				out.append('\t');
+				out.append(matrix.getName());
+				out.append('\t');
+				out.append((int)(1000.0*(SCORE/scanner.getMaxScore(M))));
+				out.append('\t');
+				out.append(STRAND==1?'-':'+');
+				out.append('\t');
+				out.append(matrix.length());
+				out.append('\t');
+				out.append(matrix.getArchetype());
+				out.append('\t');
+				out.append(STRAND==0?forward:new RevCompCharSequence(forward));
+				out.append('\n');
+				});
+			return out.toString();
+			}
+		}
 	
-	private void digest(
-			final PrintWriter out,
-			final String seqName,
-			final int position0,
-			final StringBuilder sequence
-			)
+	/** print the results of the finished chunks, keeps at most 'maxPending' chunks in the queue */
+	private void flushChunks(final PrintWriter out,final Deque<Future<String>> pending,final int maxPending) throws IOException
 		{
-		
-		for(final Matrix matrix:this.jasparDb)
+		while(pending.size() > maxPending)
 			{
-			if(matrix.length()>sequence.length()) continue;
-			
-			final CharSequence forward=new SubSequence(sequence,0,matrix.length());
-			final CharSequence revcomp=new RevCompCharSequence(forward);
-			
-
-			
-			for(int strand=0;strand<2;++strand)
+			try
 				{
-				double score= matrix.score(strand==0?forward:revcomp);
-				if(score<=0) continue;
-				
-				if(score>= matrix.max()*this.fraction_of_max)
-					{
-					out.print(seqName);
-					out.print('\t');
-					out.print(position0);
-					out.print('\t');
-					out.print(position0+matrix.length());
-					out.print('\t');
-					out.print(matrix.getName());
-					out.print('\t');
-					out.print((int)(1000.0*(score/matrix.max())));
-					out.print('\t');
-					out.print(strand==1?'-':'+');
-					out.print('\t');
-					out.print(matrix.length());
-					out.print('\t');
-					out.print(matrix.getArchetype());
-					out.print('\t');
-					out.print(strand==0?forward:revcomp);
-					out.println();
-					
-					break;
-					}
+				out.print(pending.removeFirst().get());
+				}
+			catch(final InterruptedException err)
+				{
+				throw new IOException(err);
+				}
+			catch(final ExecutionException err)
+				{
+				throw new IOException(err.getCause());
 				}
 			}
 		}
 	
-	private void run(final PrintWriter out,final Reader in) throws IOException
+	private void run(final PrintWriter out,final Reader in,final ExecutorService executor,final int maxPending) throws IOException
 		{
-		int longest=0;
-		for(final Matrix m:this.jasparDb)
-			{
-			longest=Math.max(m.length(), longest);
-			}
+		final int longest = this.scanner.getLongestLength();
 		LOG.info("longest:"+longest);
+		final Deque<Future<String>> pending = new ArrayDeque<>();
 		String seqName="";
 		int position0=0;
-		final StringBuilder sequences=new StringBuilder(longest);
-		for(;;)
+		final StringBuilder sequences=new StringBuilder(CHUNK_SIZE+longest);
+		try
 			{
-			int c=in.read();
-			if(c==-1 || c=='>')
+			for(;;)
 				{
-				while(sequences.length()!=0)
-					{
-					digest(out,seqName,position0,sequences);
-					++position0;
-					sequences.deleteCharAt(0);
-					}
-				if(c==-1) break;
-				final StringBuilder b=new StringBuilder();
-				while((c=in.read())!=-1 && c!='\n')
+				int c=in.read();
+				if(c==-1 || c=='>')
 					{
-					b.append((char)c);
+					if(sequences.length()!=0)
+						{
+						pending.add(executor.submit(new Chunk(seqName,position0,sequences.toString(),sequences.length())));
+						sequences.setLength(0);
+						flushChunks(out, pending, maxPending);
+						}
+					if(c==-1) break;
+					final StringBuilder b=new StringBuilder();
+					while((c=in.read())!=-1 && c!='\n')
+						{
+						b.append((char)c);
+						}
+					seqName=b.toString();
+					position0=0;
 					}
-				seqName=b.toString();
-				position0=0;
-				}
-			else if(!Character.isWhitespace(c))
-				{
-				sequences.append((char)Character.toUpperCase(c));
-				if(sequences.length()==longest)
+				else if(!Character.isWhitespace(c))
 					{
-					digest(out,seqName,position0,sequences);
-					if(out.checkError())  return ;
-					++position0;
-					sequences.deleteCharAt(0);
-					if(position0%1000000==0)
+					sequences.append((char)Character.toUpperCase(c));
+					if(sequences.length()==CHUNK_SIZE+longest-1)
 						{
+						pending.add(executor.submit(new Chunk(seqName,position0,sequences.toString(),CHUNK_SIZE)));
+						// keep the bases needed by the windows of the next chunk
+						sequences.delete(0, CHUNK_SIZE);
+						position0+=CHUNK_SIZE;
 						LOG.info(seqName+" "+position0);
+						flushChunks(out, pending, maxPending);
+						if(out.checkError())  return ;
 						}
 					}
 				}
+			flushChunks(out, pending, 0);
+			}
+		finally
+			{
+			pending.forEach(F->F.cancel(true));
 			}
 		}
 
@@ -199,6 +232,7 @@ public class GenomicJaspar extends Launcher
 			return -1;
 			}
 		PrintWriter out=null;
+		ExecutorService executor = null;
 		try
 			{
 			out = super.openFileOrStdoutAsPrintWriter(OUT);
@@ -213,12 +247,16 @@ public class GenomicJaspar extends Launcher
 				}
 			lr.close();
 			LOG.info("JASPAR size: "+this.jasparDb.size());
+			this.scanner = new MatrixScanner(this.jasparDb, this.fraction_of_max);
 			
+			final int jobs = this.nThreads<1?Runtime.getRuntime().availableProcessors():this.nThreads;
+			executor = Executors.newFixedThreadPool(jobs);
+			final int maxPending = jobs*2;
 			
 			if(args.isEmpty())
 				{
 				LOG.info("Reading from stdin");
-				run(out,new InputStreamReader(stdin()));
+				run(out,new InputStreamReader(stdin()),executor,maxPending);
 				}
 			else
 				{
@@ -226,7 +264,7 @@ public class GenomicJaspar extends Launcher
 					{
 					LOG.info("Opening "+fname);
 					Reader in=IOUtils.openURIForBufferedReading(fname);
-					run(out,in);
+					run(out,in,executor,maxPending);
 					in.close();
 					}
 					
@@ -243,6 +281,7 @@ public class GenomicJaspar extends Launcher
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			CloserUtil.close(out);
 			}
 		}
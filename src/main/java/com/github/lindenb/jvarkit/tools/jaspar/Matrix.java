@@ -216,16 +216,18 @@ public class Matrix
 					if(!iter.hasNext()) throw new IllegalStateException();
 					final String line=iter.next();
 					final String tokens[]=this.ws.split(line);
+					/* first token is the base */
+					final int ncols = tokens.length-1;
 					if(i==0)
 						{
-						data=new double[tokens.length*4];
+						data=new double[ncols*4];
 						}
 					else
 						{
-						if(tokens.length*4!=data.length) throw new RuntimeException("Bad matrix in "+header);
+						if(ncols*4!=data.length) throw new RuntimeException("Bad matrix in "+header);
 						}
 					if(!tokens[0].matches("[ATGC]")) throw new RuntimeException("line in "+line);
-					for(int j=1;j< tokens.length;++j) data[i*tokens.length+j]=Integer.parseInt(tokens[j]);
+					for(int j=1;j< tokens.length;++j) data[i*ncols+(j-1)]=Integer.parseInt(tokens[j]);
 					}
 				return new Matrix(header, data);
 				}
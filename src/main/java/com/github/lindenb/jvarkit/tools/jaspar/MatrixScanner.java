@@ -0,0 +1,218 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.jaspar;
+
+import java.util.List;
+
+/**
+ * Scans a DNA sequence with a set of PWM matrices, reports the windows where
+ * the score of the forward or of the reverse-complement strand is greater than
+ * 'fraction_of_max' x the best possible score of the matrix.
+ * 
+ * Gives the same hits as Matrix.score() but
+ * - the sequence is encoded once as an array of base indexes (see encode)
+ * - the weights of each matrix are stored column by column with an extra, null, weight for the non-ACGT bases
+ * - for each matrix, suffixMax[x] is the best score that columns x..length-1 can add to the current sum.
+ *   A window is abandoned as soon as it cannot reach the threshold.
+ * 
+ * A MatrixScanner is immutable and can be shared by several threads.
+ */
+class MatrixScanner
+	{
+	/** code of any base that is not A,C,G,T */
+	static final byte OTHER = 4;
+	private static final byte CODES[] = new byte[128];
+	static {
+		for(int i=0;i< CODES.length;i++) CODES[i]=OTHER;
+		CODES['A']=0; CODES['a']=0;
+		CODES['C']=1; CODES['c']=1;
+		CODES['G']=2; CODES['g']=2;
+		CODES['T']=3; CODES['t']=3;
+		}
+	/** margin for the rounding errors between the partial sums and the final score */
+	private static final double EPSILON = 1E-9;
+	
+	/** called for each hit */
+	@FunctionalInterface
+	interface HitHandler
+		{
+		/**
+		 * @param matrixIndex index of the matrix in the list
+		 * @param pos0 0-based position of the window in the encoded array
+		 * @param strand 0: forward, 1: reverse-complement
+		 * @param score score of the window
+		 */
+		void hit(int matrixIndex,int pos0,int strand,double score);
+		}
+	
+	private final Matrix matrices[];
+	private final int lengths[];
+	/* weights[m][x*5+code] */
+	private final double weights[][];
+	/* suffixMax[m][x] = best score for columns x..length-1 . suffixMax[m][length]=0 */
+	private final double suffixMax[][];
+	private final double maxScores[];
+	private final double thresholds[];
+	private final int longest;
+	
+	MatrixScanner(final List<Matrix> matrices,final double fraction_of_max)
+		{
+		final int n = matrices.size();
+		this.matrices = matrices.toArray(new Matrix[n]);
+		this.lengths = new int[n];
+		this.weights = new double[n][];
+		this.suffixMax = new double[n][];
+		this.maxScores = new double[n];
+		this.thresholds = new double[n];
+		int longest = 0;
+		for(int m=0;m< n;++m)
+			{
+			final Matrix matrix = this.matrices[m];
+			final int len = matrix.length();
+			this.lengths[m] = len;
+			longest = Math.max(longest, len);
+			final double w[] = new double[len*5];
+			for(int x=0;x< len;++x)
+				{
+				for(int y=0;y< 4;++y) w[x*5+y] = matrix.get(y, x);
+				w[x*5+OTHER] = 0.0;
+				}
+			this.weights[m] = w;
+			final double sm[] = new double[len+1];
+			for(int x=len-1;x>=0;--x)
+				{
+				double best = 0.0;/* non-ACGT base adds nothing */
+				for(int y=0;y< 4;++y) best = Math.max(best, w[x*5+y]);
+				sm[x] = sm[x+1] + best;
+				}
+			this.suffixMax[m] = sm;
+			this.maxScores[m] = matrix.max();
+			this.thresholds[m] = this.maxScores[m] * fraction_of_max;
+			}
+		this.longest = longest;
+		}
+	
+	/** encode a sequence as an array of base indexes A=0,C=1,G=2,T=3, others=OTHER */
+	static byte[] encode(final CharSequence seq,final int start,final int end)
+		{
+		final byte array[] = new byte[end-start];
+		for(int i=start;i< end;++i)
+			{
+			final char c = seq.charAt(i);
+			array[i-start] = c < 128 ? CODES[c] : OTHER;
+			}
+		return array;
+		}
+	
+	int size()
+		{
+		return this.matrices.length;
+		}
+	
+	Matrix getMatrix(final int matrixIndex)
+		{
+		return this.matrices[matrixIndex];
+		}
+	
+	/** best possible score of the matrix, same as Matrix.max() */
+	double getMaxScore(final int matrixIndex)
+		{
+		return this.maxScores[matrixIndex];
+		}
+	
+	/** length of the longest matrix */
+	int getLongestLength()
+		{
+		return this.longest;
+		}
+	
+	/**
+	 * scan all the matrices for each window starting in [fromPos,toPos).
+	 * The windows must end before 'seqLength'. Positions are ascending, for each position
+	 * the matrices are tested in the order of the list.
+	 */
+	void scan(final byte codes[],final int seqLength,final int fromPos,final int toPos,final HitHandler handler)
+		{
+		for(int pos=fromPos;pos< toPos;++pos)
+			{
+			for(int m=0;m< this.matrices.length;++m)
+				{
+				if(pos + this.lengths[m] > seqLength) continue;
+				scanWindow(m, codes, pos, handler);
+				}
+			}
+		}
+	
+	/** scan one matrix for each window starting in [fromPos,toPos) */
+	void scanMatrix(final int matrixIndex,final byte codes[],final int seqLength,final int fromPos,final int toPos,final HitHandler handler)
+		{
+		final int end = Math.min(toPos,seqLength - this.lengths[matrixIndex] + 1);
+		for(int pos=Math.max(0,fromPos);pos< end;++pos)
+			{
+			scanWindow(matrixIndex, codes, pos, handler);
+			}
+		}
+	
+	/** test both strands of one window. Like the original implementation, the reverse strand is not tested if the forward strand is a hit */
+	private void scanWindow(final int m,final byte codes[],final int pos,final HitHandler handler)
+		{
+		final int len = this.lengths[m];
+		final double w[] = this.weights[m];
+		final double sm[] = this.suffixMax[m];
+		final double limit = this.thresholds[m] - EPSILON;
+		
+		// forward strand
+		double score = 0.0;
+		int x = 0;
+		for(x=0;x< len;++x)
+			{
+			if(score + sm[x] < limit) break;
+			score += w[x*5+codes[pos+x]];
+			}
+		if(x==len && isHit(m,score))
+			{
+			handler.hit(m, pos, 0, score);
+			return;
+			}
+		// reverse complement strand
+		final int last = pos + len - 1;
+		score = 0.0;
+		for(x=0;x< len;++x)
+			{
+			if(score + sm[x] < limit) return;
+			final byte c = codes[last-x];
+			score += w[x*5+(c==OTHER?OTHER:3-c)];
+			}
+		if(isHit(m,score))
+			{
+			handler.hit(m, pos, 1, score);
+			}
+		}
+	
+	private boolean isHit(final int m,final double score)
+		{
+		return score > 0 && score >= this.thresholds[m];
+		}
+	}
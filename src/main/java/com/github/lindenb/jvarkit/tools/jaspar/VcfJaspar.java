@@ -24,9 +24,7 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.lang.SubSequence;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
-import com.github.lindenb.jvarkit.util.bio.RevCompCharSequence;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -79,8 +77,7 @@ public class VcfJaspar extends Launcher
 	
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	private List<Matrix> jasparDb=new ArrayList<Matrix>();
-	
-
+	private MatrixScanner scanner = null;
 	public VcfJaspar() {
 		}
 	
@@ -108,40 +105,30 @@ public class VcfJaspar extends Launcher
 				}
 			
 			final Set<String> hits=new HashSet<String>();
+			
+			/* encode the bases of all the windows overlapping the variant */
+			final int winStart = Math.max(0, var.getStart() - this.scanner.getLongestLength());
+			final int winEnd = Math.min(genomicSequence.length(), var.getStart() - 1 + this.scanner.getLongestLength());
+			final byte codes[] = MatrixScanner.encode(genomicSequence, winStart, Math.max(winStart, winEnd));
 		
-			for(final Matrix matrix:this.jasparDb)
+			for(int m=0;m< this.scanner.size();++m)
 				{
-					int start0=Math.max(0, var.getStart() - matrix.length());
-					for(int y=start0;y<var.getStart() && y+matrix.length() <= genomicSequence.length();++y)
-						{
-						final CharSequence forward=new SubSequence(genomicSequence,y,y+matrix.length());
-						final CharSequence revcomp=new RevCompCharSequence(forward);
-						
-						//run each strand
-						for(int strand=0;strand<2;++strand)
-							{
-							double score= matrix.score(strand==0?forward:revcomp);
-							if(score<=0) continue;
-							
-							if(score>= matrix.max()*this.fraction_of_max)
-								{
-								StringBuilder b=new StringBuilder("(");
-								b.append(matrix.getName().replaceAll("[ \t;=]+", "/"));
-								b.append("|");
-								b.append(matrix.length());
-								b.append("|");
-								b.append((int)(1000.0*(score/matrix.max())));
-								b.append("|");
-								b.append(y+1);
-								b.append("|");
-								b.append(strand==0?'+':'-');
-								b.append(")");
-								hits.add(b.toString());
-								break;
-								}
-							}
-						
-					}
+				final Matrix matrix = this.scanner.getMatrix(m);
+				final int start0=Math.max(0, var.getStart() - matrix.length());
+				this.scanner.scanMatrix(m, codes, codes.length, start0 - winStart, var.getStart() - winStart, (M,POS,STRAND,SCORE)->{
+					final StringBuilder b=new StringBuilder("(");
+					b.append(matrix.getName().replaceAll("[ \t;=]+", "/"));
+					b.append("|");
+					b.append(matrix.length());
+					b.append("|");
+					b.append((int)(1000.0*(SCORE/this.scanner.getMaxScore(M))));
+					b.append("|");
+					b.append(winStart+POS+1);
+					b.append("|");
+					b.append(STRAND==0?'+':'-');
+					b.append(")");
+					hits.add(b.toString());
+					});
 				}
 			if(hits.isEmpty())
 				{
@@ -180,7 +167,7 @@ public class VcfJaspar extends Launcher
 				}
 			CloserUtil.close(liter);
 			LOG.info("JASPAR size: "+this.jasparDb.size());
-
+			this.scanner = new MatrixScanner(this.jasparDb, this.fraction_of_max);
 			if(jasparDb.isEmpty())
 				{
 				LOG.warn("JASPAR IS EMPTY");
@@ -1,38 +1,54 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import htsjdk.samtools.SamReader;
-import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
+import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.math.stats.IntHistogram;
+import com.github.lindenb.jvarkit.math.stats.QuantileSketch;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 /**
 BEGIN_DOC
 
+## Median
+
+The median of the window coverages is computed with an exact histogram of the sums of the depths in each window (those
+values are bounded) so the tool only needs one pass over the BAM and one pass over the temporary window values.
+
+When the windows are very large, option `--sketch` uses a mergeable quantile sketch with the given relative accuracy instead of the
+exact histogram.
+
+When the BAM is indexed, option `--jobs` processes the contigs in parallel. Each thread needs a `short` array of the size of its contig.
+The distribution of each contig is merged as soon as the contig is scanned. The exact histogram keeps a dense array only for the
+small sums and counts the rare large values in a sparse map.
 
 END_DOC
  */
@@ -45,37 +61,56 @@ public class CoverageNormalizer extends Launcher
 	private int window_size=100;
 	@Parameter(names="-s",description=" (size) sliding window shift")
 	private int window_shift=50;
+	@Parameter(names={"-j","--jobs"},description="number of parallel jobs. Contigs are processed in parallel if the BAM is indexed.")
+	private int nJobs=1;
+	@Parameter(names={"--sketch"},description="if greater than 0, compute the median with a quantile sketch having this relative accuracy instead of the exact histogram of the coverages. e.g: 0.01")
+	private double sketchAccuracy=0;
 	
 	private int min_coverage=10;
 	
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 
-	
-	private static class FloatCodec extends AbstractDataCodec<Float>
+	/** window coverages for one contig */
+	private class ContigData
 		{
-		@Override
-		public Float decode(DataInputStream dis) throws IOException
+		final int tid;
+		final File tmpFile;
+		int num_written=0;
+		float minCov=Float.MAX_VALUE;
+		float maxCov=0;
+		/** histogram of the sums of the depths for the windows having a coverage >= min_coverage */
+		IntHistogram histogram;
+		/** or quantile sketch of those coverages. Both are released once merged into the Summary */
+		QuantileSketch sketch;
+		ContigData(final int tid) throws IOException
 			{
-			try { return dis.readFloat();}
-			catch(Exception err) { return null;}
-			}
-		@Override
-		public void encode(DataOutputStream dos, Float v)
-				throws IOException {
-			dos.writeFloat(v);
-			}
-		@Override
-		public AbstractDataCodec<Float> clone() {
-			return new FloatCodec();
+			this.tid=tid;
+			this.tmpFile=File.createTempFile("cov_", ".dat.gz", writingSortingCollection.getTmpDirectories().get(0));
+			this.tmpFile.deleteOnExit();
+			this.histogram=(sketchAccuracy>0?null:new IntHistogram());
+			this.sketch=(sketchAccuracy>0?new QuantileSketch(sketchAccuracy):null);
 			}
 		}
-	private static class FloatCmp
-		implements Comparator<Float>
+	
+	/** min/max and distribution of the coverages merged over all the contigs */
+	private class Summary
 		{
-		@Override
-		public int compare(Float f1, Float f2) {
-			return f1.compareTo(f2);
+		float minCov=Float.MAX_VALUE;
+		float maxCov=0;
+		final IntHistogram histogram=new IntHistogram();
+		final QuantileSketch sketch=(sketchAccuracy>0?new QuantileSketch(sketchAccuracy):null);
+		
+		/** merge a contig as soon as it was scanned, and release its histogram */
+		void merge(final ContigData data)
+			{
+			if(data==null) return;
+			this.minCov=Math.min(this.minCov, data.minCov);
+			this.maxCov=Math.max(this.maxCov, data.maxCov);
+			if(data.histogram!=null) this.histogram.merge(data.histogram);
+			if(data.sketch!=null) this.sketch.merge(data.sketch);
+			data.histogram=null;
+			data.sketch=null;
 			}
 		}
 	
@@ -84,152 +119,186 @@ public class CoverageNormalizer extends Launcher
 		
 		}
 	
-	private int run(SamReader sfr) throws IOException
+	/** window coverage from the sum of the depths */
+	private float toCoverage(final int sum)
 		{
-		SAMSequenceDictionary dictionary=sfr.getFileHeader().getSequenceDictionary();
-		SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dictionary);
-		File tmpFile1=File.createTempFile("cov_", ".dat.gz", this.writingSortingCollection.getTmpDirectories().get(0));
-		tmpFile1.deleteOnExit();
-
-		LOG.info("Opening tmp File "+tmpFile1);
-		GZIPOutputStream gos=null;
-		DataInputStream dis=null;
-		SortingCollection<Float> median=null;
-		try
+		return ((float)sum)/window_size;
+		}
+	
+	/** consume all the reads on contig 'tid' and write the window sums in a temporary file */
+	private ContigData scanContig(
+			final SAMSequenceDictionary dictionary,
+			final int tid,
+			final PeekableIterator<SAMRecord> iter,
+			final SAMSequenceDictionaryProgress progress) throws IOException
+		{
+		final SAMSequenceRecord ssr=dictionary.getSequence(tid);
+		LOG.info("allocate "+ssr.getSequenceLength()+" for "+ssr.getSequenceName());
+		short array[]=new short[ssr.getSequenceLength()];
+		boolean found=false;
+		while(iter.hasNext() && iter.peek().getReferenceIndex()==tid)
 			{
-			gos=new GZIPOutputStream(new FileOutputStream(tmpFile1));
-			DataOutputStream daos=new DataOutputStream(gos);
-			SAMRecordIterator iter=sfr.iterator();
-			int curr_tid=-1;
-			short array[]=null;
-			float minCov=Float.MAX_VALUE;
-			float maxCov=0;
-			int num_written[]=new int[dictionary.size()];
-			Arrays.fill(num_written, 0);
-			
-			for(;;)
+			final SAMRecord rec=iter.next();
+			if(rec.getReadUnmappedFlag()) continue;
+			if(progress!=null) progress.watch(rec);
+			if(rec.isSecondaryOrSupplementary()) continue;
+			found=true;
+			for(int i=rec.getAlignmentStart();i< rec.getAlignmentEnd() && i< array.length ; ++i)
 				{
-				SAMRecord rec=null;
-				if(iter.hasNext())
+				array[i]=(short)Math.min((int)Short.MAX_VALUE,1+(int)array[i]);
+				}
+			}
+		if(!found) return null;
+		
+		final ContigData data=new ContigData(tid);
+		LOG.info("Writing data for chromosome "+ssr.getSequenceName());
+		try(DataOutputStream daos=new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(data.tmpFile)))))
+			{
+			for(int i=0;
+					i + window_size <= array.length;
+					i+=window_shift
+					)
+				{
+				int sum=0;
+				for(int j=0;j< window_size;++j)
 					{
-					rec=iter.next();
-					if(rec.getReadUnmappedFlag()) continue;
-					progress.watch(rec);
-					if(rec.isSecondaryOrSupplementary()) continue;
+					sum+=array[i+j];
 					}
-				if(rec==null || curr_tid!=rec.getReferenceIndex())
+				daos.writeInt(sum);
+				final float v=toCoverage(sum);
+				data.minCov=Math.min(data.minCov, v);
+				data.maxCov=Math.max(data.maxCov, v);
+				if(v>=min_coverage)
 					{
-					if(curr_tid!=-1)
+					if(data.histogram!=null)
 						{
-						LOG.info("Writing data for chromosome "+dictionary.getSequence(curr_tid).getSequenceName());
-						for(int i=0;
-								i + window_size <= array.length;
-								i+=window_shift
-								)
+						data.histogram.add(sum);
+						}
+					else
+						{
+						data.sketch.add(v);
+						}
+					}
+				data.num_written++;
+				}
+			daos.flush();
+			}
+		LOG.info("End writing data N="+data.num_written);
+		return data;
+		}
+	
+	/** keep the data of a scanned contig (if any) and merge its distribution */
+	private void mergeContig(final ContigData data,final ContigData contigs[],final Summary summary)
+		{
+		if(data==null) return;
+		contigs[data.tid]=data;
+		summary.merge(data);
+		}
+	
+	private int run(final String input,final SamReader sfr) throws IOException
+		{
+		final SAMSequenceDictionary dictionary=sfr.getFileHeader().getSequenceDictionary();
+		final ContigData contigs[]=new ContigData[dictionary.size()];
+		final Summary summary=new Summary();
+		DataInputStream dis=null;
+		try
+			{
+			if(this.nJobs>1 && input!=null && sfr.hasIndex())
+				{
+				LOG.info("processing contigs using "+this.nJobs+" threads");
+				CloserUtil.close(sfr);
+				final ExecutorService executorService = Executors.newFixedThreadPool(this.nJobs);
+				try
+					{
+					/* bounded queue of pending contigs, so finished histograms are merged and released early */
+					final Deque<Future<ContigData>> futures = new ArrayDeque<>(2*this.nJobs);
+					for(final SAMSequenceRecord ssr:dictionary.getSequences())
+						{
+						if(futures.size()>=2*this.nJobs)
 							{
-							float sum=0;
-							for(int j=0;j< window_size;++j)
+							mergeContig(futures.pollFirst().get(),contigs,summary);
+							}
+						futures.add(executorService.submit(()->{
+							try(SamReader sr=openSamReader(input))
 								{
-								sum+=array[i+j];
+								try(PeekableIterator<SAMRecord> iter=new PeekableIterator<>(sr.query(ssr.getSequenceName(), 0, 0, false)))
+									{
+									return scanContig(dictionary,ssr.getSequenceIndex(),iter,null);
+									}
 								}
-							float v=sum/window_size;
-							daos.writeFloat(v);
-							minCov=(float)Math.min(minCov, v);
-							maxCov=(float)Math.max(maxCov, v);
-							num_written[curr_tid]++;
-							}
-						LOG.info("End writing data N="+num_written[curr_tid]);
+							}));
+						}
+					while(!futures.isEmpty())
+						{
+						mergeContig(futures.pollFirst().get(),contigs,summary);
 						}
-					if(rec==null) break;
-					curr_tid=rec.getReferenceIndex();
-					SAMSequenceRecord ssr=dictionary.getSequence(curr_tid);
-					LOG.info("allocate "+ssr.getSequenceLength()+" for "+ssr.getSequenceName());
-					array=null;
-					System.gc();
-					array=new short[ssr.getSequenceLength()];
-					LOG.info("done: allocate.");
-					Arrays.fill(array, (short)0);
 					}
-				for(int i=rec.getAlignmentStart();i< rec.getAlignmentEnd() && i< array.length ; ++i)
+				finally
 					{
-					array[i]=(short)Math.min((int)Short.MAX_VALUE,1+(int)array[i]);
+					/* on error, don't let the remaining contigs keep the JVM alive */
+					executorService.shutdownNow();
+					executorService.awaitTermination(365, TimeUnit.DAYS);
 					}
 				}
-			array=null;
-			LOG.info("Closing BAM");
-			CloserUtil.close(sfr);
-			
-			LOG.info("Closing "+tmpFile1);
-			daos.flush();
-			gos.finish();
-			gos.flush();
-			gos.close();
-			
-			//start normalizing min/max find median value
-			long nWritten=0L;
-			median=SortingCollection.newInstance(
-					Float.class,
-					new FloatCodec(),
-					new FloatCmp(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
-					);
-			 median.setDestructiveIteration(true);
-			 dis=new DataInputStream(new GZIPInputStream(new FileInputStream(tmpFile1)));
-			 for(int n_items:num_written)
-			 	{
-				for(int i=0;i< n_items;++i)
+			else
+				{
+				final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dictionary);
+				try(PeekableIterator<SAMRecord> iter=new PeekableIterator<>(sfr.iterator()))
 					{
-					float v=dis.readFloat();
-					if(v<min_coverage) continue;
-					v=(float)((v-minCov)/(double)(maxCov-minCov));
-					median.add(v);
-					++nWritten;
+					while(iter.hasNext())
+						{
+						final int tid = iter.peek().getReferenceIndex();
+						if(tid<0) break;
+						mergeContig(scanContig(dictionary,tid,iter,progress),contigs,summary);
+						}
 					}
-			 	}
-			 median.doneAdding();
-			 CloserUtil.close(dis);
-
+				LOG.info("Closing BAM");
+				CloserUtil.close(sfr);
+				}
+			
+			final float minCov=summary.minCov;
+			final float maxCov=summary.maxCov;
+			final IntHistogram histogram=summary.histogram;
+			final QuantileSketch sketch=summary.sketch;
+			
 			 //get median
 			 float median_value=0f;
-			 long half=nWritten/2L;
-			 CloseableIterator<Float> iterFloat=median.iterator();
-			 while(iterFloat.hasNext() && half>0)
+			 final long nWritten=(sketch==null?histogram.getCount():sketch.getCount());
+			 final long half=nWritten/2L;
+			 if(half>0)
 			 	{
-				 median_value=iterFloat.next();
-				--half;
-				if(half<=0)
-					{
-					LOG.info("median = "+median_value);
-					break;
-					}
+				final float v=(sketch==null?
+						toCoverage(histogram.getValueAtRank(half)):
+						(float)sketch.getValueAtRank(half)
+						);
+				median_value=(float)((v-minCov)/(double)(maxCov-minCov));
+				LOG.info("median = "+median_value);
 			 	}
-			 CloserUtil.close(iterFloat);
-			 median.cleanup();
-			 median=null;
 			
-			 progress=new SAMSequenceDictionaryProgress(dictionary);
+			 final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dictionary);
 			 //dump data
-			 dis=new DataInputStream(new GZIPInputStream(new FileInputStream(tmpFile1)));
 			 for(int chrom_id=0;
-					 chrom_id< num_written.length;
+					 chrom_id< contigs.length;
 					 ++chrom_id
 					 )
 			 	{
-				int n_items=num_written[chrom_id];
+				final ContigData data=contigs[chrom_id];
+				if(data==null) continue;
+				dis=new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(data.tmpFile))));
+				int n_items=data.num_written;
 				int i=0;
 				Float value_start=null;
 				while(i< n_items)
 					{
 					if(value_start==null)
 						{
-						value_start=dis.readFloat();
+						value_start=toCoverage(dis.readInt());
 						}
 					int j=i+1;
 					Float value_end=null;
 					while(j < n_items)
 						{
-						value_end=dis.readFloat();
+						value_end=toCoverage(dis.readInt());
 						if(value_start.intValue()==value_end.intValue())
 							{
 							++j;
@@ -259,11 +328,9 @@ public class CoverageNormalizer extends Launcher
 					if(value_end==null) break;
 					value_start=value_end;
 					}
-			
+				CloserUtil.close(dis);
+				dis=null;
 			 	}
-			 CloserUtil.close(dis);
-
-			 
 			 
 			return 0;
 			}
@@ -274,10 +341,11 @@ public class CoverageNormalizer extends Launcher
 			}
 		finally
 			{
-			CloserUtil.close(gos);
 			CloserUtil.close(dis);
-			if(tmpFile1!=null) tmpFile1.delete();
-			if(median!=null) median.cleanup();
+			for(final ContigData data:contigs)
+				{
+				if(data!=null) data.tmpFile.delete();
+				}
 			}
 		
 		
@@ -289,7 +357,8 @@ public class CoverageNormalizer extends Launcher
 		SamReader sfr=null;
 		try
 			{
-			sfr = super.openSamReader(oneFileOrNull(args));
+			final String input = oneFileOrNull(args);
+			sfr = super.openSamReader(input);
 			
 			if(sfr.getFileHeader().getSortOrder()!=SortOrder.coordinate)
 				{
@@ -297,8 +366,7 @@ public class CoverageNormalizer extends Launcher
 				return -1;
 				}
 			
-			run(sfr);
-			return 0;
+			return run(input,sfr);
 			}
 		catch(Exception err)
 			{
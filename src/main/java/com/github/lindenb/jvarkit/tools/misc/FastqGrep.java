@@ -44,9 +44,8 @@ import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.BatchFastqReader;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
-
 @Program(
 	name="fastqgrep",
 	description="Grep reads names in fastq",
@@ -69,7 +68,8 @@ public class FastqGrep
 	private int n_before_remove=-1;
 	@Parameter(names="-V",description="invert)")
 	private boolean inverse=false;
-	
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads used to uncompress BGZF fastq files. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
 	private Map<String,Integer> readNames=new HashMap<String,Integer>(); 
 
 	
@@ -179,7 +179,7 @@ public class FastqGrep
 			if(args.isEmpty())
 				{
 				LOG.info("Reading from stdin");
-				FastqReader fqR=new FourLinesFastqReader(System.in);
+				FastqReader fqR=BatchFastqReader.open(stdin(),Math.max(1,this.nJobs<1?Runtime.getRuntime().availableProcessors():this.nJobs));
 				run(fqR,out);
 				fqR.close();
 				}
@@ -187,7 +187,7 @@ public class FastqGrep
 				{
 				File f=new File(fname);
 				LOG.info("Reading from "+f);
-				FastqReader fqR=new FourLinesFastqReader(f);
+				FastqReader fqR=BatchFastqReader.open(f,Math.max(1,this.nJobs<1?Runtime.getRuntime().availableProcessors():this.nJobs));
 				run(fqR,out);
 				fqR.close();
 				}
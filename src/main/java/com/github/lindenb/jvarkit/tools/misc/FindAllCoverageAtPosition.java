@@ -29,15 +29,23 @@ History:
 package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.Cigar;
@@ -55,6 +63,7 @@ import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.StringUtil;
 
 import com.beust.jcommander.Parameter;
@@ -92,8 +101,18 @@ $ find ./testdata/ -type f -name "*.bam" | \
 
 ```
 
-## See also
+## Many positions, many BAMs
+
+With `--merge-distance`, the positions are sorted and the positions closer than this distance are grouped
+into a single query per BAM. The reads of this query are decoded once and all the positions they overlap are counted.
+With `--jobs`, the BAMs are scanned in parallel and printed in the order of the input.
 
+```
+$ find ./testdata/ -type f -name "*.bam" | \
+ java -jar dist/findallcoverageatposition.jar -f positions.txt --merge-distance 1000 --jobs 10
+```
+
+## See also
  * [https://twitter.com/pjacock/status/538300664334798848](https://twitter.com/pjacock/status/538300664334798848)
  * [https://twitter.com/yokofakun/status/538300434109456385](https://twitter.com/yokofakun/status/538300434109456385)
  * [https://twitter.com/pjacock/status/538299549455233024](https://twitter.com/pjacock/status/538299549455233024)
@@ -116,7 +135,7 @@ public class FindAllCoverageAtPosition extends Launcher
 	private static final char INSERTION_CHAR='^';
 	private static final char DELETION_CHAR='-';
 	private static final char BASES_To_PRINT[]=new char[]{'A','C','G','T','N',INSERTION_CHAR,DELETION_CHAR};
-
+	private static final String DEFAULT_SAMPLE_NAME="(undefined)";
 	@Parameter(names={"-p","--position"},description="-p chrom:pos . Multiple separated by space. Add this chrom/position. Required")
 	private String positionStr = "";
 
@@ -131,10 +150,10 @@ public class FindAllCoverageAtPosition extends Launcher
 	private SamRecordFilter filter = SamRecordJEXLFilter.buildDefault();
 	@Parameter(names={"-r","-R","--reference"},description="[20171201]"+Launcher.INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private File referenceFileFile=null;
-	
-	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
-	private GenomicSequence genomicSequence=null;
-	
+	@Parameter(names={"--merge-distance"},description="Merge the sorted positions that are closer than this distance into a single query, and count all the positions of the query in one sweep over the reads. A negative value runs one query per position.")
+	private int mergeDistance=-1;
+	@Parameter(names={"-j","--jobs"},description="number of parallel jobs. BAMs are scanned in parallel and printed in the input order.")
+	private int nJobs=1;
 	private static class Mutation implements Comparable<Mutation>
 		{
 		final String chrom;
@@ -221,209 +240,360 @@ public class FindAllCoverageAtPosition extends Launcher
     	return new Mutation(ctg,src.pos);
     	}
     
-    private char getReferenceAt(final String contig,int pos1) {
-    	if(this.indexedFastaSequenceFile==null) return '.';
-    	if(this.genomicSequence==null || !this.genomicSequence.getChrom().equals(contig)) {
-    		final SAMSequenceDictionary dict= this.indexedFastaSequenceFile.getSequenceDictionary();
-    		if(dict==null) return '.';
-    		
-    		final ContigNameConverter converter = ContigNameConverter.fromOneDictionary(dict); 
-        	final String newctg =  converter.apply(contig);
-        	final SAMSequenceRecord rec= (newctg==null?null:dict.getSequence(newctg));
-        	if(rec!=null) genomicSequence=new GenomicSequence(this.indexedFastaSequenceFile, newctg);
+    /** reference and current contig sequence, one per scanned BAM so the parallel jobs don't share a cache */
+    private class ReferenceCache implements Closeable
+    	{
+    	private final IndexedFastaSequenceFile indexedFastaSequenceFile;
+    	private GenomicSequence genomicSequence=null;
+    	
+    	ReferenceCache() throws IOException
+    		{
+    		this.indexedFastaSequenceFile = new IndexedFastaSequenceFile(referenceFileFile);
+    		}
+    	
+    	char getReferenceAt(final String contig,int pos1) {
+    		if(this.genomicSequence==null || !this.genomicSequence.getChrom().equals(contig)) {
+    			final SAMSequenceDictionary dict= this.indexedFastaSequenceFile.getSequenceDictionary();
+    			if(dict==null) return '.';
+    			
+    			final ContigNameConverter converter = ContigNameConverter.fromOneDictionary(dict); 
+    			final String newctg =  converter.apply(contig);
+    			final SAMSequenceRecord rec= (newctg==null?null:dict.getSequence(newctg));
+    			if(rec!=null) this.genomicSequence=new GenomicSequence(this.indexedFastaSequenceFile, newctg);
+    			}
+    		if(this.genomicSequence==null ||pos1<0 || pos1>this.genomicSequence.length()) return '.';
+    		return this.genomicSequence.charAt(pos1-1);
+    		}
+    	
+    	@Override
+    	public void close() {
+    		CloserUtil.close(this.indexedFastaSequenceFile);
     		}
-    	if(genomicSequence==null ||pos1<0 || pos1>genomicSequence.length()) return '.';
-    	return genomicSequence.charAt(pos1-1);
     	}
 
-    private void scan(final BufferedReader in,final Set<Mutation> mutations) throws Exception
+    /** create the map sample->counter for a BAM header */
+    private Map<String, CigarAndBases> createSampleMap(final SAMFileHeader header)
     	{
-
-    	final String DEFAULT_SAMPLE_NAME="(undefined)";
-    	String line;
-    	while((line=in.readLine())!=null)
+		final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
+		for(SAMReadGroupRecord rg:header.getReadGroups())
 			{
-    		if(out.checkError()) break;
-			if(line.isEmpty() || line.startsWith("#")) continue;
-			File f=new File(line);
-			if(!f.exists()) continue;
-			if(!f.isFile()) continue;
-			if(!f.canRead()) continue;
-			String filename=f.getName();
-			if(filename.endsWith(".cram"))
-				{
-				LOG.warn("Sorry CRAM is not supported "+filename);
-				continue;
-				}
-			if(!filename.endsWith(".bam")) continue;
-			
-    			
-			SamReader samReader=null;
-			SAMRecordIterator iter=null;
-			try
+			if(rg!=null)
 				{
-				samReader = this.samReaderFactory.open(f);
-				if(!samReader.hasIndex())
+				String sn=this.groupBy.apply(rg);
+				if(sn!=null && !sn.trim().isEmpty())
 					{
-					LOG.warn("no index for "+f);
-					continue;
+					sample2count.put(sn, new CigarAndBases());
 					}
-				final SAMFileHeader header=samReader.getFileHeader();
-				for(final Mutation src:mutations)
+				}
+			}
+		
+		if(sample2count.isEmpty())
+			{
+			sample2count.put(DEFAULT_SAMPLE_NAME, new CigarAndBases());
+			}
+		return sample2count;
+    	}
+    
+    /** get the sample name for a read */
+    private String getSampleName(final SAMRecord rec)
+    	{
+		String sampleName=DEFAULT_SAMPLE_NAME;
+		final SAMReadGroupRecord rg=rec.getReadGroup();
+		if(rg!=null)
+			{
+			String sn= groupBy.apply(rg);
+			if(!StringUtil.isBlank(sn))
+				{
+				sampleName=sn;
+				}
+			}
+		return sampleName;
+    	}
+    
+    /** get or create the counter for a sample */
+    private static CigarAndBases getCounter(final Map<String, CigarAndBases> sample2count,final String sampleName)
+    	{
+		CigarAndBases counter= sample2count.get(sampleName);
+		if(counter==null)
+			{
+			counter=new CigarAndBases();
+			sample2count.put(sampleName, counter);
+			}
+		return counter;
+    	}
+    
+    /** count the cigar operators and the bases of the read at position 'pos' */
+    private static void countAt(final SAMRecord rec,final Cigar cigar,final String readString,final int pos,final CigarAndBases counter)
+    	{
+		int ref= rec.getUnclippedStart();
+		int readPos = 0;
+		for(int k=0;k<cigar.numCigarElements() && ref< pos+1;++k)
+			{
+			final CigarElement ce=cigar.getCigarElement(k);
+			final CigarOperator op=ce.getOperator();
+			switch(op)
+				{
+				case P: break;
+				case I: 
 					{
-					final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
-					for(SAMReadGroupRecord rg:header.getReadGroups())
-						{
-						if(rg!=null)
-							{
-							String sn=this.groupBy.apply(rg);
-							if(sn!=null && !sn.trim().isEmpty())
-								{
-								sample2count.put(sn, new CigarAndBases());
-								}
-							}
-						}
-					
-					if(sample2count.isEmpty())
+					if(ref==pos)
 						{
-						sample2count.put(DEFAULT_SAMPLE_NAME, new CigarAndBases());
+						counter.operators.incr(op);
+						counter.bases.incr(INSERTION_CHAR);
 						}
-
-					
-					
-					final Mutation m = convertFromSamHeader(f,header,src);
-					if(m==null) continue;
-					iter=samReader.query(m.chrom, m.pos-1, m.pos+1,	false);
-					while(iter.hasNext())
+					readPos += ce.getLength();
+					break;
+					}
+				case D:case N:
+				case M: case X: case EQ: 
+				case H:
+				case S:
+					{
+					for(int i=0;i< ce.getLength();++i )
 						{
-						final SAMRecord rec=iter.next();
-						if(rec.getReadUnmappedFlag()) continue;
-						if(this.filter.filterOut(rec)) continue;
-						final Cigar cigar=rec.getCigar();
-						if(cigar==null) continue;
-						final String readString = rec.getReadString().toUpperCase();
-						String sampleName=DEFAULT_SAMPLE_NAME;
-						final SAMReadGroupRecord rg=rec.getReadGroup();
-						if(rg!=null)
-							{
-							String sn= groupBy.apply(rg);
-							if(!StringUtil.isBlank(sn))
-								{
-								sampleName=sn;
-								}
-							}
-						CigarAndBases counter= sample2count.get(sampleName);
-						if(counter==null)
-							{
-							counter=new CigarAndBases();
-							sample2count.put(sampleName, counter);
-							}	
-						
-						
-						int ref= rec.getUnclippedStart();
-						int readPos = 0;
-						for(int k=0;k<cigar.numCigarElements() && ref< m.pos+1;++k)
+						if(ref==pos)
 							{
-							final CigarElement ce=cigar.getCigarElement(k);
-							final CigarOperator op=ce.getOperator();
+							counter.operators.incr(op);
 							switch(op)
 								{
-								case P: break;
-								case I: 
-									{
-									if(ref==m.pos)
-										{
-										counter.operators.incr(op);
-										counter.bases.incr(INSERTION_CHAR);
-										}
-									readPos += ce.getLength();
+								case M:case X:case EQ:
+									counter.bases.incr(readString.charAt(readPos));
 									break;
-									}
 								case D:case N:
-								case M: case X: case EQ: 
-								case H:
-								case S:
-									{
-									for(int i=0;i< ce.getLength();++i )
-										{
-										if(ref==m.pos)
-											{
-											counter.operators.incr(op);
-											switch(op)
-												{
-												case M:case X:case EQ:
-													counter.bases.incr(readString.charAt(readPos));
-													break;
-												case D:case N:
-													counter.bases.incr(DELETION_CHAR);
-													break;
-												default:break;
-												}
-											break;
-											}	
-										if(op.consumesReadBases()) ++readPos;
-										ref++;
-										}
+									counter.bases.incr(DELETION_CHAR);
 									break;
-									}
-								default: throw new RuntimeException("unknown operator:"+op);
+								default:break;
 								}
-							}
+							break;
+							}	
+						if(op.consumesReadBases()) ++readPos;
+						ref++;
 						}
-					iter.close();
-					iter=null;
-						
-					
-					for(final String sample:sample2count.keySet())
+					break;
+					}
+				default: throw new RuntimeException("unknown operator:"+op);
+				}
+			}
+    	}
+    
+    /** print the counts of a mutation for each sample */
+    private void print(final PrintWriter pw,final File f,final ReferenceCache referenceCache,final Mutation m,final Map<String, CigarAndBases> sample2count)
+    	{
+		for(final String sample:sample2count.keySet())
+			{
+			final CigarAndBases counter= sample2count.get(sample);
+			
+			pw.print(f);
+			pw.print('\t');
+			pw.print(m.chrom);
+			pw.print('\t');
+			pw.print(m.pos);
+			
+			if(referenceCache!=null) {
+				pw.print('\t');
+				pw.print(referenceCache.getReferenceAt(m.chrom,m.pos));
+				}
+			
+			pw.print('\t');
+			pw.print(sample);
+			pw.print('\t');
+			pw.print(
+					counter.operators.count(CigarOperator.M)+
+					counter.operators.count(CigarOperator.EQ)+
+					counter.operators.count(CigarOperator.X)
+					);
+			for(final CigarOperator op:CigarOperator.values())
+				{
+				pw.print('\t');
+				pw.print(counter.operators.count(op));
+				}
+			for(char c:BASES_To_PRINT)
+				{
+				pw.print('\t');
+				pw.print(counter.bases.count(c));
+				}
+			
+			pw.println();
+			}
+    	}
+    
+    /** one query per mutation */
+    private void scanEachPosition(final File f,final SamReader samReader,final ReferenceCache referenceCache,final Set<Mutation> mutations,final PrintWriter pw)
+    	{
+		final SAMFileHeader header=samReader.getFileHeader();
+		for(final Mutation src:mutations)
+			{
+			final Map<String, CigarAndBases> sample2count= createSampleMap(header);
+			final Mutation m = convertFromSamHeader(f,header,src);
+			if(m==null) continue;
+			try(SAMRecordIterator iter=samReader.query(m.chrom, m.pos-1, m.pos+1,	false)) {
+				while(iter.hasNext())
+					{
+					final SAMRecord rec=iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(this.filter.filterOut(rec)) continue;
+					final Cigar cigar=rec.getCigar();
+					if(cigar==null) continue;
+					final String readString = rec.getReadString().toUpperCase();
+					countAt(rec,cigar,readString,m.pos,getCounter(sample2count,getSampleName(rec)));
+					}
+				}
+			print(pw,f,referenceCache,m,sample2count);
+			}//end of loop over mutations
+    	}
+    
+    /** mutations are sorted, the mutations closer than 'mergeDistance' are grouped in a single query */
+    private void scanMergedWindows(final File f,final SamReader samReader,final ReferenceCache referenceCache,final Set<Mutation> mutations,final PrintWriter pw)
+    	{
+		final SAMFileHeader header=samReader.getFileHeader();
+		/* mutations converted to the BAM contig names, in the output order */
+		final List<Mutation> converted = new ArrayList<>(mutations.size());
+		for(final Mutation src:mutations)
+			{
+			final Mutation m = convertFromSamHeader(f,header,src);
+			if(m==null) continue;
+			converted.add(m);
+			}
+		final List<Map<String, CigarAndBases>> counts = new ArrayList<>(converted.size());
+		for(int i=0;i< converted.size();i++) counts.add(createSampleMap(header));
+		
+		/* indexes of the mutations sorted on chrom/pos */
+		final Integer sorted[] = new Integer[converted.size()];
+		for(int i=0;i< sorted.length;i++) sorted[i]=i;
+		Arrays.sort(sorted,(A,B)->converted.get(A).compareTo(converted.get(B)));
+		
+		int i=0;
+		while(i< sorted.length)
+			{
+			/* group the mutations in a window */
+			final String chrom = converted.get(sorted[i]).chrom;
+			int j=i+1;
+			while(j< sorted.length &&
+				converted.get(sorted[j]).chrom.equals(chrom) &&
+				converted.get(sorted[j]).pos - converted.get(sorted[j-1]).pos <= this.mergeDistance)
+				{
+				++j;
+				}
+			final int positions[] = new int[j-i];
+			for(int k=i;k< j;k++) positions[k-i] = converted.get(sorted[k]).pos;
+			
+			/* one sweep over the reads of the window */
+			try(SAMRecordIterator iter=samReader.query(chrom, positions[0]-1, positions[positions.length-1]+1,	false)) {
+				while(iter.hasNext())
+					{
+					final SAMRecord rec=iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(this.filter.filterOut(rec)) continue;
+					final Cigar cigar=rec.getCigar();
+					if(cigar==null) continue;
+					final String readString = rec.getReadString().toUpperCase();
+					final String sampleName = getSampleName(rec);
+					/* same reads as a query on [pos-1,pos+1] for each position */
+					int k = Arrays.binarySearch(positions, rec.getAlignmentStart()-1);
+					if(k<0) k=-(k+1);
+					while(k>0 && positions[k-1]>=rec.getAlignmentStart()-1) --k;
+					for(;k< positions.length && positions[k] <= rec.getAlignmentEnd()+1;++k)
 						{
-						final CigarAndBases counter= sample2count.get(sample);
-						
-						out.print(f);
-						out.print('\t');
-						out.print(m.chrom);
-						out.print('\t');
-						out.print(m.pos);
-						
-						if(this.indexedFastaSequenceFile!=null) {
-							out.print('\t');
-							out.print(getReferenceAt(m.chrom,m.pos));
-							}
-						
-						out.print('\t');
-						out.print(sample);
-						out.print('\t');
-						out.print(
-								counter.operators.count(CigarOperator.M)+
-								counter.operators.count(CigarOperator.EQ)+
-								counter.operators.count(CigarOperator.X)
-								);
-						for(final CigarOperator op:CigarOperator.values())
-							{
-							out.print('\t');
-							out.print(counter.operators.count(op));
-							}
-						for(char c:BASES_To_PRINT)
-							{
-							out.print('\t');
-							out.print(counter.bases.count(c));
-							}
-						
-						out.println();
+						countAt(rec,cigar,readString,positions[k],getCounter(counts.get(sorted[i+k]),sampleName));
 						}
-					}//end of loop over mutations
+					}
 				}
-			catch(final Exception err)
+			i=j;
+			}
+		
+		for(int k=0;k< converted.size();k++)
+			{
+			print(pw,f,referenceCache,converted.get(k),counts.get(k));
+			}
+    	}
+    
+    /** scan one BAM, print the result in 'pw' */
+    private void scanBam(final File f,final Set<Mutation> mutations,final PrintWriter pw) throws Exception
+    	{
+		SamReader samReader=null;
+		ReferenceCache referenceCache=null;
+		try
+			{
+			samReader = this.samReaderFactory.open(f);
+			if(!samReader.hasIndex())
+				{
+				LOG.warn("no index for "+f);
+				return;
+				}
+			if(this.referenceFileFile!=null) referenceCache = new ReferenceCache();
+			if(this.mergeDistance<0)
 				{
-				LOG.error(err);
-				throw err;
+				scanEachPosition(f,samReader,referenceCache,mutations,pw);
 				}
-			finally
+			else
 				{
-				CloserUtil.close(iter);
-				CloserUtil.close(samReader);
-				}    				
-			}		
-	    
+				scanMergedWindows(f,samReader,referenceCache,mutations,pw);
+				}
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			throw err;
+			}
+		finally
+			{
+			CloserUtil.close(samReader);
+			CloserUtil.close(referenceCache);
+			}
+    	}
+    
+    private void scan(final BufferedReader in,final Set<Mutation> mutations) throws Exception
+    	{
+    	ExecutorService executorService = null;
+    	final ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+    	try
+	    	{
+	    	if(this.nJobs>1) executorService = Executors.newFixedThreadPool(this.nJobs);
+	    	String line;
+	    	while((line=in.readLine())!=null)
+				{
+	    		if(out.checkError()) break;
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				File f=new File(line);
+				if(!f.exists()) continue;
+				if(!f.isFile()) continue;
+				if(!f.canRead()) continue;
+				String filename=f.getName();
+				if(filename.endsWith(".cram"))
+					{
+					LOG.warn("Sorry CRAM is not supported "+filename);
+					continue;
+					}
+				if(!filename.endsWith(".bam")) continue;
+				
+				if(executorService==null)
+					{
+					scanBam(f,mutations,this.out);
+					continue;
+					}
+				/* BAMs are scanned in parallel, the output is printed in the input order */
+				while(pending.size()>=this.nJobs*2)
+					{
+					this.out.print(pending.poll().get());
+					}
+				pending.add(executorService.submit(()->{
+					final StringWriter sw = new StringWriter();
+					final PrintWriter pw = new PrintWriter(sw);
+					scanBam(f,mutations,pw);
+					pw.flush();
+					return sw.toString();
+					}));
+				}
+	    	while(!pending.isEmpty())
+	    		{
+				this.out.print(pending.poll().get());
+	    		}
+	    	}
+    	finally
+    		{
+    		for(final Future<String> future:pending) future.cancel(true);
+    		if(executorService!=null) executorService.shutdownNow();
+    		}
     	}
     
     @Override
@@ -435,9 +605,8 @@ public class FindAllCoverageAtPosition extends Launcher
 		try
 			{
 			if(this.referenceFileFile!=null) {
-				this.indexedFastaSequenceFile = new IndexedFastaSequenceFile(this.referenceFileFile);
+				IOUtil.assertFileIsReadable(this.referenceFileFile);
 				}
-			
 			mutations.addAll(
 					Arrays.asList(this.positionStr.split("[  ]")).
 						stream().filter(S->!S.trim().isEmpty())
@@ -494,7 +663,7 @@ public class FindAllCoverageAtPosition extends Launcher
 			out.print('\t');
 			out.print("POS");
 
-			if(this.indexedFastaSequenceFile!=null)
+			if(this.referenceFileFile!=null)
 				{
 				out.print('\t');
 				out.print("REF");
@@ -547,7 +716,6 @@ public class FindAllCoverageAtPosition extends Launcher
 			}
 		finally
 			{
-			CloserUtil.close(this.indexedFastaSequenceFile);
 			CloserUtil.close(this.out);
 			CloserUtil.close(r);
 			}
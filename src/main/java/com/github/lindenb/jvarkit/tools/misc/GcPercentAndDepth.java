@@ -29,10 +29,13 @@ History:
 package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -40,6 +43,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
@@ -48,14 +57,13 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMRecordCoordinateComparator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Locatable;
-import htsjdk.samtools.util.MergingIterator;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 
@@ -79,7 +87,9 @@ BEGIN_DOC
 ## History
 
 * 2017-12-09 : currently rewriting everything... do not use...
-
+* 2019 : sharded engine. The windows are split into shards (option `--shard-size`) processed in parallel (option `--jobs`). Each shard
+  holds a dense matrix `int[sample][window]` of the depths, filled by each aligned block of the reads, and the GC% of all the windows is computed
+  using one linear sweep over the reference. The rows are printed in the order of the dictionary.
 ## Example
 
 ```bash
@@ -115,6 +125,10 @@ public class GcPercentAndDepth extends Launcher
 	private SamRecordFilter filter  = SamRecordJEXLFilter.buildDefault();
 	@Parameter(names={"-partition","--partition"},description="[20171219]"+SAMRecordPartition.OPT_DESC)
 	private SAMRecordPartition partition = SAMRecordPartition.sample;
+	@Parameter(names={"-j","--jobs"},description="number of parallel jobs. Shards of windows are processed in parallel, the output is printed in order.")
+	private int nJobs=1;
+	@Parameter(names={"--shard-size"},description="maximum number of windows per shard. Each shard holds a matrix of 'int[samples][windows]'")
+	private int windowsPerShard=100_000;
 	//@Parameter(names={"-percentile","--percentile"},description="[20171219] data percentile method")
 	//private Percentile percentile = Percentile.average();
 	
@@ -278,6 +292,203 @@ public class GcPercentAndDepth extends Launcher
 		}
 	
 	
+	/** per-thread resources: one reader per BAM and the reference */
+	private class ShardContext
+		implements Closeable
+		{
+		final List<SamReader> readers = new ArrayList<>();
+		final ReferenceGenome reference;
+		ReferenceContig contig = null;
+		
+		ShardContext(final List<String> bamPaths)
+			{
+			try
+				{
+				this.reference = new ReferenceGenomeFactory().openFastaFile(refFile);
+				}
+			catch(final IOException err)
+				{
+				throw new RuntimeIOException(err);
+				}
+			for(final String path:bamPaths)
+				{
+				this.readers.add(openSamReader(path));
+				}
+			}
+		
+		ReferenceContig getContig(final String name)
+			{
+			if(this.contig==null || !this.contig.hasName(name))
+				{
+				this.contig = this.reference.getContig(name);
+				if(this.contig==null)
+					{
+					throw new JvarkitException.ContigNotFoundInDictionary(name, samSequenceDictionary);
+					}
+				}
+			return this.contig;
+			}
+		
+		@Override
+		public void close()
+			{
+			for(final SamReader r:this.readers) CloserUtil.close(r);
+			CloserUtil.close(this.reference);
+			}
+		}
+	
+	/** a set of consecutive windows in a RegionCaptured */
+	private class Shard
+		implements Locatable
+		{
+		final RegionCaptured roi;
+		/** 1-based window starts */
+		final int winStarts[];
+		/** 1-based, exclusive window ends */
+		final int winEnds[];
+		Shard(final RegionCaptured roi,final List<RegionCaptured.SlidingWindow> windows)
+			{
+			this.roi = roi;
+			this.winStarts = windows.stream().mapToInt(W->W.getStart()).toArray();
+			this.winEnds = windows.stream().mapToInt(W->W.getEnd()).toArray();
+			}
+		
+		@Override
+		public String getContig()
+			{
+			return this.roi.getContig();
+			}
+		@Override
+		public int getStart()
+			{
+			return this.winStarts[0];
+			}
+		@Override
+		public int getEnd()
+			{
+			return this.winEnds[this.winEnds.length-1];
+			}
+		
+		/** add the overlap of the aligned block [start1,end1) to the windows */
+		private void addBlock(final int depth[],final int start1,final int end1)
+			{
+			// first window that may end after start1
+			int k = Math.max(0, (start1 - windowSize - getStart())/windowStep);
+			for(;k< this.winStarts.length && this.winStarts[k] < end1;++k)
+				{
+				final int overlap = Math.min(end1, this.winEnds[k]) - Math.max(start1, this.winStarts[k]);
+				if(overlap>0) depth[k]+=overlap;
+				}
+			}
+		
+		/** compute the GC% and the depth of each window, return the lines to be printed */
+		String process(
+				final ShardContext ctx,
+				final String sampleNames[],
+				final Map<String,Integer> sample2index,
+				final long contigOffsets[]
+				) throws IOException
+			{
+			final int nWindows = this.winStarts.length;
+			/* sum of the depths for each sample, each window */
+			final int depths[][] = new int[sampleNames.length][nWindows];
+			for(final SamReader r:ctx.readers)
+				{
+				try(CloseableIterator<SAMRecord> iter = r.query(getContig(), getStart(), getEnd(), false))
+					{
+					while(iter.hasNext())
+						{
+						final SAMRecord rec=iter.next();
+						if(rec.getReadUnmappedFlag()) continue;
+						if(filter.filterOut(rec)) continue;
+						
+						final String sample= partition.getPartion(rec,null);
+						if(sample==null ) continue;
+						final Integer sampleIndex = sample2index.get(sample);
+						if(sampleIndex==null) continue;
+						final Cigar cigar=rec.getCigar();
+						if(cigar==null) continue;
+						final int depth[] = depths[sampleIndex];
+						
+						int refpos1=rec.getAlignmentStart();
+						for(final CigarElement ce: cigar.getCigarElements())
+							{
+							final CigarOperator op = ce.getOperator();
+							if(!op.consumesReferenceBases() ) continue;
+							if(op.consumesReadBases())
+								{
+								addBlock(depth, refpos1, refpos1 + ce.getLength());
+								}
+							refpos1 += ce.getLength();
+							}
+						}
+					}
+				}
+			
+			/* one linear sweep over the reference: cumulative counts of GC and N */
+			final ReferenceContig genomicSequence = ctx.getContig(getContig());
+			final int spanLength = getEnd() - getStart();
+			final int gcCount[] = new int[spanLength+1];
+			final int nCount[] = new int[spanLength+1];
+			for(int i=0;i< spanLength;++i)
+				{
+				int gc=0,n=0;
+				switch(genomicSequence.charAt(getStart()-1+i))
+					{
+					case 'c':case 'C':
+					case 'g':case 'G':
+					case 's':case 'S':gc=1;break;
+					case 'n':case 'N':n=1;break;
+					default:break;
+					}
+				gcCount[i+1] = gcCount[i] + gc;
+				nCount[i+1] = nCount[i] + n;
+				}
+			
+			final long contigOffset = contigOffsets[this.roi.getSAMSequenceRecord().getSequenceIndex()];
+			final StringWriter sw = new StringWriter();
+			final PrintWriter out = new PrintWriter(sw);
+			for(int k=0;k< nWindows;++k)
+				{
+				final int winStart = this.winStarts[k];
+				final int winEnd = this.winEnds[k];
+				final int winLength = winEnd - winStart;
+				final int i0 = winStart - getStart();
+				final int i1 = winEnd - getStart();
+				if(skip_if_contains_N && nCount[i1] - nCount[i0] > 0) continue;
+				final double GCPercent = (gcCount[i1] - gcCount[i0])/(double)winLength;
+				
+				int max_depth_for_win=0;
+				for(int s=0;s< sampleNames.length;++s)
+					{
+					max_depth_for_win=Math.max(max_depth_for_win, (int)(depths[s][k]/(double)winLength));
+					}
+				if(max_depth_for_win< min_depth) continue;
+				if(!hide_genomic_index)
+					{
+					out.print(contigOffset + winStart);
+					out.print("\t");
+					}
+				out.print(getContig());
+				out.print("\t");
+				out.print(winStart-1);
+				out.print("\t");
+				out.print(winEnd-1);
+				out.print("\t");
+				out.printf("%.2f",GCPercent);
+				
+				for(int s=0;s< sampleNames.length;++s)
+					{
+					out.print("\t");
+					out.printf("%.2f",depths[s][k]/(double)winLength);
+					}
+				out.println();
+				}
+			out.flush();
+			return sw.toString();
+			}
+		}
+	
 	/** constructor */
 	public GcPercentAndDepth()
 		{
@@ -311,9 +522,6 @@ public class GcPercentAndDepth extends Launcher
 			return -1;
 			}
 		ReferenceGenome indexedFastaSequenceFile= null;
-				
-		List<SamReader> readers=new ArrayList<SamReader>();
-
 		PrintWriter out=null;
 		try
 			{
@@ -336,10 +544,10 @@ public class GcPercentAndDepth extends Launcher
 					++optind)
 				{
 				LOG.info("Opening "+args.get(optind));
-				final SamReader samFileReaderScan= super.openSamReader(args.get(optind));
-				readers.add(samFileReaderScan);
-				
-				final SAMFileHeader header= samFileReaderScan.getFileHeader();
+				final SAMFileHeader header;
+				try(SamReader samFileReaderScan= super.openSamReader(args.get(optind))) {
+					header= samFileReaderScan.getFileHeader();
+					}
 				if(!SequenceUtil.areSequenceDictionariesEqual(this.samSequenceDictionary, header.getSequenceDictionary()))
 					{
 					LOG.error(JvarkitException.DictionariesAreNotTheSame.getMessage(this.samSequenceDictionary, header.getSequenceDictionary()));
@@ -425,130 +633,98 @@ public class GcPercentAndDepth extends Launcher
 				}
 			
 			
-			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.samSequenceDictionary).logger(LOG);
-			ReferenceContig genomicSequence=null;
+			final String sampleNames[] = all_samples.toArray(new String[all_samples.size()]);
+			final Map<String,Integer> sample2index = new HashMap<>(sampleNames.length);
+			for(int i=0;i< sampleNames.length;i++) sample2index.put(sampleNames[i], i);
+			
+			/* offset of each contig in the genome */
+			final long contigOffsets[] = new long[this.samSequenceDictionary.size()];
+			for(int i=1;i< contigOffsets.length;i++)
+				{
+				contigOffsets[i] = contigOffsets[i-1] + this.samSequenceDictionary.getSequence(i-1).getSequenceLength();
+				}
+			
+			/* split the regions into shards of consecutive windows */
+			final List<Shard> shards = new ArrayList<>();
 			for(final RegionCaptured roi:regionsCaptured)
 				{
-				if(genomicSequence==null || !genomicSequence.hasName(roi.getContig()))
+				List<RegionCaptured.SlidingWindow> windows = new ArrayList<>();
+				for(final RegionCaptured.SlidingWindow win: roi)
 					{
-					genomicSequence= indexedFastaSequenceFile.getContig(roi.getContig());
-					if(genomicSequence==null)
+					windows.add(win);
+					if(windows.size()>=this.windowsPerShard)
 						{
-						LOG.error(JvarkitException.ContigNotFoundInDictionary.getMessage(roi.getContig(), this.samSequenceDictionary));
-						return -1;
+						shards.add(new Shard(roi,windows));
+						windows = new ArrayList<>();
 						}
 					}
-				Map<String,int[]> sample2depth=new HashMap<String,int[]>();
-				Map<String,Double> sample2meanDepth=new HashMap<String,Double>();
-				for(final String sample:all_samples)
+				if(!windows.isEmpty()) shards.add(new Shard(roi,windows));
+				}
+			LOG.info("N shards="+shards.size());
+			
+			final List<String> bamPaths = args;
+			/* each thread has its own readers and reference */
+			final List<ShardContext> allContexts = Collections.synchronizedList(new ArrayList<>());
+			final ThreadLocal<ShardContext> threadContext = ThreadLocal.withInitial(()->{
+				final ShardContext ctx = new ShardContext(bamPaths);
+				allContexts.add(ctx);
+				return ctx;
+				});
+			final Function<Shard,String> shardProcessor = (SHARD)->{
+				try
 					{
-					int depth[]=new int[roi.length()];
-					Arrays.fill(depth, 0);
-					sample2depth.put(sample, depth);
+					return SHARD.process(threadContext.get(),sampleNames,sample2index,contigOffsets);
 					}
-				List<CloseableIterator<SAMRecord>> iterators = new ArrayList<CloseableIterator<SAMRecord>>();
-				for(final SamReader r:readers)
+				catch(final IOException err)
 					{
-					iterators.add(r.query(roi.getContig(), roi.getStart(), roi.getEnd(), false));
+					throw new RuntimeIOException(err);
 					}
-				
-				final MergingIterator<SAMRecord> merginIter=
-						new MergingIterator<>(new SAMRecordCoordinateComparator(),iterators);
-					
-				while(merginIter.hasNext())
+				};
+			
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.samSequenceDictionary).logger(LOG);
+			ExecutorService executorService = null;
+			try
+				{
+				if(this.nJobs<=1)
 					{
-					final SAMRecord rec=merginIter.next();
-					if(rec.getReadUnmappedFlag()) continue;
-					if(this.filter.filterOut(rec)) continue;
-										
-					final String sample= this.partition.getPartion(rec,null);
-					if(sample==null ) continue;
-					
-					final int depth[]=sample2depth.get(sample);
-					if(depth==null) continue;
-					final Cigar cigar=rec.getCigar();
-					if(cigar==null) continue;
-					
-					int refpos1=rec.getAlignmentStart();
-					
-					for(final CigarElement ce: cigar.getCigarElements())
+					for(final Shard shard:shards)
 						{
-						final CigarOperator op = ce.getOperator();
-						if(!op.consumesReferenceBases() ) continue;
-						if(op.consumesReadBases())
-							{
-							for(int i=0;i< ce.getLength();++i)
-								{
-								if(refpos1+i < roi.getStart()) continue;
-								if(refpos1+i > roi.getEnd()) break;
-								depth[refpos1+i-roi.getStart()]++;
-								}
-							}
-						refpos1 += ce.getLength();
+						progress.watch(shard.getContig(), shard.getStart());
+						out.print(shardProcessor.apply(shard));
 						}
 					}
-				merginIter.close();
-				
-				for(final RegionCaptured.SlidingWindow win: roi)
+				else
 					{
-					double total=0f;
-					int countN=0;
-					for(int pos1=win.getStart();pos1<=win.getEnd();++pos1)
+					/* process the shards in parallel, print them in order */
+					executorService = Executors.newFixedThreadPool(this.nJobs);
+					final ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+					final ArrayDeque<Shard> pendingShards = new ArrayDeque<>();
+					final Iterator<Shard> shardIter = shards.iterator();
+					while(shardIter.hasNext() || !pending.isEmpty())
 						{
-						switch(genomicSequence.charAt(pos1-1))
+						while(shardIter.hasNext() && pending.size() < this.nJobs*2)
 							{
-							case 'c':case 'C':
-							case 'g':case 'G':		
-							case 's':case 'S':
-								{
-								total++;
-								break;
-								}
-							case 'n':case 'N':countN++;break;
-							default:break;
+							final Shard shard = shardIter.next();
+							pending.add(executorService.submit(()->shardProcessor.apply(shard)));
+							pendingShards.add(shard);
 							}
+						final String result = pending.poll().get();
+						final Shard shard = pendingShards.poll();
+						progress.watch(shard.getContig(), shard.getStart());
+						out.print(result);
 						}
-					if(skip_if_contains_N && countN>0) continue;
- 					double GCPercent=total/(double)win.length();
-					
-					int max_depth_for_win=0;
-					sample2meanDepth.clear();
-					for(final String sample:all_samples)
-						{
-						int depth[]=sample2depth.get(sample);
-						double sum=0;
-						for(int pos=win.getStart();
-								pos<win.getEnd() && (pos-roi.getStart())< depth.length;
-								++pos)
-							{
-							sum+=depth[pos-roi.getStart()];
-							}		
-						double mean= (sum/(double)depth.length);
-						max_depth_for_win=Math.max(max_depth_for_win, (int)mean);
-						sample2meanDepth.put(sample,mean);
-						}
-					if(max_depth_for_win< this.min_depth) continue;
-					if(!this.hide_genomic_index)
-						{
-						out.print(win.getGenomicIndex());
-						out.print("\t");
-						}
-					out.print(win.getContig());
-					out.print("\t");
-					out.print(win.getStart()-1);
-					out.print("\t");
-					out.print(win.getEnd());
-					out.print("\t");
-					out.printf("%.2f",GCPercent);
-					
-					for(String sample:all_samples)
-						{
-						out.print("\t");
-						out.printf("%.2f",(double)sample2meanDepth.get(sample));
-						}
-					out.println();
 					}
 				}
+			finally
+				{
+				/* on error, interrupt the remaining shards before their readers are closed */
+				if(executorService!=null)
+					{
+					executorService.shutdownNow();
+					executorService.awaitTermination(365, TimeUnit.DAYS);
+					}
+				for(final ShardContext ctx:allContexts) ctx.close();
+				}
 			progress.finish();
 			out.flush();
 			return 0;
@@ -560,7 +736,6 @@ public class GcPercentAndDepth extends Launcher
 			}
 		finally
 			{
-			for(SamReader r:readers) CloserUtil.close(r);
 			CloserUtil.close(indexedFastaSequenceFile);
 			CloserUtil.close(out);
 			}	
@@ -105,8 +105,8 @@ import com.github.lindenb.jvarkit.util.illumina.FastQName;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.BatchFastqReader;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
 @Program(name="ilmnfastqstats",description="Reads filenames from stdin: Count FASTQs in Illumina Result.")
 public class IlluminaStatsFastq
 	extends Launcher
@@ -116,7 +116,8 @@ public class IlluminaStatsFastq
 	private File outputFile = null;
 	@Parameter(names={"-X"},description="maximum number of DNA indexes to print. memory consuming if not 0. ")
 	private int COUNT_INDEX=0;
-
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads used to uncompress BGZF fastq files. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
 	private static class Bases
 		{
 		long A=0L;
@@ -232,7 +233,7 @@ public class IlluminaStatsFastq
 				FastqReader r=null;
 				try
 					{
-					r=new FourLinesFastqReader(f);
+					r=BatchFastqReader.open(f,Math.max(1,owner().nJobs<1?Runtime.getRuntime().availableProcessors():owner().nJobs));
 					r.setValidationStringency(ValidationStringency.LENIENT);
 					while(r.hasNext())
 						{
@@ -58,6 +58,7 @@ import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.samtools.DepthPyramid;
 import htsjdk.variant.vcf.VCFIterator;
 
 import htsjdk.samtools.Cigar;
@@ -76,6 +77,7 @@ import htsjdk.samtools.util.CoordMath;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFConstants;
@@ -172,6 +174,10 @@ $  java -jar dist/wescnvtview.jar -l bam.list  -P "RF01:100-200"
 
 ```
 
+## Depth pyramid
+
+With `--pyramid`, the depth is read from the files created by `bamdepthpyramid` instead of the BAMs.
+The pyramid must have been built with the same `--filter`, otherwise the BAM is read.
 ## Note to self: Splitting the output:
 
 ```
@@ -245,8 +251,8 @@ public class WesCnvTView  extends Launcher {
 	private Set<String> highlight_sample_set = new HashSet<>();
 	@Parameter(names={"-G","--genes"},description="A BED file containing some regions of interest that will be displayed")
 	private File roiFile = null;
-
-	
+	@Parameter(names={"--pyramid"},description="Read the depth from the depth pyramid '${bam}"+DepthPyramid.SUFFIX+"' (see bamdepthpyramid) when it exists, is up to date, was built with the same '--filter' and contains the region. Otherwise, the BAM is read.")
+	private boolean usePyramid = false;
 	private enum InputFormat {VCF,BED,INTERVALS}
 	
 	private enum AnsiColor {
@@ -281,12 +287,14 @@ public class WesCnvTView  extends Launcher {
 
 		File bamFile;
 		SamReader samReader=null;
+		DepthPyramid pyramid=null;
 		SAMSequenceDictionary dict = null;
 		String sample;
 		ContigNameConverter contigNameConverter;
 		@Override
 		public void close() throws IOException {
 			CloserUtil.close(samReader);
+			CloserUtil.close(pyramid);
 			}
 		}
 	private static class SampleInfo
@@ -628,9 +636,25 @@ public class WesCnvTView  extends Launcher {
 					
 			final Interval interval = extendInterval(interval1);
 			
+			if(baminput.pyramid!=null && interval.getEnd()<=ssr.getSequenceLength() &&
+				baminput.pyramid.contains(interval.getContig(), interval.getStart(), interval.getEnd())) {
+				for(int x=0;x< si.pixel_coverage.length;x++) {
+					final int pos0 = Math.min(interval.length(), (int)(((x+0)/(double)si.pixel_coverage.length)*interval.length()));
+					final int pos1 = Math.min(interval.length(), (int)Math.ceil(((x+1)/(double)si.pixel_coverage.length)*interval.length()));
+					if(pos0>=pos1) continue;
+					try {
+						si.pixel_coverage[x] = baminput.pyramid.evaluate(interval.getContig(),interval.getStart()+pos0,interval.getStart()+pos1-1,this.percentile).getDepth();
+						}
+					catch(final IOException err) {
+						throw new RuntimeIOException(err);
+						}
+					}
+				w.sampleInfos.add(si);
+				return;
+				}
+			
 			final int base_coverage[] = new int[interval.length()];
 			Arrays.fill(base_coverage, 0);
-			
 			final SAMRecordIterator iter=baminput.samReader.queryOverlapping(
 						interval.getContig(),
 						interval.getStart(),
@@ -792,7 +816,9 @@ public class WesCnvTView  extends Launcher {
 					map(V->V.getSample()).
 					filter(S->!StringUtil.isBlank(S)).
 					findFirst().orElse(bamFile.getName());
-					
+				if(this.usePyramid) {
+					bi.pyramid = DepthPyramid.openForBam(bamFile, this.samRecordFilter);
+					}
 				this.bamInputs.add(bi);
 				}
 			if(this.bamInputs.isEmpty()) {
@@ -24,15 +24,30 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.samjs;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Random;
-
+import java.util.function.ToLongFunction;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.lang.OpenJdkCompiler;
@@ -55,6 +70,7 @@ import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Iso8601Date;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 
@@ -121,6 +137,32 @@ return mapq(R1) - mapq(R2);
 }
 ```
 
+## Sorting on a key
+
+With option `--key`, the user's code does not compare two reads: it returns a 64-bits `long` sort key for **one** read `R`. The class extends `SamCustomSortJdk.AbstractSamKeyExtractor`:
+
+```java
+public static abstract class AbstractSamKeyExtractor
+	implements ToLongFunction<SAMRecord>
+	{
+	//input SAM header
+	protected final SAMFileHeader header;
+	protected AbstractSamKeyExtractor(final SAMFileHeader header) {
+		this.header = header;
+		}
+	// a key following the coordinate order: (tid,pos), unmapped reads at the end
+	protected long coordinateKey(final SAMRecord R) {...}
+	}
+```
+
+The key is computed only once per read, each block of `--maxRecordsInRam` reads is sorted with a radix sort on the keys and
+only the raw BAM records are written in the temporary files and merged. Reads having the same key keep their input order.
+This is much faster than a comparator when the expression is costly or when the BAM is large.
+
+```
+ java -jar dist/samcustomsortjdk.jar --key -e 'return -R.getMappingQuality();' in.bam
+```
+
 ## Example
 
 
@@ -161,6 +203,8 @@ public class SamCustomSortJdk
 	private boolean hideGeneratedCode=false;
 	@Parameter(names={"--body"},description="user's code is the whole body of the filter class, not just the 'apply' method.")
 	private boolean user_code_is_body=false;
+	@Parameter(names={"--key"},description="user's code returns a 'long' sort key for one read 'R' (see AbstractSamKeyExtractor) instead of comparing two reads. The key is computed once per read, the reads are sorted with a radix sort on the keys and only the raw BAM records are spilled to disk.")
+	private boolean user_code_is_key=false;
 	@Parameter(names={"--saveCodeInDir"},description="Save the generated java code in the following directory")
 	private File saveCodeInDir=null;
 	@ParametersDelegate
@@ -197,6 +241,230 @@ public class SamCustomSortJdk
 		}
 
 	
+	public static abstract class AbstractSamKeyExtractor
+		implements ToLongFunction<SAMRecord>
+		{
+		/** input SAM header */
+		protected final SAMFileHeader header;
+		
+		protected AbstractSamKeyExtractor(final SAMFileHeader header) {
+			this.header = header;
+			}
+		/** key following the coordinate order: reference index in the high bits, alignment start in the low bits. Unmapped reads are at the end */
+		protected long coordinateKey(final SAMRecord R) {
+			final int tid = R.getReferenceIndex();
+			final long hi = (tid < 0 ? Integer.MAX_VALUE : tid);
+			return (hi << 32) | (R.getAlignmentStart() & 0xFFFFFFFFL);
+			}
+		}
+
+	/** sort the reads on a precomputed 'long' key. Reads are stored as raw BAM records */
+	private static class KeySorter
+		{
+		private final BAMRecordCodec codec;
+		private final int maxRecordsInRam;
+		private final Path tmpDirs[];
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final List<File> runs = new ArrayList<>();
+		private long keys[];
+		private byte records[][];
+		private int count = 0;
+		
+		KeySorter(final SAMFileHeader header,final int maxRecordsInRam,final Path tmpDirs[]) {
+			this.codec = new BAMRecordCodec(header);
+			this.codec.setOutputStream(this.buffer);
+			this.maxRecordsInRam = Math.max(1, maxRecordsInRam);
+			this.tmpDirs = tmpDirs;
+			this.keys = new long[Math.min(this.maxRecordsInRam,10_000)];
+			this.records = new byte[this.keys.length][];
+			}
+		
+		void add(final long key,final SAMRecord rec) {
+			if(this.count==this.keys.length) {
+				final int n = (int)Math.min((long)this.maxRecordsInRam,this.keys.length*2L);
+				this.keys = Arrays.copyOf(this.keys, n);
+				this.records = Arrays.copyOf(this.records, n);
+				}
+			this.buffer.reset();
+			this.codec.encode(rec);
+			this.keys[this.count] = key;
+			this.records[this.count] = this.buffer.toByteArray();
+			this.count++;
+			if(this.count>=this.maxRecordsInRam) spill();
+			}
+		
+		/** stable LSD radix sort of the first 'n' keys, returns the sorted indexes */
+		static int[] radixSort(final long keys[],final int n) {
+			int order[] = new int[n];
+			int tmpOrder[] = new int[n];
+			long src[] = new long[n];
+			long dest[] = new long[n];
+			for(int i=0;i< n;i++) {
+				order[i] = i;
+				// flip the sign bit so signed keys are sorted as unsigned
+				src[i] = keys[i] ^ Long.MIN_VALUE;
+				}
+			final int counts[] = new int[257];
+			for(int shift=0;shift< 64;shift+=8) {
+				Arrays.fill(counts, 0);
+				for(int i=0;i< n;i++) {
+					counts[(int)((src[i]>>>shift)&0xFF)+1]++;
+					}
+				// all keys share the same byte: nothing to do for this digit
+				boolean skip=false;
+				for(int b=1;b< counts.length;b++) {
+					if(counts[b]==n) {skip=true;break;}
+					}
+				if(skip) continue;
+				for(int b=1;b< counts.length;b++) counts[b]+=counts[b-1];
+				for(int i=0;i< n;i++) {
+					final int p = counts[(int)((src[i]>>>shift)&0xFF)]++;
+					dest[p] = src[i];
+					tmpOrder[p] = order[i];
+					}
+				long swapKeys[] = src; src = dest; dest = swapKeys;
+				int swapOrder[] = order; order = tmpOrder; tmpOrder = swapOrder;
+				}
+			return order;
+			}
+		
+		/** sort the reads in memory and write them in a temporary file */
+		private void spill() {
+			if(this.count==0) return;
+			final int order[] = radixSort(this.keys, this.count);
+			final File tmpDir = this.tmpDirs[this.runs.size()%this.tmpDirs.length].toFile();
+			try {
+				final File f = File.createTempFile("tmp.", ".keysort", tmpDir);
+				f.deleteOnExit();
+				this.runs.add(f);
+				try(DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f),1_000_000))) {
+					for(int i=0;i< this.count;i++) {
+						final int idx = order[i];
+						dos.writeLong(this.keys[idx]);
+						dos.writeInt(this.records[idx].length);
+						dos.write(this.records[idx]);
+						this.records[idx] = null;
+						}
+					dos.flush();
+					}
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			this.count = 0;
+			}
+		
+		/** decode one raw BAM record */
+		private SAMRecord decode(final byte raw[]) {
+			this.codec.setInputStream(new ByteArrayInputStream(raw));
+			return this.codec.decode();
+			}
+		
+		CloseableIterator<SAMRecord> iterator() {
+			if(this.runs.isEmpty()) {
+				final int order[] = radixSort(this.keys, this.count);
+				return new CloseableIterator<SAMRecord>() {
+					int i=0;
+					@Override
+					public boolean hasNext() {
+						return i< order.length;
+						}
+					@Override
+					public SAMRecord next() {
+						if(!hasNext()) throw new NoSuchElementException();
+						final int idx = order[i++];
+						final byte raw[] = records[idx];
+						records[idx] = null;
+						return decode(raw);
+						}
+					@Override
+					public void close() {
+						i = order.length;
+						}
+					};
+				}
+			spill();
+			this.keys = null;
+			this.records = null;
+			return new MergingIterator();
+			}
+		
+		/** one sorted temporary file */
+		private static class Run {
+			final int index;
+			final DataInputStream in;
+			long key;
+			byte raw[];
+			Run(final int index,final File f) throws IOException {
+				this.index = index;
+				this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(f),100_000));
+				}
+			boolean advance() throws IOException {
+				try {
+					this.key = this.in.readLong();
+					}
+				catch(final EOFException err) {
+					this.in.close();
+					return false;
+					}
+				this.raw = new byte[this.in.readInt()];
+				this.in.readFully(this.raw);
+				return true;
+				}
+			}
+		
+		/** k-way merge of the temporary files. Same keys are returned in the order of the runs */
+		private class MergingIterator implements CloseableIterator<SAMRecord> {
+			private final PriorityQueue<Run> queue;
+			MergingIterator() {
+				this.queue = new PriorityQueue<>(Math.max(1,runs.size()),(A,B)->{
+					final int i = Long.compare(A.key, B.key);
+					if(i!=0) return i;
+					return Integer.compare(A.index, B.index);
+					});
+				try {
+					for(int i=0;i< runs.size();i++) {
+						final Run run = new Run(i,runs.get(i));
+						if(run.advance()) this.queue.add(run);
+						}
+					}
+				catch(final IOException err) {
+					close();
+					throw new RuntimeIOException(err);
+					}
+				}
+			@Override
+			public boolean hasNext() {
+				return !this.queue.isEmpty();
+				}
+			@Override
+			public SAMRecord next() {
+				final Run run = this.queue.poll();
+				if(run==null) throw new NoSuchElementException();
+				final SAMRecord rec = decode(run.raw);
+				try {
+					if(run.advance()) this.queue.add(run);
+					}
+				catch(final IOException err) {
+					throw new RuntimeIOException(err);
+					}
+				return rec;
+				}
+			@Override
+			public void close() {
+				for(final Run run:this.queue) CloserUtil.close(run.in);
+				this.queue.clear();
+				}
+			}
+		
+		void cleanup() {
+			for(final File f:this.runs) f.delete();
+			this.runs.clear();
+			this.keys = null;
+			this.records = null;
+			}
+		}
+	
 	private static class StableSort implements SAMRecordComparator
 		{
 		private final SAMRecordCoordinateComparator coordinateComparator;
@@ -230,6 +498,7 @@ public class SamCustomSortJdk
 		SamReader samFileReader=null;
 		SAMFileWriter sw=null;
 		SortingCollection<SAMRecord> sorter=null;
+		KeySorter keySorter=null;
 		CloseableIterator<SAMRecord> iter2=null;
 		try
 			{
@@ -265,7 +534,7 @@ public class SamCustomSortJdk
 
 			pw.println("@Generated(value=\""+SamCustomSortJdk.class.getSimpleName()+"\",date=\""+ new Iso8601Date(new Date()) +"\")");
 			pw.println("public class "+javaClassName+" extends "+
-					AbstractSamComparator.class.getName().replace('$', '.')+" {");
+					(this.user_code_is_key?AbstractSamKeyExtractor.class:AbstractSamComparator.class).getName().replace('$', '.')+" {");
 			pw.println("  public "+javaClassName+"(final SAMFileHeader header) {");
 			pw.println("  super(header);");
 			pw.println("  }");
@@ -275,6 +544,15 @@ public class SamCustomSortJdk
 				pw.println(code);
 				pw.println("   // user's code ends here");
 				}
+			else if(this.user_code_is_key)
+				{
+				pw.println("  @Override");
+				pw.println("  public long applyAsLong(final SAMRecord R) {");
+				pw.println("   /** user's code starts here */");
+				pw.println(code);
+				pw.println(    "/** user's code ends here */");
+				pw.println("   }");
+				}
 			else
 				{
 				pw.println("  @Override");
@@ -327,27 +605,48 @@ public class SamCustomSortJdk
 			
 			samFileReader= openSamReader(oneFileOrNull(args));
 			final SAMFileHeader headerIn = samFileReader.getFileHeader();
-			@SuppressWarnings("unchecked")
-			final StableSort customComparator = new StableSort(( Comparator<SAMRecord>)ctor.newInstance(headerIn));
-			final BAMRecordCodec bamRecordCodec=new BAMRecordCodec(headerIn);
+			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(headerIn).logger(LOG);
 			
-			sorter =SortingCollection.newInstance(
-						SAMRecord.class,
-						bamRecordCodec,
-						customComparator,
+			if(this.user_code_is_key)
+				{
+				@SuppressWarnings("unchecked")
+				final ToLongFunction<SAMRecord> keyExtractor = (ToLongFunction<SAMRecord>)ctor.newInstance(headerIn);
+				keySorter = new KeySorter(
+						headerIn,
 						this.writingSortingCollection.getMaxRecordsInRam(),
 						this.writingSortingCollection.getTmpPaths()
 						);
-			sorter.setDestructiveIteration(true);
-			
-			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(headerIn).logger(LOG);
-			iter = samFileReader.iterator();
-			while(iter.hasNext())
+				iter = samFileReader.iterator();
+				while(iter.hasNext())
+					{
+					final SAMRecord rec = progress.watch(iter.next());
+					keySorter.add(keyExtractor.applyAsLong(rec),rec);
+					}
+				samFileReader.close();samFileReader=null;
+				}
+			else
 				{
-				sorter.add( progress.watch(iter.next()));
+				@SuppressWarnings("unchecked")
+				final StableSort customComparator = new StableSort(( Comparator<SAMRecord>)ctor.newInstance(headerIn));
+				final BAMRecordCodec bamRecordCodec=new BAMRecordCodec(headerIn);
+				
+				sorter =SortingCollection.newInstance(
+							SAMRecord.class,
+							bamRecordCodec,
+							customComparator,
+							this.writingSortingCollection.getMaxRecordsInRam(),
+							this.writingSortingCollection.getTmpPaths()
+							);
+				sorter.setDestructiveIteration(true);
+				
+				iter = samFileReader.iterator();
+				while(iter.hasNext())
+					{
+					sorter.add( progress.watch(iter.next()));
+					}
+				samFileReader.close();samFileReader=null;
+				sorter.doneAdding();
 				}
-			samFileReader.close();samFileReader=null;
-			sorter.doneAdding();
 			
 			
 			
@@ -358,7 +657,7 @@ public class SamCustomSortJdk
 	        sw = this.writingBamArgs.openSAMFileWriter(this.outputFile,headerOut, false);
 
 	        progress=new SAMSequenceDictionaryProgress(headerIn).logger(LOG);
-			iter2 = sorter.iterator();
+			iter2 = (keySorter!=null?keySorter.iterator():sorter.iterator());
 			while(iter2.hasNext())
 				{
 				sw.addAlignment( progress.watch(iter2.next()));
@@ -376,6 +675,7 @@ public class SamCustomSortJdk
 		finally
 			{
 			try { if(sorter!=null) sorter.cleanup();} catch(Exception e) {}
+			if(keySorter!=null) keySorter.cleanup();
 			CloserUtil.close(iter);
 			CloserUtil.close(iter2);
 			CloserUtil.close(samFileReader);
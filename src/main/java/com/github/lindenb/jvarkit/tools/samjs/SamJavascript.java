@@ -33,13 +33,12 @@ import java.io.File;
  * Motivation http://www.biostars.org/p/66319/ 
  */
 
+import java.util.AbstractMap;
 import java.util.List;
-
-import javax.script.Bindings;
-import javax.script.CompiledScript;
-
+import java.util.Map;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.lang.ScriptEnginePool;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -50,6 +49,7 @@ import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloserUtil;
 
 /**
@@ -68,6 +68,10 @@ For each read the script injects in the context the following values:
 
 the script should return a boolean : true accept the read, false: discard the read.
 
+## Multithreading
+
+With `--threads N`, each thread compiles its own copy of the script. The reads are sent to the threads by batches and the output keeps the input order.
+The script must not rely on a state shared between the reads.
 ## Example
 
 ### Example 1
@@ -134,7 +138,10 @@ public class SamJavascript
 	private String jsExpression=null;
 	@Parameter(names={"-f","--file"},description="javascript file")
 	private File jsFile =null;
-	private CompiledScript  script=null;
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads. If greater than 1, each thread uses its own script engine and the output keeps the input order. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="With --threads: number of reads sent to a thread at once.")
+	private int batchSize = 1_000;
 	private SAMFileWriter failingReadsWriter=null;
 
 	public SamJavascript()
@@ -166,31 +173,41 @@ public class SamJavascript
 		SAMFileWriter sw=null;
 		try
 			{
-			this.script  = super.compileJavascript(this.jsExpression,this.jsFile);
+			final ScriptEnginePool pool = new ScriptEnginePool(()->super.compileJavascript(this.jsExpression,this.jsFile));
 			samFileReader= openSamReader(oneFileOrNull(args));
 			final SAMFileHeader header=samFileReader.getFileHeader();
 			sw = writingBamArgs.openSAMFileWriter(outputFile,header, true);
-			long count=0L;
-	        	final Bindings bindings = this.script.getEngine().createBindings();
-		        bindings.put("header", samFileReader.getFileHeader());
-		        final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG);
-		        iter = samFileReader.iterator();
-			while(iter.hasNext())
-				{
-				final SAMRecord record=iter.next();
-				progress.watch(record);
-				bindings.put("record", record);
-				if(super.evalJavaScriptBoolean(this.script, bindings))
-					{
-					++count;
-					sw.addAlignment(record);
-					if(this.LIMIT>0L && count>=this.LIMIT) break;
-					}
-				else
-					{
-					failing(record,header);
+			final SAMFileWriter out = sw;
+			final long count[]={0L};
+			pool.put("header", samFileReader.getFileHeader());
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG);
+			final SAMRecordIterator samIter = samFileReader.iterator();
+			iter = samIter;
+			pool.forEachOrdered(
+				new AbstractIterator<SAMRecord>() {
+					@Override
+					protected SAMRecord advance() {
+						return samIter.hasNext()?progress.watch(samIter.next()):null;
+						}
+					},
+				this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads,
+				this.batchSize,
+				(ctx,record)->new AbstractMap.SimpleEntry<>(record,ctx.evalBoolean("record", record)),
+				(Map.Entry<SAMRecord,Boolean> entry)->{
+					if(entry.getValue())
+						{
+						++count[0];
+						out.addAlignment(entry.getKey());
+						if(this.LIMIT>0L && count[0]>=this.LIMIT) return false;
+						}
+					else
+						{
+						failing(entry.getKey(),header);
+						}
+					return true;
 					}
-				}
+				);
+			LOG.info(pool.getStatistics());
 			sw.close();
 			/* create empty if never called */
 			openFailing(header);
@@ -31,19 +31,23 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.OpenJdkCompiler;
 import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.util.concurrent.OrderedBatchExecutor;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -55,9 +59,11 @@ import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Iso8601Date;
+import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.util.StringUtil;
 
 
@@ -135,7 +141,13 @@ The method `apply` returns an object that can either:
 * a [SAMRecord](https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/samtools/SAMRecord.html) to replace the current read
 * a [java.util.List](https://docs.oracle.com/javase/8/docs/api/java/util/List.html)<[SAMRecord](https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/samtools/SAMRecord.html) > to replace the current record with a list of records.
 
+## Multithreading
 
+When `--threads` is greater than 1, each worker thread creates its own instance of the compiled class and the reads
+(or the groups of reads in `--pair` mode) are sent to the workers by batches. The output is written in the same order as the input.
+
+The user's code must be thread-confined: each instance only sees a part of the reads, so the code must not rely on
+its own state (e.g. `userData`) and must not share any data with the other instances (e.g. static fields).
 ## Example
 
 ### Example 1
@@ -408,8 +420,13 @@ public class SamJdk
 			+ "This function must return `true` to accept the whole list, `false` to reject eveything, or another `List<SAMRecord>`."
 			+ "Input MUST be sorted on query name using picard SortSam (not `samtools sort` https://github.com/samtools/hts-specs/issues/5 ). ")
 	private boolean pair_mode=false;
-
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads. If greater than 1, each thread uses its own instance of the compiled filter and the output keeps the input order. The user's code must be thread-confined (see the documentation). A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="With --threads: number of reads (or groups of reads in pair-mode) sent to a worker at once.")
+	private int batchSize = 1_000;
 	
+	/** number of reads written */
+	private long count = 0L;
 	public static abstract class AbstractBaseFilter<T>
 		implements Function<T,Object>
 		{
@@ -453,6 +470,118 @@ public class SamJdk
 		{
 		}
 
+	/** reads accepted and rejected by the user's code for one read or one group of reads */
+	private static class FilterResult {
+		final List<SAMRecord> accepted;
+		final List<SAMRecord> rejected;
+		FilterResult(final List<SAMRecord> accepted,final List<SAMRecord> rejected) {
+			this.accepted = accepted;
+			this.rejected = rejected;
+			}
+		}
+	
+	/** groups the consecutive reads having the same name */
+	private static class ReadNameGroupIterator extends AbstractIterator<List<SAMRecord>> {
+		private final PeekableIterator<SAMRecord> delegate;
+		private final SAMSequenceDictionaryProgress progress;
+		private final Comparator<SAMRecord> nameComparator = ReadNameSortMethod.picard.get();
+		private SAMRecord prev = null;
+		private int numWarnings = 100;
+		ReadNameGroupIterator(final Iterator<SAMRecord> delegate,final SAMSequenceDictionaryProgress progress) {
+			this.delegate = new PeekableIterator<>(delegate);
+			this.progress = progress;
+			}
+		private SAMRecord nextRecord() {
+			final SAMRecord record = this.progress.watch(this.delegate.next());
+			if( this.prev!=null && this.numWarnings>0 && this.nameComparator.compare(this.prev,record)>0)
+				{
+				--this.numWarnings;
+				LOG.warn("SamRecord doesn't look sorted on query name using a picard/htsjdk method. Got "+record+" affter "+prev+". "
+						+ "In '--pair'  mode, reads should be sorted on query name using **picard/htsjdk**. (samtools != picard) see https://github.com/samtools/hts-specs/issues/5");
+				}
+			this.prev = record;
+			return record;
+			}
+		@Override
+		protected List<SAMRecord> advance() {
+			if(!this.delegate.hasNext()) return null;
+			final List<SAMRecord> buffer = new ArrayList<>();
+			buffer.add(nextRecord());
+			while(this.delegate.hasNext() && this.delegate.peek().getReadName().equals(buffer.get(0).getReadName())) {
+				buffer.add(nextRecord());
+				}
+			return buffer;
+			}
+		}
+	
+	/** converts the object returned by the user's code. Doesn't change the state of this object. */
+	private static FilterResult toFilterResult(final Object result,final List<SAMRecord> records) {
+		// result is an array of a collection of reads
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			final List<SAMRecord> accepted = new ArrayList<>(col.size());
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
+				accepted.add(SAMRecord.class.cast(item));
+				}
+			return new FilterResult(accepted, Collections.emptyList());
+			}
+		// result is a SAMRecord
+		else if(result!=null && (result instanceof SAMRecord)) {
+			return new FilterResult(Collections.singletonList(SAMRecord.class.cast(result)), Collections.emptyList());
+			}
+		boolean accept=true;
+		if(result==null)
+			{
+			accept=false;
+			}
+		else if(result instanceof Boolean)
+			{
+			if(Boolean.FALSE.equals(result)) accept = false;
+			}
+		else if(result instanceof Number)
+			{
+			if(((Number)result).intValue()!=1) accept = false;
+			}
+		else
+			{
+			LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+			accept = false;
+			}
+		if (!accept)
+			{
+			return new FilterResult(Collections.emptyList(), records);
+			}
+		return new FilterResult(records, Collections.emptyList());
+		}
+	
+	/** write the reads, returns true if the limit of reads was reached */
+	private boolean write(final FilterResult result,final SAMFileWriter sw,final SAMFileHeader header) {
+		for(final SAMRecord item :result.rejected)
+			{
+			failing(item,header);
+			}
+		for(final SAMRecord item :result.accepted)
+			{
+			++this.count;
+			sw.addAlignment(item);
+			if(this.LIMIT>0L && this.count>=this.LIMIT) return true;
+			}
+		return this.LIMIT>0L && this.count>=this.LIMIT;
+		}
+	
 	/* open failing bam if it was not already open */
 	private void openFailing(final SAMFileHeader h)
 		{
@@ -588,179 +717,52 @@ public class SamJdk
 					}
 				}
 			
-			long count=0L;
 	        final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG);
 	        sw = this.writingBamArgs.openSAMFileWriter(this.outputFile,header, true);
 	        iter = samFileReader.iterator();
 	        
-	        
-	        
+	        // each item is a read, or a group of reads in pair-mode
+	        final Iterator<List<SAMRecord>> groups;
 	        if(this.pair_mode)
 	        	{
-	        	SAMRecord prev=null;
-				final AbstractListFilter filter = (AbstractListFilter)ctor.newInstance(header);
-				final List<SAMRecord> buffer = new ArrayList<>();
-				for(;;) {
-					int numWarnings = 100;
-					final Comparator<SAMRecord> nameComparator = ReadNameSortMethod.picard.get();
-					final SAMRecord record = (iter.hasNext()?progress.watch(iter.next()):null);
-					if( prev!=null && record!=null && numWarnings>0 && nameComparator.compare(prev,record)>0)
-						{
-						LOG.warn("SamRecord doesn't look sorted on query name using a picard/htsjdk method. Got "+record+" affter "+prev+". "
-								+ "In '--pair'  mode, reads should be sorted on query name using **picard/htsjdk**. (samtools != picard) see https://github.com/samtools/hts-specs/issues/5");
-						--numWarnings;
-						}
-					prev=record;
-
-					
-					if(record==null || (!buffer.isEmpty() && !buffer.get(0).getReadName().equals(record.getReadName())))
-						{
-						if(!buffer.isEmpty()) {
-							final Object result = filter.apply(buffer);
-							
-							// result is an array of a collection of reads
-							if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-								{
-								final  Collection<?> col;
-								if(result.getClass().isArray())
-									{
-									final Object array[]=(Object[])result;
-									col= Arrays.asList(array);
-									}
-								else
-									{
-									col =( Collection<?>)result;
-									}
-								// write all of reads
-								for(final Object item:col)
-									{
-									if(item==null) throw new JvarkitException.UserError("item in array is null");
-									if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
-									++count;
-									sw.addAlignment(SAMRecord.class.cast(item));
-									if(this.LIMIT>0L && count>=this.LIMIT) break;
-									}
-								}
-							// result is a SAMRecord
-							else if(result!=null && (result instanceof SAMRecord)) {
-								++count;
-								sw.addAlignment(SAMRecord.class.cast(result));
-								}
-							else
-								{
-								boolean accept=true;
-								if(result==null)
-									{
-									accept=false;
-									}
-								else if(result instanceof Boolean)
-									{
-									if(Boolean.FALSE.equals(result)) accept = false;
-									}
-								else if(result instanceof Number)
-									{
-									if(((Number)result).intValue()!=1) accept = false;
-									}
-								else
-									{
-									LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-									accept = false;
-									}
-								if (!accept)
-									{
-									for(final SAMRecord item :buffer)
-										{
-										failing(item,header);
-										}
-									}
-								else
-									{
-									for(final SAMRecord item :buffer)
-										{
-										++count;
-										sw.addAlignment(item);
-										}
-									}
-								}
-							}// end of if !buffer.isEmpty()
-						if( record==null) break;
-						buffer.clear();
-						} // end flush flush 
-					if(this.LIMIT>0L && count>=this.LIMIT) break;
-					buffer.add(record);
-					}// infinite loop
-				
+	        	groups = new ReadNameGroupIterator(iter,progress);
 	        	}
 	        else
-		        {
-				final AbstractFilter filter = (AbstractFilter)ctor.newInstance(header);
-			    
-				while(iter.hasNext())
-					{
-					final SAMRecord record=progress.watch(iter.next());
-					final Object result = filter.apply(record);
-					
-					// result is an array of a collection of reads
-					if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-						{
-						final  Collection<?> col;
-						if(result.getClass().isArray())
-							{
-							final Object array[]=(Object[])result;
-							col= Arrays.asList(array);
-							}
-						else
-							{
-							col =( Collection<?>)result;
-							}
-						// write all of reads
-						for(final Object item:col)
-							{
-							if(item==null) throw new JvarkitException.UserError("item in array is null");
-							if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
-							++count;
-							sw.addAlignment(SAMRecord.class.cast(item));
-							}
-						}
-					// result is a SAMRecord
-					else if(result!=null && (result instanceof SAMRecord)) {
-						++count;
-						sw.addAlignment(SAMRecord.class.cast(result));
-						}
-					else
-						{
-						boolean accept=true;
-						if(result==null)
-							{
-							accept=false;
-							}
-						else if(result instanceof Boolean)
-							{
-							if(Boolean.FALSE.equals(result)) accept = false;
-							}
-						else if(result instanceof Number)
-							{
-							if(((Number)result).intValue()!=1) accept = false;
-							}
-						else
-							{
-							LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-							accept = false;
-							}
-						if (!accept)
-							{
-							failing(record,header);
-							}
-						else
-							{
-							++count;
-							sw.addAlignment(record);
-							}
-						}
-	
-					if(this.LIMIT>0L && count>=this.LIMIT) break;
-					}
-		        }
+	        	{
+	        	final SAMRecordIterator iter2 = iter;
+	        	groups = new AbstractIterator<List<SAMRecord>>() {
+	        		@Override
+	        		protected List<SAMRecord> advance() {
+	        			return iter2.hasNext()?Collections.singletonList(progress.watch(iter2.next())):null;
+	        			}
+	        		};
+	        	}
+	        final Supplier<Function<List<SAMRecord>,Object>> filterFactory = ()->{
+	        	final Object instance;
+	        	try {
+	        		instance = ctor.newInstance(header);
+	        		}
+	        	catch(final ReflectiveOperationException err) {
+	        		throw new RuntimeException(err);
+	        		}
+	        	if(this.pair_mode) {
+	        		return AbstractListFilter.class.cast(instance);
+	        		}
+	        	final AbstractFilter filter = AbstractFilter.class.cast(instance);
+	        	return L->filter.apply(L.get(0));
+	        	};
+	        
+	        final int nJobs = this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads;
+	        // one instance of the user's filter per worker, the output keeps the input order
+	        final SAMFileWriter out = sw;
+	        OrderedBatchExecutor.forEachOrdered(
+	        	groups,
+	        	nJobs,
+	        	this.batchSize,
+	        	filterFactory,
+	        	(FILTER,RECORDS)->toFilterResult(FILTER.apply(RECORDS),RECORDS),
+	        	R->!write(R,out,header)
+	        	);
 			sw.close();
 			/* create empty if never called */
 			openFailing(header);
@@ -28,19 +28,34 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.splitbam;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.ParallelBgzfOutputStream;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.Chunk;
 import htsjdk.samtools.DefaultSAMRecordFactory;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileSource;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
@@ -50,10 +65,15 @@ import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordFactory;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.ProgressLoggerInterface;
+import htsjdk.samtools.util.RuntimeIOException;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
@@ -122,6 +142,12 @@ Runtime.totalMemory()=1916600320
 
 
 
+### Multithreading
+
+With `--jobs N` (N>1), the BGZF blocks of all the output BAMs are deflated on a shared pool of N threads
+and the throughput of each output is logged when it is closed. The BAM indexes are created
+once all the BAMs have been written.
+
 END_DOC
 */
 @Program(name="splitbam3",description="Split a BAM by chromosome group")
@@ -148,6 +174,12 @@ public class SplitBam3 extends Launcher
 	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
+
+	@Parameter(names={"-j","--jobs"},description="Number of threads. If greater than 1, the BGZF blocks of all the output BAMs are compressed on a shared pool of threads and the BAM indexes are built as the blocks are written. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
+	
+	/** shared pool of deflaters, null if nJobs==1 */
+	private ExecutorService deflaterService = null;
 	
 	private final static String REPLACE_GROUPID="__GROUPID__";
 	private long id_generator=System.currentTimeMillis();
@@ -161,6 +193,14 @@ public class SplitBam3 extends Launcher
 		final String groupName;
 		SAMFileHeader header=null;
 		SAMFileWriter _writer;
+		/** used instead of _writer when the blocks are compressed in parallel */
+		ParallelBgzfOutputStream bgzfOut = null;
+		BAMRecordCodec bamCodec = null;
+		/** with bgzfOut: the index is built while the blocks are written */
+		BAMIndexer bamIndexer = null;
+		/** records waiting for the address of their last block */
+		final ArrayDeque<PendingRecord> toIndex = new ArrayDeque<>();
+		final Map<Long,Long> block2address = new HashMap<>();
 		long count=0L;
 		@SuppressWarnings("unused")
 		ProgressLoggerInterface progress;
@@ -175,6 +215,12 @@ public class SplitBam3 extends Launcher
 			return header;
 			}
 		
+		public File getIndexFile()
+			{
+			final File fileout = getFile();
+			return new File(fileout.getParentFile(),IOUtil.basename(fileout)+BAMIndex.BAMIndexSuffix);
+			}
+		
 		public File getFile()
 			{
 			return new File(
@@ -209,8 +255,32 @@ public class SplitBam3 extends Launcher
 					);
 			
 			this.header.setSortOrder(SortOrder.coordinate);
+			if(SplitBam3.this.deflaterService!=null)
+				{
+				try {
+					this.bgzfOut = new ParallelBgzfOutputStream(
+						new BufferedOutputStream(new FileOutputStream(fileout)),
+						SplitBam3.this.deflaterService,
+						writingBamArgs.compressionLevel,
+						SplitBam3.this.nJobs*2
+						);
+					writeBamHeader();
+					}
+				catch(final IOException err)
+					{
+					throw new RuntimeIOException(err);
+					}
+				this.bamCodec = new BAMRecordCodec(this.header);
+				this.bamCodec.setOutputStream(this.bgzfOut, fileout.getPath());
+				this.bamIndexer = new BAMIndexer(getIndexFile(), this.header);
+				this.bgzfOut.setBlockListener((blockIndex,address)->{
+					this.block2address.put(blockIndex, address);
+					indexRecords(blockIndex);
+					});
+				return;
+				}
 			samFileWriterFactory.setCreateIndex(true);
-				
+			
 			
 			this._writer = samFileWriterFactory.makeBAMWriter(
 				this.header,
@@ -219,10 +289,54 @@ public class SplitBam3 extends Launcher
 				);
 			}
 		
+		/** write the uncompressed BAM header to bgzfOut */
+		private void writeBamHeader()
+			{
+			final BinaryCodec codec = new BinaryCodec(this.bgzfOut);
+			codec.writeBytes(new byte[]{'B','A','M',1});
+			final StringWriter headerText = new StringWriter();
+			new SAMTextHeaderCodec().encode(headerText, this.header);
+			codec.writeString(headerText.toString(), true, false);
+			final SAMSequenceDictionary dict = this.header.getSequenceDictionary();
+			codec.writeInt(dict.size());
+			for(final SAMSequenceRecord ssr: dict.getSequences())
+				{
+				codec.writeString(ssr.getSequenceName(), true, true);
+				codec.writeInt(ssr.getSequenceLength());
+				}
+			}
+		
+		/** send to the indexer the records whose blocks were all written */
+		private void indexRecords(final long lastWrittenBlock)
+			{
+			while(!this.toIndex.isEmpty() && this.toIndex.peek().endBlock <= lastWrittenBlock)
+				{
+				final PendingRecord pr = this.toIndex.poll();
+				final long start = BlockCompressedFilePointerUtil.makeFilePointer(this.block2address.get(pr.startBlock), pr.startOffset);
+				final long end = BlockCompressedFilePointerUtil.makeFilePointer(this.block2address.get(pr.endBlock), pr.endOffset);
+				this.bamIndexer.processAlignment(new IndexedRecord(pr.rec, new SAMFileSource(null, new BAMFileSpan(new Chunk(start, end)))));
+				}
+			final long minBlock = this.toIndex.isEmpty()?lastWrittenBlock:this.toIndex.peek().startBlock;
+			this.block2address.keySet().removeIf(K->K < minBlock);
+			}
+		
 		@Override
 		public void addAlignment(final SAMRecord rec)
 			{
-			this._writer.addAlignment(rec);
+			if(this.bamCodec!=null)
+				{
+				final long startBlock = this.bgzfOut.getCurrentBlockIndex();
+				final int startOffset = this.bgzfOut.getCurrentBlockOffset();
+				this.bamCodec.encode(rec);
+				this.toIndex.add(new PendingRecord(rec,
+						startBlock, startOffset,
+						this.bgzfOut.getCurrentBlockIndex(), this.bgzfOut.getCurrentBlockOffset()
+						));
+				}
+			else
+				{
+				this._writer.addAlignment(rec);
+				}
 			++this.count;
 			}
 		
@@ -265,7 +379,65 @@ public class SplitBam3 extends Launcher
 				}
 			CloserUtil.close(this._writer);
 			this._writer=null;
+			if(this.bgzfOut!=null)
+				{
+				/* writes the remaining blocks, so all the records are indexed */
+				CloserUtil.close(this.bgzfOut);
+				if(this.bamIndexer!=null)
+					{
+					if(!this.toIndex.isEmpty()) throw new IllegalStateException("records were not indexed in "+getFile());
+					this.bamIndexer.finish();
+					this.bamIndexer = null;
+					}
+				LOG.info(this.groupName+": "+
+					this.bgzfOut.getUncompressedByteCount()+" bytes uncompressed, "+
+					this.bgzfOut.getCompressedByteCount()+" bytes compressed, "+
+					String.format("%.2f",this.bgzfOut.getThroughput()/1.0E6)+" Mb/s"
+					);
+				}
+			this.bamCodec=null;
+			}
+		}
+	
+	/** a record written in a BGZF stream, waiting for its block addresses */
+	private static class PendingRecord
+		{
+		final SAMRecord rec;
+		final long startBlock;
+		final int startOffset;
+		final long endBlock;
+		final int endOffset;
+		PendingRecord(final SAMRecord rec,final long startBlock,final int startOffset,final long endBlock,final int endOffset)
+			{
+			this.rec = rec;
+			this.startBlock = startBlock;
+			this.startOffset = startOffset;
+			this.endBlock = endBlock;
+			this.endOffset = endOffset;
+			}
+		}
+	
+	/** the view of a written record given to the BAMIndexer: the fields used for indexing and the chunk
+	 * of the record in the output (SAMRecord.setFileSource is not public) */
+	@SuppressWarnings("serial")
+	private static class IndexedRecord extends SAMRecord
+		{
+		private final SAMRecord delegate;
+		private final SAMFileSource fileSource;
+		IndexedRecord(final SAMRecord delegate,final SAMFileSource fileSource)
+			{
+			super(delegate.getHeader());
+			this.delegate = delegate;
+			this.fileSource = fileSource;
 			}
+		@Override public Integer getReferenceIndex() { return this.delegate.getReferenceIndex();}
+		@Override public String getReferenceName() { return this.delegate.getReferenceName();}
+		@Override public int getAlignmentStart() { return this.delegate.getAlignmentStart();}
+		@Override public int getAlignmentEnd() { return this.delegate.getAlignmentEnd();}
+		@Override public int getFlags() { return this.delegate.getFlags();}
+		@Override public boolean getReadUnmappedFlag() { return this.delegate.getReadUnmappedFlag();}
+		@Override public SAMFileSource getFileSource() { return this.fileSource;}
+		@Override public String toString() { return this.delegate.toString();}
 		}
 	
 	private SplitBam3()
@@ -459,6 +631,8 @@ public class SplitBam3 extends Launcher
 					LOG.info("Delete "+f);
 					f.delete();
 					}
+				final File bai = g.getIndexFile();
+				if(g.bamIndexer!=null && bai.exists()) bai.delete();
 				}
 			throw error;
 			}
@@ -479,6 +653,15 @@ public class SplitBam3 extends Launcher
 				return -1;
 				}
 			
+			if(this.nJobs<1)
+				{
+				this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+				LOG.info("setting njobs to "+this.nJobs);
+				}
+			if(this.nJobs>1)
+				{
+				this.deflaterService = Executors.newFixedThreadPool(this.nJobs);
+				}
 			sfr = super.openSamReader(oneFileOrNull(args));
 			
 					
@@ -496,6 +679,7 @@ public class SplitBam3 extends Launcher
 		finally
 			{
 			CloserUtil.close(sfr);
+			if(this.deflaterService!=null) this.deflaterService.shutdownNow();
 			}
 		
 		}
@@ -25,22 +25,19 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.structvar;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.text.NumberFormat;
-import java.util.AbstractList;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.lang.SmartComparator;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.hershey.JfxHershey;
 import com.github.lindenb.jvarkit.util.jcommander.JfxLauncher;
@@ -49,7 +46,6 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
-import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.StringUtil;
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -108,6 +104,11 @@ chr1    17353  34353   1.06      1.06      1.23      1.26      1.44      1.43
 chr1    48498  65498   1.08      0.996     1.28      1.44      1.52      1.57      1.05
 ```
 
+## Columnar file
+
+The first time a file is opened, it is converted to a binary file `${input}.fcol` (or to a temporary file if the directory
+is not writable), holding one column of floats per sample. This file is memory-mapped, so large cohorts don't have to
+fit in memory. It is converted again if the input file changes.
 ## Screenshot
 
 ![https://pbs.twimg.com/media/DYbK3f1X0AECEfw.jpg:large](https://pbs.twimg.com/media/DYbK3f1X0AECEfw.jpg:large)
@@ -132,8 +133,12 @@ public class IndexCovJfx extends JfxLauncher {
 
 	
 	private final ObservableList<Sample> sampleNames = FXCollections.observableArrayList();
-	private final List<IndexCovRow> orignalndexCovRows = new ArrayList<>();
-	private final ObservableList<IndexCovRow> visibleIndexCovRows = FXCollections.observableArrayList();
+	/** columnar storage of the indexcov data */
+	private IndexCovMatrix indexCovMatrix = null;
+	/** rows of indexCovMatrix that are displayed */
+	private BitSet visibleRows = new BitSet();
+	/** indexes of the rows that are displayed */
+	private int visibleRowIndexes[] = new int[0];
 	private Canvas canvas = null;
 	private ScrollPane canvasSrollPane = null;
 	private ListView<Sample> sampleListView = null;
@@ -159,105 +164,6 @@ public class IndexCovJfx extends JfxLauncher {
 			}
 		}
 	
-	private abstract class SampleCov
-		{
-		public abstract int getSampleIndex();
-		public abstract float getFold();
-		public boolean isDeletion() {
-			return getFold()  <= IndexCovJfx.this.getDeletionTreshold();
-			}
-		public boolean isDuplication() {
-			return getFold()  >= IndexCovJfx.this.getDuplicationTreshold();
-			}
-		}
-	
-	private class IndexCovRow
-		implements Locatable
-		{
-		final String contig;
-		final int start;
-		final int end;
-		final float folds[];
-		
-		private class SampleCovImpl
-			extends SampleCov
-			{
-			final int sample_index;
-			SampleCovImpl(int sample_index) {
-				this.sample_index = sample_index;
-				}
-			@Override
-			public int getSampleIndex() {
-				return this.sample_index;
-				}
-			@Override
-			public float getFold() {
-				return IndexCovRow.this.folds[this.sample_index];
-				}
-			}
-		
-		IndexCovRow(final List<String> tokens) {
-			this.contig = tokens.get(0);
-			this.start = Integer.parseInt(tokens.get(1));
-			this.end = Integer.parseInt(tokens.get(2));
-			this.folds = new float[sampleNames.size()];
-			for(int i=3;i<tokens.size();i++) {
-				this.folds[i-3] = Float.parseFloat(tokens.get(i));
-				}
-			}
-		public SampleCov get(int i) {
-			return new SampleCovImpl(i);
-			}
-		
-		public List<SampleCov> getFolds() {
-			return new AbstractList<SampleCov>()
-					{
-					@Override
-					public int size() {
-						return IndexCovRow.this.folds.length;
-						}
-					@Override
-					public SampleCov get(int index) {
-						return IndexCovRow.this.get(index);
-						}
-					};
-				}
-		
-		@Override
-		public String getContig() { return contig; }
-		@Override
-		public int getStart() { return start;}
-		@Override
-		public int getEnd() { return end;}
-		
-		private String normContig( String s) {
-			s=s.toLowerCase();
-			if(s.startsWith("chr")) s=s.substring(3);
-			return s;
- 			}
-		boolean hasContig(final String s) {
-			return getContig().equals(s)  ||
-				normContig(this.getContig()).equals(normContig(s));
-		}
-		
-		boolean overlaps(final String c,int p)
-			{
-			if(p<getStart() || p>getEnd()) return false;
-			if(hasContig(c)) return true;
-			return false;
-			}
-		boolean overlaps(final String c,int S,int E)
-			{
-			if(E<getStart() || S>getEnd()) return false;
-			if(hasContig(c)) return true;
-			return false;
-			}
-		public boolean isJustBefore(final IndexCovRow next) {
-			return hasContig(next.getContig()) &&
-					this.getEnd()>=next.getStart() && this.getEnd()< next.getEnd();
-			}
-		}
-	
 	public IndexCovJfx() {
 	}
 	
@@ -273,9 +179,6 @@ public class IndexCovJfx extends JfxLauncher {
 public int doWork(final Stage primaryStage,final List<String> args) {
 		final Rectangle2D screen=Screen.getPrimary().getVisualBounds();
 
-		final Pattern tab = Pattern.compile("[\t]");
-		
-		BufferedReader r = null;
 		try {
 			final File inputFile ;
 			if(args.isEmpty())
@@ -297,28 +200,19 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 				return -1;
 				}
 			
-			r = IOUtils.openFileForBufferedReading(inputFile);
-			String line = r.readLine();
-			if(line==null) {
-				new  Alert(AlertType.ERROR,
-						"Cannot read first line of "+inputFile,
-						ButtonType.OK).
-					showAndWait();
-				return -1;
+			/* the first time, the file is converted to a columnar file */
+			try {
+				this.indexCovMatrix = IndexCovMatrix.openForSource(inputFile);
 				}
-			String tokens[] = tab.split(line);
-			if(tokens.length<4 ||
-				!tokens[0].equals("#chrom") ||
-				!tokens[1].equals("start") ||
-				!tokens[2].equals("end")) {
+			catch(final IOException err) {
+				LOG.error(err);
 				new  Alert(AlertType.ERROR,
-						"bad first line "+line+" in "+inputFile,
+						err.getMessage(),
 						ButtonType.OK).
 					showAndWait();
 				return -1;
 				}
-			this.sampleNames.addAll(Arrays.asList(tokens).
-					subList(3,tokens.length).
+			this.sampleNames.addAll(this.indexCovMatrix.getSampleNames().
 					stream().
 					map(S->new Sample(S)).
 					collect(Collectors.toList())
@@ -331,32 +225,20 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 			
 			//this.sampleListView.setPrefWidth(200);
 			
-			final SmartComparator smartCmp = new SmartComparator();
-			this.orignalndexCovRows.addAll(r.lines().
-				filter(L->!StringUtil.isBlank(L)).
-				map(L->Arrays.asList(tab.split(L))).
-				map(T->new IndexCovRow(T)).
-				sorted((A,B)->{
-					int i=  smartCmp.compare(A.getContig(),B.getContig());
-					if(i!=0) return i;
-					return A.getStart() - B.getStart();
-				}).
-				collect(Collectors.toList())
-				);
-			
-			this.visibleIndexCovRows.addAll(orignalndexCovRows);
+			setVisibleRows(this.indexCovMatrix.getAllRows());
 			
 			String lastContig=null;
-			for(final IndexCovRow row: this.visibleIndexCovRows) 
+			for(int row=0;row< this.indexCovMatrix.getRowCount();++row) 
 				{
-				if(lastContig==null || !lastContig.equals(row.getContig()))
+				final String contig = this.indexCovMatrix.getContig(row);
+				if(lastContig==null || !lastContig.equals(contig))
 					{
-					this.contig2color.put(row.getContig(),
+					this.contig2color.put(contig,
 							this.contig2color.size()%2==0?
 							gray(0.96):
 							gray(0.98)
 							);
-					lastContig=row.getContig();
+					lastContig=contig;
 					}
 				}
 			
@@ -372,7 +254,7 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 			this.canvasSrollPane.setHbarPolicy(ScrollBarPolicy.ALWAYS);
 			this.canvasSrollPane.setHmin(0);
 			// NOT HERE: see adjustScollPane();
-			//this.canvasSrollPane.setHmax(this.visibleIndexCovRows.size()*CHUNK_WIDTH);
+			//this.canvasSrollPane.setHmax(this.visibleRowIndexes.length*CHUNK_WIDTH);
 			//this.canvasSrollPane.setHvalue(0);
 			
 			this.canvasSrollPane.hvalueProperty().addListener(E->repaintCanvas());
@@ -485,8 +367,9 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 			final Scene scene = new Scene(root);
 			primaryStage.setTitle(IndexCovJfx.class.getSimpleName()+
 					" " + this.sampleNames.size()+" Sample(s) " +
-					this.visibleIndexCovRows.size()+" Point(s)."
+					this.visibleRowIndexes.length+" Point(s)."
 					);
+			primaryStage.setOnHidden(E->CloserUtil.close(this.indexCovMatrix));
 			primaryStage.setOnShown(E->{
 				adjustScollPane();
 				this.canvasSrollPane.requestFocus();
@@ -528,9 +411,6 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 				showAndWait();
 			return -1;
 			}
-		finally {
-			CloserUtil.close(r);
-			}
 		return 0;
 		}
 		
@@ -544,6 +424,12 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 			return d==null?DEFAULT_duplicationTreshold:d.floatValue();
 		}
 	
+		/** set the rows of indexCovMatrix to be displayed */
+		private void setVisibleRows(final BitSet rows) {
+			this.visibleRows = rows;
+			this.visibleRowIndexes = rows.stream().toArray();
+			}
+	
 		/** get selected indices, never null, never empty */
 		private int[] getSamplesIndices() {
 			if(this.sampleListView.getSelectionModel().isEmpty())
@@ -570,17 +456,17 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 			gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
 			
 			double x= - this.canvasSrollPane.getHvalue();
-			for(int row_idx=0;row_idx<this.visibleIndexCovRows.size();++row_idx)
+			for(int row_idx=0;row_idx<this.visibleRowIndexes.length;++row_idx)
 				{
 				if(x+CHUNK_WIDTH < 0) {
 					x+=CHUNK_WIDTH;
 					continue;
 					}
-				final IndexCovRow row = this.visibleIndexCovRows.get(row_idx);
+				final int row = this.visibleRowIndexes[row_idx];
 
 				if(x > this.canvasSrollPane.getWidth()) break;
 				
-				Color bckg = contig2color.getOrDefault(row.getContig(), Color.ALICEBLUE);
+				Color bckg = contig2color.getOrDefault(this.indexCovMatrix.getContig(row), Color.ALICEBLUE);
 				if(row_idx%2==0) bckg = ligther(bckg);
 				gc.setFill(bckg);
 				gc.fillRect(x, 0, CHUNK_WIDTH, canvas.getHeight());
@@ -589,9 +475,9 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 				float maxV = 2.1f;
 				for(int sampleIdx:samplesIndices)
 					{
-					if(sampleIdx<0 || sampleIdx>=row.folds.length) continue;
+					if(sampleIdx<0 || sampleIdx>=this.indexCovMatrix.getSampleCount()) continue;
 
-					float v = row.folds[sampleIdx];
+					float v = this.indexCovMatrix.getFold(sampleIdx,row);
 					maxV = Math.max(v,maxV);
 					}
 				
@@ -604,7 +490,7 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 				gc.setStroke(Color.DARKGRAY);
 				
 				
-				this.hershey.paint(gc, String.valueOf(row.getContig()),
+				this.hershey.paint(gc, String.valueOf(this.indexCovMatrix.getContig(row)),
 						x+1, y,
 						CHUNK_WIDTH-2,
 						11
@@ -612,7 +498,7 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 				y+=12;
 				gc.setStroke(Color.BLACK);
 				this.hershey.paint(gc,
-						numberFormat.format(row.getStart()),
+						numberFormat.format(this.indexCovMatrix.getStart(row)),
 						x+1, y,
 						CHUNK_WIDTH-2,
 						11
@@ -620,15 +506,15 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 				y+=12;
 				gc.setStroke(Color.BLACK);
 				this.hershey.paint(gc,
-						numberFormat.format(row.getEnd()),
+						numberFormat.format(this.indexCovMatrix.getEnd(row)),
 						x+1, y,
 						CHUNK_WIDTH-2,
 						11
 						);
 				y+=12;
 				
-				if(row_idx+1< this.visibleIndexCovRows.size() &&  
-					row.isJustBefore(this.visibleIndexCovRows.get(row_idx+1)))
+				if(row_idx+1< this.visibleRowIndexes.length &&  
+					this.indexCovMatrix.isJustBefore(row,this.visibleRowIndexes[row_idx+1]))
 					{
 					gc.setFill(Color.BLACK);
 					gc.fillOval(x+CHUNK_WIDTH-2.5, 0, 2.5, 2.5);
@@ -642,8 +528,8 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 				
 				for(int sampleIdx:samplesIndices)
 					{
-					if(sampleIdx<0 || sampleIdx>=row.folds.length) continue;
-					float v = row.folds[sampleIdx];
+					if(sampleIdx<0 || sampleIdx>=this.indexCovMatrix.getSampleCount()) continue;
+					float v = this.indexCovMatrix.getFold(sampleIdx,row);
 					double sample_x = x + ((v-minV)/(maxV-minV)) * CHUNK_WIDTH;
 					Rectangle2D rect; 
 					if(sample_x< x_v1) {
@@ -723,14 +609,7 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 
 			final Optional<ButtonType> result = alert.showAndWait();
 			if (result.get() != ButtonType.OK) return;
-			this.visibleIndexCovRows.removeIf(R->{
-				for(float v: R.folds)
-					{
-					if(v<=delLimit) return false;
-					if(v>=dupLimit) return false;
-					}
-				return true;
-				});
+			setVisibleRows(this.indexCovMatrix.findInteresting(this.visibleRows, delLimit, dupLimit));
 			adjustScollPane();
 			}
 		
@@ -750,33 +629,12 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 
 			final Optional<ButtonType> result = alert.showAndWait();
 			if (result.get() != ButtonType.OK) return;
-			this.visibleIndexCovRows.removeIf(R->{
-				
-				int count=0;
-				for(final float v: R.folds)
-					{
-					if(v <= delLimit) 
-						{
-						count++;
-						}
-					}
-				if(count==R.folds.length) return true;
-				count=0;
-				for(final float v: R.folds)
-					{
-					if(v >= dupLimit)
-						{
-						count++;
-						}
-					}
-				if(count==R.folds.length) return true;
-				return false;
-				});
+			setVisibleRows(this.indexCovMatrix.findNotEverywhere(this.visibleRows, delLimit, dupLimit));
 			adjustScollPane();
 			}
 		
 		private void adjustScollPane() {
-			this.canvasSrollPane.setHmax(this.visibleIndexCovRows.size()*CHUNK_WIDTH);
+			this.canvasSrollPane.setHmax(this.visibleRowIndexes.length*CHUNK_WIDTH);
 			this.canvasSrollPane.setHvalue(0);
 			repaintCanvas();
 		}
@@ -818,11 +676,11 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 				return;
 			 	}
 			int x=0;
-			while(x<this.visibleIndexCovRows.size())
+			while(x<this.visibleRowIndexes.length)
 				{
-				final IndexCovRow row = this.visibleIndexCovRows.get(x);
-				if(row.overlaps(contig,pos) ||
-						(row.hasContig(contig) && row.getStart()>= pos)
+				final int row = this.visibleRowIndexes[x];
+				if(this.indexCovMatrix.overlaps(row,contig,pos) ||
+						(this.indexCovMatrix.hasContig(row,contig) && this.indexCovMatrix.getStart(row)>= pos)
 						) 
 					{
 					this.canvasSrollPane.setHvalue(x*CHUNK_WIDTH);
@@ -846,11 +704,12 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 			for(;;)
 				{
 				x+=direction;
-				if(x<0 || x>=this.visibleIndexCovRows.size()) break;
-				final IndexCovRow row = this.visibleIndexCovRows.get(x);
+				if(x<0 || x>=this.visibleRowIndexes.length) break;
+				final int row = this.visibleRowIndexes[x];
 				
-				for(float v:row.folds)
+				for(int sampleIdx=0;sampleIdx< this.indexCovMatrix.getSampleCount();++sampleIdx)
 					{
+					final float v = this.indexCovMatrix.getFold(sampleIdx,row);
 					if(v <= delLimit || v >= dupLimit)
 						{
 						this.canvasSrollPane.setHvalue(x*CHUNK_WIDTH);
@@ -901,54 +760,7 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 			
 			
 			
-			this.visibleIndexCovRows.removeIf(R->{
-				int count_in=0;
-				int count_out=0;
-				for(int x=0;x< R.folds.length;++x)
-					{
-					final float v  = R.folds[x];
-					if(v <= delLimit) 
-						{
-						if(selectedIndices.contains(x))
-							{
-							count_in++;
-							}
-						else
-							{
-							count_out++;
-							}
-						
-						}
-					}
-				if(count_in==selectedIndices.size()) {
-					if(!specific || count_out==0) {
-						return false;
-						}
-					}
-				count_in=0;
-				count_out=0;
-				for(int x=0;x< R.folds.length;++x)
-					{
-					final float v  = R.folds[x];
-					if(v >= dupLimit)
-						{
-						if(selectedIndices.contains(x))
-						{
-						count_in++;
-						}
-					else
-						{
-						count_out++;
-						}
-					}
-					}
-				if(count_in==selectedIndices.size()) {
-					if(!specific || count_out==0) {
-						return false;
-						}
-					}
-				return true;
-				});
+			setVisibleRows(this.indexCovMatrix.findForSamples(this.visibleRows, this.getSamplesIndices(), delLimit, dupLimit, specific));
 			adjustScollPane();
 			}
 		
@@ -980,8 +792,7 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 			}*/
 		
 		private void doRestoreOriginalData() {
-			this.visibleIndexCovRows.clear();
-			this.visibleIndexCovRows.addAll(this.orignalndexCovRows);
+			setVisibleRows(this.indexCovMatrix.getAllRows());
 			this.canvasSrollPane.setHvalue(0.0);
 			adjustScollPane();
 		}
@@ -1006,11 +817,15 @@ public int doWork(final Stage primaryStage,final List<String> args) {
 					;
 				r.close();r=null;
 				
-				this.visibleIndexCovRows.removeIf(R->
-						intervals.stream().anyMatch(B->R.overlaps(
+				final BitSet keep = new BitSet(this.indexCovMatrix.getRowCount());
+				for(final int row: this.visibleRowIndexes) {
+					if(intervals.stream().anyMatch(B->this.indexCovMatrix.overlaps(row,
 						B.getContig(),B.getStart(),B.getEnd()
 						) == filterOut
-						));
+						)) continue;
+					keep.set(row);
+					}
+				setVisibleRows(keep);
 					
 				repaintCanvas();	
 				
@@ -0,0 +1,430 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.structvar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.SmartComparator;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.StringUtil;
+
+/**
+ * Columnar storage of an indexcov output: the positions of the rows are kept in memory
+ * but the folds are stored in one float column per sample in a memory-mapped file
+ * ('input'+SUFFIX), so large cohorts don't have to fit in the heap.
+ * The rows are sorted on contig/start.
+ * 
+ * Rows are selected using BitSets computed in parallel, one chunk of rows per task.
+ */
+class IndexCovMatrix implements Closeable {
+	private static final Logger LOG = Logger.build(IndexCovMatrix.class).make();
+	static final String SUFFIX = ".fcol";
+	private static final int MAGIC = 0x49434f4c;
+	private static final int VERSION = 1;
+	/** number of rows per parallel task, a multiple of 64 so each task fills its own words of the BitSet */
+	private static final int CHUNK_SIZE = 64 * 1024;
+	
+	/** test the number of samples with a deletion/duplication in a row, in and out of a set of samples */
+	@FunctionalInterface
+	interface CountPredicate {
+		boolean test(int delIn,int delOut,int dupIn,int dupOut);
+		}
+	
+	private final File file;
+	private final FileChannel channel;
+	private final long sourceLength;
+	private final long sourceLastModified;
+	private final List<String> sampleNames;
+	private final List<String> contigs;
+	private final int rowContig[];
+	private final int rowStart[];
+	private final int rowEnd[];
+	private final FloatBuffer columns[];
+	
+	private IndexCovMatrix(final File file) throws IOException {
+		this.file = file;
+		final long dataOffset;
+		try(DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 1<<16))) {
+			if(dis.readInt()!=MAGIC) throw new IOException("Not a "+SUFFIX+" file "+file);
+			final int version = dis.readInt();
+			if(version!=VERSION) throw new IOException("Unsupported version "+version+" in "+file);
+			dataOffset = dis.readLong();
+			this.sourceLength = dis.readLong();
+			this.sourceLastModified = dis.readLong();
+			final int nSamples = dis.readInt();
+			final List<String> samples = new ArrayList<>(nSamples);
+			for(int i=0;i< nSamples;i++) samples.add(dis.readUTF());
+			this.sampleNames = Collections.unmodifiableList(samples);
+			final int nContigs = dis.readInt();
+			final List<String> contigList = new ArrayList<>(nContigs);
+			for(int i=0;i< nContigs;i++) contigList.add(dis.readUTF());
+			this.contigs = Collections.unmodifiableList(contigList);
+			final int nRows = dis.readInt();
+			this.rowContig = new int[nRows];
+			this.rowStart = new int[nRows];
+			this.rowEnd = new int[nRows];
+			for(int i=0;i< nRows;i++) {
+				this.rowContig[i] = dis.readInt();
+				this.rowStart[i] = dis.readInt();
+				this.rowEnd[i] = dis.readInt();
+				}
+			}
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.columns = new FloatBuffer[this.sampleNames.size()];
+		final long columnSize = 4L * this.rowStart.length;
+		for(int i=0;i< this.columns.length;i++) {
+			this.columns[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + i * columnSize, columnSize).asFloatBuffer();
+			}
+		}
+	
+	/** open an existing file */
+	static IndexCovMatrix open(final File file) throws IOException {
+		return new IndexCovMatrix(file);
+		}
+	
+	/** open the columnar file associated to an indexcov output, convert the indexcov output if the file
+	 * is missing or out of date. The file is created in the temporary directory if the directory of the
+	 * source is not writable. */
+	static IndexCovMatrix openForSource(final File source) throws IOException {
+		File f = getDefaultFile(source);
+		if(f.exists()) {
+			final IndexCovMatrix m = open(f);
+			if(m.isUpToDate(source)) return m;
+			LOG.info(f+" is older than "+source+". Converting again.");
+			m.close();
+			}
+		final File dir = source.getAbsoluteFile().getParentFile();
+		if(dir==null || !dir.canWrite()) {
+			f = File.createTempFile("indexcov.", SUFFIX);
+			f.deleteOnExit();
+			}
+		LOG.info("converting "+source+" to "+f);
+		build(source, f);
+		return open(f);
+		}
+	
+	/** default columnar file for an indexcov output: 'source'+SUFFIX */
+	static File getDefaultFile(final File source) {
+		return new File(source.getPath()+SUFFIX);
+		}
+	
+	File getFile() {
+		return this.file;
+		}
+	
+	/** return true if the source has the same size and the same modification time as when this file was built */
+	boolean isUpToDate(final File source) {
+		return source.length()==this.sourceLength && source.lastModified()==this.sourceLastModified;
+		}
+	
+	List<String> getSampleNames() {
+		return this.sampleNames;
+		}
+	
+	int getSampleCount() {
+		return this.sampleNames.size();
+		}
+	
+	int getRowCount() {
+		return this.rowStart.length;
+		}
+	
+	String getContig(final int row) {
+		return this.contigs.get(this.rowContig[row]);
+		}
+	
+	int getStart(final int row) {
+		return this.rowStart[row];
+		}
+	
+	int getEnd(final int row) {
+		return this.rowEnd[row];
+		}
+	
+	float getFold(final int sample,final int row) {
+		return this.columns[sample].get(row);
+		}
+	
+	private static String normContig(String s) {
+		s=s.toLowerCase();
+		if(s.startsWith("chr")) s=s.substring(3);
+		return s;
+		}
+	
+	boolean hasContig(final int row,final String s) {
+		final String contig = getContig(row);
+		return contig.equals(s)  ||
+			normContig(contig).equals(normContig(s));
+		}
+	
+	boolean overlaps(final int row,final String c,int p) {
+		if(p<getStart(row) || p>getEnd(row)) return false;
+		return hasContig(row,c);
+		}
+	
+	boolean overlaps(final int row,final String c,int S,int E) {
+		if(E<getStart(row) || S>getEnd(row)) return false;
+		return hasContig(row,c);
+		}
+	
+	boolean isJustBefore(final int row,final int next) {
+		return hasContig(row,getContig(next)) &&
+				this.getEnd(row)>=this.getStart(next) && this.getEnd(row)< this.getEnd(next);
+		}
+	
+	/** all the rows */
+	BitSet getAllRows() {
+		final BitSet rows = new BitSet(getRowCount());
+		rows.set(0, getRowCount());
+		return rows;
+		}
+	
+	/** select the 'rows' having at least one sample with a deletion or a duplication */
+	BitSet findInteresting(final BitSet rows,final float delLimit,final float dupLimit) {
+		return select(rows, null, delLimit, dupLimit, (delIn,delOut,dupIn,dupOut)->delIn>0 || dupIn>0);
+		}
+	
+	/** select the 'rows' where not all the samples have a deletion and not all the samples have a duplication */
+	BitSet findNotEverywhere(final BitSet rows,final float delLimit,final float dupLimit) {
+		final int n = getSampleCount();
+		return select(rows, null, delLimit, dupLimit, (delIn,delOut,dupIn,dupOut)->delIn!=n && dupIn!=n);
+		}
+	
+	/** select the 'rows' where all the 'samples' have a deletion (or all have a duplication). If 'specific',
+	 * the other samples must not have a deletion (or a duplication) */
+	BitSet findForSamples(final BitSet rows,final int samples[],final float delLimit,final float dupLimit,final boolean specific) {
+		final BitSet sampleSet = new BitSet(getSampleCount());
+		for(final int s:samples) sampleSet.set(s);
+		final int n = sampleSet.cardinality();
+		return select(rows, sampleSet, delLimit, dupLimit, (delIn,delOut,dupIn,dupOut)->
+			(delIn==n && (!specific || delOut==0)) ||
+			(dupIn==n && (!specific || dupOut==0))
+			);
+		}
+	
+	/** select the 'rows' accepted by 'predicate'. If 'sampleSet' is null, all samples are 'in' */
+	BitSet select(final BitSet rows,final BitSet sampleSet,final float delLimit,final float dupLimit,final CountPredicate predicate) {
+		final int nRows = getRowCount();
+		final int nChunks = (nRows + CHUNK_SIZE - 1)/CHUNK_SIZE;
+		final long words[] = new long[(nRows + 63)/64];
+		IntStream.range(0, nChunks).parallel().forEach(chunk->{
+			final int chunkStart = chunk * CHUNK_SIZE;
+			final int chunkEnd = Math.min(nRows, chunkStart + CHUNK_SIZE);
+			final int first = rows.nextSetBit(chunkStart);
+			if(first<0 || first>=chunkEnd) return;
+			final int len = chunkEnd - chunkStart;
+			final int delIn[] = new int[len];
+			final int delOut[] = new int[len];
+			final int dupIn[] = new int[len];
+			final int dupOut[] = new int[len];
+			/* scan the columns: each sample is a contiguous block of memory */
+			for(int s=0;s< this.columns.length;s++) {
+				final boolean in = sampleSet==null || sampleSet.get(s);
+				final int del[] = in?delIn:delOut;
+				final int dup[] = in?dupIn:dupOut;
+				final FloatBuffer column = this.columns[s].duplicate();
+				for(int i=0;i< len;i++) {
+					final float v = column.get(chunkStart + i);
+					if(v <= delLimit) del[i]++;
+					if(v >= dupLimit) dup[i]++;
+					}
+				}
+			for(int r = first; r>=0 && r < chunkEnd; r = rows.nextSetBit(r+1)) {
+				final int i = r - chunkStart;
+				if(predicate.test(delIn[i], delOut[i], dupIn[i], dupOut[i])) {
+					words[r>>>6] |= (1L << r);
+					}
+				}
+			});
+		return BitSet.valueOf(words);
+		}
+	
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+		}
+	
+	@Override
+	public String toString() {
+		return "IndexCovMatrix("+this.file+")";
+		}
+	
+	/**
+	 * convert an indexcov output to a columnar file.
+	 * The source is read twice: the first pass reads the positions and sorts the rows,
+	 * the second pass writes the folds of each row into the memory-mapped columns.
+	 */
+	static void build(final File source,final File out) throws IOException {
+		final Pattern tab = Pattern.compile("[\t]");
+		final List<String> samples;
+		final Map<String,Integer> contig2index = new LinkedHashMap<>();
+		int nRows = 0;
+		int rowContig[] = new int[1000];
+		int rowStart[] = new int[1000];
+		int rowEnd[] = new int[1000];
+		/* first pass: positions */
+		try(BufferedReader r = IOUtils.openFileForBufferedReading(source)) {
+			final String line = r.readLine();
+			if(line==null) throw new IOException("Cannot read first line of "+source);
+			final String tokens[] = tab.split(line);
+			if(tokens.length<4 ||
+				!tokens[0].equals("#chrom") ||
+				!tokens[1].equals("start") ||
+				!tokens[2].equals("end")) {
+				throw new IOException("bad first line "+line+" in "+source);
+				}
+			samples = Arrays.asList(tokens).subList(3, tokens.length);
+			String L;
+			while((L=r.readLine())!=null) {
+				if(StringUtil.isBlank(L)) continue;
+				final String fields[] = tab.split(L,4);
+				if(fields.length!=4) throw new IOException("bad number of columns in "+L);
+				if(nRows==rowStart.length) {
+					final int n = nRows + nRows/2;
+					rowContig = Arrays.copyOf(rowContig, n);
+					rowStart = Arrays.copyOf(rowStart, n);
+					rowEnd = Arrays.copyOf(rowEnd, n);
+					}
+				Integer tid = contig2index.get(fields[0]);
+				if(tid==null) {
+					tid = contig2index.size();
+					contig2index.put(fields[0], tid);
+					}
+				rowContig[nRows] = tid;
+				rowStart[nRows] = Integer.parseInt(fields[1]);
+				rowEnd[nRows] = Integer.parseInt(fields[2]);
+				nRows++;
+				}
+			}
+		/* sort rows on contig/start */
+		final List<String> contigs = new ArrayList<>(contig2index.keySet());
+		final SmartComparator smartCmp = new SmartComparator();
+		final int contigRank[] = new int[contigs.size()];
+		{
+		final Integer sortedContigs[] = IntStream.range(0, contigs.size()).boxed().toArray(Integer[]::new);
+		Arrays.sort(sortedContigs, (A,B)->smartCmp.compare(contigs.get(A), contigs.get(B)));
+		for(int i=0;i< sortedContigs.length;i++) contigRank[sortedContigs[i]] = i;
+		}
+		final int[] fRowContig = rowContig;
+		final int[] fRowStart = rowStart;
+		final Integer order[] = IntStream.range(0, nRows).boxed().toArray(Integer[]::new);
+		Arrays.sort(order, (A,B)->{
+			final int i = Integer.compare(contigRank[fRowContig[A]], contigRank[fRowContig[B]]);
+			if(i!=0) return i;
+			return Integer.compare(fRowStart[A], fRowStart[B]);
+			});
+		/* rank[i] : index of the i-th row of the source once sorted */
+		final int rank[] = new int[nRows];
+		for(int i=0;i< nRows;i++) rank[order[i]] = i;
+		
+		/* header */
+		final ByteArrayOutputStream header = new ByteArrayOutputStream();
+		try(DataOutputStream dos = new DataOutputStream(header)) {
+			dos.writeLong(source.length());
+			dos.writeLong(source.lastModified());
+			dos.writeInt(samples.size());
+			for(final String sn: samples) dos.writeUTF(sn);
+			dos.writeInt(contigs.size());
+			for(final String contig: contigs) dos.writeUTF(contig);
+			dos.writeInt(nRows);
+			for(int i=0;i< nRows;i++) {
+				final int j = order[i];
+				dos.writeInt(rowContig[j]);
+				dos.writeInt(rowStart[j]);
+				dos.writeInt(rowEnd[j]);
+				}
+			}
+		final long dataOffset = 16L + header.size();
+		final long columnSize = 4L * nRows;
+		
+		final File tmp = File.createTempFile("tmp.", SUFFIX, out.getAbsoluteFile().getParentFile());
+		try {
+			try(RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeLong(dataOffset);
+				raf.write(header.toByteArray());
+				raf.setLength(dataOffset + columnSize * samples.size());
+				final FileChannel channel = raf.getChannel();
+				final MappedByteBuffer mapped[] = new MappedByteBuffer[samples.size()];
+				final FloatBuffer columns[] = new FloatBuffer[samples.size()];
+				for(int i=0;i< columns.length;i++) {
+					mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + i * columnSize, columnSize);
+					columns[i] = mapped[i].asFloatBuffer();
+					}
+				/* second pass: folds */
+				try(BufferedReader r = IOUtils.openFileForBufferedReading(source)) {
+					r.readLine();//header
+					int row = 0;
+					String L;
+					while((L=r.readLine())!=null) {
+						if(StringUtil.isBlank(L)) continue;
+						final String tokens[] = tab.split(L);
+						if(tokens.length!=3+samples.size()) {
+							throw new IOException("expected "+(3+samples.size())+" columns but got "+tokens.length+" in "+L);
+							}
+						final int sortedRow = rank[row];
+						for(int i=0;i< columns.length;i++) {
+							columns[i].put(sortedRow, Float.parseFloat(tokens[3+i]));
+							}
+						row++;
+						}
+					if(row!=nRows) throw new IOException("Source was modified while reading "+source);
+					}
+				for(final MappedByteBuffer m:mapped) m.force();
+				}
+			Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		finally
+			{
+			Files.deleteIfExists(tmp.toPath());
+			}
+		}
+	}
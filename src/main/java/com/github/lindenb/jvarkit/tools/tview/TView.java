@@ -32,6 +32,7 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -305,6 +306,8 @@ public class TView implements Closeable
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	private final List<SamInputResource> samInputResources=new ArrayList<>();
 	private final List<SamReader> samReaders=new ArrayList<>();
+	/** optional source of reads, used instead of (or in addition to) the opened BAM files */
+	private Function<Interval,Iterator<SAMRecord>> recordSource = null;
 	private final List<VcfSource> vcfReaders=new ArrayList<>();
 	private TabixKnownGeneFileReader tabixKnownGene =null;
 	
@@ -379,6 +382,10 @@ public class TView implements Closeable
 		this.samRecordFilter = samRecordFilter;
 	}
 	
+	/** set a function returning the reads overlapping an interval. Typically used by a caller that manages its own readers */
+	public void setRecordSource(final Function<Interval,Iterator<SAMRecord>> recordSource) {
+		this.recordSource = recordSource;
+	}
 	public int initialize() throws IOException
 		{
 		if(this.referenceFile!=null) {
@@ -502,14 +509,24 @@ public class TView implements Closeable
 
 		final Map<String, List<SAMRecord>> group2record=new TreeMap<>();
 		
+		final List<Iterator<SAMRecord>> recordIterators = new ArrayList<>(this.samReaders.size()+1);
+		if(this.recordSource!=null)
+			{
+			recordIterators.add(this.recordSource.apply(this.interval));
+			}
 		for(final SamReader samReader:this.samReaders)
 			{
-			SAMRecordIterator iter = samReader.query(
+			final SAMRecordIterator iter = samReader.query(
 					this.interval.getContig(),
 					this.interval.getStart(),
 					this.interval.getEnd(),
 					false
 					);
+			recordIterators.add(iter);
+			}
+		
+		for(final Iterator<SAMRecord> iter:recordIterators)
+			{
 			while(iter.hasNext())
 				{
 				final SAMRecord rec = iter.next();
@@ -552,8 +569,8 @@ public class TView implements Closeable
 					}
 				}
 			CloserUtil.close(iter);
-			CloserUtil.close(samReader);
 			}
+		this.samReaders.forEach(R->CloserUtil.close(R));
 		
 
 		
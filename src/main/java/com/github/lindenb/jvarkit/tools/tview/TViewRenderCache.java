@@ -0,0 +1,321 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.tview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * Shared state of the TViewServer: renders the region fragments in the background,
+ * so a request can be cancelled after a timeout, and caches what was done.
+ * 
+ * - each BAM has a pool of at most 'readersPerBam' opened SamReaders. A htsjdk reader
+ *   is not thread-safe, a reader is only used by one rendering at a time.
+ * - the reads are fetched for a window larger than the requested interval ('margin' bases on each side).
+ *   When the user scrolls by a small offset, the reads of the new interval are taken from the cached window
+ *   and the BAM is not queried again.
+ * - the rendered fragments are kept in a LRU cache keyed by (BAM, interval, options).
+ */
+class TViewRenderCache implements Closeable {
+	private static final Logger LOG = Logger.build(TViewRenderCache.class).make();
+	
+	/** paints a fragment, the reads are provided by the 'recordSource' */
+	@FunctionalInterface
+	interface Painter {
+		void paint(Function<Interval,Iterator<SAMRecord>> recordSource,PrintStream out) throws IOException;
+		}
+	
+	/** opened readers for one BAM */
+	private class ReaderPool {
+		final File bamFile;
+		final BlockingQueue<SamReader> idle;
+		int count_opened = 0;
+		ReaderPool(final File bamFile) {
+			this.bamFile = bamFile;
+			this.idle = new ArrayBlockingQueue<>(readersPerBam);
+			}
+		SamReader borrow() throws InterruptedException {
+			SamReader r = this.idle.poll();
+			if(r!=null) return r;
+			synchronized(this) {
+				if(this.count_opened < readersPerBam) {
+					r = samReaderFactory.open(this.bamFile);
+					this.count_opened++;
+					return r;
+					}
+				}
+			// wait for another request to release a reader
+			return this.idle.take();
+			}
+		void release(final SamReader r) {
+			if(closed || !this.idle.offer(r)) {
+				CloserUtil.close(r);
+				synchronized(this) {this.count_opened--;}
+				}
+			}
+		void close() {
+			final List<SamReader> L = new ArrayList<>();
+			this.idle.drainTo(L);
+			L.forEach(R->release(R));
+			}
+		}
+	
+	/** reads overlapping a window */
+	private static class RecordWindow {
+		final Interval window;
+		final List<SAMRecord> records;
+		RecordWindow(final Interval window,final List<SAMRecord> records) {
+			this.window = window;
+			this.records = records;
+			}
+		boolean contains(final Interval interval) {
+			return this.window.getContig().equals(interval.getContig()) &&
+					this.window.getStart() <= interval.getStart() &&
+					interval.getEnd() <= this.window.getEnd();
+			}
+		}
+	
+	private final SamReaderFactory samReaderFactory;
+	private final int readersPerBam;
+	private final int margin;
+	private final ExecutorService executorService;
+	/* guarded by 'this' */
+	private final Map<File,ReaderPool> readerPools = new HashMap<>();
+	/* guarded by itself */
+	private final Map<File,List<RecordWindow>> recordWindows = new HashMap<>();
+	private final int maxWindowsPerBam;
+	/* guarded by itself */
+	private final Map<String,String> fragmentCache;
+	private volatile boolean closed = false;
+	
+	TViewRenderCache(
+			final SamReaderFactory samReaderFactory,
+			final int readersPerBam,
+			final int cacheSize,
+			final int margin
+			) {
+		this.samReaderFactory = samReaderFactory;
+		this.readersPerBam = Math.max(1, readersPerBam);
+		this.margin = Math.max(0, margin);
+		this.maxWindowsPerBam = Math.max(1, this.readersPerBam);
+		final int maxFragments = Math.max(0, cacheSize);
+		this.fragmentCache = new LinkedHashMap<String,String>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+				return size() > maxFragments;
+				}
+			};
+		this.executorService = Executors.newCachedThreadPool(R->{
+			final Thread t = new Thread(R,"tview-render");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+	
+	/**
+	 * render a fragment in the background.
+	 * @param timeoutMillis max time to wait for the rendering. If the time is elapsed, the rendering is cancelled. Ignored if &lt;=0 
+	 * @throws TimeoutException if the rendering took too long
+	 */
+	String render(
+			final File bamFile,
+			final Interval interval,
+			final String options,
+			final Painter painter,
+			final long timeoutMillis
+			) throws IOException,TimeoutException
+		{
+		final String key = bamFile.getPath()+"\t"+interval.getContig()+":"+interval.getStart()+"-"+interval.getEnd()+"\t"+options;
+		synchronized(this.fragmentCache) {
+			final String fragment = this.fragmentCache.get(key);
+			if(fragment!=null) return fragment;
+			}
+		final Future<String> future = this.executorService.submit(()->{
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try(final PrintStream out = new PrintStream(baos,false,"UTF-8")) {
+				painter.paint(I->fetch(bamFile,I).iterator(), out);
+				out.flush();
+				}
+			final String fragment = new String(baos.toByteArray(),"UTF-8");
+			synchronized(this.fragmentCache) {
+				this.fragmentCache.put(key, fragment);
+				}
+			return fragment;
+			});
+		try {
+			return timeoutMillis>0L?
+				future.get(timeoutMillis, TimeUnit.MILLISECONDS):
+				future.get();
+			}
+		catch(final TimeoutException err) {
+			LOG.warn("cancel rendering of "+interval+" in "+bamFile+" after "+timeoutMillis+"ms");
+			future.cancel(true);
+			throw err;
+			}
+		catch(final InterruptedException err) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof IOException) throw (IOException)cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+			}
+		}
+	
+	/** get the reads whose alignment overlaps 'interval', like <code>SamReader.query(interval,false)</code> in TView, from a cached window if possible */
+	List<SAMRecord> fetch(final File bamFile,final Interval interval) {
+		RecordWindow recordWindow = null;
+		synchronized(this.recordWindows) {
+			final List<RecordWindow> windows = this.recordWindows.get(bamFile);
+			if(windows!=null) {
+				for(int i=0;i< windows.size();i++) {
+					if(windows.get(i).contains(interval)) {
+						recordWindow = windows.remove(i);
+						// most recently used goes first
+						windows.add(0,recordWindow);
+						break;
+						}
+					}
+				}
+			}
+		if(recordWindow==null) {
+			final Interval window = new Interval(
+				interval.getContig(),
+				Math.max(1, interval.getStart()-this.margin),
+				interval.getEnd()+this.margin
+				);
+			recordWindow = new RecordWindow(window, query(bamFile,window));
+			synchronized(this.recordWindows) {
+				final List<RecordWindow> windows = this.recordWindows.computeIfAbsent(bamFile, F->new ArrayList<>());
+				windows.add(0,recordWindow);
+				while(windows.size()> this.maxWindowsPerBam) windows.remove(windows.size()-1);
+				}
+			}
+		
+		return recordWindow.records.stream().
+				filter(R->!(R.getEnd() < interval.getStart() || interval.getEnd() < R.getStart())).
+				collect(Collectors.toList());
+		}
+	
+	private ReaderPool getReaderPool(final File bamFile) {
+		synchronized(this) {
+			return this.readerPools.computeIfAbsent(bamFile, F->new ReaderPool(F));
+			}
+		}
+	
+	/** query the BAM, the query stops if the current thread was interrupted */
+	private List<SAMRecord> query(final File bamFile,final Interval window) {
+		final ReaderPool pool = getReaderPool(bamFile);
+		final SamReader samReader;
+		try {
+			samReader = pool.borrow();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeIOException("interrupted while waiting for a reader of "+bamFile);
+			}
+		SAMRecordIterator iter = null;
+		try {
+			final List<SAMRecord> records = new ArrayList<>();
+			long n_reads = 0L;
+			iter = samReader.queryOverlapping(window.getContig(), window.getStart(), window.getEnd());
+			while(iter.hasNext()) {
+				if(++n_reads%1_000==0 && Thread.currentThread().isInterrupted()) {
+					throw new RuntimeIOException("query of "+window+" in "+bamFile+" was cancelled");
+					}
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				// the cached reads are shared by the renderings, don't let them be decoded lazily
+				rec.getCigar();
+				rec.getReadBases();
+				rec.getBaseQualities();
+				rec.getAttributes();
+				records.add(rec);
+				}
+			return records;
+			}
+		finally {
+			CloserUtil.close(iter);
+			pool.release(samReader);
+			}
+		}
+	
+	/** number of readers currently opened for a BAM */
+	int getOpenedReaderCount(final File bamFile) {
+		final ReaderPool pool = getReaderPool(bamFile);
+		synchronized(pool) {
+			return pool.count_opened;
+			}
+		}
+	
+	@Override
+	public void close() {
+		this.closed = true;
+		this.executorService.shutdownNow();
+		synchronized(this) {
+			this.readerPools.values().forEach(P->P.close());
+			this.readerPools.clear();
+			}
+		synchronized(this.recordWindows) {
+			this.recordWindows.clear();
+			}
+		synchronized(this.fragmentCache) {
+			this.fragmentCache.clear();
+			}
+		}
+	}
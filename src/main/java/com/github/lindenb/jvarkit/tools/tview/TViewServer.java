@@ -34,8 +34,9 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLOutputFactory;
@@ -57,9 +58,10 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
-import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.filter.JavascriptSamRecordFilter;
+import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
@@ -82,7 +84,14 @@ https://twitter.com/yokofakun/status/925395272225746944
 
 ![twitter](https://pbs.twimg.com/media/DNepyjOW4AA-_rz.jpg "Screenshot")
 
+## Concurrent requests
+
+The regions are rendered in the background:
 
+  * each BAM has a pool of at most `--readers` opened readers, shared by the requests.
+  * the reads are fetched for a window larger than the requested region (`--max` bases on each side). Scrolling by a small offset re-uses those reads without querying the BAM again.
+  * the last `--cache-size` rendered regions are kept in memory.
+  * a rendering taking more than `--timeout` seconds is cancelled and an error is displayed, so one heavy query doesn't block the other users.
 ## Example 
 
 ```
@@ -127,16 +136,21 @@ private int max_interval_length = 2000;
 private String userCustomUrl=null;
 @Parameter(names={"--shutdown-after"},description="Stop the server after 'x' seconds.")
 private long shutdownAferSeconds=-1L;
-
-
+@Parameter(names={"--readers"},description="Max number of opened readers per BAM file. The requests for the same BAM wait for a free reader.")
+private int readers_per_bam = 4;
+@Parameter(names={"--cache-size"},description="Number of rendered fragments kept in memory.")
+private int cache_size = 100;
+@Parameter(names={"--timeout"},description="Cancel the rendering of a region after 'x' seconds. Ignored if <=0.")
+private long timeout_seconds = 60L;
 private class SamViewHandler extends AbstractHandler
 	{
 	private final List<File> samFiles;
+	private final TViewRenderCache renderCache;
 	
-	
-	SamViewHandler(final List<File> samFiles)
+	SamViewHandler(final List<File> samFiles,final TViewRenderCache renderCache)
 		{
 		this.samFiles = samFiles;
+		this.renderCache = renderCache;
 		}
 	
 	
@@ -488,7 +502,6 @@ private class SamViewHandler extends AbstractHandler
 				
 				
 				
-				TView tview = new TView();
 				try
 					{
 					final SAMSequenceDictionary dict= SAMSequenceDictionaryExtractor.extractDictionary(samFile);
@@ -512,15 +525,13 @@ private class SamViewHandler extends AbstractHandler
 						interval = TViewServer.this.trimInterval(new Interval(rec.getSequenceName(),1,Math.min(100, rec.getSequenceLength())));
 						}
 					
-					tview.setInterval(interval);
-					if(optionalReferenceFile!=null) tview.setReferenceFile(optionalReferenceFile);
-					tview.setFormatOut(Formatout.html);
-					tview.setShowClip("true".equals(this.request.getParameter(SHOWCLIP)));
-					tview.setShowReadName("true".equals(this.request.getParameter(SHOWNAME)));
-					tview.setShowInsertions("true".equals(this.request.getParameter(SHOWINSERT)));
-					tview.setHideBases("true".equals(this.request.getParameter(HIDEBASES)));
-					tview.setBamFiles(Collections.singletonList(SamInputResource.of(samFile)));
-	
+					final boolean showClip = "true".equals(this.request.getParameter(SHOWCLIP));
+					final boolean showReadName = "true".equals(this.request.getParameter(SHOWNAME));
+					final boolean showInsertions = "true".equals(this.request.getParameter(SHOWINSERT));
+					final boolean hideBases = "true".equals(this.request.getParameter(HIDEBASES));
+					String options = "clip="+showClip+";name="+showReadName+";insert="+showInsertions+";hide="+hideBases;
+					JavascriptSamRecordFilter jsFilter = null;
+					
 					if(!TViewServer.this.disable_javascript)
 						{
 						final String js_expr = this.request.getParameter(JAVASCRIPT_PARAM);
@@ -541,16 +552,48 @@ private class SamViewHandler extends AbstractHandler
 								writeException(err);
 								return;
 								}
-							tview.setSamRecordFilter(filter);
+							jsFilter = filter;
+							options += ";js="+js_expr;
 							}
 						}
 					
-					if(tview.initialize()!=0)
+					final SamRecordFilter samRecordFilter = jsFilter;
+					final TViewRenderCache.Painter painter = (recordSource,out) -> {
+						try(final TView tview = new TView()) {
+							tview.setInterval(interval);
+							if(optionalReferenceFile!=null) tview.setReferenceFile(optionalReferenceFile);
+							tview.setFormatOut(Formatout.html);
+							tview.setShowClip(showClip);
+							tview.setShowReadName(showReadName);
+							tview.setShowInsertions(showInsertions);
+							tview.setHideBases(hideBases);
+							tview.setBamFiles(Collections.emptyList());
+							tview.setRecordSource(recordSource);
+							if(samRecordFilter!=null) tview.setSamRecordFilter(samRecordFilter);
+							if(tview.initialize()!=0)
+								{
+								throw new IOException("cannot initialize tview");
+								}
+							tview.paint(out);
+							}
+						};
+					
+					final String fragment;
+					try
 						{
-						writeError("cannot initialize tview");
-						return ;
+						fragment = getOwner().renderCache.render(
+							samFile,
+							interval,
+							options,
+							painter,
+							TimeUnit.SECONDS.toMillis(TViewServer.this.timeout_seconds)
+							);
+						}
+					catch(final TimeoutException err)
+						{
+						writeError("Rendering of "+interval+" was cancelled after "+TViewServer.this.timeout_seconds+" seconds.");
+						return;
 						}
-					
 					/* Hyperlink to IGV */
 					if(!StringUtil.isBlank(TViewServer.this.userCustomUrl)) {
 						final String gotostr=Launcher.createUrlFromInterval(
@@ -574,11 +617,9 @@ private class SamViewHandler extends AbstractHandler
 					this.writer.writeCharacters("");
 					this.writer.flush();
 					
-					final PrintStream out  = new PrintStream(IOUtils.uncloseableOutputStream(this.response.getOutputStream()));
-					tview.paint(out);
+					final PrintStream out  = new PrintStream(IOUtils.uncloseableOutputStream(this.response.getOutputStream()),false,"UTF-8");
+					out.print(fragment);
 					out.flush();
-					tview.close();
-					tview=null;
 					this.writer.flush();
 					this.writer.writeCharacters("");
 					this.writer.writeEndElement();//pre
@@ -590,12 +631,6 @@ private class SamViewHandler extends AbstractHandler
 					{
 					super.writeException(err);
 					}
-				finally
-					{
-					CloserUtil.close(tview);
-					}
-				
-				
 				if(!this.showAllBamsInOneWindow()) {
 					break;
 					}
@@ -675,6 +710,7 @@ private static boolean showAllBamsInOneWindow(final HttpServletRequest request)
 @Override
 public int doWork(final List<String> args) {
 	Server server = null;
+	TViewRenderCache renderCache = null;
 	try
 		{
 		final List<File> samFiles = IOUtil.unrollFiles(args.stream().
@@ -713,9 +749,18 @@ public int doWork(final List<String> args) {
 			IOUtil.assertFileIsReadable(F);
 			});
 		
+		renderCache = new TViewRenderCache(
+				SamReaderFactory.makeDefault().
+					referenceSequence(this.optionalReferenceFile).
+					validationStringency(ValidationStringency.LENIENT),
+				this.readers_per_bam,
+				this.cache_size,
+				this.max_interval_length
+				);
+		
 		server = new Server(this.port);
 		final HandlerList handlers = new HandlerList();
-		handlers.addHandler(new SamViewHandler(samFiles));
+		handlers.addHandler(new SamViewHandler(samFiles,renderCache));
 		server.setHandler(handlers);
 		LOG.info("Starting "+TViewServer.class.getName()+" on http://localhost:"+this.port);
 		server.start();
@@ -752,6 +797,7 @@ public int doWork(final List<String> args) {
 			{
 			server.destroy();
 			}
+		CloserUtil.close(renderCache);
 		}
 	}
 
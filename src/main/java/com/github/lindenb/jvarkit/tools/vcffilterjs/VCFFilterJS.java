@@ -37,13 +37,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
-import javax.script.Bindings;
-import javax.script.CompiledScript;
-
 import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.lang.ScriptEnginePool;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
@@ -52,6 +51,7 @@ import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -105,7 +105,14 @@ the script binds the following variables:
  *   **pedigree** a Pedigree  [https://github.com/lindenb/jvarkit/blob/master/src/main/java/com/github/lindenb/jvarkit/util/Pedigree.java](https://github.com/lindenb/jvarkit/blob/master/src/main/java/com/github/lindenb/jvarkit/util/Pedigree.java):
  *   **individuals** a List<Pedigree.Person> of the persons affected or non-affected and present in the VCF header.
 
+Those variables are set once, only **variant** changes for each record.
+
+## Multithreading
 
+When `--threads` is greater than 1, each thread compiles its own copy of the script and has its own variables ( **tools** is created for each thread, the other objects are shared).
+The variants are sent to the threads by batches and the output keeps the input order. The script must not rely on a state shared between the variants.
+
+The time spent in the script is printed at the end.
 
 ###  Examples
 
@@ -353,9 +360,6 @@ public class VCFFilterJS
 	extends Launcher
 	{	
 	private static final Logger LOG = Logger.build(VCFFilterJS.class).make();
-
-	private CompiledScript compiledScript = null;
-	
 	
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
@@ -373,6 +377,10 @@ public class VCFFilterJS
 	private List<String> jsonFiles=new  ArrayList<>();
 	@Parameter(names={"-casecontrol","--casecontrol"},description="deprecated",hidden=true)
 	private boolean deprecated_use_casecontrol =false;
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads. If greater than 1, each thread uses its own script engine and the output keeps the input order. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="With --threads: number of variants sent to a thread at once.")
+	private int batchSize = 1_000;
 	
 	public VCFFilterJS()
 		{
@@ -385,11 +393,6 @@ public class VCFFilterJS
 			{
 			
 			final VCFHeader header = r.getHeader();
-			final VcfTools vcfTools = new VcfTools(header);
-			
-			
-			
-
 			final  VCFHeader h2 = new VCFHeader(header);
 			addMetaData(h2);
 			
@@ -421,14 +424,13 @@ public class VCFFilterJS
 			
 			final  SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(header).logger(LOG);
 
-			final  Bindings bindings = this.compiledScript.getEngine()
-					.createBindings();
-			bindings.put("header", header);
-			bindings.put("tools", vcfTools);
-			bindings.put("pedigree", pedigree);
+			final ScriptEnginePool pool = new ScriptEnginePool(()->super.compileJavascript(this.scriptExpr,this.scriptFile));
+			pool.put("header", header);
+			pool.putSupplier("tools", ()->new VcfTools(header));
+			pool.put("pedigree", pedigree);
 			
 
-			bindings.put("individuals", Collections.unmodifiableList( pedigree.getPersons().stream().
+			pool.put("individuals", Collections.unmodifiableList( pedigree.getPersons().stream().
 				filter(P->(P.isAffected() || P.isUnaffected())).
 				filter(P->P.hasUniqId()).
 				filter(P->header.getSampleNamesInOrder().contains(P.getId())).
@@ -445,82 +447,27 @@ public class VCFFilterJS
 				JsonParser jsonParser=new JsonParser();
 				final JsonElement root=jsonParser.parse(jsonFile);
 				jsonFile.close();
-				bindings.put(key, root);
+				pool.put(key, root);
 				}
 
 			w.writeHeader(h2);
-			while (r.hasNext() && !w.checkError())
-				{
-				final  VariantContext variation = progress.watch(r.next());
-				bindings.put("variant", variation);
-
-				final Object result = compiledScript.eval(bindings);
-				// result is an array of a collection of variants
-				if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-					{
-					final  Collection<?> col;
-					if(result.getClass().isArray())
-						{
-						final Object array[]=(Object[])result;
-						col= Arrays.asList(array);
-						}
-					else
-						{
-						col =( Collection<?>)result;
-						}
-					// write all of variants
-					for(final Object item:col)
-						{
-						if(item==null) throw new JvarkitException.UserError("item in array is null");
-						if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
-						w.add(VariantContext.class.cast(item));
-						}
+			final Iterator<VariantContext> iter = new AbstractIterator<VariantContext>() {
+				@Override
+				protected VariantContext advance() {
+					return r.hasNext()?progress.watch(r.next()):null;
 					}
-				// result is a VariantContext
-				else if(result!=null && (result instanceof VariantContext)) {
-					w.add(VariantContext.class.cast(result));
+				};
+			pool.forEachOrdered(
+				iter,
+				this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads,
+				this.batchSize,
+				(ctx,variation)->apply(ctx.eval("variant", variation), variation, filterHeaderLine),
+				L->{
+					for(final VariantContext vc:L) w.add(vc);
+					return !w.checkError();
 					}
-				else
-					{
-					boolean accept=true;
-					if(result==null)
-						{
-						accept=false;
-						}
-					else if(result instanceof Boolean)
-						{
-						if(Boolean.FALSE.equals(result)) accept = false;
-						}
-					else if(result instanceof Number)
-						{
-						if(((Number)result).intValue()!=1) accept = false;
-						}
-					else
-						{
-						LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-						accept = false;
-						}
-					if (!accept)
-						{
-						if(filterHeaderLine!=null)
-							{
-							final VariantContextBuilder vcb = new VariantContextBuilder(variation);
-							vcb.filter(filterHeaderLine.getID());
-							w.add(vcb.make());
-							}
-						continue;
-						}
-					
-					// set PASS filter if needed
-					if(filterHeaderLine!=null && !variation.isFiltered())
-						{
-						w.add( new VariantContextBuilder(variation).passFilters().make());
-						continue;
-						}
-					
-					w.add(variation);
-					}
-				}
+				);
+			LOG.info(pool.getStatistics());
 			return RETURN_OK;
 			}
 		catch(final Exception err)
@@ -534,13 +481,85 @@ public class VCFFilterJS
 			}
 		}
 	
+	/** converts the result of the script to the variants that should be written */
+	private static List<VariantContext> apply(
+			final Object result,
+			final VariantContext variation,
+			final VCFFilterHeaderLine filterHeaderLine
+			) {
+		// result is an array of a collection of variants
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			// write all of variants
+			final List<VariantContext> variants = new ArrayList<>(col.size());
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
+				variants.add(VariantContext.class.cast(item));
+				}
+			return variants;
+			}
+		// result is a VariantContext
+		else if(result!=null && (result instanceof VariantContext)) {
+			return Collections.singletonList(VariantContext.class.cast(result));
+			}
+		else
+			{
+			boolean accept=true;
+			if(result==null)
+				{
+				accept=false;
+				}
+			else if(result instanceof Boolean)
+				{
+				if(Boolean.FALSE.equals(result)) accept = false;
+				}
+			else if(result instanceof Number)
+				{
+				if(((Number)result).intValue()!=1) accept = false;
+				}
+			else
+				{
+				LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+				accept = false;
+				}
+			if (!accept)
+				{
+				if(filterHeaderLine!=null)
+					{
+					final VariantContextBuilder vcb = new VariantContextBuilder(variation);
+					vcb.filter(filterHeaderLine.getID());
+					return Collections.singletonList(vcb.make());
+					}
+				return Collections.emptyList();
+				}
+			
+			// set PASS filter if needed
+			if(filterHeaderLine!=null && !variation.isFiltered())
+				{
+				return Collections.singletonList(new VariantContextBuilder(variation).passFilters().make());
+				}
+			
+			return Collections.singletonList(variation);
+			}
+		}
+	
 	
 	@Override
 	public int doWork(final List<String> args) {
 		try 
 			{
-			this.compiledScript = super.compileJavascript(this.scriptExpr,this.scriptFile);
-			
 			return doVcfToVcf(args, this.outputFile);
 			}
 		catch(final Exception err)
@@ -548,10 +567,6 @@ public class VCFFilterJS
 			LOG.error(err);
 			return -1;
 			}
-		finally
-			{
-			this.compiledScript=null;
-			}
 		}
 	
 	
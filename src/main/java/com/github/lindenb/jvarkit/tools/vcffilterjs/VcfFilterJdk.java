@@ -30,10 +30,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -52,6 +55,7 @@ import com.github.lindenb.jvarkit.lang.OpenJdkCompiler;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
+import com.github.lindenb.jvarkit.util.concurrent.OrderedBatchExecutor;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.DelegateVariantContextWriter;
@@ -60,6 +64,7 @@ import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
 import htsjdk.variant.vcf.VCFIterator;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Iso8601Date;
@@ -159,6 +164,14 @@ The method `apply` returns an object that can either:
 * a [VariantContext](https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/variant/variantcontext/VariantContext.html) to replace the current variant
 * a [java.util.List](https://docs.oracle.com/javase/8/docs/api/java/util/List.html)<[VariantContext](https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/variant/variantcontext/VariantContext.html) > to replace the current variant with a list of variants.
 
+## Multithreading
+
+When `--threads` is greater than 1, each worker thread creates its own instance of the compiled class and the variants are sent
+to the workers by batches. The output is written in the same order as the input.
+
+The user's code must be thread-confined: each instance only sees a part of the variants, so the code must not rely on
+its own state (e.g. counting the variants in `userData`) and must not share any data with the other instances (e.g. static fields).
+A `<"STOP",Boolean.TRUE>` in `userData` still stops the output after the current variant.
 ## See also
 
 * VcfFilterJS . Slower, using javascript syntax (rhino engine)
@@ -427,7 +440,10 @@ public class VcfFilterJdk
 	
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
-	
+	@Parameter(names={"-j","--jobs","--threads"},description="Number of threads. If greater than 1, each thread uses its own instance of the compiled filter and the output keeps the input order. The user's code must be thread-confined (see the documentation). A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="With --threads: number of variants sent to a worker at once.")
+	private int batchSize = 1_000;
 	@ParametersDelegate
 	private CtxWriterFactory component = new CtxWriterFactory();
 	
@@ -488,6 +504,8 @@ public class VcfFilterJdk
 
 				private AbstractFilter filter_instance;
 				private VariantAttributesRecalculator recalculator = null;
+				/** original header, used to create new instances of the filter */
+				private VCFHeader header = null;
 				
 				CtxWriter(final VariantContextWriter delegate) {
 					super(delegate);
@@ -524,15 +542,20 @@ public class VcfFilterJdk
 						h2.addMetaDataLine(new VCFFilterHeaderLine(xf,"Custom FILTER inserted with "+VcfFilterJdk.class.getSimpleName()));
 						}
 					
+					this.header = header;
+					this.filter_instance = newFilterInstance();
+					
+					super.writeHeader(h2);
+					}
+				
+				/** create a new instance of the user's filter */
+				AbstractFilter newFilterInstance() {
 					try {
-						this.filter_instance = (AbstractFilter)CtxWriterFactory.this.constructor.newInstance(header);
+						return (AbstractFilter)CtxWriterFactory.this.constructor.newInstance(this.header);
 						}
 					catch(final Throwable err) {
 						throw new RuntimeException(err);
 						}
-					
-					
-					super.writeHeader(h2);
 					}
 				
 				/** recalculate INFO/AF, INFO/AN ... variables and 'add' */ 
@@ -547,8 +570,19 @@ public class VcfFilterJdk
 				public void add(final VariantContext variation) {
 					final Object stop = this.filter_instance.userData.get("STOP");
 					if(Boolean.TRUE.equals(stop)) return;
-					
-					final Object result = this.filter_instance.apply(variation);
+					write(evaluate(this.filter_instance, variation));
+					}
+				
+				/** recalculate the attributes and write the variants returned by 'evaluate' */
+				void write(final List<VariantContext> variants) {
+					for(final VariantContext ctx: variants) {
+						this.recalcAndAdd(ctx);
+						}
+					}
+				
+				/** apply a filter to a variant, returns the variants that should be written. Doesn't change the state of this writer */
+				List<VariantContext> evaluate(final AbstractFilter filter,final VariantContext variation) {
+					final Object result = filter.apply(variation);
 					// result is an array of a collection of variants
 					if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
 						{
@@ -563,16 +597,18 @@ public class VcfFilterJdk
 							col =( Collection<?>)result;
 							}
 						// write all of variants
+						final List<VariantContext> variants = new ArrayList<>(col.size());
 						for(final Object item:col)
 							{
 							if(item==null) throw new JvarkitException.UserError("item in array is null");
 							if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
-							this.recalcAndAdd(VariantContext.class.cast(item));
+							variants.add(VariantContext.class.cast(item));
 							}
+						return variants;
 						}
 					// result is a VariantContext
 					else if(result!=null && (result instanceof VariantContext)) {
-						this.recalcAndAdd(VariantContext.class.cast(result));
+						return Collections.singletonList(VariantContext.class.cast(result));
 						}
 					else
 						{
@@ -600,18 +636,17 @@ public class VcfFilterJdk
 								{
 								final VariantContextBuilder vcb = new VariantContextBuilder(variation);
 								vcb.filter(this.filterHeaderLine.getID());
-								this.recalcAndAdd(vcb.make());
+								return Collections.singletonList(vcb.make());
 								}
-							return;
+							return Collections.emptyList();
 							}
 						
 						// set PASS filter if needed
 						if(this.filterHeaderLine!=null && !variation.isFiltered())
 							{
-							this.recalcAndAdd( new VariantContextBuilder(variation).passFilters().make());
-							return;
+							return Collections.singletonList(new VariantContextBuilder(variation).passFilters().make());
 							}
-						this.recalcAndAdd(variation);
+						return Collections.singletonList(variation);
 						}
 					}
 				@Override
@@ -798,6 +833,13 @@ public class VcfFilterJdk
 		out.filter_instance.userData.put("last.variant", Boolean.FALSE);
 
 		final  SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(iter.getHeader()).logger(LOG);
+		final int nJobs = this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads;
+		if(nJobs > 1) {
+			doVcfToVcfMultiThreaded(nJobs, iter, out, progress);
+			progress.finish();
+			out.close();
+			return 0;
+			}
 		while (iter.hasNext() && !out.checkError())
 			{				
 			out.add(progress.watch(iter.next()));
@@ -815,6 +857,69 @@ public class VcfFilterJdk
 		}
 	
 	
+	/** a variant and its index in the input */
+	private static class IndexedVariant {
+		final long index;
+		final VariantContext variant;
+		IndexedVariant(final long index,final VariantContext variant) {
+			this.index = index;
+			this.variant = variant;
+			}
+	}
+	
+	/** variants returned by the user's code for one input variant */
+	private static class FilterResult {
+		final List<VariantContext> variants;
+		/** the user's code asked to stop after this variant */
+		final boolean stop;
+		FilterResult(final List<VariantContext> variants,final boolean stop) {
+			this.variants = variants;
+			this.stop = stop;
+			}
+	}
+	
+	private void doVcfToVcfMultiThreaded(
+			final int nJobs,
+			final VCFIterator iter,
+			final CtxWriterFactory.CtxWriter out,
+			final SAMSequenceDictionaryProgress progress
+			) {
+		final Iterator<IndexedVariant> variants = new AbstractIterator<IndexedVariant>() {
+			long nVariants = 0L;
+			@Override
+			protected IndexedVariant advance() {
+				return iter.hasNext()?new IndexedVariant(nVariants++,progress.watch(iter.next())):null;
+				}
+			};
+		try {
+			// one instance of the user's filter per worker, the output keeps the input order
+			OrderedBatchExecutor.forEachOrdered(
+				variants,
+				nJobs,
+				this.batchSize,
+				()->out.newFilterInstance(),
+				(FILTER,IV)->{
+					if(Boolean.TRUE.equals(FILTER.userData.get("STOP"))) return new FilterResult(Collections.emptyList(),true);
+					// same values as the single-threaded loop
+					FILTER.userData.put("first.variant", IV.index == 0L);
+					FILTER.userData.put("last.variant", Boolean.FALSE);
+					final List<VariantContext> L = out.evaluate(FILTER, IV.variant);
+					return new FilterResult(L, Boolean.TRUE.equals(FILTER.userData.get("STOP")));
+					},
+				R->{
+					out.write(R.variants);
+					return !R.stop && !out.checkError();
+					}
+				);
+			}
+		catch(final RuntimeException err) {
+			throw err;
+			}
+		catch(final Exception err) {
+			throw new RuntimeException(err);
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		try 
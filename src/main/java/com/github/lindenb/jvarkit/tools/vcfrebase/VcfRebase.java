@@ -30,9 +30,11 @@ package com.github.lindenb.jvarkit.tools.vcfrebase;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -46,6 +48,7 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
+import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -57,7 +60,7 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
-import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
+import com.github.lindenb.jvarkit.util.bio.IupacMotifMatcher;
 import com.github.lindenb.jvarkit.util.bio.Rebase;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -104,6 +107,12 @@ import htsjdk.variant.vcf.VCFIterator;
 1	840009	rs140080750	C	T	.	.	CAF=[0.9692,0.03076];COMMON=1;ENZ=(NotI|GC^GGCCGC|GcGGCCGC|840008|+);KGPROD;KGPhase1;OTHERKG;RS=140080750;RSPOS=840009;SAO=0;SSR=0;VC=SNV;VP=0x050000000001100016000100;WGT=1;dbSNPBuildID=134
 ```
  
+ ## ALT context
+ 
+ With `--alt`, the tool also scans the sequence of each ALT allele with its flanking reference bases and reports the sites overlapping the allele in `INFO/ENZ_ALT`, e.g. sites created by the variant.
+ 
+ All the enzymes are searched in a single pass over the sequence.
+ 
  END_DOC
  
  */
@@ -130,6 +139,8 @@ public class VcfRebase extends Launcher {
 			@XmlTransient
 			private Rebase rebase=Rebase.createDefaultRebase();
 			@XmlTransient
+			private IupacMotifMatcher<Rebase.EnzymeSite> matcher=null;
+			@XmlTransient
 			private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 
 			@XmlElement(name="attribute")
@@ -149,6 +160,10 @@ public class VcfRebase extends Launcher {
 			@Parameter(names={"-w","-weight","--weight"},description="min enzyme weight")
 			private float weight= 5f;		
 			
+			@XmlElement(name="alt")
+			@Parameter(names={"--alt"},description="Also scan the context of each ALT allele and report the sites overlapping this allele in INFO/${attribute}_ALT")
+			private boolean scanAlt = false;
+			
 			private class CtxWriter extends DelegateVariantContextWriter
 				{	
 				private GenomicSequence genomicSequence=null;
@@ -165,6 +180,15 @@ public class VcfRebase extends Launcher {
 									VCFHeaderLineType.String,
 									"Enzyme overlapping: Format: (Name,Site,Sequence,pos-1,strand)")
 								);
+					if(CtxWriterFactory.this.scanAlt)
+						{
+						header2.addMetaDataLine(
+								new VCFInfoHeaderLine(CtxWriterFactory.this.ATT+"_ALT",
+										VCFHeaderLineCount.UNBOUNDED,
+										VCFHeaderLineType.String,
+										"Enzyme overlapping the ALT allele in the ALT context: Format: (Name,Site,Sequence,ALT,strand)")
+									);
+						}
 					this.genomicSequence = null;
 					super.writeHeader(header2);
 					}
@@ -177,67 +201,119 @@ public class VcfRebase extends Launcher {
 						}
 					
 					final Set<String> hits=new HashSet<String>();
-					for(final Rebase.Enzyme enz:CtxWriterFactory.this.rebase)
+					for(final IupacMotifMatcher.Hit<Rebase.EnzymeSite> hit: findSites(
+							this.genomicSequence,
+							var.getStart() - 1,
+							var.getStart() + CtxWriterFactory.this.matcher.getMaxLength(),
+							H->H.getStart() >= var.getStart() - H.getMotif().size() && H.getStart() <= var.getStart()
+							))
 						{
-						int start0=Math.max(0, var.getStart() - enz.size());
-						for(int y=start0;y<=var.getStart();++y)
+						final StringBuilder b=new StringBuilder("(");
+						b.append(hit.getUserData().getEnzyme().getName());
+						b.append("|");
+						b.append(hit.getUserData().getEnzyme().getDecl());
+						b.append("|");
+						for(int x=hit.getStart();x < hit.getEnd();++x)
 							{
-							//run each strand
-							for(int strand=0;strand<2;++strand)
+							char c= this.genomicSequence.charAt(x);
+							if(x>=var.getStart()-1 && x<=var.getEnd()-1)
 								{
-								int x=0;
-								//loop over bases of the enzyme
-								for(x=0;x< enz.size() && y+x <  this.genomicSequence.length() ;++x )
-									{
-									final char c=(strand==0?
-											enz.at(x):
-											AcidNucleics.complement(enz.at((enz.size()-1)-x))
-											);
-									if(!Rebase.compatible(this.genomicSequence.charAt(y+x),c)) break;
-									}
-								// match found
-								if(x==enz.size())
-									{
-									final StringBuilder b=new StringBuilder("(");
-									b.append(enz.getName());
-									b.append("|");
-									b.append(enz.getDecl());
-									b.append("|");
-									for(x=0;x < enz.size();++x)
-										{
-										char c= this.genomicSequence.charAt(y+x);
-										if(y+x>=var.getStart()-1 && y+x<=var.getEnd()-1)
-											{
-											c=Character.toLowerCase(c);
-											}
-										b.append(c);
-										}
-									b.append("|");
-									b.append(y+1);
-									b.append("|");
-									b.append(strand==0?"+":"-");
-									b.append(")");
-									hits.add(b.toString());
-									break;
-									}
-								if(enz.isPalindromic()) break;
+								c=Character.toLowerCase(c);
 								}
+							b.append(c);
 							}
+						b.append("|");
+						b.append(hit.getStart()+1);
+						b.append("|");
+						b.append(hit.getUserData().getStrand());
+						b.append(")");
+						hits.add(b.toString());
 						}
-					if(hits.isEmpty())
+					final Set<String> altHits = new HashSet<>();
+					if(CtxWriterFactory.this.scanAlt)
+						{
+						final int maxLen = CtxWriterFactory.this.matcher.getMaxLength();
+						final int leftStart = Math.max(0, var.getStart() - maxLen);
+						final int rightEnd = Math.min(this.genomicSequence.length(), var.getEnd() - 1 + maxLen);
+						for(final Allele alt: var.getAlternateAlleles())
+							{
+							if(alt.isSymbolic() || alt.isNoCall() || alt.getDisplayString().equals("*")) continue;
+							final StringBuilder ctx = new StringBuilder(rightEnd - leftStart + alt.length());
+							ctx.append(this.genomicSequence.subSequence(leftStart, var.getStart() - 1));
+							final int altStart = ctx.length();
+							ctx.append(alt.getBaseString().toLowerCase());
+							final int altEnd = ctx.length();
+							if(var.getEnd() < rightEnd) ctx.append(this.genomicSequence.subSequence(var.getEnd(), rightEnd));
+							for(final IupacMotifMatcher.Hit<Rebase.EnzymeSite> hit: findSites(
+									ctx,
+									0,
+									ctx.length(),
+									H->H.getStart() < altEnd && H.getEnd() > altStart
+									))
+								{
+								altHits.add("("+
+									hit.getUserData().getEnzyme().getName()+"|"+
+									hit.getUserData().getEnzyme().getDecl()+"|"+
+									ctx.subSequence(hit.getStart(), hit.getEnd())+"|"+
+									alt.getDisplayString()+"|"+
+									hit.getUserData().getStrand()+
+									")");
+								}
+							}
+						}
+					if(hits.isEmpty() && altHits.isEmpty())
 						{
 						super.add(var);
 						}
 					else
 						{
 						final VariantContextBuilder vcb=new VariantContextBuilder(var);
-						vcb.attribute(
-								CtxWriterFactory.this.ATT,
-								hits.toArray(new String[hits.size()])
-								);
+						if(!hits.isEmpty())
+							{
+							vcb.attribute(
+									CtxWriterFactory.this.ATT,
+									hits.toArray(new String[hits.size()])
+									);
+							}
+						if(!altHits.isEmpty())
+							{
+							vcb.attribute(
+									CtxWriterFactory.this.ATT+"_ALT",
+									altHits.toArray(new String[altHits.size()])
+									);
+							}
 						super.add(vcb.make());
 						}
 					}
+				
+				/** scan [start,end) of the sequence for all the enzymes in one pass.
+				 * As in the original per-enzyme loop, the reverse site of an enzyme is
+				 * ignored when the forward site was found at the same position.
+				 */
+				private List<IupacMotifMatcher.Hit<Rebase.EnzymeSite>> findSites(
+						final CharSequence seq,
+						final int start,
+						final int end,
+						final Predicate<IupacMotifMatcher.Hit<Rebase.EnzymeSite>> accept
+						)
+					{
+					final List<IupacMotifMatcher.Hit<Rebase.EnzymeSite>> found = new ArrayList<>();
+					CtxWriterFactory.this.matcher.scan(seq,
+						start - CtxWriterFactory.this.matcher.getMaxLength(),
+						end,
+						H->{
+						if(!accept.test(H)) return;
+						if(!H.getUserData().isForward() && !found.isEmpty())
+							{
+							// forward and reverse sites of the same enzyme are reported consecutively
+							final IupacMotifMatcher.Hit<Rebase.EnzymeSite> prev = found.get(found.size()-1);
+							if(prev.getUserData().getEnzyme()==H.getUserData().getEnzyme() &&
+								prev.getStart()==H.getStart()) return;
+							}
+						found.add(H);
+						});
+					return found;
+					}
 				@Override
 				public void close() {
 					this.genomicSequence = null;
@@ -291,6 +367,7 @@ public class VcfRebase extends Launcher {
 					{
 					LOG.warn("REBASE IS EMPTY");
 					}
+				this.matcher = this.rebase.createMatcher();
 				
 				IOUtil.assertFileIsReadable(this.referenceFile);
 				try {
@@ -312,6 +389,7 @@ public class VcfRebase extends Launcher {
 				CloserUtil.close(this.indexedFastaSequenceFile);
 				this.indexedFastaSequenceFile=null;
 				this.rebase=null;
+				this.matcher=null;
 				}
 			}
 
@@ -87,6 +87,7 @@ import htsjdk.samtools.fastq.FastqReader;
 import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.DelegatingIterator;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.SequenceUtil;
@@ -487,7 +488,11 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
         		new SpinnerValueFactory.IntegerSpinnerValueFactory(0,100000,
         				number_of_items_in_spinner
         				));
-        				
+        super.maxItemsLimitSpinner.setTooltip(new Tooltip(
+    			"When Manually editing, press <RETURN> to commit the new value." +
+    			"When no region is given: the whole file is NOT loaded, only a subset of data will be read. "+
+    			"The reads of a region are all loaded in the background but the pileup only uses this number of reads."
+    			));
         top1.getChildren().add(gotoButton);
         top1.getChildren().add(new Separator(Orientation.VERTICAL));
         top1.getChildren().add(new Label("Limit:"));
@@ -511,6 +516,8 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
         tabbedPane.getTabs().add(tab);
         
         this.recordTable = makeRecordTable();
+        /* the reads are loaded by pages, they cannot be sorted in the table */
+        this.recordTable.setSortPolicy(T->false);
         /** create columns */
         
         
@@ -738,7 +745,7 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
         		);
         
         /* fill stats menu */
-        final Supplier<List<SAMRecord>> readsProvider=()->this.recordTable.getItems();
+        final Supplier<List<SAMRecord>> readsProvider=()->getAllItems(this.recordTable);
         
         for(final Supplier<ChartFactory<SAMFileHeader,SAMRecord>> supplier: READ_CHART_LIST)
 	        {
@@ -983,10 +990,12 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
 	    }
     
     
-    /** get a stream of read we can display on canvas */
-    private Stream<SAMRecord> getDisplayableSamRecordStream()
+    /** get a stream of read we can display on canvas, only the pages of the loader overlapping the region are decoded */
+    private Stream<SAMRecord> getDisplayableSamRecordStream(final String contig,final int start,final int end)
     	{
-    	return this.recordTable.getItems().
+    	final PagedRecordLoader<SAMRecord> loader = getRecordLoader();
+    	if(loader==null) return Stream.empty();
+    	return loader.getOverlapping(contig, start, end).
     			stream().
     			filter(R->!R.getReadUnmappedFlag() && R.getCigar()!=null)
     			;
@@ -1040,8 +1049,6 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     	gc.setFill(Color.WHITE);
     	gc.fillRect(0, 0, canvaswidth, canvasheight);
     	double y=baseSize*2;
-    	final List<SAMRecord> records=getDisplayableSamRecordStream().collect(Collectors.toList());
-    	if(records.isEmpty()) return;
  
     	final long genomicIndex = (long)this.canvasScrollHGenomicLoc.getValue();
     	final ContigPos contigStart = super.convertGenomicIndexToContigPos(genomicIndex);
@@ -1050,8 +1057,8 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     	final int chromStart=contigStart.position;
     	final int chromLen=(int)(canvaswidth/baseSize);
     	if(chromLen==0) return;
-
-    	
+    	final List<SAMRecord> records=getDisplayableSamRecordStream(contigStart.getContig(),chromStart,chromStart+chromLen).collect(Collectors.toList());
+    	if(records.isEmpty()) return;
     	/* pileup record */
     	final List<List<XYRecord>> yxrows = new ArrayList<>();
     	for(final SAMRecord rec:records)
@@ -1453,100 +1460,58 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
 		return recFilter;
     	}
     
-    @Override
-    void reloadData() {
-    	updateStatusBar(AlertType.NONE,"");
-    	final int max_items= super.maxItemsLimitSpinner.getValue();
-    	final List<SAMRecord> L= new ArrayList<SAMRecord>(max_items);
-    	final String location = this.gotoField.getText().trim();
-    	final CloseableIterator<SAMRecord> iter;
-    	final java.util.function.Predicate<SAMRecord> recFilter=makeFlagPredicate();
+    /** what the background loader computes while the reads are read. The pileup uses one object per base,
+     * so it's only computed for the first 'maxPileupRecords' reads */
+    private static class LoadSummary
+    	{
+    	final Map<ContigPos,Pileup> pos2pileup=new TreeMap<>();
+    	final int maxPileupRecords;
+    	int pileupRecords=0;
+    	boolean pileupTruncated=false;
     	Long canvasFirstRecordGenomicIndex=null;
     	Long canvasLastRecordGenomicIndex=null;
-
+    	SAMRecord firstRecord=null;
+    	SAMRecord lastRecord=null;
+    	boolean contains_paired=false;
     	
-    	try {
-    	if(location.isEmpty())
-    		{
-    		iter = this.getBamFile().iterator();
+    	LoadSummary(final int maxPileupRecords) {
+    		this.maxPileupRecords = maxPileupRecords;
     		}
-    	else if(location.equalsIgnoreCase("unmapped"))
-    		{
-    		iter = this.getBamFile().queryUnmapped();
-    		}
-    	else
-    		{
-    		final Interval interval=parseInterval(location);
-    		if(interval==null)
-    			{
-    			iter=null;
-    			}
-    		else
-    			{
-    			iter= this.getBamFile().iterator(interval.getContig(),interval.getStart(), interval.getEnd());
-    			}
-    		}
-    	} catch(final IOException err) {
-    		err.printStackTrace();
-    		JfxNgs.showExceptionDialog(this, err);
-    		return;
-    		}
-    	Optional<BamJavascripFilter> bamjsfilter=Optional.empty();
-    	if(this.owner.javascriptCompiler.isPresent() &&
-    			!this.javascriptArea.getText().trim().isEmpty())
-    		{
-    		try
-    			{
-    			bamjsfilter=Optional.of(new BamJavascripFilter(
-    					this.getBamFile().getHeader(),
-    					Optional.of(this.owner.javascriptCompiler.get().compile(this.javascriptArea.getText()))
-    					));
-    			}
-    		catch(final Exception err)
-    			{
-    			LOG.warning(err.getMessage());
-    			updateStatusBar(AlertType.ERROR, err);
-    			bamjsfilter=Optional.empty();
-    			}
+    	
+    	Pileup getPileup(final ContigPos t) {
+			Pileup p =this.pos2pileup.get(t);
+			if(p==null) { p=new Pileup(t.contig,t.position);this.pos2pileup.put(t,p);}
+			return p;
     		}
-    	final Map<ContigPos,Pileup> pos2pileup=new TreeMap<>();
-    	final Function<ContigPos,Pileup> getpileup=new  Function<ContigPos, Pileup>() {
-			@Override
-			public Pileup apply(ContigPos t) {
-				Pileup p =pos2pileup.get(t);
-				if(p==null) { p=new Pileup(t.contig,t.position);pos2pileup.put(t,p);}
-				return p;
-			}
-		};
-		
-		
-    	int count_items=0;
-    	while(iter!=null && iter.hasNext() && count_items<max_items)
-    		{
-    		final SAMRecord rec = iter.next();
-    		++count_items;
-    		if(bamjsfilter.isPresent())
-    			{
-    			if(bamjsfilter.get().eval(rec)==null) continue;
-    			}    		
-    		if(!recFilter.test(rec)) continue;
-    		L.add(rec);
+    	}
+    
+    /** called by the background loader for each read */
+    private void visitLoadedRecord(final LoadSummary summary,final SAMRecord rec)
+    	{
+    	if(summary.firstRecord==null) summary.firstRecord=rec;
+    	summary.lastRecord=rec;
+    	if(rec.getReadPairedFlag()) summary.contains_paired=true;
     		/* get bounds for canvas genmic browser */
     		if(!rec.getReadUnmappedFlag() && rec.getCigar()!=null) {
     			final long endIndex =convertContigPosToGenomicIndex(rec.getContig(),rec.getUnclippedEnd());
-	    		if(canvasFirstRecordGenomicIndex==null)
+	    		if(summary.canvasFirstRecordGenomicIndex==null)
 	    			{
-	    			canvasFirstRecordGenomicIndex = convertContigPosToGenomicIndex(rec.getContig(),rec.getUnclippedStart());
-	    			canvasLastRecordGenomicIndex = endIndex;
+	    			summary.canvasFirstRecordGenomicIndex = convertContigPosToGenomicIndex(rec.getContig(),rec.getUnclippedStart());
+	    			summary.canvasLastRecordGenomicIndex = endIndex;
 	    			}
-	    		else if(canvasLastRecordGenomicIndex< endIndex)
+	    		else if(summary.canvasLastRecordGenomicIndex< endIndex)
 	    			{
-	    			canvasLastRecordGenomicIndex = endIndex;
+	    			summary.canvasLastRecordGenomicIndex = endIndex;
 	    			}
 	    		}
     		/* FILL pileup */
-    		if(!rec.getReadUnmappedFlag() && rec.getCigar()!=null)
+    		if(!rec.getReadUnmappedFlag() && rec.getCigar()!=null && summary.pileupRecords>=summary.maxPileupRecords)
+    			{
+    			summary.pileupTruncated=true;
+    			}
+    		else if(!rec.getReadUnmappedFlag() && rec.getCigar()!=null)
     			{
+    			summary.pileupRecords++;
     			int refpos=rec.getUnclippedStart();
     			int readpos=0;
     			final byte bases[]=rec.getReadBases();
@@ -1604,7 +1569,7 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     					case H:
     						{
 							for(int i=0;i< ce.getLength();++i) {
-    							final Pileup p = getpileup.apply(new ContigPos(rec.getContig(),refpos));
+    							final Pileup p = summary.getPileup(new ContigPos(rec.getContig(),refpos));
     							p.watch('-','#',ce.getOperator());
     							++refpos;
     							}
@@ -1613,7 +1578,7 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     					case I:
     						{
     						for(int i=0;i< ce.getLength();++i) {
-    						final Pileup p = getpileup.apply(new ContigPos(rec.getContig(),refpos));
+    						final Pileup p = summary.getPileup(new ContigPos(rec.getContig(),refpos));
     							p.watch('<',getQualAt.apply(readpos),ce.getOperator());
     							readpos++;
         						}
@@ -1621,7 +1586,7 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     						}
     					case S:
     						for(int i=0;i< ce.getLength();++i) {
-    							final Pileup p = getpileup.apply(new ContigPos(rec.getContig(),refpos));
+    							final Pileup p = summary.getPileup(new ContigPos(rec.getContig(),refpos));
     							p.watch('-',getQualAt.apply(readpos),ce.getOperator());
     							++readpos;
     							++refpos;
@@ -1629,7 +1594,7 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     						break;
     					case EQ: case X: case M:
     						for(int i=0;i< ce.getLength();++i) {
-    							final Pileup p = getpileup.apply(new ContigPos(rec.getContig(),refpos));
+    							final Pileup p = summary.getPileup(new ContigPos(rec.getContig(),refpos));
     							p.watch(getBaseAt.apply(readpos),getQualAt.apply(readpos),ce.getOperator());
     							++readpos;
     							++refpos;
@@ -1638,10 +1603,108 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     					}
     				}
     			}
+    	}
+    
+    @Override
+    void reloadData() {
+    	updateStatusBar(AlertType.NONE,"");
+    	final String location = this.gotoField.getText().trim();
+    	final NgsQuery<SAMFileHeader,SAMRecord> wholeFileQuery;
+    	final java.util.function.Predicate<SAMRecord> recFilter=makeFlagPredicate();
+    	Interval interval=null;
+
+    	if(location.isEmpty())
+    		{
+    		wholeFileQuery = F->F.iterator();
+    		}
+    	else if(location.equalsIgnoreCase("unmapped"))
+    		{
+    		wholeFileQuery = F->BamFile.class.cast(F).queryUnmapped();
+    		}
+    	else
+    		{
+    		interval=parseInterval(location);
+    		/* used if the location is not valid: nothing to display */
+    		wholeFileQuery = F->new DelegatingIterator<>(Collections.emptyIterator());
+    		}
+    	Optional<BamJavascripFilter> bamjsfilter=Optional.empty();
+    	if(this.owner.javascriptCompiler.isPresent() &&
+    			!this.javascriptArea.getText().trim().isEmpty())
+    		{
+    		try
+    			{
+    			bamjsfilter=Optional.of(new BamJavascripFilter(
+    					this.getBamFile().getHeader(),
+    					Optional.of(this.owner.javascriptCompiler.get().compile(this.javascriptArea.getText()))
+    					));
+    			}
+    		catch(final Exception err)
+    			{
+    			LOG.warning(err.getMessage());
+    			updateStatusBar(AlertType.ERROR, err);
+    			bamjsfilter=Optional.empty();
+    			}
+    		}
+    	final Optional<BamJavascripFilter> jsFilter=bamjsfilter;
+    	final Function<SAMRecord,SAMRecord> mapper= R->{
+    		if(jsFilter.isPresent() && jsFilter.get().eval(R)==null) return null;
+    		return recFilter.test(R)?R:null;
+    		};
+    	
+    	final PagedRecordLoader<SAMRecord> loader;
+    	try {
+    		loader = createRecordLoader(interval, wholeFileQuery, mapper);
+    	} catch(final IOException err) {
+    		err.printStackTrace();
+    		JfxNgs.showExceptionDialog(this, err);
+    		return;
+    		}
+    	final PagedObservableList<SAMRecord> pagedList = new PagedObservableList<>(loader);
+    	final LoadSummary summary = new LoadSummary(this.maxItemsLimitSpinner.getValue());
+    	this.recordTable.setItems(pagedList);
+    	this.pileupTable.getItems().clear();
+    	
+    	/* a page that was not in memory has been loaded for the table or the canvas */
+    	loader.setPageListener(P->Platform.runLater(()->{
+    		if(getRecordLoader()!=loader) return;
+    		this.recordTable.refresh();
+    		repaintCanvas();
+    		}));
+    	/* reads are loaded in the background, the table is updated after each page */
+    	loader.start(
+    		page->{
+    			for(final SAMRecord rec:page) visitLoadedRecord(summary,rec);
+    			Platform.runLater(()->{
+    				if(getRecordLoader()!=loader) return;
+    				pagedList.refreshSize();
+    				updateStatusBar(AlertType.NONE,"Loading... N="+pagedList.size());
+    				});
+    			},
+    		()->Platform.runLater(()->{
+    			if(getRecordLoader()!=loader) return;
+    			pagedList.refreshSize();
+    			onRecordsLoaded(loader,summary);
+    			})
+    		);
+    	}
+    
+    /** called in the FX thread when all the reads have been loaded */
+    private void onRecordsLoaded(final PagedRecordLoader<SAMRecord> loader,final LoadSummary summary)
+    	{
+    	if(loader.getError()!=null)
+    		{
+    		updateStatusBar(AlertType.ERROR, loader.getError());
+    		}
+    	else if(summary.pileupTruncated)
+    		{
+    		updateStatusBar(AlertType.WARNING,"N="+loader.size()+". Pileup of the first "+summary.pileupRecords+" reads.");
+    		}
+    	else if(loader.size()>0)
+    		{
+    		updateStatusBar(AlertType.NONE,"N="+loader.size());
     		}
-    	if(iter!=null) iter.close();
     	this.canvasScrolVInCoverage.setMin(0);
-    	final int max_depth=pos2pileup.values().stream().
+    	final int max_depth=summary.pos2pileup.values().stream().
     			map(P->P.depth()).
     			max((A,B)->(A.compareTo(B))).
     			orElse(0)
@@ -1649,20 +1712,19 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     	this.canvasScrolVInCoverage.setMax(max_depth+1);
     	this.canvasScrolVInCoverage.setValue(0);
 
-    	this.recordTable.getItems().setAll(L);
-    	this.pileupTable.getItems().setAll(pos2pileup.values());
+    	this.pileupTable.getItems().setAll(summary.pos2pileup.values());
     	
     	/* set bounds for canvas */
  
-    	if(canvasFirstRecordGenomicIndex!=null && canvasLastRecordGenomicIndex!=null &&
-    			canvasFirstRecordGenomicIndex.longValue() < canvasLastRecordGenomicIndex.longValue() 
+    	if(summary.canvasFirstRecordGenomicIndex!=null && summary.canvasLastRecordGenomicIndex!=null &&
+    			summary.canvasFirstRecordGenomicIndex.longValue() < summary.canvasLastRecordGenomicIndex.longValue() 
     		)
     		{
-    		this.canvasScrollHGenomicLoc.setMin(canvasFirstRecordGenomicIndex);
-    		this.canvasScrollHGenomicLoc.setMax(canvasLastRecordGenomicIndex);
+    		this.canvasScrollHGenomicLoc.setMin(summary.canvasFirstRecordGenomicIndex);
+    		this.canvasScrollHGenomicLoc.setMax(summary.canvasLastRecordGenomicIndex);
     		//this.canvasScrollHGenomicLoc.setUnitIncrement(1);
-    		//this.canvasScrollHGenomicLoc.setBlockIncrement(Math.max(1.0,Math.min( canvasLastRecordGenomicIndex-canvasFirstRecordGenomicIndex, this.canvas.getWidth())));
-    		this.canvasScrollHGenomicLoc.setValue(canvasFirstRecordGenomicIndex);
+    		//this.canvasScrollHGenomicLoc.setBlockIncrement(Math.max(1.0,Math.min( summary.canvasLastRecordGenomicIndex-summary.canvasFirstRecordGenomicIndex, this.canvas.getWidth())));
+    		this.canvasScrollHGenomicLoc.setValue(summary.canvasFirstRecordGenomicIndex);
     		}
     	else
     		{
@@ -1674,22 +1736,23 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     		}
     	
     	
-    	if(!this.recordTable.getItems().isEmpty())
+    	if(summary.firstRecord!=null)
     		{
-    		final int last_index= this.recordTable.getItems().size()-1;
+    		final SAMRecord first = summary.firstRecord;
+    		final SAMRecord last = summary.lastRecord;
     		
-    		if(		!this.recordTable.getItems().get(0).getReadUnmappedFlag() &&
-    				!this.recordTable.getItems().get(last_index).getReadUnmappedFlag())
+    		if(		!first.getReadUnmappedFlag() &&
+    				!last.getReadUnmappedFlag())
 	    		{
 	    		super.seqDictionaryCanvas.setItemsInterval(
-	    				new ContigPos(this.recordTable.getItems().get(0).getContig(), this.recordTable.getItems().get(0).getStart()),
-	    				new ContigPos(this.recordTable.getItems().get(last_index).getContig(), this.recordTable.getItems().get(last_index).getEnd())
+	    				new ContigPos(first.getContig(), first.getStart()),
+	    				new ContigPos(last.getContig(), last.getEnd())
 	    				);
 	    		
-	    		if(		this.recordTable.getItems().get(0).getContig().equals(
-	    						this.recordTable.getItems().get(last_index).getContig()))
+	    		if(		first.getContig().equals(
+	    						last.getContig()))
 	    				{
-	    				this.gotoField.setText(this.recordTable.getItems().get(0).getContig()+":"+this.recordTable.getItems().get(0).getStart()+"-"+this.recordTable.getItems().get(last_index).getEnd());
+	    				this.gotoField.setText(first.getContig()+":"+first.getStart()+"-"+last.getEnd());
 	    				}
 	    		}
     		else
@@ -1704,7 +1767,7 @@ public class BamStage extends NgsStage<SAMFileHeader,SAMRecord> {
     	
     	/* show hide columns for paired end data if no paired data found */
     	{
-    	final boolean contains_paired= 	this.recordTable.getItems().stream().anyMatch(S->S.getReadPairedFlag());
+    	final boolean contains_paired= 	summary.contains_paired;
     	for(final TableColumn<SAMRecord, ?> tc: this.pairedEndColumns) tc.setVisible(contains_paired);
     	}
     	
@@ -43,6 +43,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -68,6 +70,7 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.DelegatingIterator;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.Locatable;
@@ -173,6 +176,24 @@ public abstract class NgsStage<HEADERTYPE,ITEMTYPE extends Locatable> extends St
 	protected final Spinner<Integer> maxItemsLimitSpinner=
 			new Spinner<>(0, 10000, 1);
 	
+	/** background threads loading the records */
+	protected static final ExecutorService LOADER_EXECUTOR = Executors.newCachedThreadPool(R->{
+		final Thread t = new Thread(R,"jfxngs-loader");
+		t.setDaemon(true);
+		return t;
+		});
+	/** current loader of the records */
+	private PagedRecordLoader<ITEMTYPE> recordLoader = null;
+	/** copy of ngsFile used to reload the pages of the loaders */
+	private NgsFile<HEADERTYPE,ITEMTYPE> pagingNgsFile = null;
+	/** query on pagingNgsFile, shared by all the loaders so the page reloads are serialized */
+	private PagedRecordLoader.RegionQuery<ITEMTYPE> pagingQuery = null;
+	
+	/** query a NgsFile */
+	@FunctionalInterface
+	protected interface NgsQuery<H,T extends Locatable> {
+		CloseableIterator<T> query(NgsFile<H,T> ngsFile) throws IOException;
+		}
 	/** limited writer for Bioalcidae Security */
 	private static class LimitSecurityStream extends FilterOutputStream
 		{
@@ -1016,7 +1037,8 @@ public abstract class NgsStage<HEADERTYPE,ITEMTYPE extends Locatable> extends St
     	this.maxItemsLimitSpinner.setEditable(true);
     	this.maxItemsLimitSpinner.setTooltip(new Tooltip(
     			"When Manually editing, press <RETURN> to commit the new value." +
-    			"The whole file is NOT loaded, only a subset of data will be read."
+    			"Only used when no region is given: the whole file is NOT loaded, only a subset of data will be read. "+
+    			"The records of a region are all loaded in the background."
     			));
     	if(ngsFile.getSequenceDictionary()==null)
     		{
@@ -1052,6 +1074,13 @@ public abstract class NgsStage<HEADERTYPE,ITEMTYPE extends Locatable> extends St
                     });
     	this.addEventHandler(
     			WindowEvent.WINDOW_CLOSE_REQUEST ,WE->{
+                    	NgsStage.this.cancelRecordLoader();
+                    	if(NgsStage.this.pagingQuery!=null)
+                    		{
+                    		synchronized(NgsStage.this.pagingQuery) {
+                    			NgsStage.this.pagingNgsFile.close();
+                    			}
+                    		}
                     	NgsStage.this.ngsFile.close();
                     	owner.unregisterStage(NgsStage.this);
                     });
@@ -1269,9 +1298,10 @@ public abstract class NgsStage<HEADERTYPE,ITEMTYPE extends Locatable> extends St
 						out.print(table.getColumns().get(x).getText());
 						}
 					out.println();
-					for(int y=0;y< table.getItems().size();++y)
+					final List<T> rows = getAllItems(table);
+					for(int y=0;y< rows.size();++y)
 						{
-						final T row=table.getItems().get(y);
+						final T row=rows.get(y);
 						for(int x=0;x< table.getColumns().size();++x)
 							{
 							if(x>0) out.print("\t");
@@ -1312,6 +1342,83 @@ public abstract class NgsStage<HEADERTYPE,ITEMTYPE extends Locatable> extends St
     /** reload all data */
     abstract void reloadData();
     
+    /** run the query on a new copy of the NGS file, so it can be used in a background thread. The copy is closed with the iterator */
+    protected CloseableIterator<ITEMTYPE> queryCopy(final NgsQuery<HEADERTYPE,ITEMTYPE> query) throws IOException {
+    	final NgsFile<HEADERTYPE,ITEMTYPE> copy = this.ngsFile.reOpen();
+    	final CloseableIterator<ITEMTYPE> delegate;
+    	try {
+    		delegate = query.query(copy);
+    		}
+    	catch(final IOException err) {
+    		copy.close();
+    		throw err;
+    		}
+    	return new DelegatingIterator<ITEMTYPE>(delegate) {
+    		@Override
+    		public void close() {
+    			super.close();
+    			copy.close();
+    			}
+    		};
+    	}
+    
+    /** cancel the current loader and create a new one for 'interval'. If 'interval' is null, 'wholeFileQuery' is
+     * used and the number of records is limited by maxItemsLimitSpinner */
+    protected PagedRecordLoader<ITEMTYPE> createRecordLoader(
+    		final Interval interval,
+    		final NgsQuery<HEADERTYPE,ITEMTYPE> wholeFileQuery,
+    		final Function<ITEMTYPE,ITEMTYPE> mapper
+    		) throws IOException
+    	{
+    	cancelRecordLoader();
+    	if(interval!=null)
+    		{
+    		if(this.pagingQuery==null)
+    			{
+    			final NgsFile<HEADERTYPE,ITEMTYPE> pager = this.ngsFile.reOpen();
+    			this.pagingNgsFile = pager;
+    			this.pagingQuery = (C,S,E)->pager.iterator(C, S, E);
+    			}
+    		this.recordLoader = PagedRecordLoader.forRegion(
+    				interval,
+    				(C,S,E)->queryCopy(F->F.iterator(C, S, E)),
+    				this.pagingQuery,
+    				mapper,
+    				LOADER_EXECUTOR
+    				);
+    		}
+    	else
+    		{
+    		this.recordLoader = PagedRecordLoader.forIterator(
+    				()->queryCopy(wholeFileQuery),
+    				mapper,
+    				this.maxItemsLimitSpinner.getValue(),
+    				LOADER_EXECUTOR
+    				);
+    		}
+    	return this.recordLoader;
+    	}
+    
+    /** all the items of a table. The pages of a paged table that are not in memory are loaded in the current thread */
+    @SuppressWarnings("unchecked")
+    protected static <T> List<T> getAllItems(final TableView<T> table)
+    	{
+    	if(table.getItems() instanceof PagedObservableList)
+    		{
+    		return (List<T>)((PagedObservableList<?>)table.getItems()).getAllRecords();
+    		}
+    	return table.getItems();
+    	}
+    
+    /** the loader of the records currently displayed, or null */
+    protected PagedRecordLoader<ITEMTYPE> getRecordLoader() {
+    	return this.recordLoader;
+    	}
+    
+    private void cancelRecordLoader() {
+    	if(this.recordLoader!=null) this.recordLoader.cancel();
+    	this.recordLoader = null;
+    	}
     /** show stats */
     protected abstract void doMenuShowWholeStats(final ChartFactory<HEADERTYPE,ITEMTYPE> factory);
     /** show stats for whole file */
@@ -1369,7 +1476,8 @@ public abstract class NgsStage<HEADERTYPE,ITEMTYPE extends Locatable> extends St
 	        col.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<T,R>, ObservableValue<R>>() {				
 				@Override
 				public ObservableValue<R> call(CellDataFeatures<T, R> param) {
-					return new ReadOnlyObjectWrapper<R>(supplier.apply(param.getValue()));
+					/* null is the placeholder of a row being loaded */
+					return new ReadOnlyObjectWrapper<R>(param.getValue()==null?null:supplier.apply(param.getValue()));
 					}
 				});
 	        return col;
@@ -0,0 +1,100 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.vcfviewgui;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.List;
+
+import htsjdk.samtools.util.Locatable;
+import htsjdk.samtools.util.RuntimeIOException;
+import javafx.collections.ObservableListBase;
+
+/**
+ * Read-only ObservableList backed by a PagedRecordLoader. The table only
+ * asks for the visible rows, so only the pages around the scroll position are decoded.
+ * The size grows as the loader publishes new pages; {@link #refreshSize()} must be
+ * called from the FX thread.
+ * 
+ * {@link #get(int)} never waits for the disk: a row whose page is not in memory is returned as
+ * a <code>null</code> placeholder and its page is loaded in the background. The table must be refreshed
+ * when the loader's page listener is called.
+ */
+class PagedObservableList<T extends Locatable> extends ObservableListBase<T> {
+	private final PagedRecordLoader<T> loader;
+	private int visibleSize = 0;
+	
+	PagedObservableList(final PagedRecordLoader<T> loader) {
+		this.loader = loader;
+		}
+	
+	PagedRecordLoader<T> getLoader() {
+		return this.loader;
+		}
+	
+	/** return the record or null if its page is being loaded */
+	@Override
+	public T get(final int index) {
+		if(index<0 || index>=this.visibleSize) throw new IndexOutOfBoundsException("index:"+index+"/"+this.visibleSize);
+		return this.loader.getIfLoaded(index);
+		}
+	
+	/** a list of all the records, without placeholder: the missing pages are loaded in the calling thread.
+	 * Used by the actions working on all the records (saving the table, statistics...) */
+	List<T> getAllRecords() {
+		final int n = this.visibleSize;
+		return new AbstractList<T>() {
+			@Override
+			public T get(final int index) {
+				if(index<0 || index>=n) throw new IndexOutOfBoundsException("index:"+index+"/"+n);
+				try {
+					return PagedObservableList.this.loader.get(index);
+					}
+				catch(final IOException err) {
+					throw new RuntimeIOException(err);
+					}
+				}
+			@Override
+			public int size() {
+				return n;
+				}
+			};
+		}
+	@Override
+	public int size() {
+		return this.visibleSize;
+		}
+	
+	/** tell the listeners about the records loaded since the last call */
+	void refreshSize() {
+		final int n = this.loader.size();
+		if(n <= this.visibleSize) return;
+		final int prev = this.visibleSize;
+		beginChange();
+		this.visibleSize = n;
+		nextAdd(prev, n);
+		endChange();
+		}
+	}
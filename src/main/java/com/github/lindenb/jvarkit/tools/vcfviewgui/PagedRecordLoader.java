@@ -0,0 +1,445 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.vcfviewgui;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * Loads the records of a NGS file by pages of 'pageSize' records, so the viewers
+ * don't have to keep all the records of a large region in memory.
+ * 
+ * A first pass, running in the background, reads the whole region once: it counts the records,
+ * hands each page to a visitor (pileup, bounds...) and remembers where each page starts:
+ * the position of its first record and the number of records with the same position before it.
+ * Only a few pages are kept in memory, the other pages are decoded again using the index
+ * when they're needed.
+ * 
+ * If the records cannot be queried by position (whole file, unmapped reads), all the pages
+ * are kept in memory and at most 'maxRecords' records are read.
+ * 
+ * The first pass and the page reloads use two distinct queries because a htsjdk reader
+ * doesn't support two opened iterators. The page reloads are serialized.
+ * 
+ * The FX thread must not wait for a page: {@link #getIfLoaded(int)} and {@link #getOverlapping(String, int, int)}
+ * only use the pages in memory and load the missing pages in the background. The page listener
+ * is called when such a page is ready so the viewer can refresh itself.
+ * 
+ * The mapper (filters, javascript...) is never called by two threads at the same time.
+ */
+class PagedRecordLoader<T extends Locatable> {
+	private static final Logger LOG = Logger.build(PagedRecordLoader.class).make();
+	static final int DEFAULT_PAGE_SIZE = 1_000;
+	static final int DEFAULT_CACHED_PAGES = 10;
+	
+	/** query the records overlapping a region */
+	@FunctionalInterface
+	interface RegionQuery<T> {
+		CloseableIterator<T> query(String contig,int start,int end) throws IOException;
+		}
+	
+	/** where a page starts */
+	private static class Checkpoint {
+		final int start;
+		final int skip;
+		Checkpoint(final int start,final int skip) {
+			this.start = start;
+			this.skip = skip;
+			}
+		}
+	
+	private final Interval interval;
+	private final RegionQuery<T> regionQuery;
+	private final Callable<CloseableIterator<T>> firstQuery;
+	private final Function<T,T> mapper;
+	private final int maxRecords;
+	private final ExecutorService executorService;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	private int maxCachedPages = DEFAULT_CACHED_PAGES;
+	/* all the following are guarded by 'this' */
+	private final List<Checkpoint> checkpoints = new ArrayList<>();
+	private final Map<Integer,List<T>> pageCache = new LinkedHashMap<>(16,0.75f,true);
+	private final Set<Integer> prefetching = new HashSet<>();
+	private int publishedPages = 0;
+	private int size = 0;
+	/* pages used by the last call of getOverlapping. They're never removed from the cache */
+	private int pinnedFirstPage = -1;
+	private int pinnedLastPage = -2;
+	
+	private volatile IntConsumer pageListener = null;
+	private volatile T firstRecord = null;
+	private volatile T lastRecord = null;
+	private volatile int maxRecordLength = 1;
+	private volatile boolean done = false;
+	private volatile boolean cancelled = false;
+	private volatile Throwable error = null;
+	
+	private PagedRecordLoader(
+			final Interval interval,
+			final RegionQuery<T> regionQuery,
+			final Callable<CloseableIterator<T>> firstQuery,
+			final Function<T,T> mapper,
+			final int maxRecords,
+			final ExecutorService executorService
+			) {
+		this.interval = interval;
+		this.regionQuery = regionQuery;
+		this.firstQuery = firstQuery;
+		this.mapper = mapper;
+		this.maxRecords = maxRecords;
+		this.executorService = executorService;
+		}
+	
+	/** loader for the records overlapping a region. Those records can be re-read using the index.
+	 * 'firstPass' is used once by the background scan, 'regionQuery' is used to reload the pages */
+	static <T extends Locatable> PagedRecordLoader<T> forRegion(
+			final Interval interval,
+			final RegionQuery<T> firstPass,
+			final RegionQuery<T> regionQuery,
+			final Function<T,T> mapper,
+			final ExecutorService executorService
+			) {
+		return new PagedRecordLoader<>(interval, regionQuery,
+			()->firstPass.query(interval.getContig(), interval.getStart(), interval.getEnd()),
+			mapper, Integer.MAX_VALUE, executorService);
+		}
+	
+	/** loader for the first 'maxRecords' records of an iterator. All the records are kept in memory */
+	static <T extends Locatable> PagedRecordLoader<T> forIterator(
+			final Callable<CloseableIterator<T>> query,
+			final Function<T,T> mapper,
+			final int maxRecords,
+			final ExecutorService executorService
+			) {
+		return new PagedRecordLoader<>(null, null, query, mapper, maxRecords, executorService);
+		}
+	
+	PagedRecordLoader<T> setPageSize(final int pageSize) {
+		this.pageSize = Math.max(1, pageSize);
+		return this;
+		}
+	
+	PagedRecordLoader<T> setMaxCachedPages(final int maxCachedPages) {
+		this.maxCachedPages = Math.max(1, maxCachedPages);
+		return this;
+		}
+	
+	/** 'listener' is called in a background thread with the index of a page loaded by
+	 * getIfLoaded, getOverlapping or a prefetch */
+	PagedRecordLoader<T> setPageListener(final IntConsumer listener) {
+		this.pageListener = listener;
+		return this;
+		}
+	
+	int getPageSize() {
+		return this.pageSize;
+		}
+	/** the region or null if the records cannot be queried by position */
+	Interval getInterval() {
+		return this.interval;
+		}
+	
+	/** number of records loaded so far */
+	synchronized int size() {
+		return this.size;
+		}
+	
+	boolean isDone() {
+		return this.done;
+		}
+	
+	boolean isCancelled() {
+		return this.cancelled;
+		}
+	
+	/** the first record loaded by the first pass, or null */
+	T getFirstRecord() {
+		return this.firstRecord;
+		}
+	
+	/** the last record loaded so far by the first pass, or null */
+	T getLastRecord() {
+		return this.lastRecord;
+		}
+	
+	/** the exception that stopped the first pass, or null */
+	Throwable getError() {
+		return this.error;
+		}
+	
+	/** stop the first pass and the pending prefetches */
+	void cancel() {
+		this.cancelled = true;
+		}
+	
+	private T map(final T rec) {
+		if(this.mapper==null) return rec;
+		synchronized (this.mapper) {
+			return this.mapper.apply(rec);
+			}
+		}
+	
+	/** start the first pass in the background. 'onPage' is called in the background thread for each new page,
+	 * 'onDone' is called at the end, even if an error occured, but not if the loader was cancelled */
+	Future<?> start(final Consumer<List<T>> onPage,final Runnable onDone) {
+		return this.executorService.submit(()->{
+			scan(onPage);
+			if(!this.cancelled && onDone!=null) onDone.run();
+			});
+		}
+	
+	/** run the first pass in the current thread */
+	void scan(final Consumer<List<T>> onPage) {
+		try(CloseableIterator<T> iter = this.firstQuery.call()) {
+			List<T> page = new ArrayList<>(this.pageSize);
+			int count_read = 0;
+			int lastStart = -1;
+			int sameStart = 0;
+			while(iter.hasNext() && !this.cancelled) {
+				if(count_read >= this.maxRecords) break;
+				T rec = iter.next();
+				++count_read;
+				rec = map(rec);
+				if(rec==null) continue;
+				final int start = rec.getStart();
+				if(start != lastStart) {
+					lastStart = start;
+					sameStart = 0;
+					}
+				if(page.isEmpty()) {
+					synchronized (this) {
+						this.checkpoints.add(new Checkpoint(start, sameStart));
+						}
+					}
+				sameStart++;
+				final int len = rec.getEnd() - rec.getStart() + 1;
+				if(len > this.maxRecordLength) this.maxRecordLength = len;
+				if(this.firstRecord==null) this.firstRecord = rec;
+				this.lastRecord = rec;
+				page.add(rec);
+				if(page.size()==this.pageSize) {
+					publish(page, onPage);
+					page = new ArrayList<>(this.pageSize);
+					}
+				}
+			if(!page.isEmpty() && !this.cancelled) publish(page, onPage);
+			}
+		catch(final Throwable err) {
+			LOG.warning(err);
+			this.error = err;
+			}
+		finally
+			{
+			this.done = true;
+			}
+		}
+	
+	private void publish(final List<T> page,final Consumer<List<T>> onPage) {
+		synchronized (this) {
+			final int pageIndex = this.publishedPages;
+			if(this.regionQuery==null || pageIndex < this.maxCachedPages) {
+				this.pageCache.put(pageIndex, page);
+				}
+			this.publishedPages++;
+			this.size += page.size();
+			}
+		if(onPage!=null) onPage.accept(Collections.unmodifiableList(page));
+		}
+	
+	/** get the i-th record, loading its page in the current thread if needed, and prefetch the pages around it.
+	 * Must not be called from the FX thread */
+	T get(final int index) throws IOException {
+		final int pageIndex = index / this.pageSize;
+		final List<T> page = getPage(pageIndex);
+		prefetch(pageIndex + 1);
+		prefetch(pageIndex - 1);
+		return page.get(index % this.pageSize);
+		}
+	
+	/** get the i-th record if its page is in memory. Otherwise, return null and load the page in the background:
+	 * the page listener will be called when it's ready */
+	T getIfLoaded(final int index) {
+		final int pageIndex = index / this.pageSize;
+		final List<T> page;
+		synchronized (this) {
+			if(pageIndex<0 || pageIndex >= this.publishedPages) throw new IndexOutOfBoundsException("page "+pageIndex+"/"+this.publishedPages);
+			page = this.pageCache.get(pageIndex);
+			}
+		if(page==null) prefetch(pageIndex);
+		prefetch(pageIndex + 1);
+		prefetch(pageIndex - 1);
+		return page==null ? null : page.get(index % this.pageSize);
+		}
+	private List<T> getPage(final int pageIndex) throws IOException {
+		final Checkpoint checkpoint;
+		final int expectSize;
+		synchronized (this) {
+			if(pageIndex<0 || pageIndex >= this.publishedPages) throw new IndexOutOfBoundsException("page "+pageIndex+"/"+this.publishedPages);
+			final List<T> page = this.pageCache.get(pageIndex);
+			if(page!=null) return page;
+			if(this.regionQuery==null) throw new IllegalStateException("page "+pageIndex+" is not in memory");
+			checkpoint = this.checkpoints.get(pageIndex);
+			expectSize = Math.min(this.pageSize, this.size - pageIndex*this.pageSize);
+			}
+		final List<T> page;
+		synchronized (this.regionQuery) {
+			page = readPage(checkpoint, expectSize);
+			}
+		synchronized (this) {
+			this.pageCache.put(pageIndex, page);
+			final Iterator<Integer> iter = this.pageCache.keySet().iterator();
+			while(this.pageCache.size() > this.maxCachedPages && iter.hasNext()) {
+				final int i = iter.next();
+				if(i>=this.pinnedFirstPage && i<=this.pinnedLastPage) continue;
+				iter.remove();
+				}
+			}
+		return page;
+		}
+	/** decode a page again, starting from its checkpoint */
+	private List<T> readPage(final Checkpoint checkpoint,final int expectSize) throws IOException {
+		final List<T> page = new ArrayList<>(expectSize);
+		int skip = checkpoint.skip;
+		// records starting before the region were returned by the first query, don't re-query before the region
+		final int queryStart = Math.max(checkpoint.start, this.interval.getStart());
+		try(CloseableIterator<T> iter = this.regionQuery.query(this.interval.getContig(), queryStart, this.interval.getEnd())) {
+			while(iter.hasNext() && page.size() < expectSize) {
+				T rec = iter.next();
+				if(rec.getStart() < checkpoint.start) continue;
+				rec = map(rec);
+				if(rec==null) continue;
+				if(skip>0 && rec.getStart()==checkpoint.start) {
+					--skip;
+					continue;
+					}
+				page.add(rec);
+				}
+			}
+		if(page.size()!=expectSize) {
+			throw new IOException("Cannot reload page from "+this.interval.getContig()+":"+checkpoint.start+" (expected "+expectSize+" records but got "+page.size()+")");
+			}
+		return page;
+		}
+	
+	/** load the page in the background if it isn't in memory */
+	private void prefetch(final int pageIndex) {
+		if(this.regionQuery==null || this.cancelled) return;
+		synchronized (this) {
+			if(pageIndex<0 || pageIndex >= this.publishedPages) return;
+			if(this.pageCache.containsKey(pageIndex)) return;
+			if(!this.prefetching.add(pageIndex)) return;
+			}
+		this.executorService.submit(()->{
+			try {
+				if(!this.cancelled) {
+					getPage(pageIndex);
+					final IntConsumer listener = this.pageListener;
+					if(listener!=null && !this.cancelled) listener.accept(pageIndex);
+					}
+				}
+			catch(final Throwable err) {
+				LOG.warning(err);
+				}
+			finally
+				{
+				synchronized (this) {
+					this.prefetching.remove(pageIndex);
+					}
+				}
+			});
+		}
+	
+	/** get the records on 'contig' starting before 'end' and that may overlap 'start'. Only the pages in memory are used:
+	 * the missing pages are loaded in the background (see the page listener) and, until the next call, the pages of
+	 * this range are not removed from the cache */
+	List<T> getOverlapping(final String contig,final int start,final int end) {
+		final List<T> L = new ArrayList<>();
+		if(this.regionQuery==null) {
+			final List<List<T>> pages = new ArrayList<>();
+			synchronized (this) {
+				for(int i=0;i< this.publishedPages;i++) pages.add(this.pageCache.get(i));
+				}
+			for(final List<T> page: pages) {
+				for(final T rec: page) {
+					if(!rec.getContig().equals(contig) || rec.getStart() > end) continue;
+					L.add(rec);
+					}
+				}
+			return L;
+			}
+		if(!this.interval.getContig().equals(contig)) return L;
+		final int minStart = start - this.maxRecordLength;
+		final List<List<T>> pages = new ArrayList<>();
+		final List<Integer> missing = new ArrayList<>();
+		synchronized (this) {
+			int firstPage = 0;
+			int lastPage = -1;
+			for(int i=0;i< this.publishedPages;i++) {
+				final Checkpoint cp = this.checkpoints.get(i);
+				if(cp.start < minStart) firstPage = i;
+				if(cp.start <= end) lastPage = i;
+				}
+			this.pinnedFirstPage = firstPage;
+			this.pinnedLastPage = lastPage;
+			for(int i=firstPage;i<=lastPage;i++) {
+				final List<T> page = this.pageCache.get(i);
+				if(page==null) {
+					missing.add(i);
+					}
+				else
+					{
+					pages.add(page);
+					}
+				}
+			}
+		for(final int i: missing) prefetch(i);
+		for(final List<T> page: pages) {
+			for(final T rec: page) {
+				if(rec.getStart() > end) break;
+				if(rec.getStart() < minStart) continue;
+				L.add(rec);
+				}
+			}
+		return L;
+		}
+	}
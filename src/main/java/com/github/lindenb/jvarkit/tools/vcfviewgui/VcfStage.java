@@ -64,6 +64,7 @@ import com.github.lindenb.jvarkit.util.vcf.predictions.VepPredictionParserFactor
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.DelegatingIterator;
 import htsjdk.samtools.util.Interval;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
@@ -80,6 +81,7 @@ import htsjdk.variant.vcf.VCFFormatHeaderLine;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
+import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -563,6 +565,8 @@ public class VcfStage extends NgsStage<VCFHeader,VariantContext> {
 		
 		/* build variant table */
 		this.variantTable = this.buildVariantTable();
+		/* the variants are loaded by pages, they cannot be sorted in the table */
+		this.variantTable.setSortPolicy(T->false);
 		split1.getItems().add(this.variantTable);
 		
 		/* build genotype table */
@@ -748,7 +752,7 @@ public class VcfStage extends NgsStage<VCFHeader,VariantContext> {
         		);
         
         /* fill stats menu */
-        final Supplier<List<VariantContext>> variantsProvider=()->this.variantTable.getItems();
+        final Supplier<List<VariantContext>> variantsProvider=()->getAllItems(this.variantTable);
         
         for(final Supplier<ChartFactory<VCFHeader,VariantContext>> supplier: VARIANT_CHART_FACTORIES)
 	        {
@@ -1367,37 +1371,19 @@ public class VcfStage extends NgsStage<VCFHeader,VariantContext> {
     void reloadData()
 		{
 		updateStatusBar(AlertType.NONE,"");
-    	final int max_items= super.maxItemsLimitSpinner.getValue();
-    	final List<VariantContext> L= new ArrayList<>(max_items);
     	final String location = this.gotoField.getText().trim();
-    	final CloseableIterator<VariantContext> iter;
+    	final NgsQuery<VCFHeader,VariantContext> wholeFileQuery;
+    	Interval interval=null;
     	
-    	try {
-	    	if(location.isEmpty())
-	    		{
-	    		iter = this.getVcfFile().iterator();
-	    		}
-	    	else
-	    		{
-	    		final Interval interval=this.parseInterval(location);
-	    		if(interval==null)
-	    			{
-	    			iter=null;
-	    			}
-	    		else
-	    			{
-					iter= this.getVcfFile().iterator(
-							interval.getContig(),
-							interval.getStart(),
-							interval.getEnd()
-							);
-	    			}
-	    		}
+    	if(location.isEmpty())
+    		{
+    		wholeFileQuery = F->F.iterator();
     		}
-    	catch(final IOException err)
+    	else
     		{
-    		JfxNgs.showExceptionDialog(this, err);
-    		return;
+    		interval=this.parseInterval(location);
+    		/* used if the location is not valid: nothing to display */
+    		wholeFileQuery = F->new DelegatingIterator<>(Collections.emptyIterator());
     		}
     	VcfJavascripFilter javascripFilter=null;
     	if(this.owner.javascriptCompiler.isPresent() &&
@@ -1417,38 +1403,75 @@ public class VcfStage extends NgsStage<VCFHeader,VariantContext> {
     			LOG.warning(err.getMessage());
     			}
     		}
-    	int count_items=0;
-    	while(iter!=null && iter.hasNext() && count_items<max_items)
+    	final VcfJavascripFilter jsFilter = javascripFilter;
+    	final Function<VariantContext,VariantContext> mapper = (jsFilter==null?null:V->{
+    		/* stop the loader at the first javascript error */
+    		if(jsFilter.encounteredException.isPresent()) throw new IllegalStateException(jsFilter.encounteredException.get());
+    		return jsFilter.eval(V);
+    		});
+    	
+    	final PagedRecordLoader<VariantContext> loader;
+    	try {
+    		loader = createRecordLoader(interval, wholeFileQuery, mapper);
+    		}
+    	catch(final IOException err)
     		{
-    		VariantContext rec = iter.next();
-    		++count_items;
-    		if(javascripFilter!=null)
-    			{
-    			if(javascripFilter.encounteredException.isPresent()) break;
-    			rec= javascripFilter.eval(rec);
-    			if(rec==null) continue;
-    			}
-    		L.add(rec);
+    		JfxNgs.showExceptionDialog(this, err);
+    		return;
     		}
-    	if(iter!=null) iter.close();
-    	this.variantTable.getItems().setAll(L);
+    	final PagedObservableList<VariantContext> pagedList = new PagedObservableList<>(loader);
+    	this.variantTable.setItems(pagedList);
+    	
+    	/* a page that was not in memory has been loaded for the table */
+    	loader.setPageListener(P->Platform.runLater(()->{
+    		if(getRecordLoader()!=loader) return;
+    		this.variantTable.refresh();
+    		paintDrawingArea();
+    		}));
+    	
+    	/* variants are loaded in the background, the table is updated after each page */
+    	loader.start(
+    		page->Platform.runLater(()->{
+				if(getRecordLoader()!=loader) return;
+				pagedList.refreshSize();
+				updateStatusBar(AlertType.NONE,"Loading... N="+pagedList.size());
+				}),
+    		()->Platform.runLater(()->{
+    			if(getRecordLoader()!=loader) return;
+    			pagedList.refreshSize();
+    			onVariantsLoaded(loader,jsFilter);
+    			})
+    		);
+    	}
+	
+	/** called in the FX thread when all the variants have been loaded */
+	private void onVariantsLoaded(final PagedRecordLoader<VariantContext> loader,final VcfJavascripFilter javascripFilter)
+		{
     	if(javascripFilter!=null && javascripFilter.encounteredException.isPresent())
     		{
     		JfxNgs.showExceptionDialog(this, javascripFilter.encounteredException.get());
     		}
+    	else if(loader.getError()!=null)
+    		{
+    		updateStatusBar(AlertType.ERROR, loader.getError());
+    		}
+    	else if(loader.size()>0)
+    		{
+    		updateStatusBar(AlertType.NONE,"N="+loader.size());
+    		}
     	
-    	
-    	if(!this.variantTable.getItems().isEmpty())
+    	if(loader.getFirstRecord()!=null)
 			{
-    		int last_index=this.variantTable.getItems().size()-1;
+    		/* the first and last variants are kept by the loader: their pages may not be in memory */
+    		final VariantContext first = loader.getFirstRecord();
+    		final VariantContext last = loader.getLastRecord();
 			super.seqDictionaryCanvas.setItemsInterval(
-					new ContigPos(this.variantTable.getItems().get(0).getContig(), this.variantTable.getItems().get(0).getStart()),
-					new ContigPos(this.variantTable.getItems().get(last_index).getContig(), this.variantTable.getItems().get(last_index).getEnd())
+					new ContigPos(first.getContig(), first.getStart()),
+					new ContigPos(last.getContig(), last.getEnd())
 					);
-			if(this.variantTable.getItems().get(0).getContig().equals(
-				this.variantTable.getItems().get(last_index).getContig()))
+			if(first.getContig().equals(last.getContig()))
 				{
-				this.gotoField.setText(this.variantTable.getItems().get(0).getContig()+":"+this.variantTable.getItems().get(0).getStart()+"-"+this.variantTable.getItems().get(last_index).getEnd());
+				this.gotoField.setText(first.getContig()+":"+first.getStart()+"-"+last.getEnd());
 				}
 			
 			}
@@ -1659,7 +1682,7 @@ public class VcfStage extends NgsStage<VCFHeader,VariantContext> {
     	gc.setGlobalAlpha(1.0);
     	gc.setFill(Color.WHITE);
     	gc.fillRect(0, 0, canvaswidth, canvasheight);
-		if(this.variantTable.getItems().isEmpty()) return;
+		if(this.variantTable.getItems().isEmpty() || getRecordLoader()==null) return;
 		
 		gc.setFill(Color.BLACK);
 		final int MAX_VARIANTS=(int)(canvaswidth/4.0);
@@ -1690,13 +1713,13 @@ public class VcfStage extends NgsStage<VCFHeader,VariantContext> {
 			Long maxGenomicIndex;
 		
 				{
-				final VariantContext ctx = this.variantTable.getItems().get(0);
+				final VariantContext ctx = getRecordLoader().getFirstRecord();
 				minGenomicIndex = convertContigPosToGenomicIndex(ctx.getContig(), ctx.getStart());
 				maxGenomicIndex = minGenomicIndex;
 				}
 		
 				{
-				final VariantContext ctx = this.variantTable.getItems().get(this.variantTable.getItems().size()-1);
+				final VariantContext ctx = getRecordLoader().getLastRecord();
 				maxGenomicIndex = convertContigPosToGenomicIndex(ctx.getContig(), ctx.getEnd());
 				}
 			if(minGenomicIndex==null || maxGenomicIndex==null) return;
@@ -1735,7 +1758,8 @@ public class VcfStage extends NgsStage<VCFHeader,VariantContext> {
 		for(int idx= 0;idx < this.variantTable.getItems().size(); ++idx )
 			{
 			final VariantContext ctx = this.variantTable.getItems().get(idx);
-			
+			/* page being loaded: the canvas is repainted when it's ready */
+			if(ctx==null) continue;
 			if(!ctx.getContig().equals(prev_chr)) {
 				prev_chr=ctx.getContig();
 				fill_current =(fill_current==fill_chr1?fill_chr2:fill_chr1); 
@@ -1791,7 +1815,7 @@ public class VcfStage extends NgsStage<VCFHeader,VariantContext> {
     		for(int idx=0;idx < this.variantTable.getItems().size();++idx)
     			{
     			final VariantContext ctx= this.variantTable.getItems().get(idx);
-    			
+    			if(ctx==null) continue;
     			double x0;
     			if(convertListIndexToPixel==null)
     				{
@@ -81,6 +81,29 @@ BEGIN_DOC
 }
 
 ```
+
+## Load-balanced shards
+
+By default, the variants are called on the GRCh37 regions between the gaps, some jobs are much longer than others.
+When `"shards.count"` is greater than 0, the genome is cut into N shards of roughly equal expected cost:
+
+  * the regions between the runs of N of `"shards.reference"` (or the GRCh37 gaps) are cut into windows of `"shards.window"` bases.
+  * the cost of a window is the number of bytes the BAM index(es) of the provided `"bam"` point to, or the number of bases of the capture, or the length of the window.
+  * the windows are walked in the genomic order and a shard is closed each time it has received 1/N of the total cost.
+
+The plan is written in `${OUT}/BED/(prefix)shards.bed` (contig/start/end/shard) and the callers and annotators run one job per shard.
+
+```
+{
+"name":"TSV",
+"output.directory":"/path/toTSV",
+"shards.count":"200",
+"samples":[
+{"name":"S1","bam":"S1.reliable.realign.bam"}
+]
+}
+```
+
 END_DOC
 
 */
@@ -93,7 +116,7 @@ public class NgsWorkflow extends Launcher
 	{
 	private static final Logger LOG =Logger.build(NgsWorkflow.class).make();
 	
-	private enum RefSplitType {WHOLE_GENOME,WHOLE_CONTIG,INTERVAL};
+	private enum RefSplitType {WHOLE_GENOME,WHOLE_CONTIG,INTERVAL,SHARD};
 	
 	@Parameter(names={"-A","--attributes"},description="Dump available attributes and exit")
 	private boolean dumpAttributes = false;
@@ -137,7 +160,16 @@ public class NgsWorkflow extends Launcher
 		@Override RefSplitType getType() { return RefSplitType.INTERVAL;}
 		@Override String getToken() { return "."+getInterval().getContig()+"_"+getInterval().getStart()+"_"+getInterval().getEnd();}
 		}
-		
+	
+	/** a load-balanced shard, its intervals are the lines of the shards BED with the same name */
+	private class ShardSplit extends RefSplit
+		{
+		final String name;
+		ShardSplit(final String name) {this.name=name;}
+		public String getName() {return name;}
+		@Override RefSplitType getType() { return RefSplitType.SHARD;}
+		@Override String getToken() { return "."+getName();}
+		}
 	private static interface PropertyKey
 		{
 		public String getKey();
@@ -282,8 +314,22 @@ public class NgsWorkflow extends Launcher
 			description("Use Lumpy Express").
 			def("false").
 			build();
-
-	
+	private static final PropertyKey PROP_SHARDS_COUNT = key("shards.count").
+			description("Number of load-balanced shards used by the variant callers and annotators. 0: split the genome on the GRCh37 gaps.").
+			def("0").
+			build();
+	private static final PropertyKey PROP_SHARDS_WINDOW = key("shards.window").
+			description("Size of the windows used to estimate the cost of the shards.").
+			def("1000000").
+			build();
+	private static final PropertyKey PROP_SHARDS_REFERENCE = key("shards.reference").
+			description("Reference scanned for the runs of N that should not be called. Empty: GRCh37 gaps.").
+			def("").
+			build();
+	private static final PropertyKey PROP_SHARDS_MIN_GAP = key("shards.min.gap").
+			description("Min length of a run of N in 'shards.reference' to be excluded from the shards.").
+			def("1000").
+			build();
 	private RefSplit parseRefSplitFromStr(final String s)
 		{
 		int colon= s.indexOf(":");
@@ -499,6 +545,7 @@ public class NgsWorkflow extends Launcher
 		private final Optional<Capture> capture;
 		private final Pedigree pedigree;
 		private final Set<String> vcfToReannotate;
+		private final List<ShardPlanner.Shard> shards;
 		
 		Project(final JsonElement root) throws IOException
 			{
@@ -575,8 +622,59 @@ public class NgsWorkflow extends Launcher
 				{
 				LOG.warn("No 'samples' under project");
 				}
+			
+			final int nShards = Integer.parseInt(getAttribute(PROP_SHARDS_COUNT));
+			if(nShards>0 && !NgsWorkflow.this.reannotatevcfs)
+				{
+				this.shards = planShards(nShards);
+				}
+			else
+				{
+				this.shards = Collections.emptyList();
+				}
 			}
 		
+		/** split the genome into load-balanced shards using the indexes of the BAMs or the capture */
+		private List<ShardPlanner.Shard> planShards(final int nShards) throws IOException
+			{
+			final List<Interval> callable;
+			final String ref = getAttribute(PROP_SHARDS_REFERENCE);
+			if(!ref.isEmpty())
+				{
+				callable = ShardPlanner.callableRegions(new File(ref),Integer.parseInt(getAttribute(PROP_SHARDS_MIN_GAP)));
+				}
+			else
+				{
+				callable = getIntervalSplitListGapForGrch37().stream().
+						map(S->S.getInterval()).
+						collect(Collectors.toList());
+				}
+			final ShardPlanner planner = new ShardPlanner(callable, Integer.parseInt(getAttribute(PROP_SHARDS_WINDOW)));
+			for(final Sample sample:getSamples())
+				{
+				if(!sample.isBamAlreadyProvided()) continue;
+				final File bam = new File(sample.getFinalBam());
+				if(!bam.exists() || !planner.addBam(bam))
+					{
+					LOG.warn("Cannot use the index of "+bam+" to plan the shards");
+					}
+				}
+			if(hasCapture() && new File(getCapture().getBedFilename()).exists())
+				{
+				planner.addTargets(Files.readAllLines(Paths.get(getCapture().getBedFilename())).stream().
+					filter(L->!L.startsWith("browser")).
+					filter(L->!L.startsWith("track")).
+					filter(L->!L.startsWith("#")).
+					filter(L->!L.trim().isEmpty()).
+					map(L->L.split("[\t]")).
+					map(T->new Interval(T[0],1+Integer.parseInt(T[1]),Integer.parseInt(T[2]))).
+					collect(Collectors.toList())
+					);
+				}
+			final List<ShardPlanner.Shard> L = planner.plan(nShards);
+			LOG.info("Planned "+L.size()+" shards");
+			return L;
+			}
 		public String getName() {
 			return name;
 			}
@@ -606,8 +704,34 @@ public class NgsWorkflow extends Launcher
 			return "${OUT}/VCF";
 			}
 		
-
+		boolean isSharded() {
+			return !this.shards.isEmpty();
+			}
+		
+		/** BED file: contig/start/end/name of the load-balanced shards */
+		public  String getShardsBed() {
+			return getBedDirectory()+"/"+getFilePrefix()+"shards.bed";
+			}
+		
+		public List<RefSplit> getShardSplits() {
+			return this.shards.stream().
+				map(S->new ShardSplit(S.getName())).
+				collect(Collectors.toList());
+			}
 		
+		void buildShardsBed(final PrintWriter w)
+			{
+			if(!isSharded()) return;
+			final StringWriter sw = new StringWriter();
+			ShardPlanner.writeBed(this.shards, new PrintWriter(sw));
+			w.println(getShardsBed()+":");
+			w.println(rulePrefix()+" && rm --verbose -f $@ $(addsuffix .tmp.bed,$@)");
+			for(final String line:sw.toString().split("\n"))
+				{
+				w.println("\techo '"+line+"' >> $(addsuffix .tmp.bed,$@)");
+				}
+			w.println("\tmv  --verbose $(addsuffix .tmp.bed,$@) $@");
+			}
 		boolean hasCapture()
 			{
 			return this.capture.isPresent();
@@ -668,6 +792,7 @@ public class NgsWorkflow extends Launcher
 			}
 		
 		public List<RefSplit> getSamtoolsCallerSplits() {
+			if(isSharded()) return getShardSplits();
 			return getHaplotypeCallerSplits();
 			}
 		
@@ -700,11 +825,61 @@ public class NgsWorkflow extends Launcher
 		}
 		
 		public void annotateVariants(PrintWriter out) {
+			if(isSharded())
+				{
+				/* annotate the VCF of each shard, then merge */
+				final List<String> vcfParts=new ArrayList<>();
+				for(final RefSplit split:getShardSplits())
+					{
+					final String vcfPart = "$(addsuffix "+split.getToken()+".vcf.gz,"+this.getHapCallerAnnotationVcf()+")";
+					new VariantAnnotator(vcfPart,"$(addsuffix "+split.getToken()+".vcf.gz,"+this.getHapCallerGenotypedVcf()+")").
+						setPedigree( getPedigree().getPedFilename()).
+						print(out);
+					vcfParts.add(vcfPart);
+					}
+				combineVariants(out,this.getHapCallerAnnotationVcf(),vcfParts);
+				return;
+				}
 			new VariantAnnotator(this.getHapCallerAnnotationVcf(),this.getHapCallerGenotypedVcf()).
 				setPedigree( getPedigree().getPedFilename()).
 				print(out);
 		}
 		
+		/** merge the VCFs of the splits with GATK CombineVariants */
+		void combineVariants(final PrintWriter w,final String target,final List<String> vcfParts) {
+			w.append(target).append(":");
+			for(final String vcfPart:vcfParts) {
+				w.append(" \\\n\t").append(vcfPart);
+				}
+			w.append("\n");
+			w.append(rulePrefix()+" && rm -f $(addsuffix .list,$@) ");
+			int vcfn=0;
+			for(final String vcfPart:vcfParts) {
+				if(vcfn%30==0)
+					{
+					w.append("\n\t");
+					}
+				else
+					{
+					w.append(" && ");
+					}
+				w.append("echo '");
+				w.append(vcfPart);
+				w.append("' >>  $(addsuffix .list,$@) ");
+				vcfn++;
+				}
+			
+			w.append("\n\t${java.exe}   -Djava.io.tmpdir=$(dir $@)  -jar ${gatk.jar}  -T CombineVariants -R $(REF) "
+					+ " -o $(addsuffix .tmp.vcf.gz,$@) -genotypeMergeOptions UNSORTED "
+					+" --variant  $(addsuffix .list,$@) "
+					);
+			
+			w.append(" && rm --verbose $(addsuffix .list,$@)");
+			w.append(" && mv --verbose \"$(addsuffix .tmp.vcf.gz,$@)\" \"$@\" ");
+			w.append(" && mv --verbose \"$(addsuffix .tmp.vcf.gz.tbi,$@)\" \"$(addsuffix .tbi,$@)\" ");
+			w.append("\n");
+			}
+		
 		void reannoteVcfs(PrintWriter out) {
 			if(!NgsWorkflow.this.reannotatevcfs) throw new IllegalStateException();
 			for(final String invcf: this.vcfToReannotate)
@@ -962,10 +1137,24 @@ public class NgsWorkflow extends Launcher
 		            	{
 						w.append(" ").append(getCapture().getExtendedFilename());
 		            	}
+					if( split.getType()==RefSplitType.SHARD)
+						{
+						w.append(" ").append(getShardsBed());
+						}
 					w.append("\n");
 					w.append(rulePrefix()+" && ");
 					
-					if( getProject().hasCapture())
+					if( split.getType()==RefSplitType.SHARD)
+						{
+						final ShardSplit tmp= ShardSplit.class.cast(split);
+						w.append(" awk -F '\t' '($$4==\""+tmp.getName()+"\")' "+getShardsBed()+" | cut -f 1-3 | ");
+						if( getProject().hasCapture())
+							{
+							w.append(" ${bedtools.exe} intersect -a ").append(getCapture().getExtendedFilename()).append(" -b - | ");
+							}
+						w.append(" awk -F '\t' 'BEGIN{N=0;}{print;N++;}END{if(N==0) printf(\""+getNoResultContig()+"\\t0\\t1\\n\");}' > $(addsuffix .bed,$@) && ");
+						}
+					else if( getProject().hasCapture())
 		            	{
 						switch(split.getType())
 							{
@@ -992,45 +1181,14 @@ public class NgsWorkflow extends Launcher
 					w.append(" && mv --verbose \"$(addsuffix .tmp.vcf.gz,$@)\" \"$@\" ");
 					w.append(" && mv --verbose \"$(addsuffix .tmp.vcf.gz.tbi,$@)\" \"$(addsuffix .tbi,$@)\" ");
 					
-					if( getProject().hasCapture())
+					if( getProject().hasCapture() || split.getType()==RefSplitType.SHARD)
 		            	{
 						w.append(" && rm --verbose \"$(addsuffix .bed,$@)\" ");
 		            	}
 					w.append("\n");
 					}
-				
 				if(vcfParts.size()>1) {
-					w.append(getTargetVcfFilename()).append(":");
-					for(final String vcfPart:vcfParts) {
-						w.append(" \\\n\t").append(vcfPart);
-						}
-					w.append("\n");
-					w.append(rulePrefix()+" && rm -f $(addsuffix .list,$@) ");
-					int vcfn=0;
-					for(final String vcfPart:vcfParts) {
-						if(vcfn%30==0)
-							{
-							w.append("\n\t");
-							}
-						else
-							{
-							w.append(" && ");
-							}
-						w.append("echo '");
-						w.append(vcfPart);
-						w.append("' >>  $(addsuffix .list,$@) ");
-						vcfn++;
-						}
-					
-					w.append("\n\t${java.exe}   -Djava.io.tmpdir=$(dir $@)  -jar ${gatk.jar}  -T CombineVariants -R $(REF) "
-							+ " -o $(addsuffix .tmp.vcf.gz,$@) -genotypeMergeOptions UNSORTED "
-							+" --variant  $(addsuffix .list,$@) "
-							);
-					
-					w.append(" && rm --verbose $(addsuffix .list,$@)");
-					w.append(" && mv --verbose \"$(addsuffix .tmp.vcf.gz,$@)\" \"$@\" ");
-					w.append(" && mv --verbose \"$(addsuffix .tmp.vcf.gz.tbi,$@)\" \"$(addsuffix .tbi,$@)\" ");
-					w.append("\n");
+					combineVariants(w,getTargetVcfFilename(),vcfParts);
 					}
 				}
 			}
@@ -1040,6 +1198,7 @@ public class NgsWorkflow extends Launcher
 		{	
 		@Override
 		List<? extends RefSplit> getCallSplits() {
+			if(getProject().isSharded()) return getProject().getShardSplits();
 			return getIntervalSplitListGapForGrch37();
 			}
 		@Override String getTargetVcfFilename() { return  getProject().getHapCallerGenotypedVcf();}
@@ -1064,6 +1223,7 @@ public class NgsWorkflow extends Launcher
 				switch(split.getType())
 					{
 					case WHOLE_GENOME: 	w.append(" -L:"+getProject().getCapture().getName()+",BED "+getCapture().getExtendedFilename());
+					case SHARD: //through...
 					case INTERVAL: //through...
 					case WHOLE_CONTIG: w.append(" -L:BED \"$(addsuffix .bed,$@)\" ");break;
 					default: throw new IllegalStateException();
@@ -1080,11 +1240,11 @@ public class NgsWorkflow extends Launcher
 						break;
 						}
 					case WHOLE_CONTIG: w.append(" -L ").append(ContigSplit.class.cast(split).getContig());break;
+					case SHARD: w.append(" -L:BED \"$(addsuffix .bed,$@)\" ");break;
 					default: throw new IllegalStateException();
 					}					
 				}
 			}
-
 		}
 
 	private class SamtoolsCaller extends AbstractCaller
@@ -1105,6 +1265,7 @@ public class NgsWorkflow extends Launcher
 				switch(split.getType())
 					{
 					case WHOLE_GENOME: 	w.append(" --positions "+getCapture().getExtendedFilename());
+					case SHARD: //through...
 					case INTERVAL: //through...
 					case WHOLE_CONTIG: w.append(" --positions $(addsuffix .bed,$@) ");break;
 					default: throw new IllegalStateException();
@@ -1121,6 +1282,7 @@ public class NgsWorkflow extends Launcher
 						break;
 						}
 					case WHOLE_CONTIG: w.append(" --region ").append(ContigSplit.class.cast(split).getContig());break;
+					case SHARD: w.append(" --positions $(addsuffix .bed,$@) ");break;
 					default: throw new IllegalStateException();
 					}					
 				}
@@ -2016,6 +2178,7 @@ public class NgsWorkflow extends Launcher
 				project.getCapture().prepareCapture(out);
 				}
 			project.getPedigree().build(out);
+			project.buildShardsBed(out);
 			project.bamList(out);
 			project.callVariants(out);
 			project.annotateVariants(out);
@@ -0,0 +1,352 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.workflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Interval;
+
+/**
+ * Splits the callable part of the genome into N shards of roughly
+ * equal expected cost.
+ * 
+ * The callable regions are cut into fixed-size windows. The cost of a window is
+ * - the number of BGZF bytes the BAM indexes point to for this window, summed over all the indexed BAMs
+ * - or, if there is no BAM, the number of bases of the targets (capture) in this window
+ * - or, if there is no BAM and no target, the length of the window.
+ * 
+ * The windows are then walked in genomic order and a shard is closed
+ * each time it has received 1/N of the total cost. The last window of a shard
+ * is cut at the position where the budget is reached, assuming the cost
+ * is uniform inside the window.
+ */
+class ShardPlanner
+	{
+	/** the BGZF blocks are about 3 times smaller than the data they hold */
+	private static final double BGZF_RATIO = 3.0;
+	
+	private enum CostSource {BAM_INDEX,TARGETS,LENGTH};
+
+	/** one shard of the plan */
+	static class Shard
+		{
+		private final String name;
+		private final List<Interval> intervals = new ArrayList<>();
+		private double cost = 0.0;
+		Shard(final String name) {
+			this.name = name;
+			}
+		public String getName() {
+			return name;
+			}
+		public List<Interval> getIntervals() {
+			return Collections.unmodifiableList(this.intervals);
+			}
+		public double getCost() {
+			return cost;
+			}
+		/** add a region to this shard, extends the previous interval if they are adjacent */
+		private void add(final String contig,final int start,final int end,final double c)
+			{
+			this.cost += c;
+			if(!this.intervals.isEmpty())
+				{
+				final Interval last = this.intervals.get(this.intervals.size()-1);
+				if(last.getContig().equals(contig) && last.getEnd()+1==start)
+					{
+					this.intervals.set(this.intervals.size()-1, new Interval(contig,last.getStart(),end));
+					return;
+					}
+				}
+			this.intervals.add(new Interval(contig,start,end));
+			}
+		@Override
+		public String toString() {
+			return getName();
+			}
+		}
+	
+	private static class Window
+		{
+		final String contig;
+		final int start;
+		final int end;
+		double bamCost = 0.0;
+		double targetCost = 0.0;
+		Window(final String contig,final int start,final int end) {
+			this.contig = contig;
+			this.start = start;
+			this.end = end;
+			}
+		int length() {
+			return this.end - this.start + 1;
+			}
+		}
+	
+	private final List<Window> windows = new ArrayList<>();
+	private int bamCount = 0;
+	private int targetCount = 0;
+	
+	/**
+	 * @param callable the regions of the genome that can be called, in the genomic order.
+	 * @param windowSize size of the windows used to estimate the cost
+	 */
+	ShardPlanner(final List<Interval> callable,final int windowSize)
+		{
+		if(windowSize<1) throw new IllegalArgumentException("bad window size "+windowSize);
+		for(final Interval r: callable)
+			{
+			for(int start=r.getStart();start<=r.getEnd();start+=windowSize)
+				{
+				this.windows.add(new Window(r.getContig(), start, Math.min(r.getEnd(),start+windowSize-1)));
+				}
+			}
+		}
+	
+	/** remove the 'chr' prefix or add it if it is missing */
+	private static String toggleChr(final String contig) {
+		return contig.startsWith("chr")?contig.substring(3):"chr"+contig;
+		}
+	
+	/** estimate the number of bytes in a chunk of a BAM file */
+	private static double size(final Chunk chunk)
+		{
+		final long blocks = (chunk.getChunkEnd()>>>16) - (chunk.getChunkStart()>>>16);
+		if(blocks>0L) return blocks;
+		return Math.max(0L,(chunk.getChunkEnd() & 0xFFFFL) - (chunk.getChunkStart() & 0xFFFFL)) / BGZF_RATIO;
+		}
+	
+	/** add the cost of an indexed BAM file. Returns false if the BAM has no index */
+	boolean addBam(final File bamFile) throws IOException
+		{
+		final SamReader sr = SamReaderFactory.makeDefault().
+				validationStringency(ValidationStringency.SILENT).
+				open(bamFile);
+		try
+			{
+			if(!sr.hasIndex() || !sr.type().equals(SamReader.Type.BAM_TYPE)) return false;
+			final SAMSequenceDictionary dict = sr.getFileHeader().getSequenceDictionary();
+			final BAMIndex index = sr.indexing().getIndex();
+			for(final Window w:this.windows)
+				{
+				int tid = dict.getSequenceIndex(w.contig);
+				if(tid<0) tid = dict.getSequenceIndex(toggleChr(w.contig));
+				if(tid<0) continue;
+				final BAMFileSpan span = index.getSpanOverlapping(tid, w.start, w.end);
+				if(span==null) continue;
+				for(final Chunk chunk:span.getChunks())
+					{
+					w.bamCost += size(chunk);
+					}
+				}
+			this.bamCount++;
+			return true;
+			}
+		finally
+			{
+			CloserUtil.close(sr);
+			}
+		}
+	
+	/** add the density of some targets (e.g: a capture). The targets can overlap and can be unsorted */
+	void addTargets(final List<Interval> targets)
+		{
+		/* merge the targets on each contig */
+		final Map<String,List<Interval>> contig2targets = new HashMap<>();
+		for(final Interval t:targets.stream().
+				sorted((A,B)->Integer.compare(A.getStart(), B.getStart())).
+				collect(Collectors.toList()))
+			{
+			List<Interval> L = contig2targets.get(t.getContig());
+			if(L==null) {
+				L = new ArrayList<>();
+				contig2targets.put(t.getContig(), L);
+				}
+			final Interval last = L.isEmpty()?null:L.get(L.size()-1);
+			if(last!=null && t.getStart()<=last.getEnd()+1)
+				{
+				L.set(L.size()-1, new Interval(last.getContig(),last.getStart(),Math.max(last.getEnd(),t.getEnd())));
+				}
+			else
+				{
+				L.add(t);
+				}
+			}
+		for(final Window w:this.windows)
+			{
+			List<Interval> L = contig2targets.get(w.contig);
+			if(L==null) L = contig2targets.get(toggleChr(w.contig));
+			if(L==null) continue;
+			/* first target ending after the start of the window */
+			int lo=0,hi=L.size();
+			while(lo<hi) {
+				final int mid=(lo+hi)>>>1;
+				if(L.get(mid).getEnd() < w.start) lo=mid+1; else hi=mid;
+				}
+			for(int j=lo;j< L.size() && L.get(j).getStart()<=w.end;++j)
+				{
+				final Interval t = L.get(j);
+				w.targetCost += Math.min(w.end,t.getEnd()) - Math.max(w.start,t.getStart()) + 1;
+				}
+			}
+		this.targetCount++;
+		}
+	
+	/** cost of a window for the given source of costs */
+	private double cost(final Window w,final CostSource src) {
+		switch(src) {
+			case BAM_INDEX: return w.bamCost;
+			case TARGETS: return w.targetCost;
+			default: return w.length();
+			}
+		}
+	
+	/** cut the windows into 'count' shards */
+	List<Shard> plan(final int count)
+		{
+		if(count<1) throw new IllegalArgumentException("bad number of shards "+count);
+		/* a source without any cost is ignored */
+		final CostSource src;
+		if(this.bamCount>0 && this.windows.stream().anyMatch(W->W.bamCost>0.0)) src=CostSource.BAM_INDEX;
+		else if(this.targetCount>0 && this.windows.stream().anyMatch(W->W.targetCost>0.0)) src=CostSource.TARGETS;
+		else src=CostSource.LENGTH;
+		
+		final List<Shard> shards = new ArrayList<>(count);
+		double total=0.0;
+		for(final Window w:this.windows) total+=cost(w,src);
+		final double budget = total / count;
+		
+		Shard shard = null;
+		for(final Window w:this.windows)
+			{
+			int start = w.start;
+			double remain = cost(w,src);
+			for(;;)
+				{
+				if(shard==null)
+					{
+					shard = new Shard(String.format("shard%05d", shards.size()+1));
+					shards.add(shard);
+					}
+				/* last shard receives everything that is left */
+				if(shards.size()==count || shard.getCost()+remain < budget)
+					{
+					shard.add(w.contig, start, w.end, remain);
+					break;
+					}
+				/* how many bases can be added to this shard, a new shard receives at least one base */
+				final int len = w.end - start + 1;
+				int cut = (int)Math.round(len * ((budget - shard.getCost()) / remain));
+				if(shard.intervals.isEmpty()) cut=Math.max(1, cut);
+				cut = Math.min(len, cut);
+				final double c = (cut==len ? remain : remain*cut/len);
+				if(cut>0) shard.add(w.contig, start, start+cut-1, c);
+				remain -= c;
+				start += cut;
+				shard = null;
+				if(start> w.end) break;
+				}
+			}
+		return shards;
+		}
+
+	/** write the plan as a BED file: contig, 0-based start, end, name of the shard */
+	static void writeBed(final List<Shard> shards,final PrintWriter pw)
+		{
+		for(final Shard shard: shards)
+			{
+			for(final Interval r: shard.getIntervals())
+				{
+				pw.print(r.getContig());
+				pw.print('\t');
+				pw.print(r.getStart()-1);
+				pw.print('\t');
+				pw.print(r.getEnd());
+				pw.print('\t');
+				pw.print(shard.getName());
+				pw.println();
+				}
+			}
+		pw.flush();
+		}
+	
+	/** 
+	 * returns the regions of a reference between the runs of 'N' larger than 'minGap'
+	 * @param fasta the reference
+	 * @param minGap min length of a run of N to be considered as a gap
+	 */
+	static List<Interval> callableRegions(final File fasta,final int minGap) throws IOException
+		{
+		final List<Interval> L = new ArrayList<>();
+		final ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(fasta);
+		try
+			{
+			ReferenceSequence seq;
+			while((seq=ref.nextSequence())!=null)
+				{
+				final byte bases[] = seq.getBases();
+				int start=0;/* 0-based start of the current callable region */
+				int i=0;
+				while(i< bases.length)
+					{
+					if(bases[i]!='N' && bases[i]!='n') { i++; continue;}
+					int j=i+1;
+					while(j< bases.length && (bases[j]=='N' || bases[j]=='n')) j++;
+					if(j-i>=minGap)
+						{
+						if(i>start) L.add(new Interval(seq.getName(),start+1,i));
+						start = j;
+						}
+					i=j;
+					}
+				if(bases.length>start) L.add(new Interval(seq.getName(),start+1,bases.length));
+				}
+			return L;
+			}
+		finally
+			{
+			CloserUtil.close(ref);
+			}
+		}
+	}
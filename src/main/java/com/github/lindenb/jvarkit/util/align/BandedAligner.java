@@ -0,0 +1,522 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.align;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+
+/**
+ * Affine-gap alignment of a query (e.g. a read) against a reference window.
+ * 
+ * Unlike Dpal:
+ * - the sequences are encoded once as byte arrays and the scores are read from a lookup table.
+ * - the alignment can be restricted to a band of 'bandWidth' diagonals around an expected diagonal
+ *   ( refPos - queryPos ).
+ * - the DP rows and the traceback matrix are allocated once per thread and re-used.
+ * - one reference window can be aligned with many queries.
+ * 
+ * A gap of length L costs gapOpen + (L-1)*gapExtend , like in Dpal.
+ * 
+ * A BandedAligner is immutable and can be shared by several threads.
+ */
+public class BandedAligner
+	{
+	/** type of alignment */
+	public static enum Mode
+		{
+		/** Smith-Waterman: best alignment of a part of the query and a part of the reference */
+		LOCAL,
+		/** Needleman-Wunsch: the whole query is aligned with the whole reference */
+		GLOBAL,
+		/** the whole query is aligned with a part of the reference. Typical case for a read vs a reference window */
+		SEMI_GLOBAL
+		}
+	
+	/** scores. Default values are the same as Dpal */
+	public static class Scoring
+		{
+		private int matchScore = 100;
+		private int mismatchScore = -120;
+		private int baseIsNScore = -25;
+		private int gapOpen = -250;
+		private int gapExtend = -200;
+		
+		public Scoring setMatchScore(int matchScore) {
+			this.matchScore = matchScore;
+			return this;
+			}
+		public Scoring setMismatchScore(int mismatchScore) {
+			this.mismatchScore = mismatchScore;
+			return this;
+			}
+		public Scoring setBaseIsNScore(int baseIsNScore) {
+			this.baseIsNScore = baseIsNScore;
+			return this;
+			}
+		/** score of the first base of a gap , must be &lt;=0 */
+		public Scoring setGapOpen(int gapOpen) {
+			this.gapOpen = gapOpen;
+			return this;
+			}
+		/** score of the other bases of a gap , must be &lt;=0 */
+		public Scoring setGapExtend(int gapExtend) {
+			this.gapExtend = gapExtend;
+			return this;
+			}
+		public int getGapOpen() {
+			return this.gapOpen;
+			}
+		public int getGapExtend() {
+			return this.gapExtend;
+			}
+		}
+	
+	/** result of an alignment */
+	public static class Result
+		{
+		private final int score;
+		private final int queryStart;
+		private final int queryEnd;
+		private final int refStart;
+		private final int refEnd;
+		private final Cigar cigar;
+		Result(int score,int queryStart,int queryEnd,int refStart,int refEnd,final Cigar cigar)
+			{
+			this.score = score;
+			this.queryStart = queryStart;
+			this.queryEnd = queryEnd;
+			this.refStart = refStart;
+			this.refEnd = refEnd;
+			this.cigar = cigar;
+			}
+		public int getScore() {
+			return this.score;
+			}
+		/** 0-based start of the alignment in the query */
+		public int getQueryStart() {
+			return this.queryStart;
+			}
+		/** 0-based end (excluded) of the alignment in the query */
+		public int getQueryEnd() {
+			return this.queryEnd;
+			}
+		/** 0-based start of the alignment in the reference */
+		public int getRefStart() {
+			return this.refStart;
+			}
+		/** 0-based end (excluded) of the alignment in the reference */
+		public int getRefEnd() {
+			return this.refEnd;
+			}
+		/** cigar of the query. In LOCAL mode, the unaligned ends of the query are soft-clipped */
+		public Cigar getCigar() {
+			return this.cigar;
+			}
+		@Override
+		public String toString() {
+			return "score:"+score+" query:"+queryStart+"-"+queryEnd+" ref:"+refStart+"-"+refEnd+" cigar:"+cigar;
+			}
+		}
+	
+	/* base codes */
+	private static final int CODE_N = 4;
+	private static final int CODE_OTHER = 5;
+	private static final int ALPHABET_SHIFT = 3;
+	private static final byte CODES[] = new byte[128];
+	static {
+		for(int i=0;i< CODES.length;i++) CODES[i]=CODE_OTHER;
+		CODES['A']=0; CODES['a']=0;
+		CODES['C']=1; CODES['c']=1;
+		CODES['G']=2; CODES['g']=2;
+		CODES['T']=3; CODES['t']=3;
+		CODES['N']=CODE_N; CODES['n']=CODE_N;
+		}
+	/* 'minus infinity', far enough from Integer.MIN_VALUE to add penalties */
+	private static final int NEG = Integer.MIN_VALUE/4;
+	
+	/* traceback: bits 0-1: origin of H, bit 2: E was extended, bit 3: F was extended */
+	private static final byte TB_STOP = 0;
+	private static final byte TB_DIAG = 1;
+	private static final byte TB_E = 2;
+	private static final byte TB_F = 3;
+	private static final byte TB_E_EXT = 4;
+	private static final byte TB_F_EXT = 8;
+	
+	/** DP rows and traceback matrix, re-used by the alignments of a thread */
+	private static class Workspace
+		{
+		int hPrev[] = new int[0];
+		int hCur[] = new int[0];
+		int fPrev[] = new int[0];
+		int fCur[] = new int[0];
+		byte trace[] = new byte[0];
+		
+		void ensureCapacity(final int rowLength,final int traceLength)
+			{
+			if(this.hPrev.length < rowLength)
+				{
+				final int n = rowLength + rowLength/2;
+				this.hPrev = new int[n];
+				this.hCur = new int[n];
+				this.fPrev = new int[n];
+				this.fCur = new int[n];
+				}
+			if(this.trace.length < traceLength)
+				{
+				this.trace = new byte[traceLength + traceLength/2];
+				}
+			}
+		}
+	
+	private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(()->new Workspace());
+	
+	private final Mode mode;
+	private final int scores[];
+	private final int gapOpen;
+	private final int gapExtend;
+	
+	public BandedAligner(final Mode mode)
+		{
+		this(mode,new Scoring());
+		}
+	
+	public BandedAligner(final Mode mode,final Scoring scoring)
+		{
+		this.mode = mode;
+		this.gapOpen = scoring.gapOpen;
+		this.gapExtend = scoring.gapExtend;
+		if(this.gapOpen > 0 || this.gapExtend > 0) throw new IllegalArgumentException("gap penalties must be <=0");
+		final int n = 1 << ALPHABET_SHIFT;
+		this.scores = new int[n*n];
+		for(int x=0;x< n;++x)
+			{
+			for(int y=0;y< n;++y)
+				{
+				final int s;
+				if(x>=CODE_N || y>=CODE_N)
+					{
+					/* N or any other symbol */
+					s = scoring.baseIsNScore;
+					}
+				else
+					{
+					s = (x==y? scoring.matchScore: scoring.mismatchScore);
+					}
+				this.scores[(x<<ALPHABET_SHIFT)|y] = s;
+				}
+			}
+		}
+	
+	public Mode getMode()
+		{
+		return this.mode;
+		}
+	
+	/** encode a sequence for this aligner */
+	public static byte[] encode(final CharSequence seq)
+		{
+		final byte array[] = new byte[seq.length()];
+		for(int i=0;i< array.length;++i)
+			{
+			final char c = seq.charAt(i);
+			array[i] = (c < 128 ? CODES[c] : CODE_OTHER);
+			}
+		return array;
+		}
+	
+	/** full (not banded) alignment */
+	public Result align(final CharSequence query,final CharSequence ref)
+		{
+		return align(encode(query),encode(ref),0,-1);
+		}
+	
+	/**
+	 * align one reference window with many queries. The reference is encoded once.
+	 * @param diagonals expected diagonal ( refPos - queryPos ) for each query, or null for a full alignment.
+	 * @param bandWidth see {@link #align(byte[], byte[], int, int)}. Ignored if diagonals is null.
+	 * @return the results, in the order of the queries. An item is null if there is no alignment in the band.
+	 */
+	public List<Result> align(
+			final CharSequence ref,
+			final List<? extends CharSequence> queries,
+			final int diagonals[],
+			final int bandWidth
+			)
+		{
+		if(diagonals!=null && diagonals.length!=queries.size()) throw new IllegalArgumentException("expected "+queries.size()+" diagonals");
+		final byte refCodes[] = encode(ref);
+		final List<Result> results = new ArrayList<>(queries.size());
+		for(int i=0;i< queries.size();++i)
+			{
+			results.add(align(
+				encode(queries.get(i)),
+				refCodes,
+				diagonals==null?0:diagonals[i],
+				diagonals==null?-1:bandWidth
+				));
+			}
+		return results;
+		}
+	
+	/**
+	 * align two encoded sequences
+	 * @param query encoded query, see {@link #encode(CharSequence)}
+	 * @param ref encoded reference
+	 * @param diagonal the expected diagonal ( refPos - queryPos ). e.g: the expected 0-based position of the first base of the query in the reference
+	 * @param bandWidth only the cells of the diagonals [diagonal-bandWidth, diagonal+bandWidth] are computed. A negative value means no band.
+	 * @return the result or null if there is no alignment within the band.
+	 */
+	public Result align(final byte query[],final byte ref[],int diagonal,int bandWidth)
+		{
+		final int m = query.length;
+		final int n = ref.length;
+		if(bandWidth<0)
+			{
+			// one band containing all the diagonals
+			diagonal = 0;
+			bandWidth = Math.max(m, n);
+			}
+		if(m==0)
+			{
+			if(this.mode.equals(Mode.GLOBAL) && n>0)
+				{
+				return new Result(this.gapOpen+(n-1)*this.gapExtend, 0, 0, 0, n, new Cigar());
+				}
+			return new Result(0, 0, 0, 0, 0, new Cigar());
+			}
+		if(diagonal - bandWidth > n || diagonal + bandWidth + m < 0)
+			{
+			/* the band is outside the matrix */
+			return null;
+			}
+		final int traceWidth = Math.min(2*bandWidth+1, n+1);
+		final Workspace ws = WORKSPACE.get();
+		ws.ensureCapacity(n+1, (m+1)*traceWidth);
+		int hPrev[] = ws.hPrev;
+		int hCur[] = ws.hCur;
+		int fPrev[] = ws.fPrev;
+		int fCur[] = ws.fCur;
+		final byte trace[] = ws.trace;
+		final int scores[] = this.scores;
+		final int gapOpen = this.gapOpen;
+		final int gapExtend = this.gapExtend;
+		final boolean local = this.mode.equals(Mode.LOCAL);
+		
+		int bestScore = NEG;
+		int bestI = -1;
+		int bestJ = -1;
+		
+		/* row 0 */
+		int lo = Math.max(0, diagonal-bandWidth);
+		int hi = Math.min(n, diagonal+bandWidth);
+		for(int j=lo;j<=hi;++j)
+			{
+			hPrev[j] = (this.mode.equals(Mode.GLOBAL) && j>0 ? gapOpen + (j-1)*gapExtend : 0);
+			fPrev[j] = NEG;
+			}
+		if(lo>0) { hPrev[lo-1]=NEG; fPrev[lo-1]=NEG; }
+		if(hi<n && hi+1>=0) { hPrev[hi+1]=NEG; fPrev[hi+1]=NEG; }
+		if(local)
+			{
+			for(int j=lo;j<=hi;++j)
+				{
+				if(hPrev[j]>bestScore) { bestScore=hPrev[j]; bestI=0; bestJ=j;}
+				}
+			}
+		
+		for(int i=1;i<=m;++i)
+			{
+			lo = Math.max(0, i+diagonal-bandWidth);
+			hi = Math.min(n, i+diagonal+bandWidth);
+			final int traceOffset = i*traceWidth - lo;
+			final int qShifted = query[i-1] << ALPHABET_SHIFT;
+			int e = NEG;
+			int hLeft;
+			int j = lo;
+			if(j==0)
+				{
+				hCur[0] = (local ? 0 : gapOpen + (i-1)*gapExtend);
+				fCur[0] = NEG;
+				hLeft = hCur[0];
+				j=1;
+				}
+			else
+				{
+				hLeft = NEG;
+				}
+			for(;j<=hi;++j)
+				{
+				byte tb;
+				// E: gap in the query
+				final int eOpen = hLeft + gapOpen;
+				final int eExt = e + gapExtend;
+				if(eExt > eOpen) { e = eExt; tb = TB_E_EXT;} else { e = eOpen; tb = 0;}
+				// F: gap in the reference
+				final int fOpen = hPrev[j] + gapOpen;
+				final int fExt = fPrev[j] + gapExtend;
+				final int f;
+				if(fExt > fOpen) { f = fExt; tb |= TB_F_EXT;} else { f = fOpen;}
+				fCur[j] = f;
+				// H , ties prefer the diagonal
+				int h = hPrev[j-1] + scores[qShifted | ref[j-1]];
+				byte from = TB_DIAG;
+				if(e > h) { h = e; from = TB_E;}
+				if(f > h) { h = f; from = TB_F;}
+				if(local && h <= 0) { h = 0; from = TB_STOP;}
+				hCur[j] = h;
+				trace[traceOffset+j] = (byte)(tb | from);
+				hLeft = h;
+				if(local && h > bestScore) { bestScore = h; bestI = i; bestJ = j;}
+				}
+			if(lo>hi)
+				{
+				// empty row
+				lo = Math.min(lo, n);
+				hCur[lo] = NEG;
+				fCur[lo] = NEG;
+				}
+			if(lo>0) { hCur[lo-1]=NEG; fCur[lo-1]=NEG; }
+			if(hi<n && hi+1>=0) { hCur[hi+1]=NEG; fCur[hi+1]=NEG; }
+			
+			if(i==m && !local)
+				{
+				if(this.mode.equals(Mode.GLOBAL))
+					{
+					if(lo<=n && n<=hi)
+						{
+						bestScore = hCur[n]; bestI = m; bestJ = n;
+						}
+					}
+				else
+					{
+					for(int k=lo;k<=hi;++k)
+						{
+						if(hCur[k]>bestScore) { bestScore=hCur[k]; bestI=m; bestJ=k;}
+						}
+					}
+				}
+			
+			// swap the rows
+			int tmp[] = hPrev; hPrev = hCur; hCur = tmp;
+			tmp = fPrev; fPrev = fCur; fCur = tmp;
+			}
+		// rows may have been swapped: keep the workspace consistent
+		ws.hPrev = hPrev; ws.hCur = hCur; ws.fPrev = fPrev; ws.fCur = fCur;
+		
+		if(bestI<0 || bestScore <= NEG/2) return null;
+		return traceback(query, ref, trace, traceWidth, diagonal, bandWidth, bestScore, bestI, bestJ);
+		}
+	
+	private Result traceback(
+			final byte query[],
+			final byte ref[],
+			final byte trace[],
+			final int traceWidth,
+			final int diagonal,
+			final int bandWidth,
+			final int score,
+			final int endI,
+			final int endJ
+			)
+		{
+		final int m = query.length;
+		final List<CigarOperator> ops = new ArrayList<>(m+10);
+		if(this.mode.equals(Mode.LOCAL))
+			{
+			for(int k=endI;k<m;++k) ops.add(CigarOperator.S);
+			}
+		int i = endI;
+		int j = endJ;
+		byte state = TB_DIAG;/* means H */
+		while(i>0 && j>0)
+			{
+			final int lo = Math.max(0, i+diagonal-bandWidth);
+			final byte tb = trace[i*traceWidth + j - lo];
+			if(state == TB_E)
+				{
+				ops.add(CigarOperator.D);
+				if((tb & TB_E_EXT)==0) state = TB_DIAG;
+				j--;
+				continue;
+				}
+			if(state == TB_F)
+				{
+				ops.add(CigarOperator.I);
+				if((tb & TB_F_EXT)==0) state = TB_DIAG;
+				i--;
+				continue;
+				}
+			final int from = tb & 3;
+			if(from == TB_STOP) break;
+			if(from == TB_DIAG)
+				{
+				ops.add(CigarOperator.M);
+				i--;
+				j--;
+				}
+			else
+				{
+				state = (byte)from;
+				}
+			}
+		final int queryStart;
+		final int refStart;
+		switch(this.mode)
+			{
+			case LOCAL:
+				queryStart = i;
+				refStart = j;
+				for(int k=0;k<i;++k) ops.add(CigarOperator.S);
+				break;
+			case GLOBAL:
+				for(int k=0;k<i;++k) ops.add(CigarOperator.I);
+				for(int k=0;k<j;++k) ops.add(CigarOperator.D);
+				queryStart = 0;
+				refStart = 0;
+				break;
+			default:
+				for(int k=0;k<i;++k) ops.add(CigarOperator.I);
+				queryStart = 0;
+				refStart = j;
+				break;
+			}
+		
+		/* ops are in reverse order */
+		final List<CigarElement> elements = new ArrayList<>();
+		int k = ops.size()-1;
+		while(k>=0)
+			{
+			final CigarOperator op = ops.get(k);
+			int len = 0;
+			while(k>=0 && ops.get(k)==op) { len++; k--;}
+			elements.add(new CigarElement(len, op));
+			}
+		return new Result(score, queryStart, endI, refStart, endJ, new Cigar(elements));
+		}
+	}
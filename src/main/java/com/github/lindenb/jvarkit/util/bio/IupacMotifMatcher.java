@@ -0,0 +1,264 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Finds a set of IUPAC motifs (e.g. restriction sites) in a DNA sequence
+ * in a single pass.
+ * 
+ * All the motifs are compiled into one bit-parallel shift-and automaton:
+ * each motif occupies a slice of a 64-bit word and all the slices are
+ * advanced together for each base of the sequence, so the cost of a scan
+ * is linear in the length of the sequence and does not depend on the
+ * number of degenerate bases in the motifs (expanding a motif like
+ * 'CNNGNNNNNNNNN' into a trie would need millions of states).
+ * 
+ * A degenerate base of the motif matches any of its bases (see
+ * {@link AcidNucleics#degenerateToBases(char)}). In the scanned sequence,
+ * only A,C,G,T (any case) can match; 'N' or any other character never matches.
+ *
+ * @param <T> the user data attached to each motif
+ */
+public class IupacMotifMatcher<T>
+	{
+	/** max length of a motif */
+	public static final int MAX_MOTIF_LENGTH = Long.SIZE;
+	
+	/** a motif registered in this matcher */
+	public interface Motif<T>
+		{
+		/** index of this motif in the matcher */
+		public int getIndex();
+		/** upper-case IUPAC sequence of this motif */
+		public String getBases();
+		/** length of this motif */
+		public default int size() { return getBases().length();}
+		/** user data attached to this motif */
+		public T getUserData();
+		}
+	
+	/** a match of a motif in a sequence */
+	public interface Hit<T>
+		{
+		public Motif<T> getMotif();
+		/** 0-based start of the match in the sequence, inclusive */
+		public int getStart();
+		/** 0-based end of the match in the sequence, exclusive */
+		public int getEnd();
+		public default T getUserData() { return getMotif().getUserData();}
+		}
+	
+	private static class MotifImpl<T> implements Motif<T>
+		{
+		private final int index;
+		private final String bases;
+		private final T userData;
+		MotifImpl(final int index,final String bases,final T userData)
+			{
+			this.index = index;
+			this.bases = bases;
+			this.userData = userData;
+			}
+		@Override public int getIndex() { return this.index;}
+		@Override public String getBases() { return this.bases;}
+		@Override public T getUserData() { return this.userData;}
+		@Override public String toString() { return this.bases;}
+		}
+	
+	private static class HitImpl<T> implements Hit<T>
+		{
+		private final Motif<T> motif;
+		private final int start;
+		HitImpl(final Motif<T> motif,final int start)
+			{
+			this.motif = motif;
+			this.start = start;
+			}
+		@Override public Motif<T> getMotif() { return this.motif;}
+		@Override public int getStart() { return this.start;}
+		@Override public int getEnd() { return this.start + this.motif.size();}
+		@Override public String toString() { return this.motif+":"+this.start+"-"+getEnd();}
+		}
+	
+	private final List<MotifImpl<T>> motifs = new ArrayList<>();
+	private int maxLength = 0;
+	/* compiled automaton, set to null each time a motif is added */
+	private long[][] baseMasks = null;
+	private long[] startMasks = null;
+	private long[] endMasks = null;
+	private int[] endBitToMotif = null;
+	
+	public IupacMotifMatcher()
+		{
+		}
+	
+	/** add a new motif
+	 * @param iupac the IUPAC sequence of the motif
+	 * @param userData the data attached to this motif
+	 * @return the new motif
+	 */
+	public Motif<T> add(final String iupac,final T userData)
+		{
+		if(iupac==null || iupac.isEmpty()) throw new IllegalArgumentException("empty motif");
+		if(iupac.length()>MAX_MOTIF_LENGTH) throw new IllegalArgumentException("motif is longer than "+MAX_MOTIF_LENGTH+" bases: "+iupac);
+		final String bases = iupac.toUpperCase();
+		for(int i=0;i< bases.length();++i)
+			{
+			// throws an exception if the base is not IUPAC
+			AcidNucleics.degenerateToBases(bases.charAt(i));
+			}
+		final MotifImpl<T> motif = new MotifImpl<>(this.motifs.size(), bases, userData);
+		this.motifs.add(motif);
+		this.maxLength = Math.max(this.maxLength, bases.length());
+		this.baseMasks = null;
+		return motif;
+		}
+	
+	/** @return the number of motifs */
+	public int size()
+		{
+		return this.motifs.size();
+		}
+	
+	public Motif<T> get(final int index)
+		{
+		return this.motifs.get(index);
+		}
+	
+	/** @return the length of the longest motif or 0 if there is no motif */
+	public int getMaxLength()
+		{
+		return this.maxLength;
+		}
+	
+	private static int baseIndex(final char c)
+		{
+		switch(c)
+			{
+			case 'A': case 'a': return 0;
+			case 'C': case 'c': return 1;
+			case 'G': case 'g': return 2;
+			case 'T': case 't': return 3;
+			default: return -1;
+			}
+		}
+	
+	/** pack the motifs into 64-bit words. A motif never spans two words */
+	private void compile()
+		{
+		final List<int[]> offsets = new ArrayList<>(this.motifs.size());
+		int word = 0;
+		int bit = 0;
+		for(final MotifImpl<T> motif: this.motifs)
+			{
+			if(bit + motif.size() > Long.SIZE)
+				{
+				word++;
+				bit = 0;
+				}
+			offsets.add(new int[]{word,bit});
+			bit += motif.size();
+			}
+		final int nWords = this.motifs.isEmpty()?0:word+1;
+		this.baseMasks = new long[4][nWords];
+		this.startMasks = new long[nWords];
+		this.endMasks = new long[nWords];
+		this.endBitToMotif = new int[nWords * Long.SIZE];
+		for(final MotifImpl<T> motif: this.motifs)
+			{
+			final int[] wb = offsets.get(motif.getIndex());
+			final int w = wb[0];
+			for(int i=0;i< motif.size();++i)
+				{
+				final long mask = 1L << (wb[1]+i);
+				for(final char c: AcidNucleics.degenerateToBases(motif.getBases().charAt(i)))
+					{
+					final int b = baseIndex(c);
+					if(b!=-1) this.baseMasks[b][w] |= mask;
+					}
+				}
+			final int last = wb[1] + motif.size() - 1;
+			this.startMasks[w] |= 1L << wb[1];
+			this.endMasks[w] |= 1L << last;
+			this.endBitToMotif[w * Long.SIZE + last] = motif.getIndex();
+			}
+		}
+	
+	/** scan a sequence
+	 * @param seq the DNA sequence
+	 * @param start 0-based start of the region to scan, inclusive
+	 * @param end 0-based end of the region to scan, exclusive
+	 * @param consumer called for each hit found in [start,end). Hits are sorted by end position and, for a given end, by motif index.
+	 */
+	public void scan(final CharSequence seq,int start,int end,final Consumer<Hit<T>> consumer)
+		{
+		if(this.baseMasks==null) compile();
+		start = Math.max(0, start);
+		end = Math.min(end, seq.length());
+		final int nWords = this.startMasks.length;
+		final long[] state = new long[nWords];
+		for(int i=start;i< end;++i)
+			{
+			final int b = baseIndex(seq.charAt(i));
+			if(b==-1)
+				{
+				for(int w=0;w< nWords;++w) state[w]=0L;
+				continue;
+				}
+			final long[] masks = this.baseMasks[b];
+			for(int w=0;w< nWords;++w)
+				{
+				final long d = ((state[w] << 1) | this.startMasks[w]) & masks[w];
+				state[w] = d;
+				long found = d & this.endMasks[w];
+				while(found!=0L)
+					{
+					final int bit = Long.numberOfTrailingZeros(found);
+					final MotifImpl<T> motif = this.motifs.get(this.endBitToMotif[w * Long.SIZE + bit]);
+					consumer.accept(new HitImpl<>(motif, i + 1 - motif.size()));
+					found &= found - 1L;
+					}
+				}
+			}
+		}
+	
+	/** scan the whole sequence */
+	public void scan(final CharSequence seq,final Consumer<Hit<T>> consumer)
+		{
+		scan(seq,0,seq.length(),consumer);
+		}
+	
+	/** @return all the hits in the sequence */
+	public List<Hit<T>> findAll(final CharSequence seq)
+		{
+		final List<Hit<T>> hits = new ArrayList<>();
+		scan(seq, hits::add);
+		return hits;
+		}
+	}
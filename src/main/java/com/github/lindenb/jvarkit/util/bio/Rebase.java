@@ -155,6 +155,42 @@ public class Rebase
 			}
 		}
 	
+	/** one strand of the recognition site of an enzyme */
+	public static class EnzymeSite
+		{
+		private final Enzyme enzyme;
+		private final char strand;
+		EnzymeSite(final Enzyme enzyme,final char strand)
+			{
+			this.enzyme = enzyme;
+			this.strand = strand;
+			}
+		public Enzyme getEnzyme() { return this.enzyme;}
+		/** @return '+' or '-' */
+		public char getStrand() { return this.strand;}
+		public boolean isForward() { return this.strand=='+';}
+		@Override
+		public String toString()
+			{
+			return this.enzyme.getName()+"("+this.strand+")";
+			}
+		}
+	
+	/** create a matcher finding the sites of all the enzymes in one pass.
+	 * The reverse-complement site is added, just after the forward site, for the enzymes that are not {@link Enzyme#isPalindromic()}
+	 */
+	public IupacMotifMatcher<EnzymeSite> createMatcher()
+		{
+		final IupacMotifMatcher<EnzymeSite> matcher = new IupacMotifMatcher<>();
+		for(final Enzyme enz: this)
+			{
+			matcher.add(enz.getBases(), new EnzymeSite(enz,'+'));
+			if(enz.isPalindromic()) continue;
+			matcher.add(AcidNucleics.reverseComplement(enz.getBases()), new EnzymeSite(enz,'-'));
+			}
+		return matcher;
+		}
+	
 	private void add(final String name,final String decl)
 		{
 		this.enzymes.add(new EnzymeImpl(name, decl));
@@ -0,0 +1,150 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.blast;
+
+/**
+ * A flat BLAST HSP: the fields of the 'Hsp' element and of its enclosing 'Hit'.
+ * Filled by {@link BlastXmlStreamReader}, instances are recycled from one Iteration to another.
+ */
+public class BlastHspRecord
+	{
+	int hitNum = 0;
+	String hitId = "";
+	String hitDef = "";
+	String hitAccession = "";
+	int hitLen = 0;
+	
+	int hspNum = 0;
+	double bitScore = 0;
+	double score = 0;
+	double evalue = 0;
+	int queryFrom = 0;
+	int queryTo = 0;
+	int hitFrom = 0;
+	int hitTo = 0;
+	int queryFrame = 0;
+	int hitFrame = 0;
+	int identity = 0;
+	int positive = 0;
+	int gaps = 0;
+	int alignLen = -1;
+	String qseq = "";
+	String hseq = "";
+	String midline = "";
+	
+	void clear()
+		{
+		this.hspNum = 0;
+		this.bitScore = 0;
+		this.score = 0;
+		this.evalue = 0;
+		this.queryFrom = 0;
+		this.queryTo = 0;
+		this.hitFrom = 0;
+		this.hitTo = 0;
+		this.queryFrame = 0;
+		this.hitFrame = 0;
+		this.identity = 0;
+		this.positive = 0;
+		this.gaps = 0;
+		this.alignLen = -1;
+		this.qseq = "";
+		this.hseq = "";
+		this.midline = "";
+		}
+	
+	/** copy the content of 'other' into this record */
+	public BlastHspRecord set(final BlastHspRecord other)
+		{
+		this.hitNum = other.hitNum;
+		this.hitId = other.hitId;
+		this.hitDef = other.hitDef;
+		this.hitAccession = other.hitAccession;
+		this.hitLen = other.hitLen;
+		this.hspNum = other.hspNum;
+		this.bitScore = other.bitScore;
+		this.score = other.score;
+		this.evalue = other.evalue;
+		this.queryFrom = other.queryFrom;
+		this.queryTo = other.queryTo;
+		this.hitFrom = other.hitFrom;
+		this.hitTo = other.hitTo;
+		this.queryFrame = other.queryFrame;
+		this.hitFrame = other.hitFrame;
+		this.identity = other.identity;
+		this.positive = other.positive;
+		this.gaps = other.gaps;
+		this.alignLen = other.alignLen;
+		this.qseq = other.qseq;
+		this.hseq = other.hseq;
+		this.midline = other.midline;
+		return this;
+		}
+	
+	public int getHitNum() { return this.hitNum;}
+	public String getHitId() { return this.hitId;}
+	public String getHitDef() { return this.hitDef;}
+	public String getHitAccession() { return this.hitAccession;}
+	public int getHitLen() { return this.hitLen;}
+	public int getHspNum() { return this.hspNum;}
+	public double getBitScore() { return this.bitScore;}
+	public double getScore() { return this.score;}
+	public double getEvalue() { return this.evalue;}
+	public int getQueryFrom1() { return this.queryFrom;}
+	public int getQueryTo1() { return this.queryTo;}
+	public int getHitFrom1() { return this.hitFrom;}
+	public int getHitTo1() { return this.hitTo;}
+	public int getQueryFrame() { return this.queryFrame;}
+	public int getHitFrame() { return this.hitFrame;}
+	public int getIdentity() { return this.identity;}
+	public int getPositive() { return this.positive;}
+	public int getGaps() { return this.gaps;}
+	public String getQseq() { return this.qseq;}
+	public String getHseq() { return this.hseq;}
+	public String getMidline() { return this.midline;}
+	
+	/** length of the alignment, the length of the midline if 'Hsp_align-len' was missing */
+	public int getAlignLength()
+		{
+		return this.alignLen<0?this.midline.length():this.alignLen;
+		}
+	
+	/** true if the hit is on the forward strand */
+	public boolean isPlusPlus()
+		{
+		return this.hitFrom<=this.hitTo;
+		}
+	
+	public final boolean isPlusMinus()
+		{
+		return !isPlusPlus();
+		}
+	
+	@Override
+	public String toString()
+		{
+		return "Hsp "+this.hitDef+":"+this.hitFrom+"-"+this.hitTo+" query:"+this.queryFrom+"-"+this.queryTo+" score:"+this.bitScore;
+		}
+	}
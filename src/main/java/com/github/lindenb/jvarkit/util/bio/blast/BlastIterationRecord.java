@@ -0,0 +1,116 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.blast;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A flat BLAST Iteration: the query and all the HSPs of all its hits.
+ * Filled by {@link BlastXmlStreamReader#next(BlastIterationRecord)}. The HSPs
+ * are recycled when the record is filled again: use {@link #copy()} to keep a record.
+ */
+public class BlastIterationRecord
+	{
+	int iterNum = 0;
+	String queryId = "";
+	String queryDef = "";
+	int queryLen = 0;
+	String message = null;
+	/* pool of HSPs, only the first 'hspCount' are used */
+	private final List<BlastHspRecord> hspPool = new ArrayList<>();
+	private int hspCount = 0;
+	
+	private final List<BlastHspRecord> hspView = new AbstractList<BlastHspRecord>()
+		{
+		@Override
+		public BlastHspRecord get(final int index) {
+			if(index<0 || index>=hspCount) throw new IndexOutOfBoundsException("0<="+index+"<"+hspCount);
+			return hspPool.get(index);
+			}
+		@Override
+		public int size() {
+			return hspCount;
+			}
+		};
+	
+	void clear()
+		{
+		this.iterNum = 0;
+		this.queryId = "";
+		this.queryDef = "";
+		this.queryLen = 0;
+		this.message = null;
+		this.hspCount = 0;
+		}
+	
+	/** returns a new (or recycled) empty HSP at the end of the list */
+	BlastHspRecord newHsp()
+		{
+		if(this.hspCount==this.hspPool.size())
+			{
+			this.hspPool.add(new BlastHspRecord());
+			}
+		final BlastHspRecord hsp = this.hspPool.get(this.hspCount++);
+		hsp.clear();
+		return hsp;
+		}
+	
+	public int getIterNum() { return this.iterNum;}
+	public String getQueryId() { return this.queryId;}
+	public String getQueryDef() { return this.queryDef;}
+	public int getQueryLen() { return this.queryLen;}
+	/** the content of 'Iteration_message' or null */
+	public String getMessage() { return this.message;}
+	
+	/** all the HSPs of all the hits, in the document order */
+	public List<BlastHspRecord> getHsps()
+		{
+		return this.hspView;
+		}
+	
+	/** returns a deep copy of this record */
+	public BlastIterationRecord copy()
+		{
+		final BlastIterationRecord cp = new BlastIterationRecord();
+		cp.iterNum = this.iterNum;
+		cp.queryId = this.queryId;
+		cp.queryDef = this.queryDef;
+		cp.queryLen = this.queryLen;
+		cp.message = this.message;
+		for(final BlastHspRecord hsp:getHsps())
+			{
+			cp.newHsp().set(hsp);
+			}
+		return cp;
+		}
+	
+	@Override
+	public String toString()
+		{
+		return "Iteration "+this.queryDef+" N-HSP:"+this.hspCount;
+		}
+	}
@@ -0,0 +1,238 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.blast;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Streaming reader for the BLAST XML format (-outfmt 5).
+ * 
+ * Unlike the JAXB classes 'gov.nih.nlm.ncbi.blast', there is no object graph:
+ * the XML cursor is walked once and each Iteration is flattened into a
+ * {@link BlastIterationRecord} that can be recycled from one call to another.
+ * 
+ * <pre>
+ * try(BlastXmlStreamReader r=new BlastXmlStreamReader(in)) {
+ *    final BlastIterationRecord rec=new BlastIterationRecord();
+ *    while(r.next(rec)) {
+ *       for(BlastHspRecord hsp:rec.getHsps()) ...
+ *       }
+ *    }
+ * </pre>
+ */
+public class BlastXmlStreamReader implements Closeable
+	{
+	private final XMLStreamReader r;
+	private final Closeable source;
+	private String program = "";
+	private String version = "";
+	private String db = "";
+	/* fields of the current 'Hit', copied in each of its HSP */
+	private final BlastHspRecord currentHit = new BlastHspRecord();
+	
+	public BlastXmlStreamReader(final InputStream in) throws IOException
+		{
+		this.source = in;
+		try {
+			this.r = createXMLInputFactory().createXMLStreamReader(in);
+			readHeader();
+			}
+		catch(final XMLStreamException err)
+			{
+			throw new IOException(err);
+			}
+		}
+	
+	public BlastXmlStreamReader(final Reader in) throws IOException
+		{
+		this.source = in;
+		try {
+			this.r = createXMLInputFactory().createXMLStreamReader(in);
+			readHeader();
+			}
+		catch(final XMLStreamException err)
+			{
+			throw new IOException(err);
+			}
+		}
+	
+	/** creates a XMLInputFactory that won't try to download the BLAST DTD */
+	public static XMLInputFactory createXMLInputFactory()
+		{
+		final XMLInputFactory xmlInputFactory=XMLInputFactory.newFactory();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		return xmlInputFactory;
+		}
+	
+	/** value of 'BlastOutput_program' */
+	public String getProgram() { return this.program;}
+	/** value of 'BlastOutput_version' */
+	public String getVersion() { return this.version;}
+	/** value of 'BlastOutput_db' */
+	public String getDb() { return this.db;}
+	
+	/* read until 'BlastOutput_iterations' */
+	private void readHeader() throws XMLStreamException
+		{
+		while(this.r.hasNext())
+			{
+			final int evt = this.r.next();
+			if(evt!=XMLStreamConstants.START_ELEMENT) continue;
+			final String name = this.r.getLocalName();
+			if(name.equals("BlastOutput_iterations")) break;
+			switch(name)
+				{
+				case "BlastOutput_program": this.program = this.r.getElementText(); break;
+				case "BlastOutput_version": this.version = this.r.getElementText(); break;
+				case "BlastOutput_db": this.db = this.r.getElementText(); break;
+				default: break;
+				}
+			}
+		}
+	
+	private int intText() throws XMLStreamException
+		{
+		return Integer.parseInt(this.r.getElementText().trim());
+		}
+	
+	private double doubleText() throws XMLStreamException
+		{
+		return Double.parseDouble(this.r.getElementText().trim());
+		}
+	
+	/** read the next Iteration into 'rec'. Returns false at the end of the document */
+	public boolean next(final BlastIterationRecord rec) throws IOException
+		{
+		rec.clear();
+		try
+			{
+			while(this.r.hasNext())
+				{
+				final int evt = this.r.next();
+				if(evt==XMLStreamConstants.START_ELEMENT && this.r.getLocalName().equals("Iteration"))
+					{
+					readIteration(rec);
+					return true;
+					}
+				}
+			return false;
+			}
+		catch(final XMLStreamException|NumberFormatException err)
+			{
+			throw new IOException(err);
+			}
+		}
+	
+	/** returns the next Iteration in a new record, or null at the end of the document */
+	public BlastIterationRecord next() throws IOException
+		{
+		final BlastIterationRecord rec = new BlastIterationRecord();
+		return next(rec)?rec:null;
+		}
+	
+	private void readIteration(final BlastIterationRecord rec) throws XMLStreamException
+		{
+		BlastHspRecord hsp = this.currentHit;
+		while(this.r.hasNext())
+			{
+			final int evt = this.r.next();
+			if(evt==XMLStreamConstants.END_ELEMENT)
+				{
+				if(this.r.getLocalName().equals("Iteration")) return;
+				continue;
+				}
+			if(evt!=XMLStreamConstants.START_ELEMENT) continue;
+			switch(this.r.getLocalName())
+				{
+				case "Iteration_iter-num": rec.iterNum = intText(); break;
+				case "Iteration_query-ID": rec.queryId = this.r.getElementText(); break;
+				case "Iteration_query-def": rec.queryDef = this.r.getElementText(); break;
+				case "Iteration_query-len": rec.queryLen = intText(); break;
+				case "Iteration_message": rec.message = this.r.getElementText(); break;
+				case "Hit":
+					this.currentHit.hitNum = 0;
+					this.currentHit.hitId = "";
+					this.currentHit.hitDef = "";
+					this.currentHit.hitAccession = "";
+					this.currentHit.hitLen = 0;
+					hsp = this.currentHit;
+					break;
+				case "Hit_num": this.currentHit.hitNum = intText(); break;
+				case "Hit_id": this.currentHit.hitId = this.r.getElementText(); break;
+				case "Hit_def": this.currentHit.hitDef = this.r.getElementText(); break;
+				case "Hit_accession": this.currentHit.hitAccession = this.r.getElementText(); break;
+				case "Hit_len": this.currentHit.hitLen = intText(); break;
+				case "Hsp":
+					hsp = rec.newHsp();
+					hsp.hitNum = this.currentHit.hitNum;
+					hsp.hitId = this.currentHit.hitId;
+					hsp.hitDef = this.currentHit.hitDef;
+					hsp.hitAccession = this.currentHit.hitAccession;
+					hsp.hitLen = this.currentHit.hitLen;
+					break;
+				case "Hsp_num": hsp.hspNum = intText(); break;
+				case "Hsp_bit-score": hsp.bitScore = doubleText(); break;
+				case "Hsp_score": hsp.score = doubleText(); break;
+				case "Hsp_evalue": hsp.evalue = doubleText(); break;
+				case "Hsp_query-from": hsp.queryFrom = intText(); break;
+				case "Hsp_query-to": hsp.queryTo = intText(); break;
+				case "Hsp_hit-from": hsp.hitFrom = intText(); break;
+				case "Hsp_hit-to": hsp.hitTo = intText(); break;
+				case "Hsp_query-frame": hsp.queryFrame = intText(); break;
+				case "Hsp_hit-frame": hsp.hitFrame = intText(); break;
+				case "Hsp_identity": hsp.identity = intText(); break;
+				case "Hsp_positive": hsp.positive = intText(); break;
+				case "Hsp_gaps": hsp.gaps = intText(); break;
+				case "Hsp_align-len": hsp.alignLen = intText(); break;
+				case "Hsp_qseq": hsp.qseq = this.r.getElementText(); break;
+				case "Hsp_hseq": hsp.hseq = this.r.getElementText(); break;
+				case "Hsp_midline": hsp.midline = this.r.getElementText(); break;
+				default: break;
+				}
+			}
+		throw new XMLStreamException("Iteration was not closed");
+		}
+	
+	@Override
+	public void close()
+		{
+		try { this.r.close(); } catch(final XMLStreamException err) { /* ignore */ }
+		CloserUtil.close(this.source);
+		}
+	}
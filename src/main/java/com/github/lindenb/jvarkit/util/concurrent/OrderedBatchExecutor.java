@@ -0,0 +1,125 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates the items of an iterator in batches with a pool of threads, while the results
+ * are consumed in the input order by the calling thread. Used by the tools filtering records
+ * with a script or with a compiled java class.
+ */
+public class OrderedBatchExecutor {
+	/** function evaluating an item with a state confined to the current thread */
+	@FunctionalInterface
+	public interface ThreadFunction<S,T,R> {
+		public R apply(S state,T item) throws Exception;
+		}
+	
+	private OrderedBatchExecutor() {
+		}
+	
+	/**
+	 * Evaluate the items with a pool of threads, the results are consumed in the input order by the calling thread.
+	 * @param iter the items, only consumed by the calling thread
+	 * @param nThreads number of threads. If lower than 2, everything runs in the calling thread
+	 * @param batchSize number of items sent to a thread at once
+	 * @param stateFactory creates the state of a thread (e.g. an instance of a filter that is not thread-safe). Called once per thread
+	 * @param fun the evaluation of an item
+	 * @param consumer consumes the results. Returns false to stop the iteration
+	 * @throws Exception the first exception thrown by 'fun'
+	 */
+	public static <S,T,R> void forEachOrdered(
+			final Iterator<T> iter,
+			final int nThreads,
+			final int batchSize,
+			final Supplier<S> stateFactory,
+			final ThreadFunction<S,T,R> fun,
+			final Predicate<R> consumer
+			) throws Exception {
+		if(nThreads<=1) {
+			final S state = stateFactory.get();
+			while(iter.hasNext()) {
+				if(!consumer.test(fun.apply(state, iter.next()))) break;
+				}
+			return;
+			}
+		final ThreadLocal<S> states = ThreadLocal.withInitial(stateFactory);
+		final ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
+		final ArrayDeque<Future<List<R>>> pending = new ArrayDeque<>();
+		try {
+			boolean stop = false;
+			while(!stop && iter.hasNext()) {
+				final List<T> batch = new ArrayList<>(batchSize);
+				while(iter.hasNext() && batch.size() < Math.max(1, batchSize)) {
+					batch.add(iter.next());
+					}
+				pending.add(executorService.submit(()->{
+					final S state = states.get();
+					final List<R> results = new ArrayList<>(batch.size());
+					for(final T item: batch) {
+						results.add(fun.apply(state, item));
+						}
+					return results;
+					}));
+				// consume the oldest batches
+				while(!stop && (pending.size() >= 2 * nThreads || (!iter.hasNext() && !pending.isEmpty()))) {
+					for(final R result: pending.pollFirst().get()) {
+						if(!consumer.test(result)) {
+							stop = true;
+							break;
+							}
+						}
+					}
+				}
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof Exception) throw (Exception)err.getCause();
+			if(err.getCause() instanceof Error) throw (Error)err.getCause();
+			throw err;
+			}
+		finally
+			{
+			pending.forEach(F->F.cancel(true));
+			executorService.shutdown();
+			try {
+				executorService.awaitTermination(365, TimeUnit.DAYS);
+				}
+			catch(final InterruptedException err) {
+				// ignore
+				}
+			}
+		}
+	}
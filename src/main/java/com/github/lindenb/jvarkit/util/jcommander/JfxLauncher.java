@@ -51,7 +51,7 @@ public abstract class JfxLauncher
 	private static int exitStatus = 0;
 
 	@ParametersDelegate
-	private Launcher.UsageBuider usageBuider = null;
+	private CmdUsageBuilder usageBuider = null;
 	@Parameter(description = "Files")
 	private List<String> args = new ArrayList<>();
 	@Parameter(names="--testng",description = "testng",hidden=true)
@@ -70,7 +70,7 @@ public abstract class JfxLauncher
 
 	 public void init() throws Exception {
 	 super.init();
-		this.usageBuider = new Launcher.UsageBuider(getClass());
+		this.usageBuider = new CmdUsageBuilder(getClass());
 		this.jCommander = new JCommander(this);
 	 }
 	
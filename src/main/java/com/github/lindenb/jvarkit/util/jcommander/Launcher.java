@@ -62,6 +62,7 @@ import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.log.Metrics;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.jcommander.CmdUsageBuilder;
 
@@ -186,7 +187,10 @@ public class WritingSortingCollection
 			{
 			L.add(IOUtils.getDefaultTmpDir());
 			}
-		return L;
+		// a sub-directory private to this process, so the metrics only count our spilled files
+		return L.stream().
+				map(F->Metrics.getInstance().getProcessTmpDirectory(F)).
+				collect(Collectors.toList());
 		}
 	/** convert getTmpDirectories to Array of Path */
 	public Path[] getTmpPaths() {
@@ -709,6 +713,7 @@ public int doWork(final List<String> args)
 	}
 public int instanceMain(final String args[]) {
 	int ret=RETURN_OK;
+	boolean metricsStarted = false;
 	try 
 		{
 		final Status status = parseArgs(args);
@@ -721,6 +726,8 @@ public int instanceMain(final String args[]) {
 			case OK:break;
 			}
 		
+		Metrics.getInstance().start(getProgramName());
+		metricsStarted = true;
 		try 
 			{
 			ret = initialize();
@@ -745,6 +752,7 @@ public int instanceMain(final String args[]) {
 	finally
 		{
 		cleanup();
+		if(metricsStarted) Metrics.getInstance().stop();
 		}
 	return 0;
 	}
@@ -0,0 +1,415 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.google.gson.stream.JsonWriter;
+
+import htsjdk.samtools.util.StringUtil;
+
+/**
+ * Process-wide metrics shared by all the tools.
+ * 
+ * Counters and histograms are lock-free ({@link LongAdder}), they can be updated by any thread.
+ * The records are counted by {@link ProgressFactory} and by the SAMSequenceDictionaryProgress,
+ * the tools can add their own counters with {@link #counter(String)} and {@link #timer(String)}.
+ * 
+ * A snapshot adds the throughput rates, the GC activity, the bytes read/written by the process (linux only)
+ * and the number of 'sortingcollection.*.tmp' files spilled by this process: the tmp directories of the tools
+ * ({@link #getProcessTmpDirectory(File)}) are sub-directories private to the process, so the files of the other
+ * processes sharing the same tmp directory are not counted.
+ * 
+ * The metrics are exported via JMX as 'com.github.lindenb.jvarkit:type=Metrics' 
+ * (disable with -D{@value #JMX_PROPERTY}=false) and, if -D{@value #JSON_PROPERTY}=file.json is defined,
+ * dumped as JSON in that file every {@value #JSON_EVERY_SECS_PROPERTY} seconds (default 60) and at the end of the program.
+ * When a tool runs another tool (nested 'instanceMain'), only the outermost start/stop reset and dump the metrics.
+ */
+public class Metrics implements DynamicMBean {
+	private static final Logger LOG = Logger.build(Metrics.class).make();
+	public static final String JMX_PROPERTY = "jvarkit.metrics.jmx";
+	public static final String JSON_PROPERTY = "jvarkit.metrics.json";
+	public static final String JSON_EVERY_SECS_PROPERTY = "jvarkit.metrics.json.everysecs";
+	/** number of records seen by the progress loggers */
+	public static final String RECORDS = "records";
+	/** time between two records seen by the progress loggers */
+	public static final String RECORD_TIME = "record.time";
+	private static final String OBJECT_NAME = "com.github.lindenb.jvarkit:type=Metrics";
+	private static final Metrics INSTANCE = new Metrics();
+	
+	private final Map<String,Counter> counters = new ConcurrentHashMap<>();
+	private final Map<String,Timer> timers = new ConcurrentHashMap<>();
+	/** tmp directory -> sub-directory private to this process */
+	private final Map<File,File> processTmpDirectories = new ConcurrentHashMap<>();
+	private final LongAccumulator maxSpills = new LongAccumulator(Long::max, 0L);
+	private volatile String programName = "";
+	private volatile long startMillisec = System.currentTimeMillis();
+	private ObjectName objectName = null;
+	private ScheduledExecutorService dumpService = null;
+	/** number of nested calls to 'start' */
+	private int startDepth = 0;
+	/** a lock-free counter */
+	public static class Counter {
+		private final LongAdder adder = new LongAdder();
+		public void increment() { this.adder.increment();}
+		public void add(final long n) { this.adder.add(n);}
+		public long get() { return this.adder.sum();}
+		void reset() { this.adder.reset();}
+		}
+	
+	/** counts the records and the time between two consecutive records. Must be used by only one thread */
+	public static class RecordWatcher {
+		private final Counter counter;
+		private final Timer timer;
+		private long lastNanos = -1L;
+		private RecordWatcher(final Counter counter,final Timer timer) {
+			this.counter = counter;
+			this.timer = timer;
+			}
+		public void watch() {
+			final long now = System.nanoTime();
+			if(this.lastNanos != -1L) this.timer.record(now - this.lastNanos);
+			this.lastNanos = now;
+			this.counter.increment();
+			}
+		}
+	
+	/** a lock-free histogram of durations (nanoseconds), buckets are powers of two */
+	public static class Timer {
+		private final LongAdder[] buckets = new LongAdder[65];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Long::max, 0L);
+		Timer() {
+			for(int i=0;i< this.buckets.length;++i) this.buckets[i] = new LongAdder();
+			}
+		public void record(final long nanos) {
+			if(nanos < 0L) return;
+			this.buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+			this.count.increment();
+			this.sum.add(nanos);
+			this.max.accumulate(nanos);
+			}
+		public long getCount() { return this.count.sum();}
+		void reset() {
+			for(final LongAdder b: this.buckets) b.reset();
+			this.count.reset();
+			this.sum.reset();
+			this.max.reset();
+			}
+		public long getMean() {
+			final long n = getCount();
+			return n==0L?0L:this.sum.sum()/n;
+			}
+		public long getMax() { return this.max.get();}
+		/** approximate quantile: upper bound of the bucket */
+		public long getQuantile(final double q) {
+			final long n = getCount();
+			if(n==0L) return 0L;
+			final long target = (long)Math.ceil(q * n);
+			long cumul = 0L;
+			for(int i=0;i< this.buckets.length;++i) {
+				cumul += this.buckets[i].sum();
+				if(cumul >= target) return i==0?0L:Math.min(getMax(), (1L << Math.min(62, i)) - 1L);
+				}
+			return getMax();
+			}
+		}
+	
+	private Metrics() {
+		}
+	public static Metrics getInstance() {
+		return INSTANCE;
+		}
+	
+	/** get or create the counter 'name' */
+	public Counter counter(final String name) {
+		return this.counters.computeIfAbsent(name, K->new Counter());
+		}
+	
+	/** get or create the histogram 'name' */
+	public Timer timer(final String name) {
+		return this.timers.computeIfAbsent(name, K->new Timer());
+		}
+	
+	/** creates a new RecordWatcher updating {@value #RECORDS} and {@value #RECORD_TIME} */
+	public RecordWatcher newRecordWatcher() {
+		return new RecordWatcher(counter(RECORDS), timer(RECORD_TIME));
+		}
+	
+	/** get a sub-directory of 'dir' private to this process, created once and deleted at exit.
+	 * The spilled files of htsjdk SortingCollection are counted in those directories.
+	 * Returns 'dir' itself (not counted) if the sub-directory cannot be created.
+	 */
+	public File getProcessTmpDirectory(final File dir) {
+		return this.processTmpDirectories.computeIfAbsent(dir.getAbsoluteFile(), D->{
+			try {
+				final File sub = Files.createTempDirectory(D.toPath(), "jvarkit.").toFile();
+				sub.deleteOnExit();
+				return sub;
+				}
+			catch(final IOException|SecurityException err) {
+				LOG.warning("Cannot create a tmp directory in "+D+" "+err.getMessage());
+				return D;
+				}
+			});
+		}
+	
+	/** called by Launcher before the program starts: reset the values, register the MBean and start the JSON dumps.
+	 * Does nothing if a program is already running in this process (nested call).
+	 */
+	public synchronized void start(final String programName) {
+		if(this.startDepth++ > 0) return;
+		this.programName = programName;
+		this.startMillisec = System.currentTimeMillis();
+		this.counters.values().forEach(C->C.reset());
+		this.timers.values().forEach(T->T.reset());
+		this.maxSpills.reset();
+		if(this.objectName==null && !"false".equals(System.getProperty(JMX_PROPERTY,""))) {
+			try {
+				final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+				final ObjectName name = new ObjectName(OBJECT_NAME);
+				if(!mbs.isRegistered(name)) mbs.registerMBean(this, name);
+				this.objectName = name;
+				}
+			catch(final Throwable err) {
+				LOG.warning("Cannot register metrics MBean: "+err.getMessage());
+				}
+			}
+		final String json = System.getProperty(JSON_PROPERTY,"");
+		if(this.dumpService==null && !StringUtil.isBlank(json)) {
+			int seconds = 60;
+			try {
+				seconds = Math.max(1, Integer.parseInt(System.getProperty(JSON_EVERY_SECS_PROPERTY, "60")));
+				}
+			catch(final NumberFormatException err) {
+				//ignore
+				}
+			this.dumpService = Executors.newSingleThreadScheduledExecutor(R->{
+				final Thread t = new Thread(R, "metrics");
+				t.setDaemon(true);
+				return t;
+				});
+			this.dumpService.scheduleAtFixedRate(()->dump(new File(json)), seconds, seconds, TimeUnit.SECONDS);
+			}
+		}
+	
+	/** called by Launcher when the program ends: stop the periodic dumps and write the last JSON.
+	 * Does nothing for a nested call.
+	 */
+	public synchronized void stop() {
+		if(this.startDepth==0 || --this.startDepth > 0) return;
+		if(this.dumpService!=null) {
+			this.dumpService.shutdownNow();
+			this.dumpService = null;
+			}
+		final String json = System.getProperty(JSON_PROPERTY,"");
+		if(!StringUtil.isBlank(json)) dump(new File(json));
+		}
+	
+	/** current values of all the metrics */
+	public Map<String,Object> snapshot() {
+		final Map<String,Object> h = new LinkedHashMap<>();
+		final long now = System.currentTimeMillis();
+		final double seconds = Math.max(0.001,(now - this.startMillisec)/1000.0);
+		h.put("program", this.programName);
+		h.put("elapsed.millisec", now - this.startMillisec);
+		for(final String key: new ArrayList<>(this.counters.keySet())) {
+			final long n = this.counters.get(key).get();
+			h.put(key, n);
+			h.put(key+".per.second", n/seconds);
+			}
+		for(final String key: new ArrayList<>(this.timers.keySet())) {
+			final Timer t = this.timers.get(key);
+			h.put(key+".count", t.getCount());
+			h.put(key+".mean.nanosec", t.getMean());
+			h.put(key+".p50.nanosec", t.getQuantile(0.5));
+			h.put(key+".p90.nanosec", t.getQuantile(0.9));
+			h.put(key+".p99.nanosec", t.getQuantile(0.99));
+			h.put(key+".max.nanosec", t.getMax());
+			}
+		long gcCount = 0L;
+		long gcTime = 0L;
+		for(final GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0L, gc.getCollectionCount());
+			gcTime += Math.max(0L, gc.getCollectionTime());
+			}
+		h.put("gc.count", gcCount);
+		h.put("gc.time.millisec", gcTime);
+		final Runtime rt = Runtime.getRuntime();
+		h.put("memory.used", rt.totalMemory() - rt.freeMemory());
+		h.put("memory.max", rt.maxMemory());
+		// linux only: characters read/written by this process, including stdin/stdout
+		final File procIo = new File("/proc/self/io");
+		if(procIo.canRead()) {
+			try {
+				for(final String line: Files.readAllLines(procIo.toPath())) {
+					if(line.startsWith("rchar:")) h.put("io.bytes.read", Long.parseLong(line.substring(6).trim()));
+					else if(line.startsWith("wchar:")) h.put("io.bytes.written", Long.parseLong(line.substring(6).trim()));
+					}
+				}
+			catch(final IOException|NumberFormatException err) {
+				//ignore
+				}
+			}
+		final long spills = countSpills();
+		this.maxSpills.accumulate(spills);
+		h.put("tmp.spill.files", spills);
+		h.put("tmp.spill.files.max", this.maxSpills.get());
+		return h;
+		}
+	
+	private long countSpills() {
+		long n = 0L;
+		for(final Map.Entry<File,File> kv: this.processTmpDirectories.entrySet()) {
+			final File dir = kv.getValue();
+			// not a private directory
+			if(dir.equals(kv.getKey())) continue;
+			if(!dir.isDirectory()) continue;
+			try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir.toPath(), "sortingcollection.*.tmp")) {
+				for(@SuppressWarnings("unused") final Path p: ds) n++;
+				}
+			catch(final IOException err) {
+				//ignore
+				}
+			}
+		return n;
+		}
+	
+	/** the snapshot as a JSON object */
+	public String toJson() {
+		try {
+			final StringWriter sw = new StringWriter();
+			final JsonWriter w = new JsonWriter(sw);
+			w.beginObject();
+			for(final Map.Entry<String,Object> kv: snapshot().entrySet()) {
+				w.name(kv.getKey());
+				final Object v = kv.getValue();
+				if(v instanceof Double) w.value(((Double)v).doubleValue());
+				else if(v instanceof Number) w.value(((Number)v).longValue());
+				else w.value(String.valueOf(v));
+				}
+			w.endObject();
+			w.close();
+			return sw.toString();
+			}
+		catch(final IOException err) {
+			throw new IllegalStateException(err);
+			}
+		}
+	
+	/** write the JSON snapshot in 'file' */
+	public void dump(final File file) {
+		try {
+			final File tmp = new File(file.getAbsoluteFile().getParentFile(), "."+file.getName()+".tmp");
+			Files.write(tmp.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+		catch(final IOException err) {
+			LOG.warning("Cannot write metrics to "+file+" "+err.getMessage());
+			}
+		}
+	
+	/* JMX: one read-only attribute per metric */
+	@Override
+	public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+		if(attribute.equals("Json")) return toJson();
+		final Object o = snapshot().get(attribute);
+		if(o==null) throw new AttributeNotFoundException("Cannot find "+attribute+" attribute in "+Metrics.class.getName());
+		return o;
+		}
+	
+	@Override
+	public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Attribute " + attribute.getName() + " read only in " + Metrics.class.getName());
+		}
+	
+	@Override
+	public AttributeList getAttributes(final String[] attributes) {
+		final Map<String,Object> h = snapshot();
+		final AttributeList L = new AttributeList();
+		for(final String name: attributes) {
+			if(name.equals("Json")) L.add(new Attribute(name, toJson()));
+			else if(h.containsKey(name)) L.add(new Attribute(name, h.get(name)));
+			}
+		return L;
+		}
+	
+	@Override
+	public AttributeList setAttributes(final AttributeList attributes) {
+		return new AttributeList();
+		}
+	
+	@Override
+	public Object invoke(final String actionName, final Object[] params, final String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName), "Cannot find the operation " + actionName + " in " + Metrics.class.getName());
+		}
+	
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		final List<MBeanAttributeInfo> atts = new ArrayList<>();
+		for(final Map.Entry<String,Object> kv: snapshot().entrySet()) {
+			atts.add(new MBeanAttributeInfo(kv.getKey(), kv.getValue().getClass().getName(), kv.getKey(), true, false, false));
+			}
+		atts.add(new MBeanAttributeInfo("Json", String.class.getName(), "all the metrics as JSON", true, false, false));
+		return new MBeanInfo(
+				Metrics.class.getName(),
+				"jvarkit metrics",
+				atts.toArray(new MBeanAttributeInfo[atts.size()]),
+				null,
+				new MBeanOperationInfo[0],
+				null);
+		}
+	}
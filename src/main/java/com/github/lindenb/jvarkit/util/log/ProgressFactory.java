@@ -259,8 +259,10 @@ public static interface Watcher<T extends Locatable>
 private static class SilentWatcher<T extends Locatable>
 	implements Watcher<T>
 	{
+	private final Metrics.RecordWatcher metrics = Metrics.getInstance().newRecordWatcher();
 	@Override
 	public T apply(final T t) {
+		this.metrics.watch();
 		return t;
 		}
 	@Override
@@ -289,8 +291,8 @@ private static class WatcherImpl<T extends Locatable>
 	private long cumulLengthDone[]=null;
 	private long referenceLength=0L;
 	private String _logPrefix = null;
+	private final Metrics.RecordWatcher metrics = Metrics.getInstance().newRecordWatcher();
 
-	
 	@Override
 	public void run() {
 		if(this.EOF_flag) return;
@@ -386,7 +388,7 @@ private static class WatcherImpl<T extends Locatable>
 			}
 		
 		this.count_items++;
-		
+		this.metrics.watch();
 		//e.g: SAMRecord not mapped
 		if(StringUtil.isBlank(item.getContig()))
 			{
@@ -0,0 +1,339 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import com.github.lindenb.jvarkit.io.AsyncInputStream;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.ParallelBgzfInputStream;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.fastq.FastqConstants;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * A FASTQ reader decoding the records by batches into reusable byte-array-backed records.
+ * BGZF inputs are inflated on a pool of threads, plain gzip inputs are inflated
+ * in a background thread.
+ * 
+ * The records returned by {@link #nextBatch()} are recycled: they are only valid until the next
+ * call to {@link #nextBatch()}. Don't mix {@link #nextBatch()} with {@link #next()}.
+ */
+public class BatchFastqReader
+	implements FastqReader
+	{
+	private static final Logger LOG=Logger.build(BatchFastqReader.class).make();
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	private final File fastqFile;
+	private final InputStream in;
+	private ValidationStringency validationStringency=ValidationStringency.STRICT;
+	private final byte[] buffer = new byte[1<<16];
+	private int bufferPos = 0;
+	private int bufferLen = 0;
+	private boolean eof = false;
+	private long nLines = 0L;
+	private final Batch batch;
+	/** index in 'batch' for the record-level iterator */
+	private int recordIndex = 0;
+	
+	/** a FASTQ record backed by a byte array. The four lines are stored without their end-of-line. */
+	public static class Record
+		{
+		private byte[] data = new byte[512];
+		private int length = 0;
+		/** start of header, sequence, quality header, quality and end of record */
+		private final int[] offsets = new int[5];
+		
+		private void append(final byte[] b,final int off,final int len)
+			{
+			if(this.length + len > this.data.length)
+				{
+				this.data = Arrays.copyOf(this.data, Math.max(this.data.length*2, this.length + len));
+				}
+			System.arraycopy(b, off, this.data, this.length, len);
+			this.length += len;
+			}
+		private String string(final int field,final int skip)
+			{
+			return new String(this.data, this.offsets[field]+skip, this.offsets[field+1]-this.offsets[field]-skip, StandardCharsets.US_ASCII);
+			}
+		/** raw bytes of the record: use the get*Offset methods to access the data */
+		public byte[] getData() { return this.data;}
+		/** length of the sequence (and of the qualities) */
+		public int length() { return this.offsets[2]-this.offsets[1];}
+		public int getSequenceOffset() { return this.offsets[1];}
+		public int getQualityOffset() { return this.offsets[3];}
+		public byte getBaseAt(final int i) { return this.data[this.offsets[1]+i];}
+		public byte getQualityAt(final int i) { return this.data[this.offsets[3]+i];}
+		/** read name without the leading '@' */
+		public String getReadName() { return string(0,1);}
+		public String getReadString() { return string(1,0);}
+		/** quality header without the leading '+' */
+		public String getBaseQualityHeader() { return string(2,1);}
+		public String getBaseQualityString() { return string(3,0);}
+		/** convert to a htsjdk FastqRecord */
+		public FastqRecord toFastqRecord()
+			{
+			return new FastqRecord(getReadName(), getReadString(), getBaseQualityHeader(), getBaseQualityString());
+			}
+		@Override
+		public String toString()
+			{
+			return new String(this.data, 0, this.length, StandardCharsets.US_ASCII);
+			}
+		}
+	
+	/** a set of reusable records */
+	public static class Batch implements Iterable<Record>
+		{
+		private final Record[] records;
+		private int size = 0;
+		private Batch(final int capacity)
+			{
+			this.records = new Record[Math.max(1, capacity)];
+			for(int i=0;i< this.records.length;++i) this.records[i]=new Record();
+			}
+		public int size() { return this.size;}
+		public Record get(final int idx)
+			{
+			if(idx<0 || idx>=this.size) throw new IndexOutOfBoundsException("idx="+idx+" size="+this.size);
+			return this.records[idx];
+			}
+		@Override
+		public Iterator<Record> iterator()
+			{
+			return Arrays.asList(this.records).subList(0, this.size).iterator();
+			}
+		}
+	
+	/** open a FASTQ file. 'nThreads' is the number of threads used to inflate BGZF files */
+	public static BatchFastqReader open(final File fastqFile,final int nThreads) throws IOException
+		{
+		return open(fastqFile, new FileInputStream(fastqFile), nThreads, DEFAULT_BATCH_SIZE);
+		}
+	
+	/** open a FASTQ stream. 'nThreads' is the number of threads used to inflate BGZF streams */
+	public static BatchFastqReader open(final InputStream in,final int nThreads) throws IOException
+		{
+		return open(null, in, nThreads, DEFAULT_BATCH_SIZE);
+		}
+	
+	/** open a FASTQ stream, detects gzip/bgzf compression.
+	 * @param fastqFile the file, used for error messages. Can be null.
+	 * @param in the raw input stream
+	 * @param nThreads number of threads used to inflate BGZF streams
+	 * @param batchSize number of records per batch
+	 */
+	public static BatchFastqReader open(final File fastqFile,final InputStream in,final int nThreads,final int batchSize) throws IOException
+		{
+		final BufferedInputStream bin = new BufferedInputStream(in, 1<<16);
+		final byte[] head = new byte[18];
+		bin.mark(head.length);
+		int n = 0;
+		while(n < head.length)
+			{
+			final int c = bin.read(head, n, head.length-n);
+			if(c==-1) break;
+			n+=c;
+			}
+		bin.reset();
+		final InputStream decoded;
+		if(nThreads>1 && ParallelBgzfInputStream.isBgzfHeader(head, n))
+			{
+			decoded = new ParallelBgzfInputStream(bin, nThreads);
+			}
+		else if(IOUtils.isGZipCompressed(head))
+			{
+			decoded = new AsyncInputStream(new GZIPInputStream(bin, 1<<16));
+			}
+		else
+			{
+			decoded = bin;
+			}
+		return new BatchFastqReader(fastqFile, decoded, batchSize);
+		}
+	
+	private BatchFastqReader(final File fastqFile,final InputStream in,final int batchSize)
+		{
+		this.fastqFile = fastqFile;
+		this.in = in;
+		this.batch = new Batch(batchSize);
+		}
+	
+	@Override
+	public void setValidationStringency(final ValidationStringency validationStringency) {
+		this.validationStringency = validationStringency;
+		}
+	
+	@Override
+	public ValidationStringency getValidationStringency() {
+		return this.validationStringency;
+		}
+	
+	/** @return the FASTQ file or null if not known */
+	public File getFile() { return this.fastqFile;}
+	
+	public long getLineNumber() { return this.nLines;}
+	
+	private String error(final String msg)
+		{
+		return msg + " at line "+ getLineNumber()+" in fastq \""+(this.fastqFile==null?"":this.fastqFile.getAbsolutePath())+"\".";
+		}
+	
+	private void throw_error(final String msg)
+		{
+		switch(getValidationStringency())
+			{
+			case LENIENT: LOG.warning(msg);break;
+			case STRICT: throw new RuntimeException(msg);
+			default:break;
+			}
+		}
+	
+	/** append the next line to 'rec'. returns false at end of file */
+	private boolean readLine(final Record rec) throws IOException
+		{
+		final int start = rec.length;
+		boolean found = false;
+		for(;;)
+			{
+			if(this.bufferPos >= this.bufferLen)
+				{
+				if(this.eof) break;
+				this.bufferLen = this.in.read(this.buffer, 0, this.buffer.length);
+				this.bufferPos = 0;
+				if(this.bufferLen<=0)
+					{
+					this.bufferLen = 0;
+					this.eof = true;
+					break;
+					}
+				}
+			found = true;
+			int i = this.bufferPos;
+			while(i < this.bufferLen && this.buffer[i]!='\n') i++;
+			rec.append(this.buffer, this.bufferPos, i - this.bufferPos);
+			if(i < this.bufferLen)
+				{
+				this.bufferPos = i+1;
+				break;
+				}
+			this.bufferPos = i;
+			}
+		if(!found) return false;
+		if(rec.length > start && rec.data[rec.length-1]=='\r') rec.length--;
+		this.nLines++;
+		return true;
+		}
+	
+	/** read the next record into 'rec'. returns false at end of file */
+	private boolean readRecord(final Record rec) throws IOException
+		{
+		rec.length = 0;
+		rec.offsets[0] = 0;
+		if(!readLine(rec)) return false;
+		if(rec.length==0)
+			{
+			throw new RuntimeException(error("Missing sequence header"));
+			}
+		if(rec.data[0]!=FastqConstants.SEQUENCE_HEADER.charAt(0))
+			{
+			throw new RuntimeException(error("Sequence header must start with "+ FastqConstants.SEQUENCE_HEADER));
+			}
+		rec.offsets[1] = rec.length;
+		if(!readLine(rec)) throw new RuntimeException(error("File is too short - missing sequence line"));
+		if(rec.length==rec.offsets[1]) throw_error(error("Missing sequence line"));
+		rec.offsets[2] = rec.length;
+		if(!readLine(rec)) throw new RuntimeException(error("File is too short - missing quality header line"));
+		if(rec.length==rec.offsets[2] || rec.data[rec.offsets[2]]!=FastqConstants.QUALITY_HEADER.charAt(0))
+			{
+			throw new RuntimeException(error("Quality header must start with "+ FastqConstants.QUALITY_HEADER));
+			}
+		rec.offsets[3] = rec.length;
+		if(!readLine(rec)) throw new RuntimeException(error("File is too short - missing quality line"));
+		if(rec.length==rec.offsets[3]) throw_error(error("Missing quality line"));
+		rec.offsets[4] = rec.length;
+		if(rec.offsets[2]-rec.offsets[1] != rec.offsets[4]-rec.offsets[3])
+			{
+			throw new RuntimeException(error("Sequence and quality line must be the same length"));
+			}
+		return true;
+		}
+	
+	/** read the next batch of records. The returned batch and its records are recycled
+	 * by the next call to this method.
+	 * @return the next batch or null at end of file
+	 */
+	public Batch nextBatch()
+		{
+		this.batch.size = 0;
+		this.recordIndex = 0;
+		try {
+			while(this.batch.size < this.batch.records.length &&
+				readRecord(this.batch.records[this.batch.size]))
+				{
+				this.batch.size++;
+				}
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(error("Cannot read"), err);
+			}
+		return this.batch.size==0?null:this.batch;
+		}
+	
+	@Override
+	public boolean hasNext()
+		{
+		if(this.recordIndex < this.batch.size) return true;
+		return nextBatch()!=null;
+		}
+	
+	@Override
+	public FastqRecord next()
+		{
+		if(!hasNext()) throw new NoSuchElementException("next() called when !hasNext()");
+		return this.batch.records[this.recordIndex++].toFastqRecord();
+		}
+	
+	@Override
+	public void close()
+		{
+		CloserUtil.close(this.in);
+		}
+	}
@@ -33,6 +33,7 @@ import java.io.IOException;
 
 
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.log.Metrics;
 import htsjdk.variant.vcf.VCFIterator;
 
 import htsjdk.samtools.SAMFileHeader;
@@ -57,6 +58,7 @@ public class SAMSequenceDictionaryProgress
 	private long print_every_n_seconds=10L;
 	private String logPrefix=null;
 	private Handler handler=null;
+	private final Metrics.RecordWatcher metrics = Metrics.getInstance().newRecordWatcher();
 	
 	private Logger getLogger() {
 		return log==null?_LOG:log;
@@ -301,6 +303,7 @@ public class SAMSequenceDictionaryProgress
 	private boolean incr()
 		{
 		this.count++;
+		this.metrics.watch();
 		this.curr_ticks=System.currentTimeMillis();
 	
 		if(this.start_ticks==-1L )
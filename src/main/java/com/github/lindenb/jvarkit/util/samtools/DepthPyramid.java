@@ -0,0 +1,705 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.github.lindenb.jvarkit.math.stats.Percentile;
+import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * A pre-computed, multi-resolution depth of coverage of a BAM file.
+ * 
+ * The file contains some regions (e.g: the capture of an exome). For each region
+ * the level '0' contains the depth and the number of clipped bases at each position,
+ * the level 'k' contains the min/max/mean of those values in bins of 2^k bases.
+ * A query is answered by combining the largest bins inside the query, so the cost depends
+ * on the log of the length of the query, not on the number of reads.
+ * 
+ * The depth is the number of M/X/= operators of the reads covering a base. The clipping
+ * is the number of soft/hard-clipped bases 'projected' on the reference.
+ * 
+ * The header contains the size and the modification time of the BAM, the filter expression
+ * and a digest of the regions used to build the file, so a reader can check that the pyramid
+ * still matches the BAM and its own parameters.
+ */
+public class DepthPyramid implements Closeable {
+	private static final Logger LOG = Logger.build(DepthPyramid.class).make();
+	/** default suffix for a pyramid associated to a BAM */
+	public static final String SUFFIX = ".dpyr";
+	private static final int MAGIC = 0x44505952;
+	private static final int VERSION = 2;
+	/** magic, version, bam length, bam modification time, regions digest, filter length */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 16 + 4;
+	/** level-0: int depth, int clip */
+	private static final int BASE_RECORD_SIZE = 8;
+	/** level-k: float depth min/max/mean, float clip min/max/mean */
+	private static final int BIN_RECORD_SIZE = 24;
+	/** below this number of bases, the values are computed from level-0 */
+	private static final int EXACT_MAX_LENGTH = 256;
+	/** MEDIAN/RANDOM must be computed using at least this number of bins */
+	private static final int MIN_BINS_FOR_PERCENTILE = 64;
+	/** number of bases in one block of the sliding window used to build a region */
+	private static final int BLOCK_SIZE = 1<<16;
+	/** a block is written when the next read starts more than this number of bases after its end.
+	 * Clipped bases projected further before the start of their read are ignored */
+	private static final int MAX_CLIP_LOOKBACK = 1<<20;
+	
+	private final File file;
+	private final FileChannel channel;
+	private final long bamLength;
+	private final long bamLastModified;
+	private final byte regionsDigest[];
+	private final String filterExpression;
+	private final IntervalTreeMap<Region> regions = new IntervalTreeMap<>();
+	private final Random random = new Random(0L);
+	
+	/** depth and clipping of a genomic range */
+	public static class Value {
+		private final double depth;
+		private final double clipping;
+		Value(final double depth,final double clipping) {
+			this.depth = depth;
+			this.clipping = clipping;
+			}
+		public double getDepth() {
+			return depth;
+			}
+		public double getClipping() {
+			return clipping;
+			}
+		@Override
+		public String toString() {
+			return "depth:"+depth+" clip:"+clipping;
+			}
+		}
+	
+	/** one region of the file, with the position of each level */
+	private static class Region extends Interval {
+		private static final long serialVersionUID = 1L;
+		final long offsets[];
+		Region(final String contig,final int start,final int end,final long offset) {
+			super(contig,start,end);
+			final int len = length();
+			final List<Long> L = new ArrayList<>();
+			long n = offset;
+			L.add(n);
+			n += (long)len * BASE_RECORD_SIZE;
+			int k=1;
+			while(countBins(len, k-1) > 1) {
+				L.add(n);
+				n += (long)countBins(len, k) * BIN_RECORD_SIZE;
+				k++;
+				}
+			L.add(n);//end of region
+			this.offsets = L.stream().mapToLong(X->X).toArray();
+			}
+		int getLevelCount() {
+			return this.offsets.length-1;
+			}
+		}
+	
+	/** one bin or one base of the pyramid */
+	private static class Piece {
+		int weight;
+		double depthMin;
+		double depthMax;
+		double depthMean;
+		double clipMin;
+		double clipMax;
+		double clipMean;
+		}
+	
+	private static int countBins(final int len,final int level) {
+		return (int)(((long)len + (1L<<level) - 1L) >> level);
+		}
+	
+	private DepthPyramid(final File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		final long size = this.channel.size();
+		if(size < 16L) throw new IOException("Not a depth pyramid "+file);
+		ByteBuffer buf = read(size-8L, 8);
+		final long indexOffset = buf.getLong();
+		buf = read(0L, 8);
+		if(buf.getInt()!=MAGIC) throw new IOException("Not a depth pyramid "+file);
+		final int version = buf.getInt();
+		if(version!=VERSION) throw new IOException("Unsupported version "+version+" in "+file);
+		buf = read(8L, HEADER_SIZE - 8);
+		this.bamLength = buf.getLong();
+		this.bamLastModified = buf.getLong();
+		this.regionsDigest = new byte[16];
+		buf.get(this.regionsDigest);
+		this.filterExpression = new String(read(HEADER_SIZE, buf.getInt()).array(), "UTF-8");
+		buf = read(indexOffset, (int)(size - 8L - indexOffset));
+		final int n = buf.getInt();
+		for(int i=0;i< n;i++) {
+			final byte b[] = new byte[buf.getShort()];
+			buf.get(b);
+			final String contig = new String(b, "UTF-8");
+			final int start = buf.getInt();
+			final int end = buf.getInt();
+			final long offset = buf.getLong();
+			final Region r = new Region(contig, start, end, offset);
+			this.regions.put(r, r);
+			}
+		}
+	
+	/** open an existing pyramid */
+	public static DepthPyramid open(final File file) throws IOException {
+		return new DepthPyramid(file);
+		}
+	
+	/** open the default pyramid associated to a BAM, or return null (with a warning) if it's missing, unreadable,
+	 * out of date or if it was built with another filter than 'filter' */
+	public static DepthPyramid openForBam(final File bamFile,final SamRecordFilter filter) throws IOException {
+		final File f = getDefaultFile(bamFile);
+		if(!f.exists()) {
+			LOG.warn("No depth pyramid "+f+". Depth will be read from "+bamFile);
+			return null;
+			}
+		final DepthPyramid pyramid;
+		try {
+			pyramid = open(f);
+			}
+		catch(final IOException err) {
+			LOG.warn("Cannot read depth pyramid "+f+" ("+err.getMessage()+"). Depth will be read from "+bamFile);
+			return null;
+			}
+		if(!pyramid.isUpToDate(bamFile)) {
+			LOG.warn("Depth pyramid "+f+" is older than "+bamFile+" and will be ignored.");
+			pyramid.close();
+			return null;
+			}
+		if(!pyramid.hasFilter(filter)) {
+			LOG.warn("Depth pyramid "+f+" was built with the filter \""+pyramid.getFilterExpression()+"\" but the filter is \""+
+				getFilterExpression(filter)+"\". Depth will be read from "+bamFile);
+			pyramid.close();
+			return null;
+			}
+		return pyramid;
+		}
+	
+	/** the expression of a filter as stored in a pyramid: empty if the filter is null or accepts all the reads */
+	public static String getFilterExpression(final SamRecordFilter filter) {
+		if(filter==null || filter==SamFilterParser.ACCEPT_ALL) return "";
+		return filter.toString().trim();
+		}
+	/** default pyramid file for a BAM: 'bam'+SUFFIX */
+	public static File getDefaultFile(final File bamFile) {
+		return new File(bamFile.getPath()+SUFFIX);
+		}
+	
+	public File getFile() {
+		return this.file;
+		}
+	
+	/** return true if the BAM has the same size and the same modification time as when the pyramid was built */
+	public boolean isUpToDate(final File bamFile) {
+		return bamFile.length()==this.bamLength && bamFile.lastModified()==this.bamLastModified;
+		}
+	
+	/** return true if the BAM is unchanged and if the pyramid was built with the same regions and the same filter */
+	public boolean isUpToDate(final File bamFile,final List<? extends Locatable> regions,final SamRecordFilter filter) {
+		return isUpToDate(bamFile) &&
+			hasFilter(filter) &&
+			Arrays.equals(this.regionsDigest, digest(mergeRegions(regions)));
+		}
+	
+	/** return true if the pyramid was built with the same filter expression */
+	public boolean hasFilter(final SamRecordFilter filter) {
+		return this.filterExpression.equals(getFilterExpression(filter));
+		}
+	
+	/** the expression of the filter used to build this pyramid. Empty if all the reads were used */
+	public String getFilterExpression() {
+		return this.filterExpression;
+		}
+	private Region findRegion(final String contig,final int start,final int end) {
+		return this.regions.getOverlapping(new Interval(contig, start, end)).
+			stream().
+			filter(R->R.getStart()<=start && end <= R.getEnd()).
+			findFirst().
+			orElse(null);
+		}
+	
+	/** return true if contig:start-end is fully contained in one region of this pyramid */
+	public boolean contains(final String contig,final int start,final int end) {
+		return findRegion(contig, start, end)!=null;
+		}
+	
+	private ByteBuffer read(final long offset,final int len) throws IOException {
+		final ByteBuffer buf = ByteBuffer.allocate(len);
+		while(buf.hasRemaining()) {
+			if(this.channel.read(buf, offset + buf.position())<0) throw new IOException("Unexpected EOF in "+this.file);
+			}
+		buf.flip();
+		return buf;
+		}
+	
+	/** compute the depth/clipping of contig:start-end (1-based, inclusive) using the percentile 'type', like 
+	 * <code>Percentile.of(type).evaluate(values)</code> would do on the per-base values.
+	 * MIN, MAX, SUM and AVERAGE are exact (modulo float precision). MEDIAN and RANDOM are approximated
+	 * with the means of at least 64 bins when the range is larger than 256 bases.
+	 * @throws IllegalArgumentException if the range is not contained in a region
+	 */
+	public Value evaluate(final String contig,final int start,final int end,final Percentile.Type type) throws IOException {
+		if(start>end) throw new IllegalArgumentException("start>end "+start+">"+end);
+		final Region region = findRegion(contig, start, end);
+		if(region==null) throw new IllegalArgumentException(contig+":"+start+"-"+end+" is not in "+this.file);
+		final int len = end - start + 1;
+		final int a0 = start - region.getStart();
+		if(len <= EXACT_MAX_LENGTH) {
+			final ByteBuffer buf = read(region.offsets[0] + (long)a0 * BASE_RECORD_SIZE, len * BASE_RECORD_SIZE);
+			final int depth[] = new int[len];
+			final int clip[] = new int[len];
+			for(int i=0;i< len;i++) {
+				depth[i] = buf.getInt();
+				clip[i] = buf.getInt();
+				}
+			final Percentile percentile = Percentile.of(type);
+			return new Value(percentile.evaluate(depth),percentile.evaluate(clip));
+			}
+		final int maxLevel;
+		switch(type) {
+			case MEDIAN: case RANDOM:
+				maxLevel = Math.max(0, 31 - Integer.numberOfLeadingZeros(len/MIN_BINS_FOR_PERCENTILE));
+				break;
+			default: maxLevel = Integer.MAX_VALUE; break;
+			}
+		final List<Piece> pieces = decompose(region, a0, a0 + len, maxLevel);
+		switch(type) {
+			case MIN: return new Value(
+					pieces.stream().mapToDouble(P->P.depthMin).min().getAsDouble(),
+					pieces.stream().mapToDouble(P->P.clipMin).min().getAsDouble()
+					);
+			case MAX: return new Value(
+					pieces.stream().mapToDouble(P->P.depthMax).max().getAsDouble(),
+					pieces.stream().mapToDouble(P->P.clipMax).max().getAsDouble()
+					);
+			case SUM: return new Value(
+					pieces.stream().mapToDouble(P->P.depthMean*P.weight).sum(),
+					pieces.stream().mapToDouble(P->P.clipMean*P.weight).sum()
+					);
+			case AVERAGE: return new Value(
+					pieces.stream().mapToDouble(P->P.depthMean*P.weight).sum()/len,
+					pieces.stream().mapToDouble(P->P.clipMean*P.weight).sum()/len
+					);
+			case MEDIAN: return new Value(
+					weightedMedian(pieces, P->P.depthMean, len),
+					weightedMedian(pieces, P->P.clipMean, len)
+					);
+			case RANDOM: {
+				final Piece p = weightedRandom(pieces,len);
+				return new Value(p.depthMean, p.clipMean);
+				}
+			default: throw new IllegalStateException("bad Percentile type :"+type);
+			}
+		}
+	
+	/** cover [a,b) (0-based, relative to the region) with the largest aligned bins */
+	private List<Piece> decompose(final Region region,int a,final int b,final int maxLevel) throws IOException {
+		final int L = region.length();
+		final List<Piece> pieces = new ArrayList<>();
+		while(a < b) {
+			int k = 0;
+			while(k+1 < region.getLevelCount() && k+1 <= maxLevel) {
+				final long size = 1L << (k+1);
+				if(a % size != 0L) break;
+				// a bin ending after the region is allowed if the query ends with the region
+				if(a + size > b && b != L) break;
+				k++;
+				}
+			final Piece p;
+			if(k==0) {
+				final ByteBuffer buf = read(region.offsets[0] + (long)a * BASE_RECORD_SIZE, BASE_RECORD_SIZE);
+				p = new Piece();
+				p.depthMin = p.depthMax = p.depthMean = buf.getInt();
+				p.clipMin = p.clipMax = p.clipMean = buf.getInt();
+				p.weight = 1;
+				}
+			else
+				{
+				final ByteBuffer buf = read(region.offsets[k] + (long)(a >> k) * BIN_RECORD_SIZE, BIN_RECORD_SIZE);
+				p = new Piece();
+				p.depthMin = buf.getFloat();
+				p.depthMax = buf.getFloat();
+				p.depthMean = buf.getFloat();
+				p.clipMin = buf.getFloat();
+				p.clipMax = buf.getFloat();
+				p.clipMean = buf.getFloat();
+				p.weight = (int)Math.min((long)a + (1L<<k), (long)L) - a;
+				}
+			pieces.add(p);
+			a += p.weight;
+			}
+		return pieces;
+		}
+	
+	private static double weightedMedian(final List<Piece> pieces,final java.util.function.ToDoubleFunction<Piece> fun,final int len) {
+		final List<Piece> sorted = new ArrayList<>(pieces);
+		sorted.sort(Comparator.comparingDouble(fun));
+		long n = 0L;
+		for(final Piece p: sorted) {
+			n += p.weight;
+			if(n*2L >= len) return fun.applyAsDouble(p);
+			}
+		return fun.applyAsDouble(sorted.get(sorted.size()-1));
+		}
+	
+	private synchronized Piece weightedRandom(final List<Piece> pieces,final int len) {
+		int n = this.random.nextInt(len);
+		for(final Piece p: pieces) {
+			if(n < p.weight) return p;
+			n -= p.weight;
+			}
+		return pieces.get(pieces.size()-1);
+		}
+	
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+		}
+	
+	@Override
+	public String toString() {
+		return "DepthPyramid("+this.file+")";
+		}
+	
+	/** 
+	 * build a pyramid for a BAM file.
+	 * @param samReader indexed BAM
+	 * @param bamFile the BAM file (used to check if the pyramid is up to date) or null
+	 * @param regions regions to be saved. contig names must be the names used by the BAM. Overlapping regions are merged.
+	 * @param filter records filter
+	 * @param out output file
+	 */
+	public static void build(
+			final SamReader samReader,
+			final File bamFile,
+			final List<? extends Locatable> regions,
+			final SamRecordFilter filter,
+			final File out
+			) throws IOException
+		{
+		final List<Interval> merged = mergeRegions(regions);
+		final File tmp = File.createTempFile("tmp.", SUFFIX, out.getAbsoluteFile().getParentFile());
+		try {
+			final List<Long> offsets = new ArrayList<>(merged.size());
+			try(FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+				final byte filterBytes[] = getFilterExpression(filter).getBytes("UTF-8");
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + filterBytes.length);
+				header.putInt(MAGIC);
+				header.putInt(VERSION);
+				header.putLong(bamFile==null?-1L:bamFile.length());
+				header.putLong(bamFile==null?-1L:bamFile.lastModified());
+				header.put(digest(merged));
+				header.putInt(filterBytes.length);
+				header.put(filterBytes);
+				header.flip();
+				write(channel, header, 0L);
+				long offset = header.capacity();
+				for(final Interval r: merged) {
+					LOG.debug("building pyramid for "+r);
+					offsets.add(offset);
+					final Region region = new Region(r.getContig(), r.getStart(), r.getEnd(), offset);
+					writeRegion(channel, samReader, region, filter);
+					offset = region.offsets[region.getLevelCount()];
+					}
+				// index
+				final ByteArrayOutputStream index = new ByteArrayOutputStream();
+				try(DataOutputStream dos = new DataOutputStream(index)) {
+					dos.writeInt(merged.size());
+					for(int i=0;i< merged.size();i++) {
+						final Interval r = merged.get(i);
+						final byte b[] = r.getContig().getBytes("UTF-8");
+						dos.writeShort(b.length);
+						dos.write(b);
+						dos.writeInt(r.getStart());
+						dos.writeInt(r.getEnd());
+						dos.writeLong(offsets.get(i));
+						}
+					dos.writeLong(offset);
+					}
+				write(channel, ByteBuffer.wrap(index.toByteArray()), offset);
+				}
+			Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		finally
+			{
+			Files.deleteIfExists(tmp.toPath());
+			}
+		}
+	
+	private static void write(final FileChannel channel,final ByteBuffer buf,final long offset) throws IOException {
+		long pos = offset;
+		while(buf.hasRemaining()) {
+			pos += channel.write(buf, pos);
+			}
+		}
+	
+	/** MD5 of the merged regions */
+	private static byte[] digest(final List<Interval> merged) {
+		try {
+			final MessageDigest md5 = MessageDigest.getInstance("MD5");
+			for(final Interval r: merged) {
+				md5.update((r.getContig()+":"+r.getStart()+"-"+r.getEnd()+"\n").getBytes());
+				}
+			return md5.digest();
+			}
+		catch(final NoSuchAlgorithmException err) {
+			throw new IllegalStateException(err);
+			}
+		}
+	
+	private static List<Interval> mergeRegions(final List<? extends Locatable> regions) {
+		final List<Interval> sorted = new ArrayList<>(regions.size());
+		for(final Locatable loc: regions) sorted.add(new Interval(loc.getContig(), loc.getStart(), loc.getEnd()));
+		sorted.sort(Comparator.comparing(Interval::getContig).thenComparingInt(Interval::getStart));
+		final List<Interval> merged = new ArrayList<>(sorted.size());
+		for(final Interval r: sorted) {
+			if(r.getStart()>r.getEnd()) continue;
+			if(!merged.isEmpty()) {
+				final Interval last = merged.get(merged.size()-1);
+				if(last.getContig().equals(r.getContig()) && r.getStart() <= last.getEnd()+1) {
+					merged.set(merged.size()-1, new Interval(last.getContig(), last.getStart(), Math.max(last.getEnd(),r.getEnd())));
+					continue;
+					}
+				}
+			merged.add(r);
+			}
+		return merged;
+		}
+	
+	/** write one region at the offsets of 'r' */
+	private static void writeRegion(
+			final FileChannel channel,
+			final SamReader samReader,
+			final Region r,
+			final SamRecordFilter filter
+			) throws IOException {
+		final RegionWriter writer = new RegionWriter(channel, r);
+		try(SAMRecordIterator iter = samReader.queryOverlapping(r.getContig(), r.getStart(), r.getEnd())) {
+			while(iter.hasNext()) {
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				if(filter!=null && filter.filterOut(rec)) continue;
+				final Cigar cigar = rec.getCigar();
+				if(cigar==null || cigar.isEmpty()) continue;
+				// records are sorted on start: no later record can touch the bases far before this one
+				writer.flushBefore((long)rec.getAlignmentStart() - MAX_CLIP_LOOKBACK);
+				int ref1 = rec.getUnclippedStart();
+				for(final CigarElement ce: cigar) {
+					final CigarOperator op = ce.getOperator();
+					if(op.isClipping()) {
+						for(int x=0;x< ce.getLength();++x) {
+							final int pos = ref1+x;
+							if(pos < writer.windowStart) continue;
+							if(pos > r.getEnd()) break;
+							writer.increment(pos, 1);
+							}
+						ref1 += ce.getLength();
+						}
+					else if(op.consumesReferenceBases()) {
+						if(op.consumesReadBases()) {
+							for(int x=0;x< ce.getLength();++x) {
+								final int pos = ref1+x;
+								if(pos < writer.windowStart) continue;
+								if(pos > r.getEnd()) break;
+								writer.increment(pos, 0);
+								}
+							}
+						ref1 += ce.getLength();
+						}
+					}
+				}
+			}
+		writer.finish();
+		}
+	
+	/** 
+	 * writes the levels of one region in a single pass with a bounded memory.
+	 * The depth/clip are counted in a sliding window of blocks of BLOCK_SIZE bases. When a block is
+	 * complete, its bases are written to level 0 and are merged, level after level, with the pending
+	 * bin of each level: each level has its own small buffer flushed at its own offset in the file.
+	 */
+	private static class RegionWriter {
+		private final FileChannel channel;
+		private final Region region;
+		/** 1-based position of the first base of blocks.get(0) */
+		long windowStart;
+		/** interleaved depth/clip of the bases in the window */
+		private final List<int[]> blocks = new ArrayList<>();
+		private final List<int[]> freeBlocks = new ArrayList<>();
+		private final ByteBuffer buffers[];
+		/** file offset of buffers[level] */
+		private final long positions[];
+		/** depth min/max/mean, clip min/max/mean of the bin waiting for its right sibling at each level */
+		private final double pending[][];
+		/** number of bases in pending[level], or 0 if there is no pending bin */
+		private final long weights[];
+		private final double merged[][];
+		private final double base[] = new double[6];
+		
+		RegionWriter(final FileChannel channel,final Region region) {
+			this.channel = channel;
+			this.region = region;
+			this.windowStart = region.getStart();
+			final int nLevels = region.getLevelCount();
+			this.buffers = new ByteBuffer[nLevels];
+			this.positions = new long[nLevels];
+			this.pending = new double[nLevels][6];
+			this.weights = new long[nLevels];
+			this.merged = new double[nLevels][6];
+			for(int level=0;level< nLevels;level++) {
+				final long levelSize = region.offsets[level+1] - region.offsets[level];
+				final long bufferSize = level==0 ? BASE_RECORD_SIZE * 8192L : BIN_RECORD_SIZE * 2048L;
+				this.buffers[level] = ByteBuffer.allocate((int)Math.min(levelSize, bufferSize));
+				this.positions[level] = region.offsets[level];
+				}
+			}
+		
+		/** increment the depth (offset=0) or the clipping (offset=1) at 'pos', windowStart &le; pos &le; region end */
+		void increment(final int pos,final int offset) {
+			final long i = pos - this.windowStart;
+			final int b = (int)(i / BLOCK_SIZE);
+			while(this.blocks.size() <= b) {
+				this.blocks.add(this.freeBlocks.isEmpty() ? new int[BLOCK_SIZE*2] : this.freeBlocks.remove(this.freeBlocks.size()-1));
+				}
+			this.blocks.get(b)[(int)(i % BLOCK_SIZE)*2 + offset]++;
+			}
+		
+		/** write the blocks ending before 'pos' */
+		void flushBefore(final long pos) throws IOException {
+			while(this.windowStart + BLOCK_SIZE <= pos && this.windowStart <= this.region.getEnd()) {
+				flushBlock();
+				}
+			}
+		
+		private void flushBlock() throws IOException {
+			final int n = (int)Math.min(BLOCK_SIZE, this.region.getEnd() - this.windowStart + 1L);
+			final int block[] = this.blocks.isEmpty() ? null : this.blocks.remove(0);
+			for(int i=0;i< n;i++) {
+				this.base[0] = this.base[1] = this.base[2] = (block==null ? 0 : block[i*2]);
+				this.base[3] = this.base[4] = this.base[5] = (block==null ? 0 : block[i*2+1]);
+				emit(0, this.base, 1L);
+				}
+			if(block!=null) {
+				Arrays.fill(block, 0);
+				this.freeBlocks.add(block);
+				}
+			this.windowStart += BLOCK_SIZE;
+			}
+		
+		/** write the bin 'v' of 'level' and merge it with its left sibling, if any */
+		private void emit(final int level,final double v[],final long weight) throws IOException {
+			final ByteBuffer buf = this.buffers[level];
+			if(level==0) {
+				if(buf.remaining() < BASE_RECORD_SIZE) flush(level);
+				buf.putInt((int)v[0]);
+				buf.putInt((int)v[3]);
+				}
+			else
+				{
+				if(buf.remaining() < BIN_RECORD_SIZE) flush(level);
+				for(int i=0;i< 6;i++) buf.putFloat((float)v[i]);
+				}
+			if(level+1 == this.buffers.length) return;
+			final double p[] = this.pending[level];
+			final long wl = this.weights[level];
+			if(wl==0L) {
+				System.arraycopy(v, 0, p, 0, 6);
+				this.weights[level] = weight;
+				return;
+				}
+			final double m[] = this.merged[level];
+			m[0] = Math.min(p[0], v[0]);
+			m[1] = Math.max(p[1], v[1]);
+			m[2] = (p[2]*wl + v[2]*weight)/(wl+weight);
+			m[3] = Math.min(p[3], v[3]);
+			m[4] = Math.max(p[4], v[4]);
+			m[5] = (p[5]*wl + v[5]*weight)/(wl+weight);
+			this.weights[level] = 0L;
+			emit(level+1, m, wl+weight);
+			}
+		
+		private void flush(final int level) throws IOException {
+			final ByteBuffer buf = this.buffers[level];
+			buf.flip();
+			final int n = buf.remaining();
+			write(this.channel, buf, this.positions[level]);
+			this.positions[level] += n;
+			buf.clear();
+			}
+		
+		/** write the remaining bases, the last bin of each level and flush the buffers */
+		void finish() throws IOException {
+			while(this.windowStart <= this.region.getEnd()) {
+				flushBlock();
+				}
+			// a bin without right sibling is copied to the next level
+			for(int level=0;level+1< this.buffers.length;level++) {
+				final long w = this.weights[level];
+				if(w==0L) continue;
+				this.weights[level] = 0L;
+				emit(level+1, this.pending[level], w);
+				}
+			for(int level=0;level< this.buffers.length;level++) {
+				flush(level);
+				if(this.positions[level]!=this.region.offsets[level+1]) {
+					throw new IllegalStateException("bad size for level "+level+" of "+this.region);
+					}
+				}
+			}
+		}
+	}
@@ -27,13 +27,14 @@ package com.github.lindenb.jvarkit.util.samtools;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
-
+import java.util.function.Predicate;
 import org.apache.commons.jexl2.Expression;
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlException;
 
 import com.beust.jcommander.IStringConverter;
-
+import com.github.lindenb.jvarkit.lang.JexlToJava;
+import com.github.lindenb.jvarkit.util.log.Logger;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.filter.SamRecordFilter;
@@ -47,11 +48,13 @@ import htsjdk.variant.variantcontext.VariantContextUtils;
  */
 public class SamRecordJEXLFilter
 	implements SamRecordFilter {
+	private static final Logger LOG = Logger.build(SamRecordJEXLFilter.class).make();
 	public static final String FILTER_DESCRIPTION = 
 			"A JEXL Expression that will be used to filter out some sam-records (see https://software.broadinstitute.org/gatk/documentation/article.php?id=1255). "+
 			"An expression should return a boolean value (true=exclude, false=keep the read). "
 			+ "An empty expression keeps everything. "
-			+ "The variable 'record' is the current observed read, an instance of SAMRecord (https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/samtools/SAMRecord.html)."
+			+ "The variable 'record' is the current observed read, an instance of SAMRecord (https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/samtools/SAMRecord.html). "
+			+ "Setting the java property -D"+JexlToJava.COMPILE_PROPERTY+"=true compiles the expression to java when possible."
 			;
     public static final String DEFAULT_FILTER = 
     		  "record.getMappingQuality()<1 || "
@@ -63,15 +66,13 @@ public class SamRecordJEXLFilter
 	private static final Map<String,Function<SAMRecord,Object>> MAPPER=new HashMap<>();
 	static {
 		MAPPER.put("record",R->R);
-		MAPPER.put("CLIPPED",R->{
-			if(R.getReadUnmappedFlag()) return false;
-			final Cigar c=R.getCigar();
-			return(c!=null && c.isClipped());
-		});
+		MAPPER.put("CLIPPED",R->isClipped(R));
 		};
 	
 	private final String exprStr;
 	private final Expression expr;
+	/** compiled version of the expression or null */
+	private final Predicate<SAMRecord> compiled;
 	
 	private SamRecordJEXLFilter(final String exprStr) {
 		this.exprStr = exprStr; 
@@ -80,9 +81,39 @@ public class SamRecordJEXLFilter
 		} catch(final JexlException err) {
 			throw new IllegalArgumentException("Cannot compile JEXL expression", err);
 		}
+		this.compiled = JexlToJava.isCompilationEnabled()?compile(exprStr):null;
 	}
 	
+	/** value of the variable 'CLIPPED' , also used by the compiled expressions */
+	public static boolean isClipped(final SAMRecord R) {
+		if(R.getReadUnmappedFlag()) return false;
+		final Cigar c=R.getCigar();
+		return(c!=null && c.isClipped());
+		}
 	
+	/** translate the expression to java, returns null if it cannot be compiled */
+	@SuppressWarnings("unchecked")
+	private static Predicate<SAMRecord> compile(final String exprStr) {
+		try {
+			final String code = new JexlToJava().
+					bind("record", SAMRecord.class, "record").
+					bind("CLIPPED", boolean.class, SamRecordJEXLFilter.class.getName()+".isClipped(record)", 5).
+					// getters that never throw. The mate flags throw on unpaired reads and are not listed here
+					safe(SAMRecord.class,"getFlags","getReadPairedFlag","getReadUnmappedFlag","getReadNegativeStrandFlag",
+						"getNotPrimaryAlignmentFlag","getSupplementaryAlignmentFlag","isSecondaryAlignment","isSecondaryOrSupplementary",
+						"getReadFailsVendorQualityCheckFlag","getDuplicateReadFlag","getMappingQuality","getAlignmentStart","getStart",
+						"getReadLength","getReadName","getReferenceName","getContig","getInferredInsertSize").
+					toJavaBoolean(exprStr, true);
+			return (Predicate<SAMRecord>)JexlToJava.compile(
+					"java.util.function.Predicate<htsjdk.samtools.SAMRecord>",
+					"@Override\npublic boolean test(final htsjdk.samtools.SAMRecord record) {\nreturn "+code+";\n}"
+					);
+			}
+		catch(final RuntimeException err) {
+			LOG.warn("Cannot compile JEXL expression \""+exprStr+"\", it will be interpreted: "+err.getMessage());
+			return null;
+			}
+		}
 	public static class StringConverter
 	implements IStringConverter<SamRecordFilter>
 		{
@@ -152,6 +183,14 @@ public class SamRecordJEXLFilter
 	
 	@Override
 	public boolean filterOut(final SAMRecord record) {
+		if(this.compiled!=null) {
+			try {
+				return this.compiled.test(record);
+				}
+			catch(final RuntimeException err) {
+				// corner case not handled by the compiled code: use the interpreter
+				}
+			}
 		final Object o;
 		try {
 			o = this.expr.evaluate(new SamRecordJEXLContext(record));
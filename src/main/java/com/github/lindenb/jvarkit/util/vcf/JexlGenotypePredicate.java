@@ -24,12 +24,16 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.IStringConverter;
+import com.github.lindenb.jvarkit.lang.JexlToJava;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -40,12 +44,14 @@ import htsjdk.variant.variantcontext.VariantContextUtils.JexlVCMatchExp;
  * JEXL expression factory for Genotype
  */
 public class JexlGenotypePredicate implements BiPredicate<VariantContext,Genotype> {
+	private static final Logger LOG=Logger.build(JexlGenotypePredicate.class).make();
 	private static long ID_GENERATOR=System.currentTimeMillis();
 	public static final String PARAMETER_DESCRIPTION = 
 			"A Java EXpression Language (JEXL) expressions to filter a genotye in a VCF. " +
 			"Empty string will accept all genotypes. " +
 			"Expression returning a TRUE will accept the genotypes. "+
-			"See https://gatkforums.broadinstitute.org/gatk/discussion/1255 "
+			"See https://gatkforums.broadinstitute.org/gatk/discussion/1255 . "+
+			"Setting the java property -D"+JexlToJava.COMPILE_PROPERTY+"=true compiles the expressions to java when possible."
 			;
 	
 	public static class Converter
@@ -82,15 +88,57 @@ public class JexlGenotypePredicate implements BiPredicate<VariantContext,Genotyp
 		final List<String> dummyNames = expressions.stream().
 				map(S->"JEXLGT"+(++ID_GENERATOR)).
 				collect(Collectors.toList());
-		return new JexlGenotypePredicate(VariantContextUtils.initializeMatchExps(dummyNames, expressions));
+		return new JexlGenotypePredicate(
+				VariantContextUtils.initializeMatchExps(dummyNames, expressions),
+				JexlToJava.isCompilationEnabled()?compile(expressions):null
+				);
 	}
 	
+	/** translate the expressions to java, returns null if one of them cannot be compiled */
+	@SuppressWarnings("unchecked")
+	private static BiPredicate<VariantContext,Genotype> compile(final List<String> expressions) {
+		try {
+			// the other variables may be hidden by the attributes of the genotype
+			final JexlToJava jexlToJava = new JexlToJava().
+					bind("vc", VariantContext.class, "vc").
+					bind("g", Genotype.class, "g").
+					safe(VariantContext.class,"getContig","getStart","getEnd","getNAlleles","getNSamples","hasID","getID",
+						"isFiltered","isNotFiltered","filtersWereApplied","hasLog10PError","getLog10PError","getPhredScaledQual","hasGenotypes").
+					safe(Genotype.class,"getSampleName","getPloidy","isCalled","isNoCall","isHet","isHom","isHomRef","isHomVar",
+						"isFiltered","hasDP","getDP","hasGQ","getGQ","hasAD");
+			final List<String> codes = new ArrayList<>(expressions.size());
+			for(final String expr: expressions) {
+				codes.add(jexlToJava.toJavaBoolean(expr, false));
+				}
+			return (BiPredicate<VariantContext,Genotype>)JexlToJava.compile(
+					"java.util.function.BiPredicate<htsjdk.variant.variantcontext.VariantContext,htsjdk.variant.variantcontext.Genotype>",
+					"@Override\npublic boolean test(final htsjdk.variant.variantcontext.VariantContext vc,final htsjdk.variant.variantcontext.Genotype g) {\nreturn "+
+					String.join(" || ", codes)+";\n}"
+					);
+			}
+		catch(final RuntimeException err) {
+			LOG.warn("Cannot compile JEXL expression(s) "+String.join(",", expressions)+", they will be interpreted: "+err.getMessage());
+			return null;
+			}
+		}
+	
 	private final List<JexlVCMatchExp> jexlVCMatchExps; 
-	private JexlGenotypePredicate(final List<JexlVCMatchExp> jexlVCMatchExps) {
+	/** compiled version of the expressions or null */
+	private final BiPredicate<VariantContext,Genotype> compiled;
+	private JexlGenotypePredicate(final List<JexlVCMatchExp> jexlVCMatchExps,final BiPredicate<VariantContext,Genotype> compiled) {
 		this.jexlVCMatchExps = jexlVCMatchExps;
+		this.compiled = compiled;
 		}
 	@Override
 	public boolean test(final VariantContext ctx,Genotype gt) {
+		if(this.compiled!=null) {
+			try {
+				return this.compiled.test(ctx,gt);
+				}
+			catch(final RuntimeException err) {
+				// corner case not handled by the compiled code: use the interpreter
+				}
+			}
 		return VariantContextUtils.match(ctx,gt,this.jexlVCMatchExps).
 			values().
 			stream().
@@ -24,12 +24,14 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.IStringConverter;
+import com.github.lindenb.jvarkit.lang.JexlToJava;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.util.StringUtil;
@@ -47,7 +49,8 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 			"A Java EXpression Language (JEXL) expressions to filter the variants from a VCF. " +
 			"Empty string will accept all variants. " +
 			"Expression returning a TRUE will accept the variant. "+
-			"See https://gatkforums.broadinstitute.org/gatk/discussion/1255 "
+			"See https://gatkforums.broadinstitute.org/gatk/discussion/1255 . "+
+			"Setting the java property -D"+JexlToJava.COMPILE_PROPERTY+"=true compiles the expressions to java when possible."
 			;
 	
 	private static final Predicate<VariantContext> ACCEPT_ALL=new Predicate<VariantContext>() {
@@ -86,7 +89,10 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 				map(S->"JEXL"+(++ID_GENERATOR)).
 				collect(Collectors.toList());
 		try {
-			return new JexlVariantPredicate(VariantContextUtils.initializeMatchExps(dummyNames, expressions));
+			return new JexlVariantPredicate(
+					VariantContextUtils.initializeMatchExps(dummyNames, expressions),
+					JexlToJava.isCompilationEnabled()?compile(expressions):null
+					);
 			}
 		catch(final Throwable err) {
 			LOG.error(err);
@@ -94,14 +100,54 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 			}
 	}
 	
+	/** translate the expressions to java, returns null if one of them cannot be compiled */
+	@SuppressWarnings("unchecked")
+	private static Predicate<VariantContext> compile(final List<String> expressions) {
+		try {
+			final JexlToJava jexlToJava = new JexlToJava().
+					bind("vc", VariantContext.class, "vc").
+					bind("CHROM", String.class, "vc.getContig()", 2).
+					bind("POS", int.class, "vc.getStart()", 2).
+					bind("TYPE", String.class, "vc.getType().toString()", 4).
+					bind("QUAL", double.class, "(-10.0 * vc.getLog10PError())", 3).
+					bind("N_ALLELES", int.class, "vc.getNAlleles()", 2).
+					safe(VariantContext.class,"getContig","getStart","getEnd","getNAlleles","getNSamples","hasID","getID",
+						"isFiltered","isNotFiltered","filtersWereApplied","hasLog10PError","getLog10PError","getPhredScaledQual","hasGenotypes");
+			final List<String> codes = new ArrayList<>(expressions.size());
+			for(final String expr: expressions) {
+				codes.add(jexlToJava.toJavaBoolean(expr, false));
+				}
+			return (Predicate<VariantContext>)JexlToJava.compile(
+					"java.util.function.Predicate<htsjdk.variant.variantcontext.VariantContext>",
+					"@Override\npublic boolean test(final htsjdk.variant.variantcontext.VariantContext vc) {\nreturn "+
+					String.join(" || ", codes)+";\n}"
+					);
+			}
+		catch(final RuntimeException err) {
+			LOG.warn("Cannot compile JEXL expression(s) "+String.join(",", expressions)+", they will be interpreted: "+err.getMessage());
+			return null;
+			}
+		}
+	
 	private final List<JexlVCMatchExp> jexlVCMatchExps;
+	/** compiled version of the expressions or null */
+	private final Predicate<VariantContext> compiled;
 	
-	private JexlVariantPredicate(final List<JexlVCMatchExp> jexlVCMatchExps) {
+	private JexlVariantPredicate(final List<JexlVCMatchExp> jexlVCMatchExps,final Predicate<VariantContext> compiled) {
 		this.jexlVCMatchExps = jexlVCMatchExps;
 		if(jexlVCMatchExps==null) throw new RuntimeException("jexlVCMatchExps is null");
+		this.compiled = compiled;
 		}
 	@Override
 	public boolean test(final VariantContext ctx) {
+		if(this.compiled!=null) {
+			try {
+				return this.compiled.test(ctx);
+				}
+			catch(final RuntimeException err) {
+				// corner case not handled by the compiled code: use the interpreter
+				}
+			}
 		return VariantContextUtils.match(ctx,this.jexlVCMatchExps).
 			values().
 			stream().
@@ -0,0 +1,156 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.impl.client.HttpClients;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.sun.net.httpserver.HttpServer;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.seekablestream.SeekableStreamFactory;
+import htsjdk.samtools.util.IOUtil;
+
+public class ApacheSeekableHTTPStreamTest extends TestUtils {
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+	private final byte[] content = new byte[100_000];
+	private final AtomicInteger nGet = new AtomicInteger(0);
+	private HttpServer server = null;
+	
+	@BeforeClass
+	public void startServer() throws IOException {
+		new Random(0L).nextBytes(this.content);
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/data.bin", X->{
+			final String range = X.getRequestHeaders().getFirst("Range");
+			if(X.getRequestMethod().equals("HEAD")) {
+				X.getResponseHeaders().add("Content-Length", String.valueOf(this.content.length));
+				X.sendResponseHeaders(200, -1);
+				}
+			else if(range==null) {
+				X.sendResponseHeaders(200, this.content.length);
+				try(OutputStream os = X.getResponseBody()) { os.write(this.content);}
+				}
+			else
+				{
+				this.nGet.incrementAndGet();
+				final Matcher m = RANGE.matcher(range);
+				Assert.assertTrue(m.matches(), range);
+				final int start = Integer.parseInt(m.group(1));
+				final int end = Math.min(this.content.length-1,Integer.parseInt(m.group(2)));
+				X.getResponseHeaders().add("Content-Range", "bytes "+start+"-"+end+"/"+this.content.length);
+				X.sendResponseHeaders(206, end-start+1);
+				try(OutputStream os = X.getResponseBody()) { os.write(this.content,start,end-start+1);}
+				}
+			X.close();
+			});
+		this.server.start();
+		}
+	
+	@AfterClass
+	public void stopServer() {
+		if(this.server!=null) this.server.stop(0);
+		}
+	
+	private URL getUrl() throws IOException {
+		return new URL("http://127.0.0.1:"+this.server.getAddress().getPort()+"/data.bin");
+		}
+	
+	private ApacheSeekableHTTPStream open() throws IOException {
+		return new ApacheSeekableHTTPStream(getUrl(), this.content.length, HttpClients.createDefault()).
+				setBlockSize(1000).
+				setMaxBlocksInMemory(20);
+		}
+	
+	@Test
+	public void testRandomAccess() throws IOException {
+		final Random rand = new Random(1L);
+		try(ApacheSeekableHTTPStream st = open()) {
+			for(int i=0;i< 500;i++) {
+				final int pos = rand.nextInt(this.content.length);
+				final int len = 1 + rand.nextInt(Math.min(3000, this.content.length - pos));
+				final byte[] array = new byte[len];
+				st.seek(pos);
+				st.readFully(array);
+				Assert.assertEquals(array, Arrays.copyOfRange(this.content, pos, pos+len));
+				Assert.assertEquals(st.position(), (long)(pos+len));
+				}
+			st.seek(this.content.length-1);
+			Assert.assertEquals(st.read(), this.content[this.content.length-1] & 0xFF);
+			Assert.assertEquals(st.read(), -1);
+			Assert.assertTrue(st.eof());
+			// 100 blocks, some were evicted but the small reads in a block are served from the cache
+			Assert.assertTrue(st.getCacheHits() > 0L);
+			}
+		}
+	
+	@Test
+	public void testSequentialReadAhead() throws IOException {
+		this.nGet.set(0);
+		final byte[] array = new byte[this.content.length];
+		try(ApacheSeekableHTTPStream st = open()) {
+			int n = 0;
+			while(n < array.length) {
+				final int nRead = st.read(array, n, Math.min(100, array.length - n));
+				Assert.assertTrue(nRead > 0);
+				n += nRead;
+				}
+			Assert.assertEquals(st.read(), -1);
+			Assert.assertEquals(array, this.content);
+			// 1000 reads, 100 blocks; the read-ahead groups the blocks
+			Assert.assertTrue(st.getRequestCount() < 30L, "requests: "+st.getRequestCount());
+			Assert.assertEquals(st.getBytesFetched(), (long)this.content.length);
+			}
+		Assert.assertTrue(this.nGet.get() < 30);
+		}
+	
+	@Test
+	public void testDiskCache() throws IOException {
+		final File dir = IOUtil.createTempDir("tmp", ".cache");
+		try {
+			final byte[] array = new byte[5_000];
+			try(ApacheSeekableHTTPStream st = open().setDiskCacheDirectory(dir).setPrefetch(false)) {
+				st.seek(12_345);
+				st.readFully(array);
+				Assert.assertTrue(st.getRequestCount() > 0L);
+				}
+			Arrays.fill(array, (byte)0);
+			try(ApacheSeekableHTTPStream st = open().setDiskCacheDirectory(dir).setPrefetch(false)) {
+				st.seek(12_345);
+				st.readFully(array);
+				Assert.assertEquals(st.getRequestCount(), 0L);
+				Assert.assertEquals(array, Arrays.copyOfRange(this.content, 12_345, 12_345 + array.length));
+				}
+			}
+		finally
+			{
+			IOUtil.deleteDirectoryTree(dir);
+			}
+		}
+	
+	@Test
+	public void testFactory() throws IOException {
+		try(SeekableStream st = new CustomSeekableStreamFactory(SeekableStreamFactory.getInstance()).
+				getStreamFor(getUrl().toExternalForm())) {
+			Assert.assertTrue(st instanceof ApacheSeekableHTTPStream);
+			Assert.assertEquals(st.length(), (long)this.content.length);
+			final byte[] array = new byte[10];
+			st.seek(50_000);
+			st.readFully(array);
+			Assert.assertEquals(array, Arrays.copyOfRange(this.content, 50_000, 50_010));
+			}
+		}
+	}
@@ -0,0 +1,40 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class AsyncInputStreamTest {
+	@Test
+	public void testCopy() throws IOException {
+		final byte[] data = new byte[100_000];
+		for(int i=0;i< data.length;i++) data[i]=(byte)i;
+		try(InputStream in = new AsyncInputStream(new ByteArrayInputStream(data),1000,2)) {
+			final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+			IOUtils.copyTo(in, copy);
+			Assert.assertEquals(copy.toByteArray(), data);
+			}
+		}
+	
+	/** an unchecked exception in the delegate must not look like a clean EOF */
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void testRuntimeException() throws IOException {
+		final InputStream bad = new InputStream() {
+			int n=0;
+			@Override
+			public int read() throws IOException {
+				if(++n>10) throw new IllegalStateException("corrupt");
+				return 'A';
+				}
+			};
+		try(InputStream in = new AsyncInputStream(bad,4,2)) {
+			while(in.read()!=-1) {
+				//
+				}
+			}
+		}
+	}
@@ -0,0 +1,131 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class ParallelZipOutputTest extends TestUtils {
+	
+	private static String content(final int i) {
+		final StringBuilder sb = new StringBuilder();
+		for(int j=0;j< 1 + (i%7) * 1000;j++) sb.append("entry ").append(i).append(" line ").append(j).append("\n");
+		return sb.toString();
+		}
+	
+	private static String read(final ZipFile zf,final ZipEntry ze) throws IOException {
+		try(InputStream in = zf.getInputStream(ze)) {
+			return IOUtils.copyToString(new InputStreamReader(in));
+			}
+		}
+	
+	@DataProvider(name="memory")
+	public Object[][] getMemory() {
+		return new Object[][] {{64L*1024L*1024L},{1_000L},{0L}};
+		}
+	
+	@Test(dataProvider="memory")
+	public void testConcurrentEntries(final long maxMemory) throws Exception {
+		final File zip = createTmpFile(".zip");
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try(ParallelZipOutput zout = new ParallelZipOutput(zip, maxMemory, Deflater.DEFAULT_COMPRESSION)) {
+			final List<Future<?>> futures = new ArrayList<>();
+			for(int i=0;i< 100;++i) {
+				final int idx = i;
+				futures.add(executor.submit(()->{
+					try(PrintWriter pw = new PrintWriter(zout.openEntry("/dir/file"+idx+".txt"))) {
+						pw.print(content(idx));
+						}
+					return null;
+					}));
+				}
+			for(final Future<?> f:futures) f.get();
+			}
+		finally
+			{
+			executor.shutdown();
+			}
+		try(ZipFile zf = new ZipFile(zip)) {
+			Assert.assertEquals(zf.size(), 100);
+			for(int i=0;i< 100;++i) {
+				final ZipEntry ze = zf.getEntry("dir/file"+i+".txt");
+				Assert.assertNotNull(ze);
+				Assert.assertEquals(read(zf,ze), content(i));
+				}
+			}
+		}
+	
+	@Test
+	public void testEmptyAndDuplicate() throws IOException {
+		final File zip = createTmpFile(".zip");
+		try(ParallelZipOutput zout = new ParallelZipOutput(zip)) {
+			zout.openEntry("empty.txt").close();
+			try {
+				zout.openEntry("empty.txt");
+				Assert.fail();
+				}
+			catch(final ZipException err) {
+				//ok
+				}
+			}
+		try(ZipFile zf = new ZipFile(zip)) {
+			Assert.assertEquals(zf.size(), 1);
+			Assert.assertEquals(read(zf, zf.getEntry("empty.txt")), "");
+			}
+		}
+	
+	@Test
+	public void testZip64EntryCount() throws IOException {
+		final File zip = createTmpFile(".zip");
+		final int n = 70_000;
+		try(ParallelZipOutput zout = new ParallelZipOutput(zip)) {
+			for(int i=0;i< n;++i) {
+				try(OutputStream os = zout.openEntry("f"+i)) {
+					os.write(i%256);
+					}
+				}
+			}
+		try(ZipFile zf = new ZipFile(zip)) {
+			final List<? extends ZipEntry> L = Collections.list(zf.entries());
+			Assert.assertEquals(L.size(), n);
+			Assert.assertEquals(zf.getEntry("f69999").getSize(), 1L);
+			}
+		}
+	
+	@Test
+	public void testArchiveFactory() throws IOException {
+		final File zip = createTmpFile(".zip");
+		try(ArchiveFactory archive = ArchiveFactory.open(zip)) {
+			final PrintWriter pw1 = archive.openWriter("a.txt");
+			final PrintWriter pw2 = archive.openWriter("b.txt");
+			pw1.print("A");
+			pw2.print("B");
+			pw2.close();
+			pw1.close();
+			}
+		try(ZipFile zf = new ZipFile(zip)) {
+			final List<? extends ZipEntry> L = Collections.list(zf.entries());
+			// in the order the entries were closed
+			Assert.assertEquals(L.get(0).getName(), "b.txt");
+			Assert.assertEquals(read(zf, L.get(1)), "A");
+			}
+		}
+	}
@@ -0,0 +1,71 @@
+package com.github.lindenb.jvarkit.lang;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.IOUtil;
+
+public class CompiledClassCacheTest extends TestUtils {
+	
+	private static String code(final String className,final String date) {
+		return "@Generated(value=\"test\",date=\""+date+"\")\npublic class "+className+" { public "+className+"() {} }\n";
+		}
+	
+	@Test
+	public void testKey() throws IOException {
+		final File dir = IOUtil.createTempDir("tmp", ".cache");
+		try {
+			final CompiledClassCache cache = new CompiledClassCache(dir, 1000L);
+			Assert.assertEquals(
+				cache.getKey("Custom1", code("Custom1","2019-01-01")),
+				cache.getKey("Custom2", code("Custom2","2019-02-02"))
+				);
+			Assert.assertNotEquals(
+				cache.getKey("Custom1", code("Custom1","2019-01-01")),
+				cache.getKey("Custom1", code("Custom1","2019-01-01").replace("{}","{ super(); }"))
+				);
+			}
+		finally
+			{
+			IOUtil.deleteDirectoryTree(dir);
+			}
+		}
+	
+	@Test
+	public void testPutGetEvict() throws IOException {
+		final File dir = IOUtil.createTempDir("tmp", ".cache");
+		try {
+			final CompiledClassCache cache = new CompiledClassCache(dir, 1000L);
+			final File jar = createTmpFile(".jar");
+			try(PrintWriter pw = new PrintWriter(jar)) {
+				for(int i=0;i< 400;i++) pw.print('A');
+				}
+			Assert.assertNull(cache.get("k1"));
+			cache.put("k1", "Custom1", jar);
+			final CompiledClassCache.Entry e = cache.get("k1");
+			Assert.assertNotNull(e);
+			Assert.assertEquals(e.getClassName(), "Custom1");
+			Assert.assertEquals(Files.size(e.getJarFile().toPath()), 400L);
+			cache.put("k2", "Custom2", jar);
+			Assert.assertNotNull(cache.get("k1"));
+			Assert.assertNotNull(cache.get("k2"));
+			// make k1 the least recently used entry
+			new File(dir,"k1.jar").setLastModified(System.currentTimeMillis()-60_000L);
+			cache.put("k3", "Custom3", jar);
+			Assert.assertNull(cache.get("k1"));
+			Assert.assertNotNull(cache.get("k2"));
+			Assert.assertNotNull(cache.get("k3"));
+			}
+		finally
+			{
+			IOUtil.deleteDirectoryTree(dir);
+			}
+		}
+	}
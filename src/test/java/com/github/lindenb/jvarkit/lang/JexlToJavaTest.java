@@ -0,0 +1,131 @@
+package com.github.lindenb.jvarkit.lang;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.filter.SamRecordFilter;
+
+public class JexlToJavaTest extends TestUtils {
+	
+	private JexlToJava createSamRecordTranslator() {
+		return new JexlToJava().
+			bind("record", SAMRecord.class, "record").
+			bind("CLIPPED", boolean.class, "isClipped(record)", 5).
+			safe(SAMRecord.class,"getMappingQuality","getReadNegativeStrandFlag","getReadPairedFlag","getFlags");
+		}
+	
+	@Test
+	public void testConstantFolding() {
+		final JexlToJava j = createSamRecordTranslator();
+		Assert.assertEquals(j.toJavaBoolean("1 + 2 * 3 == 7 && !false", false),"true");
+		Assert.assertEquals(j.toJavaBoolean("record.getMappingQuality() < 1 || 10 / 2 > 4", false),"true");
+		Assert.assertEquals(j.toJavaBoolean("2 > 3 && record.getMappingQuality() < 1", false),"false");
+		Assert.assertEquals(j.toJavaBoolean("true && CLIPPED", false),"isClipped(record)");
+		}
+	
+	@Test
+	public void testReordering() {
+		final JexlToJava j = createSamRecordTranslator();
+		Assert.assertEquals(
+			j.toJavaBoolean("CLIPPED || record.getMappingQuality() < 1", false),
+			"((record.getMappingQuality() < 1) || isClipped(record))"
+			);
+		// getAttribute is not a side-effect free getter with no argument: keep the order
+		Assert.assertEquals(
+			j.toJavaBoolean("CLIPPED || record.getAttribute(\"NM\") == null || record.getReadNegativeStrandFlag()", false),
+			"(isClipped(record) || (record.getAttribute(\"NM\") == null) || record.getReadNegativeStrandFlag())"
+			);
+		}
+	
+	@Test
+	public void testUnsafeGettersKeepSourceOrder() {
+		final JexlToJava j = createSamRecordTranslator();
+		// getFirstOfPairFlag throws on unpaired reads, it must stay after getReadPairedFlag
+		final String code1 = j.toJavaBoolean("!record.getReadPairedFlag() || record.getFirstOfPairFlag()", false);
+		Assert.assertEquals(code1,"((!record.getReadPairedFlag()) || record.getFirstOfPairFlag())");
+		final String code2 = j.toJavaBoolean("record.getReadPairedFlag() && record.getFirstOfPairFlag() && record.getMappingQuality() > 0", false);
+		Assert.assertEquals(code2,"(record.getReadPairedFlag() && record.getFirstOfPairFlag() && (record.getMappingQuality() > 0))");
+		
+		final SAMRecord unpaired = new SAMRecord(new SAMFileHeader());
+		unpaired.setReadName("R1");
+		unpaired.setReadUnmappedFlag(true);
+		for(final String code: new String[] {code1,code2}) {
+			@SuppressWarnings("unchecked")
+			final Predicate<SAMRecord> predicate = (Predicate<SAMRecord>)JexlToJava.compile(
+				"java.util.function.Predicate<htsjdk.samtools.SAMRecord>",
+				"@Override\npublic boolean test(final htsjdk.samtools.SAMRecord record) {\nreturn "+code+";\n}"
+				);
+			Assert.assertEquals(predicate.test(unpaired), code==code1);
+			}
+		}
+	
+	@Test
+	public void testIntegerIsBoolean() {
+		final JexlToJava j = createSamRecordTranslator();
+		Assert.assertTrue(j.toJavaBoolean("record.getFlags()", true).contains("nonZeroInt"));
+		}
+	
+	@Test(expectedExceptions=JexlToJava.UnsupportedJexlException.class)
+	public void testUnknownVariable() {
+		createSamRecordTranslator().toJavaBoolean("NM > 1", false);
+		}
+	
+	@Test(expectedExceptions=JexlToJava.UnsupportedJexlException.class)
+	public void testNotBoolean() {
+		createSamRecordTranslator().toJavaBoolean("record.getReadName()", true);
+		}
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(collectAllSamOrBam()).
+			product(
+				SamRecordJEXLFilter.DEFAULT_FILTER,
+				"CLIPPED || record.getMappingQuality() % 7 == 2",
+				"record.getReadLength() * 1.5 > 100 && record.getReadNegativeStrandFlag()",
+				"record.getContig() == \"RF01\" ? record.getStart() < 100 : !record.getReadPairedFlag()",
+				"record.getAttribute(\"NM\") == null || record.getFlags() - 1",
+				"record.readName.length() > 0 || record.mappingQuality / 0 > 1"
+				).
+			build();
+		}
+	
+	private List<Boolean> applyFilter(final String inputFile,final String expr) throws IOException {
+		final SamRecordFilter filter = SamRecordJEXLFilter.create(expr);
+		try(SamReader sr = SamReaderFactory.makeDefault().
+				validationStringency(ValidationStringency.SILENT).
+				open(new File(inputFile))) {
+			return sr.iterator().stream().
+				map(R->filter.filterOut(R)).
+				collect(Collectors.toList());
+			}
+		}
+	
+	@Test(dataProvider="src1")
+	public void testCompiledSamFilter(final String inputFile,final String expr) throws IOException {
+		final List<Boolean> expect = applyFilter(inputFile,expr);
+		System.setProperty(JexlToJava.COMPILE_PROPERTY, "true");
+		try {
+			Assert.assertEquals(applyFilter(inputFile,expr),expect);
+			}
+		finally
+			{
+			System.clearProperty(JexlToJava.COMPILE_PROPERTY);
+			}
+		}
+	}
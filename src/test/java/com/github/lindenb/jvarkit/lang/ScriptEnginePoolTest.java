@@ -0,0 +1,63 @@
+package com.github.lindenb.jvarkit.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.script.Compilable;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ScriptEnginePoolTest {
+	
+	private static ScriptEnginePool createPool(final String expr) {
+		return new ScriptEnginePool(()->{
+			final Compilable engine = (Compilable)new ScriptEngineManager().getEngineByName("js");
+			return engine.compile(expr);
+			});
+		}
+	
+	@DataProvider(name="threads")
+	public Object[][] getThreads() {
+		return new Object[][] {{1,10},{3,7},{4,1000}};
+		}
+	
+	@Test(dataProvider="threads")
+	public void testOrdered(final int nThreads,final int batchSize) throws ScriptException {
+		final ScriptEnginePool pool = createPool("x * factor");
+		pool.put("factor", 3);
+		final List<Integer> input = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+		final List<Integer> output = new ArrayList<>();
+		pool.forEachOrdered(input.iterator(), nThreads, batchSize,
+			(ctx,x)->((Number)ctx.eval("x",x)).intValue(),
+			Y->output.add(Y)
+			);
+		Assert.assertEquals(output, input.stream().map(X->X*3).collect(Collectors.toList()));
+		Assert.assertEquals(pool.getCount(), 500L);
+		}
+	
+	@Test(dataProvider="threads")
+	public void testStop(final int nThreads,final int batchSize) throws ScriptException {
+		final ScriptEnginePool pool = createPool("x % 2 == 0");
+		final List<Integer> output = new ArrayList<>();
+		pool.forEachOrdered(IntStream.range(0, 500).boxed().iterator(), nThreads, batchSize,
+			(ctx,x)->ctx.evalBoolean("x",x)?x:null,
+			Y->{ if(Y!=null) output.add(Y); return output.size()<10;}
+			);
+		Assert.assertEquals(output, IntStream.range(0, 10).map(X->X*2).boxed().collect(Collectors.toList()));
+		}
+	
+	@Test(expectedExceptions=ScriptException.class)
+	public void testScriptError() throws ScriptException {
+		final ScriptEnginePool pool = createPool("x.noSuchMethod()");
+		pool.forEachOrdered(IntStream.range(0, 100).boxed().iterator(), 2, 10,
+			(ctx,x)->ctx.eval("x",x),
+			Y->true
+			);
+		}
+	}
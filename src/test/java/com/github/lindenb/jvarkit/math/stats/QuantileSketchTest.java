@@ -0,0 +1,73 @@
+package com.github.lindenb.jvarkit.math.stats;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class QuantileSketchTest {
+
+@Test
+public void testIntHistogram() {
+	final Random rand = new Random(0L);
+	final int values[] = new int[10_001];
+	final IntHistogram h1 = new IntHistogram(10);
+	final IntHistogram h2 = new IntHistogram();
+	for(int i=0;i< values.length;i++) {
+		values[i] = rand.nextInt(5_000);
+		if(i%2==0) h1.add(values[i]); else h2.add(values[i]);
+		}
+	h1.merge(h2);
+	Arrays.sort(values);
+	Assert.assertEquals(h1.getCount(), values.length);
+	for(int rank: new int[] {1,10,5_000,5_001,10_001}) {
+		Assert.assertEquals(h1.getValueAtRank(rank), values[rank-1]);
+		}
+	}
+
+@Test
+public void testIntHistogramOverflow() {
+	final Random rand = new Random(0L);
+	final int values[] = new int[10_001];
+	final IntHistogram h1 = new IntHistogram(10,100);
+	final IntHistogram h2 = new IntHistogram(10,1_000);
+	for(int i=0;i< values.length;i++) {
+		values[i] = (i%10==0 ? 1_000_000 + rand.nextInt(1_000_000) : rand.nextInt(200));
+		if(i%2==0) h1.add(values[i]); else h2.add(values[i]);
+		}
+	h1.merge(h2);
+	Arrays.sort(values);
+	Assert.assertEquals(h1.getCount(), values.length);
+	Assert.assertEquals(h1.count(values[10_000]), Arrays.stream(values).filter(V->V==values[10_000]).count());
+	for(int rank: new int[] {1,10,5_000,9_000,9_001,9_500,10_001}) {
+		Assert.assertEquals(h1.getValueAtRank(rank), values[rank-1]);
+		}
+	}
+
+@Test
+public void testSketch() {
+	final double accuracy = 0.01;
+	final Random rand = new Random(0L);
+	final double values[] = new double[10_001];
+	final QuantileSketch s1 = new QuantileSketch(accuracy);
+	final QuantileSketch s2 = new QuantileSketch(accuracy);
+	for(int i=0;i< values.length;i++) {
+		values[i] = (i%100==0 ? 0.0 : rand.nextDouble()*1000.0);
+		if(i%2==0) s1.add(values[i]); else s2.add(values[i]);
+		}
+	s1.merge(s2);
+	Arrays.sort(values);
+	Assert.assertEquals(s1.getCount(), values.length);
+	for(int rank: new int[] {1,10,200,5_000,10_001}) {
+		final double expect = values[rank-1];
+		Assert.assertEquals(s1.getValueAtRank(rank), expect, expect*accuracy);
+		}
+	Assert.assertEquals(s1.getQuantile(0.5), values[5_000], values[5_000]*accuracy);
+	}
+
+@Test(expectedExceptions=IllegalArgumentException.class)
+public void testMergeDifferentAccuracies() {
+	new QuantileSketch(0.01).merge(new QuantileSketch(0.02));
+	}
+}
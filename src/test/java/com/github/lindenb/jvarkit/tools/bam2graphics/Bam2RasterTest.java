@@ -1,9 +1,12 @@
 package com.github.lindenb.jvarkit.tools.bam2graphics;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Arrays;
 
+import javax.imageio.ImageIO;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -52,4 +55,45 @@ public void testZip(final String rgn) throws IOException {
 	assertZip(imgOut);
 	}
 
+private void assertSameImage(final File f1,final File f2) throws IOException {
+	final BufferedImage img1 = ImageIO.read(f1);
+	final BufferedImage img2 = ImageIO.read(f2);
+	Assert.assertEquals(img1.getWidth(), img2.getWidth());
+	Assert.assertEquals(img1.getHeight(), img2.getHeight());
+	for(int x=0;x< img1.getWidth();++x) {
+		for(int y=0;y< img1.getHeight();++y) {
+			Assert.assertEquals(img1.getRGB(x, y), img2.getRGB(x, y));
+			}
+		}
+	}
+
+@Test(dataProvider="rf_regions")
+public void testTiles(final String rgn) throws IOException {
+	final File cacheDir = Files.createTempDirectory("tmp").toFile();
+	final File expect = super.createTmpFile(".png");
+	Assert.assertEquals(new Bam2Raster().instanceMain(newCmd().add(
+			"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+			"-r",rgn,
+			"-o",expect,
+			SRC_TEST_RESOURCE+"/S1.bam").
+			make()
+			),0);
+	// second loop reads the tiles from the cache
+	for(int i=0;i< 2;i++) {
+		final File imgOut = super.createTmpFile(".png");
+		Assert.assertEquals(new Bam2Raster().instanceMain(newCmd().add(
+				"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+				"-r",rgn,
+				"-o",imgOut,
+				"--threads","3",
+				"--tile-size","100",
+				"--tile-cache",cacheDir,
+				SRC_TEST_RESOURCE+"/S1.bam").
+				make()
+				),0);
+		assertSameImage(expect, imgOut);
+		}
+	for(final File f:cacheDir.listFiles()) deleteOnExit(f);
+	deleteOnExit(cacheDir);
+	}
 }
@@ -3,12 +3,15 @@ package com.github.lindenb.jvarkit.tools.bam2svg;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.github.lindenb.jvarkit.tools.bam2wig.BamDepthPyramid;
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
 import htsjdk.samtools.util.Interval;
@@ -53,4 +56,44 @@ public void testWithRegion() throws IOException{
 	assertIsXml(svg);
 	}
 
+@Test
+public void testWithPyramid() throws IOException{
+	final File dir = Files.createTempDirectory("tmp").toFile();
+	final List<File> bams = new ArrayList<>();
+	for(final String s: Arrays.asList("1","2","3")) {
+		final File bam = new File(dir,"S"+s+".bam");
+		Files.copy(new File(SRC_TEST_RESOURCE+"/S"+s+".bam").toPath(),bam.toPath());
+		Files.copy(new File(SRC_TEST_RESOURCE+"/S"+s+".bam.bai").toPath(),new File(dir,"S"+s+".bam.bai").toPath());
+		bams.add(bam);
+		}
+	final File bed = super.createTmpFile(".bed");
+	final PrintWriter pw=new PrintWriter(bed);
+	pw.println("RF01\t0\t1000");
+	pw.println("RF02\t100\t300");
+	pw.flush();
+	pw.close();
+	Assert.assertEquals(new BamDepthPyramid().instanceMain(newCmd().add(
+			"-B",bed,
+			"--padding","100",
+			"--threads","2").
+			add(bams.toArray()).
+			make()
+			),0);
+	final File expect = super.createTmpFile(".svg");
+	final File svg = super.createTmpFile(".svg");
+	for(int i=0;i< 2;i++) {
+		Assert.assertEquals(new WesCnvSvg().instanceMain(newCmd().add(
+				"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+				"--region","RF01:1-1000;RF02:100-300",
+				"-o",(i==0?expect:svg)).
+				addIf(i==1,"--pyramid").
+				add(bams.toArray()).
+				make()
+				),0);
+		}
+	assertIsXml(svg);
+	Assert.assertEquals(Files.readAllLines(svg.toPath()), Files.readAllLines(expect.toPath()));
+	for(final File f:dir.listFiles()) deleteOnExit(f);
+	deleteOnExit(dir);
+	}
 }
@@ -0,0 +1,49 @@
+package com.github.lindenb.jvarkit.tools.blast2sam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+public class BlastToSamTest extends TestUtils {
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][]{
+			{SRC_TEST_RESOURCE+"/rotavirus_rf.blastn.01.xml","0"},
+			{SRC_TEST_RESOURCE+"/rotavirus_rf.blastn.01.xml","500"}
+		};
+	}
+	
+	private List<String> run(final String blastInput,final String expect,int jobs) throws IOException {
+		final File out = super.createTmpFile(".sam");
+		Assert.assertEquals(new BlastToSam().instanceMain(new String[] {
+			"-o",out.getPath(),
+			"-r",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+			"-p",expect,
+			"-j",String.valueOf(jobs),
+			blastInput
+			}),0);
+		try(SamReader sr=SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(out)) {
+			return sr.iterator().stream().map(R->R.getSAMString()).collect(Collectors.toList());
+			}
+		}
+	
+	@Test(dataProvider="src1")
+	public void test01(final String blastInput,final String expect) throws IOException {
+		final List<String> L1 = run(blastInput,expect,1);
+		Assert.assertFalse(L1.isEmpty());
+		// the output keeps the input order whatever the number of threads
+		Assert.assertEquals(run(blastInput,expect,3), L1);
+		}
+	}
@@ -0,0 +1,43 @@
+package com.github.lindenb.jvarkit.tools.cmpbams;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class CompareBamsTest extends TestUtils {
+	
+private List<String> sortedLines(final File f) throws Exception {
+	return Files.lines(f.toPath()).sorted().collect(Collectors.toList());
+	}
+
+@Test(dataProvider="all-sam-or-bam-files")
+public void testBuckets(final String bampath) throws Exception
+	{
+	final File sortedBam1= sortBamOnQueryName(Paths.get(bampath),R->random.nextDouble()<0.5);
+	final File sortedBam2= sortBamOnQueryName(Paths.get(bampath),R->random.nextDouble()<0.5);
+	final File out1 = super.createTmpFile(".txt");
+	Assert.assertEquals(new CompareBams().instanceMain(new String[] {
+		"-o",out1.getPath(),
+		"-F","-c",
+		sortedBam1.getPath(),
+		sortedBam2.getPath(),
+		}),0);
+	final File out2 = super.createTmpFile(".txt");
+	Assert.assertEquals(new CompareBams().instanceMain(new String[] {
+		"-o",out2.getPath(),
+		"-F","-c",
+		"--buckets","5",
+		"--jobs","3",
+		sortedBam1.getPath(),
+		sortedBam2.getPath(),
+		}),0);
+	Assert.assertEquals(sortedLines(out2), sortedLines(out1));
+	}
+}
@@ -0,0 +1,105 @@
+package com.github.lindenb.jvarkit.tools.fastq;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+
+import htsjdk.samtools.fastq.FastqRecord;
+
+public class FastqShuffleTest extends TestUtils {
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{SRC_TEST_RESOURCE+"/S1.R1.fq.gz",SRC_TEST_RESOURCE+"/S1.R2.fq.gz"},
+			{SRC_TEST_RESOURCE+"/S2.R1.fq.gz",SRC_TEST_RESOURCE+"/S2.R2.fq.gz"}
+		};
+	}
+	
+	private Set<String> readNames(final File f) throws IOException {
+		final Set<String> names = new HashSet<>();
+		try(FourLinesFastqReader r=new FourLinesFastqReader(f)) {
+			while(r.hasNext()) {
+				final FastqRecord rec = r.next();
+				Assert.assertTrue(names.add(rec.getReadName()+"\t"+rec.getReadString()));
+				}
+			}
+		return names;
+		}
+	
+	private List<String> readList(final File f) throws IOException {
+		final List<String> L = new ArrayList<>();
+		try(FourLinesFastqReader r=new FourLinesFastqReader(f)) {
+			while(r.hasNext()) {
+				final FastqRecord rec = r.next();
+				L.add(rec.getReadName()+"\t"+rec.getReadString());
+				}
+			}
+		return L;
+		}
+	
+	/** the mates must stay adjacent, R1 before R2 */
+	private void assertPairsAdjacent(final File out,final String fq1,final String fq2) throws IOException {
+		final List<String> R1 = readList(new File(fq1));
+		final List<String> R2 = readList(new File(fq2));
+		Assert.assertEquals(R1.size(), R2.size());
+		final Map<String,String> mates = new HashMap<>(R1.size());
+		for(int i=0;i< R1.size();i++) mates.put(R1.get(i), R2.get(i));
+		final List<String> L = readList(out);
+		Assert.assertEquals(L.size(), R1.size()*2);
+		boolean shuffled = false;
+		for(int i=0;i+1< L.size();i+=2) {
+			Assert.assertTrue(mates.containsKey(L.get(i)),"not a R1 read at index "+i+": "+L.get(i));
+			Assert.assertEquals(L.get(i+1), mates.get(L.get(i)));
+			if(!L.get(i).equals(R1.get(i/2))) shuffled = true;
+			}
+		Assert.assertTrue(shuffled);
+		}
+	
+	@Test(dataProvider="src1")
+	public void testSortingCollection(final String fq1,final String fq2) 
+		throws IOException
+		{
+		final File out = createTmpFile(".fq");
+		Assert.assertEquals(new FastqShuffle().instanceMain(new String[] {
+			"-o",out.getPath(),
+			fq1,fq2
+			}),0);
+		assertIsFastq(out);
+		final Set<String> expect = readNames(new File(fq1));
+		expect.addAll(readNames(new File(fq2)));
+		Assert.assertEquals(readNames(out), expect);
+		assertPairsAdjacent(out, fq1, fq2);
+		}
+	
+	@Test(dataProvider="src1")
+	public void testBuckets(final String fq1,final String fq2) 
+		throws IOException
+		{
+		final File out = createTmpFile(".fq");
+		Assert.assertEquals(new FastqShuffle().instanceMain(new String[] {
+			"-o",out.getPath(),
+			"--buckets","7",
+			"--jobs","3",
+			"--maxRecordsInRam","10",
+			fq1,fq2
+			}),0);
+		assertIsFastq(out);
+		final Set<String> expect = readNames(new File(fq1));
+		expect.addAll(readNames(new File(fq2)));
+		Assert.assertEquals(readNames(out), expect);
+		assertPairsAdjacent(out, fq1, fq2);
+		}
+}
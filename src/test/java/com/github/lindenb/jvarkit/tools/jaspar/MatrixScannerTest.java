@@ -0,0 +1,100 @@
+package com.github.lindenb.jvarkit.tools.jaspar;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.lang.SubSequence;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.bio.RevCompCharSequence;
+
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+
+public class MatrixScannerTest extends TestUtils {
+	private List<Matrix> readMatrices() {
+		final String jaspar = 
+			">MA0002.2\tRUNX1\n"+
+			"A  [ 287  234  123   57    0   87    0   17   10  131  500 ]\n"+
+			"C  [ 496  485 1072    0   75  127    0   42  400  463  158 ]\n"+
+			"G  [ 696  467  149    7 1872   70 1987 1848  251   81  289 ]\n"+
+			"T  [ 521  814  656 1936   53 1716   13   93 1339 1325 1053 ]\n"+
+			"\n"+
+			">MA0004.1\tArnt\n"+
+			"A  [ 4 19  0  0  0  0 ]\n"+
+			"C  [16  0 20  0  0  0 ]\n"+
+			"G  [ 0  1  0 20  0 20 ]\n"+
+			"T  [ 0  0  0  0 20  0 ]\n"
+			;
+		final List<Matrix> L = new ArrayList<>();
+		final Iterator<Matrix> iter = Matrix.iterator(new LineIteratorImpl(new SynchronousLineReader(new java.io.StringReader(jaspar))));
+		while(iter.hasNext()) L.add(iter.next().convertToPWM());
+		return L;
+		}
+	
+	/** the original implementation */
+	private List<String> naive(final List<Matrix> matrices,final CharSequence seq,final double fraction) {
+		final List<String> hits = new ArrayList<>();
+		for(int pos=0;pos< seq.length();++pos) {
+			for(int m=0;m< matrices.size();m++) {
+				final Matrix matrix = matrices.get(m);
+				if(pos+matrix.length()>seq.length()) continue;
+				final CharSequence forward=new SubSequence(seq,pos,pos+matrix.length());
+				final CharSequence revcomp=new RevCompCharSequence(forward);
+				for(int strand=0;strand<2;++strand) {
+					final double score= matrix.score(strand==0?forward:revcomp);
+					if(score<=0) continue;
+					if(score>= matrix.max()*fraction) {
+						hits.add(m+" "+pos+" "+strand+" "+score);
+						break;
+						}
+					}
+				}
+			}
+		return hits;
+		}
+	
+	@Test
+	public void testSameHitsAsMatrixScore() {
+		final List<Matrix> matrices = readMatrices();
+		final String bases="ACGTACGTACGTNacgtR";
+		for(final double fraction: new double[]{0.0,0.5,0.8,0.95}) {
+			final StringBuilder sb = new StringBuilder();
+			for(int i=0;i< 5_000;i++) {
+				// favor the archetypes to get some hits
+				if(this.random.nextInt(20)==0) {
+					sb.append(matrices.get(this.random.nextInt(matrices.size())).getArchetype());
+					}
+				else
+					{
+					sb.append(bases.charAt(this.random.nextInt(bases.length())));
+					}
+				}
+			final String seq = sb.toString();
+			final MatrixScanner scanner = new MatrixScanner(matrices, fraction);
+			final List<String> hits = new ArrayList<>();
+			final byte codes[] = MatrixScanner.encode(seq, 0, seq.length());
+			scanner.scan(codes,codes.length, 0, codes.length,(M,POS,STRAND,SCORE)->hits.add(M+" "+POS+" "+STRAND+" "+SCORE));
+			final List<String> expect = naive(matrices,seq,fraction);
+			Assert.assertFalse(expect.isEmpty());
+			Assert.assertEquals(hits, expect);
+			}
+		}
+	
+	@Test
+	public void testScanMatrix() {
+		final List<Matrix> matrices = readMatrices();
+		final String seq = "NN"+matrices.get(1).getArchetype()+"NNNN";
+		final MatrixScanner scanner = new MatrixScanner(matrices, 0.95);
+		final byte codes[] = MatrixScanner.encode(seq, 0, seq.length());
+		final List<Integer> hits = new ArrayList<>();
+		scanner.scanMatrix(1, codes, codes.length, -10, 100, (M,POS,STRAND,SCORE)->hits.add(POS));
+		Assert.assertTrue(hits.contains(2));
+		hits.clear();
+		scanner.scanMatrix(0, codes, codes.length, 0, 100, (M,POS,STRAND,SCORE)->hits.add(POS));
+		Assert.assertTrue(hits.isEmpty());
+		}
+	}
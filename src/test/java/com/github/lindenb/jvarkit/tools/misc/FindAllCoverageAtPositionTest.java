@@ -0,0 +1,38 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class FindAllCoverageAtPositionTest extends TestUtils {
+	
+	private File run(final File bamList,final String...extra) throws IOException {
+		final File out = createTmpFile(".txt");
+		Assert.assertEquals(0,new FindAllCoverageAtPosition().instanceMain(newCmd().add(
+        		"-o",out.getPath(),
+        		"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+        		"-p","RF01:100 RF01:101 RF01:150 RF02:1 RF03:500 RF03:2000 RF04:10 RF10:300 RF11:100"
+        		).add((Object[])extra).add(bamList.getPath()).make()));
+		return out;
+		}
+	
+	@Test
+	public void testMergeAndJobs() throws IOException {
+		final File bamList = createTmpFile(".list");
+		try(PrintWriter pw = new PrintWriter(bamList)) {
+			for(int i=1;i<=5;i++) pw.println(SRC_TEST_RESOURCE+"/S"+i+".bam");
+			}
+		final File out1 = run(bamList);
+		Assert.assertTrue(Files.lines(out1.toPath()).count()>1L);
+		final File out2 = run(bamList,"--merge-distance","1000","--jobs","3");
+		Assert.assertEquals(Files.readAllLines(out2.toPath()),Files.readAllLines(out1.toPath()));
+		final File out3 = run(bamList,"--jobs","3");
+		Assert.assertEquals(Files.readAllLines(out3.toPath()),Files.readAllLines(out1.toPath()));
+		}
+	}
@@ -0,0 +1,36 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class GcPercentAndDepthTest extends TestUtils {
+	@Test
+	public void testShards() throws IOException {
+		final File out1 = createTmpFile(".txt");
+		Assert.assertEquals(0,new GcPercentAndDepth().instanceMain(newCmd().add(
+        		"-o",out1.getPath(),
+        		"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+        		SRC_TEST_RESOURCE+"/S1.bam",
+        		SRC_TEST_RESOURCE+"/S2.bam",
+        		SRC_TEST_RESOURCE+"/S3.bam"
+        		).make()));
+		final File out2 = createTmpFile(".txt");
+		Assert.assertEquals(0,new GcPercentAndDepth().instanceMain(newCmd().add(
+        		"-o",out2.getPath(),
+        		"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+        		"--jobs","3",
+        		"--shard-size","7",
+        		SRC_TEST_RESOURCE+"/S1.bam",
+        		SRC_TEST_RESOURCE+"/S2.bam",
+        		SRC_TEST_RESOURCE+"/S3.bam"
+        		).make()));
+		Assert.assertTrue(Files.lines(out1.toPath()).count()>1L);
+		Assert.assertEquals(Files.readAllLines(out2.toPath()),Files.readAllLines(out1.toPath()));
+		}
+	}
@@ -3,6 +3,10 @@ package com.github.lindenb.jvarkit.tools.samjs;
 import java.io.File;
 import java.io.IOException;
 
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -31,4 +35,34 @@ public class SamCustomSortJdkTest extends TestUtils {
 				make()));
 		assertIsValidBam(out);
 		}
+	@Test(dataProvider="src1")
+	public void testKey(final String inBam,final String unused) throws IOException {
+		for(final String maxRecordsInRam: new String[] {"10","500000"}) {
+			final File out = createTmpFile(".bam");
+			Assert.assertEquals(0,new SamCustomSortJdk().instanceMain(newCmd().add(
+	        		"-o",out.getPath(),
+	        		"--key",
+	        		"--maxRecordsInRam",maxRecordsInRam,
+	        		"-e","return -R.getMappingQuality();",
+	        		inBam
+	        		).
+					make()));
+			assertIsValidBam(out);
+			int prev = Integer.MAX_VALUE;
+			long n=0L;
+			try(SamReader sr=SamReaderFactory.makeDefault().open(out)) {
+				try(SAMRecordIterator iter=sr.iterator()) {
+					while(iter.hasNext()) {
+						final SAMRecord rec = iter.next();
+						Assert.assertTrue(rec.getMappingQuality() <= prev);
+						prev = rec.getMappingQuality();
+						n++;
+						}
+					}
+				}
+			try(SamReader sr=SamReaderFactory.makeDefault().open(new File(inBam))) {
+				Assert.assertEquals(sr.iterator().stream().count(), n);
+				}
+			}
+		}
 	}
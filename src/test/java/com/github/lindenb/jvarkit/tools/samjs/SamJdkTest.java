@@ -2,7 +2,9 @@ package com.github.lindenb.jvarkit.tools.samjs;
 
 import java.io.File;
 import java.io.IOException;
-
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -31,4 +33,29 @@ public class SamJdkTest extends TestUtils {
         		).make()),0);
 		assertIsValidBam(out);
 		}
+	
+	private List<String> readBody(final File sam) throws IOException {
+		return Files.readAllLines(sam.toPath()).stream().
+				filter(S->!S.startsWith("@")).
+				collect(Collectors.toList());
+		}
+	
+	@Test(dataProvider="src1")
+	public void testThreads(final String inBam,final String expr) throws IOException {
+		final File out1 = createTmpFile(".sam");
+		Assert.assertEquals(new SamJdk().instanceMain(newCmd().add(
+        		"-o",out1.getPath(),
+        		"-e",expr,
+        		inBam
+        		).make()),0);
+		final File out2 = createTmpFile(".sam");
+		Assert.assertEquals(new SamJdk().instanceMain(newCmd().add(
+        		"-o",out2.getPath(),
+        		"--threads","3",
+        		"--batch-size","7",
+        		"-e",expr,
+        		inBam
+        		).make()),0);
+		Assert.assertEquals(readBody(out2),readBody(out1));
+		}
 }
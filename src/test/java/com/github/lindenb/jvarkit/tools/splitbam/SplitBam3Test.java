@@ -0,0 +1,199 @@
+package com.github.lindenb.jvarkit.tools.splitbam;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.CloserUtil;
+public class SplitBam3Test extends TestUtils {
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(new Object[] {SRC_TEST_RESOURCE+"/S1.bam",SRC_TEST_RESOURCE+"/toy.bam"}).
+			product(1,3).
+			build();
+	}
+	
+	private long count(final File bam) throws IOException {
+		final SamReader sr = SamReaderFactory.makeDefault().open(bam);
+		final SAMRecordIterator iter = sr.iterator();
+		long n=0L;
+		while(iter.hasNext()) {iter.next();n++;}
+		iter.close();
+		CloserUtil.close(sr);
+		return n;
+		}
+	
+	private SplitBam3 newSplitBam3() throws Exception {
+		final Constructor<SplitBam3> ctor = SplitBam3.class.getDeclaredConstructor();
+		ctor.setAccessible(true);
+		return ctor.newInstance();
+		}
+	
+	/** the index built on the fly must find all the records of each contig */
+	private void assertIndexWorks(final File bam) throws IOException {
+		final SamReader sr = SamReaderFactory.makeDefault().open(bam);
+		Assert.assertTrue(sr.hasIndex());
+		for(final SAMSequenceRecord ssr: sr.getFileHeader().getSequenceDictionary().getSequences()) {
+			long n1=0L;
+			try(SAMRecordIterator iter = sr.iterator()) {
+				while(iter.hasNext()) {
+					final SAMRecord rec = iter.next();
+					if(!rec.getReadUnmappedFlag() && rec.getReferenceName().equals(ssr.getSequenceName())) n1++;
+					}
+				}
+			long n2=0L;
+			try(SAMRecordIterator iter = sr.queryOverlapping(ssr.getSequenceName(), 1, ssr.getSequenceLength())) {
+				while(iter.hasNext()) {
+					if(!iter.next().getReadUnmappedFlag()) n2++;
+					}
+				}
+			Assert.assertEquals(n2, n1);
+			}
+		CloserUtil.close(sr);
+		}
+	
+	@Test(dataProvider="src1")
+	public void test01(final String inBam,final int nJobs) 
+		throws Exception
+		{
+		final File dir = Files.createTempDirectory("tmp").toFile();
+		final File out = new File(dir,"__GROUPID__.bam");
+		Assert.assertEquals(newSplitBam3().instanceMain(new String[] {
+			"-o",out.getPath(),
+			"--jobs",String.valueOf(nJobs),
+			inBam
+			}),0);
+		long n=0L;
+		for(final File f:dir.listFiles()) {
+			deleteOnExit(f);
+			if(!f.getName().endsWith(".bam")) continue;
+			assertIsValidBam(f);
+			final File bai = new File(dir,f.getName().replaceAll("\\.bam$", ".bai"));
+			Assert.assertTrue(bai.exists());
+			assertIndexWorks(f);
+			n+=count(f);
+			}
+		Assert.assertEquals(n, count(new File(inBam)));
+		deleteOnExit(dir);
+		}
+	
+	/** write 'nFiller' records on chr1 (the first one has 'extraName' more chars in its name), then 'nTail' records on chr2 */
+	private void writeBoundaryInput(final SAMFileHeader header,final File bam,final int nFiller,final int extraName,final int nTail) {
+		final String bases = String.join("", Collections.nCopies(50, "A"));
+		try(SAMFileWriter w = new SAMFileWriterFactory().makeBAMWriter(header, true, bam)) {
+			for(int i=0;i< nFiller + nTail;i++) {
+				final SAMRecord rec = new SAMRecord(header);
+				rec.setReadName(String.format("r%06d", i)+(i==0?String.join("", Collections.nCopies(extraName, "x")):""));
+				rec.setReferenceName(i< nFiller?"chr1":"chr2");
+				rec.setAlignmentStart(1+i);
+				rec.setCigarString("50M");
+				rec.setMappingQuality(60);
+				rec.setReadString(bases);
+				rec.setBaseQualityString(bases.replace('A', 'I'));
+				w.addAlignment(rec);
+				}
+			}
+		}
+	
+	/** run splitbam3 in parallel mode, return the virtual file pointers of the records of the group 'G1' */
+	private List<Long> splitAndGetFilePointers(final File inBam,final File groups,final File outDir) throws Exception {
+		for(final File f:outDir.listFiles()) f.delete();
+		Assert.assertEquals(newSplitBam3().instanceMain(new String[] {
+			"-o",new File(outDir,"__GROUPID__.bam").getPath(),
+			"-g",groups.getPath(),
+			"--jobs","2",
+			inBam.getPath()
+			}),0);
+		final List<Long> pointers = new ArrayList<>();
+		try(SamReader sr = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).open(new File(outDir,"G1.bam"))) {
+			try(SAMRecordIterator iter = sr.iterator()) {
+				while(iter.hasNext()) {
+					pointers.add(BAMFileSpan.class.cast(iter.next().getFileSource().getFilePointer()).getFirstOffset());
+					}
+				}
+			}
+		return pointers;
+		}
+	
+	@DataProvider(name = "boundaryTail")
+	public Object[][] createBoundaryTail() {
+		return new Object[][] {{10},{0}};
+	}
+	
+	/** the records of chr1 fill exactly the first BGZF block: the first record of chr2 (or the end of the file if 'nTail'==0)
+	 * must be indexed at the start of the next block */
+	@Test(dataProvider="boundaryTail")
+	public void testRecordAtBlockBoundary(final int nTail) throws Exception {
+		final File dir = Files.createTempDirectory("tmp").toFile();
+		final File outDir = new File(dir,"out");
+		Assert.assertTrue(outDir.mkdir());
+		final File groups = new File(dir,"groups.txt");
+		Files.write(groups.toPath(), "G1\tchr1\tchr2\n".getBytes());
+		final File inBam = new File(dir,"in.bam");
+		final SAMSequenceDictionary dict = new SAMSequenceDictionary(Arrays.asList(
+			new SAMSequenceRecord("chr1", 100_000),
+			new SAMSequenceRecord("chr2", 100_000)
+			));
+		final SAMFileHeader header = new SAMFileHeader(dict);
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		
+		// probe: offset of the first record and size of one record in the output
+		writeBoundaryInput(header, inBam, 0, 0, 2);
+		List<Long> pointers = splitAndGetFilePointers(inBam, groups, outDir);
+		Assert.assertEquals(BlockCompressedFilePointerUtil.getBlockAddress(pointers.get(0)), BlockCompressedFilePointerUtil.getBlockAddress(pointers.get(1)));
+		final int firstOffset = BlockCompressedFilePointerUtil.getBlockOffset(pointers.get(0));
+		final int recordSize = BlockCompressedFilePointerUtil.getBlockOffset(pointers.get(1)) - firstOffset;
+		final int remain = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE - firstOffset;
+		final int nFiller = remain / recordSize;
+		Assert.assertTrue(nFiller > 0);
+		
+		writeBoundaryInput(header, inBam, nFiller, remain % recordSize, nTail);
+		pointers = splitAndGetFilePointers(inBam, groups, outDir);
+		Assert.assertEquals(pointers.size(), nFiller + nTail);
+		if(nTail > 0) {
+			// first record of chr2 is the first record of the second block
+			Assert.assertEquals(BlockCompressedFilePointerUtil.getBlockOffset(pointers.get(nFiller)), 0);
+			Assert.assertNotEquals(BlockCompressedFilePointerUtil.getBlockAddress(pointers.get(nFiller)), 0L);
+			}
+		final File outBam = new File(outDir,"G1.bam");
+		assertIsValidBam(outBam);
+		assertIndexWorks(outBam);
+		try(SamReader sr = SamReaderFactory.makeDefault().open(outBam)) {
+			try(SAMRecordIterator iter = sr.queryOverlapping("chr1", 1, 100_000)) {
+				Assert.assertEquals(iter.stream().count(), (long)nFiller);
+				}
+			try(SAMRecordIterator iter = sr.queryOverlapping("chr2", 1, 100_000)) {
+				Assert.assertEquals(iter.stream().count(), (long)nTail);
+				}
+			}
+		for(final File f:outDir.listFiles()) deleteOnExit(f);
+		deleteOnExit(outDir);
+		deleteOnExit(groups);
+		deleteOnExit(inBam);
+		deleteOnExit(dir);
+		}
+}
@@ -0,0 +1,139 @@
+package com.github.lindenb.jvarkit.tools.structvar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.lang.SmartComparator;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class IndexCovMatrixTest extends TestUtils {
+	private static class Row {
+		String contig;
+		int start;
+		int end;
+		float folds[];
+		}
+	
+	@DataProvider(name="src1")
+	public Object[][] getData() {
+		return new Object[][] {
+			{1,10},
+			{5,1000},
+			{3,70000}
+			};
+		}
+	
+	private List<Row> createRows(final File f,final int nSamples,final int nRows) throws IOException {
+		final String contigs[] = {"chr10","chr1","chr2","chrX"};
+		final List<Row> rows = new ArrayList<>(nRows);
+		for(int y=0;y< nRows;++y) {
+			final Row row = new Row();
+			row.contig = contigs[this.random.nextInt(contigs.length)];
+			row.start = 1+ y*1000;
+			row.end = row.start + 16_000;
+			row.folds = new float[nSamples];
+			for(int i=0;i< nSamples;i++) row.folds[i] = (float)(this.random.nextDouble()*2.5);
+			rows.add(row);
+			}
+		Collections.shuffle(rows, this.random);
+		try(PrintWriter pw=new PrintWriter(f)) {
+			pw.print("#chrom\tstart\tend");
+			for(int i=0;i<nSamples;i++) pw.print("\tS"+i);
+			pw.println();
+			for(final Row row:rows) {
+				pw.print(row.contig+"\t"+row.start+"\t"+row.end);
+				for(int i=0;i<nSamples;i++) pw.print("\t"+row.folds[i]);
+				pw.println();
+				}
+			}
+		final SmartComparator smartCmp = new SmartComparator();
+		rows.sort((A,B)->{
+			final int i = smartCmp.compare(A.contig, B.contig);
+			if(i!=0) return i;
+			return Integer.compare(A.start, B.start);
+			});
+		return rows;
+		}
+	
+	@Test(dataProvider="src1")
+	public void test01(final int nSamples,final int nRows) throws IOException {
+		final File dir = deleteOnExit(Files.createTempDirectory("tmp").toFile());
+		final File dataFile = deleteOnExit(new File(dir, "indexcov.tsv"));
+		final List<Row> rows = createRows(dataFile, nSamples, nRows);
+		try(IndexCovMatrix m = IndexCovMatrix.openForSource(dataFile)) {
+			Assert.assertEquals(m.getFile(), IndexCovMatrix.getDefaultFile(dataFile));
+			Assert.assertTrue(m.isUpToDate(dataFile));
+			Assert.assertEquals(m.getSampleCount(), nSamples);
+			Assert.assertEquals(m.getSampleNames().get(nSamples-1), "S"+(nSamples-1));
+			Assert.assertEquals(m.getRowCount(), nRows);
+			for(int y=0;y< nRows;y++) {
+				final Row row = rows.get(y);
+				Assert.assertEquals(m.getContig(y), row.contig);
+				Assert.assertEquals(m.getStart(y), row.start);
+				Assert.assertEquals(m.getEnd(y), row.end);
+				for(int i=0;i< nSamples;i++) {
+					Assert.assertEquals(m.getFold(i, y), row.folds[i]);
+					}
+				}
+			final float delLimit = 0.6f;
+			final float dupLimit = 1.9f;
+			final BitSet visible = m.getAllRows();
+			for(int y=0;y< nRows;y++) {
+				if(this.random.nextInt(5)==0) visible.clear(y);
+				}
+			final int samples[] = nSamples==1?new int[] {0}:new int[] {0,nSamples-1};
+			final BitSet interesting = m.findInteresting(visible, delLimit, dupLimit);
+			final BitSet notEverywhere = m.findNotEverywhere(visible, delLimit, dupLimit);
+			final BitSet forSamples = m.findForSamples(visible, samples, delLimit, dupLimit, false);
+			final BitSet forSamplesSpecific = m.findForSamples(visible, samples, delLimit, dupLimit, true);
+			for(int y=0;y< nRows;y++) {
+				final Row row = rows.get(y);
+				boolean hasCnv = false;
+				int nDel = 0;
+				int nDup = 0;
+				int nDelIn = 0;
+				int nDelOut = 0;
+				int nDupIn = 0;
+				int nDupOut = 0;
+				for(int i=0;i< nSamples;i++) {
+					final float v = row.folds[i];
+					final boolean in = (i==samples[0] || i==samples[samples.length-1]);
+					if(v<=delLimit) {
+						hasCnv = true;
+						nDel++;
+						if(in) nDelIn++; else nDelOut++;
+						}
+					if(v>=dupLimit) {
+						hasCnv = true;
+						nDup++;
+						if(in) nDupIn++; else nDupOut++;
+						}
+					}
+				final boolean v = visible.get(y);
+				Assert.assertEquals(interesting.get(y), v && hasCnv);
+				Assert.assertEquals(notEverywhere.get(y), v && nDel!=nSamples && nDup!=nSamples);
+				Assert.assertEquals(forSamples.get(y), v && (nDelIn==samples.length || nDupIn==samples.length));
+				Assert.assertEquals(forSamplesSpecific.get(y), v && (
+						(nDelIn==samples.length && nDelOut==0) ||
+						(nDupIn==samples.length && nDupOut==0)));
+				}
+			}
+		/* second time, the columnar file is re-used */
+		final long lastModified = IndexCovMatrix.getDefaultFile(dataFile).lastModified();
+		try(IndexCovMatrix m = IndexCovMatrix.openForSource(dataFile)) {
+			Assert.assertEquals(m.getRowCount(), nRows);
+			}
+		Assert.assertEquals(IndexCovMatrix.getDefaultFile(dataFile).lastModified(), lastModified);
+		deleteOnExit(IndexCovMatrix.getDefaultFile(dataFile));
+		}
+	}
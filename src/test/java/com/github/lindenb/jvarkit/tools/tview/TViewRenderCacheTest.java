@@ -0,0 +1,100 @@
+package com.github.lindenb.jvarkit.tools.tview;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.Interval;
+
+public class TViewRenderCacheTest extends TestUtils {
+	private final File bamFile = new File(SRC_TEST_RESOURCE+"/S1.bam");
+	
+	private List<String> readNames(final List<SAMRecord> L) {
+		final List<String> names = new ArrayList<>(L.size());
+		for(final SAMRecord rec:L) names.add(rec.getReadName()+":"+rec.getFlags());
+		Collections.sort(names);
+		return names;
+		}
+	
+	@Test
+	public void testFetchFromWindowIsSameAsQuery() throws Exception {
+		final SamReaderFactory srf = SamReaderFactory.makeDefault();
+		try(final TViewRenderCache cache = new TViewRenderCache(srf, 2, 10, 100)) {
+			for(int start=1;start<=400;start+=37) {
+				final Interval interval = new Interval("RF01", start, start+50);
+				final List<SAMRecord> expect = new ArrayList<>();
+				final SamReader sr = srf.open(this.bamFile);
+				sr.queryOverlapping(interval.getContig(), interval.getStart(), interval.getEnd()).
+					stream().
+					filter(R->!R.getReadUnmappedFlag()).
+					forEach(R->expect.add(R));
+				sr.close();
+				Assert.assertFalse(expect.isEmpty());
+				Assert.assertEquals(readNames(cache.fetch(this.bamFile, interval)),readNames(expect));
+				}
+			Assert.assertTrue(cache.getOpenedReaderCount(this.bamFile)<=2);
+			}
+		}
+	
+	@Test
+	public void testFragmentIsCached() throws Exception {
+		final AtomicInteger count = new AtomicInteger(0);
+		final TViewRenderCache.Painter painter = (src,out)->{
+			count.incrementAndGet();
+			out.print(src.apply(new Interval("RF01",100,200)).hasNext());
+			};
+		try(final TViewRenderCache cache = new TViewRenderCache(SamReaderFactory.makeDefault(), 2, 10, 100)) {
+			final Interval interval = new Interval("RF01",100,200);
+			Assert.assertEquals(cache.render(this.bamFile, interval, "x", painter, 10_000L),"true");
+			Assert.assertEquals(cache.render(this.bamFile, interval, "x", painter, 10_000L),"true");
+			Assert.assertEquals(count.get(),1);
+			Assert.assertEquals(cache.render(this.bamFile, interval, "y", painter, 10_000L),"true");
+			Assert.assertEquals(count.get(),2);
+			}
+		}
+	
+	@Test(expectedExceptions=TimeoutException.class)
+	public void testTimeout() throws Exception {
+		final TViewRenderCache.Painter painter = (src,out)->{
+			try {Thread.sleep(10_000L);} catch(final InterruptedException err) {return;}
+			};
+		try(final TViewRenderCache cache = new TViewRenderCache(SamReaderFactory.makeDefault(), 1, 10, 100)) {
+			cache.render(this.bamFile, new Interval("RF01",1,10), "", painter, 100L);
+			}
+		}
+	
+	@Test
+	public void testConcurrentRendering() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try(final TViewRenderCache cache = new TViewRenderCache(SamReaderFactory.makeDefault(), 2, 2, 10)) {
+			final List<Future<Integer>> futures = new ArrayList<>();
+			for(int i=0;i< 50;i++) {
+				final int start = 1+ this.random.nextInt(2000);
+				final Interval interval = new Interval("RF01",start,start+100);
+				final Callable<Integer> task = ()->cache.fetch(this.bamFile, interval).size();
+				futures.add(executor.submit(task));
+				}
+			for(final Future<Integer> f: futures) Assert.assertTrue(f.get()>=0);
+			Assert.assertTrue(cache.getOpenedReaderCount(this.bamFile)<=2);
+			}
+		finally
+			{
+			executor.shutdown();
+			}
+		}
+	}
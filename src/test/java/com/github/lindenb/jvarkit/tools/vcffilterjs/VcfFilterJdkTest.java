@@ -0,0 +1,53 @@
+package com.github.lindenb.jvarkit.tools.vcffilterjs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class VcfFilterJdkTest extends TestUtils {
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(collectAllVcfs()).
+			product(
+				"return variant.getStart()%3==0;",
+				"if(variant.getStart()%2==0 && !Boolean.TRUE.equals(userData.get(\"first.variant\"))) return false; return new VariantContextBuilder(variant).noID().make();",
+				"if(variant.getStart()>1000) userData.put(\"STOP\",Boolean.TRUE); return variant.isSNP();"
+				).
+			build();
+		}
+	
+	private List<String> readBody(final File vcf) throws IOException {
+		return Files.readAllLines(vcf.toPath()).stream().
+				filter(S->!S.startsWith("#")).
+				collect(Collectors.toList());
+		}
+	
+	private File run(final String inVcf,final String expr,final String...extra) throws IOException {
+		final File out = createTmpFile(".vcf");
+		Assert.assertEquals(new VcfFilterJdk().instanceMain(newCmd().add(
+        		"-o",out.getPath(),
+        		"-e",expr
+        		).add((Object[])extra).add(inVcf).make()),0);
+		assertIsVcf(out);
+		return out;
+		}
+	
+	@Test(dataProvider="src1")
+	public void testThreads(final String inVcf,final String expr) throws IOException {
+		final File out1 = run(inVcf,expr);
+		final File out2 = run(inVcf,expr,"--threads","3","--batch-size","7");
+		Assert.assertEquals(readBody(out2),readBody(out1));
+		final File out3 = run(inVcf,expr,"--filter","FAILJDK");
+		final File out4 = run(inVcf,expr,"--filter","FAILJDK","--threads","3","--batch-size","7");
+		Assert.assertEquals(readBody(out4),readBody(out3));
+		}
+	}
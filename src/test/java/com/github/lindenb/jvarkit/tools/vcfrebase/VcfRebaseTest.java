@@ -0,0 +1,31 @@
+package com.github.lindenb.jvarkit.tools.vcfrebase;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class VcfRebaseTest extends TestUtils {
+	@Test
+	public void test01() throws IOException {
+		final File out = super.createTmpFile(".vcf");
+		Assert.assertEquals(new VcfRebase().instanceMain(new String[] {
+			"-o",out.getPath(),
+			"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+			"-w","0",
+			"--alt",
+			SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz"
+			}),0);
+		assertIsVcf(out);
+		try(VCFFileReader r=new VCFFileReader(out,false)) {
+			Assert.assertNotNull(r.getFileHeader().getInfoHeaderLine("ENZ"));
+			Assert.assertNotNull(r.getFileHeader().getInfoHeaderLine("ENZ_ALT"));
+			Assert.assertTrue(r.iterator().stream().anyMatch(V->V.hasAttribute("ENZ")));
+			}
+		}
+	}
@@ -0,0 +1,191 @@
+package com.github.lindenb.jvarkit.tools.vcfviewgui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.Interval;
+
+public class PagedRecordLoaderTest extends TestUtils {
+	private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+	
+	@AfterClass
+	public void shutdown() {
+		this.executorService.shutdownNow();
+		}
+	
+	@DataProvider(name="src1")
+	public Object[][] getData() {
+		return new Object[][] {
+			{"RF01:1-3302",7,2},
+			{"RF01:500-1500",1,3},
+			{"RF03:100-2000",50,1},
+			{"RF05:1-10",10,1}
+			};
+		}
+	
+	private SamReader open() {
+		return SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(new File(SRC_TEST_RESOURCE+"/S1.bam"));
+		}
+	
+	private List<String> eager(final SamReader sr,final Interval r,final Function<SAMRecord,SAMRecord> mapper) {
+		final List<String> L = new ArrayList<>();
+		try(SAMRecordIterator iter = sr.query(r.getContig(), r.getStart(), r.getEnd(), false)) {
+			while(iter.hasNext()) {
+				final SAMRecord rec = mapper.apply(iter.next());
+				if(rec!=null) L.add(rec.getSAMString());
+				}
+			}
+		return L;
+		}
+	
+	@Test(dataProvider="src1")
+	public void testRegion(final String rgn,final int pageSize,final int cachedPages) throws Exception {
+		final String tokens[] = rgn.split("[:\\-]");
+		final Interval r = new Interval(tokens[0], Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+		final Function<SAMRecord,SAMRecord> mapper = R->R.getMappingQuality()%3==0?null:R;
+		try(SamReader sr = open()) {
+			final List<String> expect = eager(sr, r, mapper);
+			try(SamReader sr2 = open()) {
+				final PagedRecordLoader<SAMRecord> loader = PagedRecordLoader.forRegion(
+						r,
+						(C,S,E)->sr.query(C, S, E, false),
+						(C,S,E)->sr2.query(C, S, E, false),
+						mapper,
+						this.executorService
+						).
+						setPageSize(pageSize).
+						setMaxCachedPages(cachedPages);
+				final AtomicInteger pageCount = new AtomicInteger(0);
+				loader.start(P->pageCount.incrementAndGet(), null).get();
+				Assert.assertTrue(loader.isDone());
+				Assert.assertNull(loader.getError());
+				Assert.assertEquals(loader.size(), expect.size());
+				Assert.assertEquals(pageCount.get(), (expect.size()+pageSize-1)/pageSize);
+				final List<Integer> indexes = new ArrayList<>();
+				for(int i=0;i< expect.size();i++) indexes.add(i);
+				Collections.shuffle(indexes, this.random);
+				// pages are reloaded from the index
+				for(final int i: indexes) {
+					Assert.assertEquals(loader.get(i).getSAMString(), expect.get(i));
+					}
+				}
+			}
+		}
+	
+	@Test
+	public void testOverlapping() throws Exception {
+		final Interval r = new Interval("RF02", 1, 2000);
+		// one thread: waiting for an empty task waits for the pages loaded in the background
+		final ExecutorService singleThread = Executors.newSingleThreadExecutor();
+		try(SamReader sr = open(); SamReader sr2 = open()) {
+			final PagedRecordLoader<SAMRecord> loader = PagedRecordLoader.forRegion(
+					r,
+					(C,S,E)->sr2.query(C, S, E, false),
+					(C,S,E)->sr.query(C, S, E, false),
+					null,
+					singleThread
+					).
+					setPageSize(5).
+					setMaxCachedPages(2);
+			loader.scan(null);
+			for(int i=0;i< 20;i++) {
+				final int start = 1 + this.random.nextInt(2000);
+				final int end = start + this.random.nextInt(200);
+				// the first call only uses the pages in memory and loads the others
+				loader.getOverlapping("RF02", start, end);
+				singleThread.submit(()->{}).get();
+				final List<String> found = new ArrayList<>();
+				for(final SAMRecord rec: loader.getOverlapping("RF02", start, end)) {
+					if(rec.getEnd() < start) continue;
+					found.add(rec.getSAMString());
+					}
+				final List<String> expect = new ArrayList<>();
+				try(SAMRecordIterator iter = sr2.query("RF02", Math.max(start,r.getStart()), Math.min(end,r.getEnd()), false)) {
+					while(iter.hasNext()) {
+						final SAMRecord rec = iter.next();
+						if(rec.getReadUnmappedFlag()) continue;
+						expect.add(rec.getSAMString());
+						}
+					}
+				found.removeIf(S->!expect.contains(S));
+				Assert.assertEquals(found, expect);
+				}
+			}
+		finally
+			{
+			singleThread.shutdownNow();
+			}
+		}
+	
+	@Test
+	public void testGetIfLoaded() throws Exception {
+		final Interval r = new Interval("RF01", 1, 3302);
+		final ExecutorService singleThread = Executors.newSingleThreadExecutor();
+		try(SamReader sr = open(); SamReader sr2 = open()) {
+			final List<String> expect = eager(sr, r, R->R);
+			final Set<Integer> loadedPages = new ConcurrentSkipListSet<>();
+			final PagedRecordLoader<SAMRecord> loader = PagedRecordLoader.forRegion(
+					r,
+					(C,S,E)->sr.query(C, S, E, false),
+					(C,S,E)->sr2.query(C, S, E, false),
+					null,
+					singleThread
+					).
+					setPageSize(5).
+					setMaxCachedPages(2).
+					setPageListener(P->loadedPages.add(P));
+			loader.scan(null);
+			Assert.assertEquals(loader.size(), expect.size());
+			Assert.assertEquals(loader.getFirstRecord().getSAMString(), expect.get(0));
+			Assert.assertEquals(loader.getLastRecord().getSAMString(), expect.get(expect.size()-1));
+			// only the first two pages were kept by the first pass
+			Assert.assertEquals(loader.getIfLoaded(0).getSAMString(), expect.get(0));
+			final int index = expect.size()-1;
+			final int pageIndex = index/5;
+			Assert.assertNull(loader.getIfLoaded(index));
+			singleThread.submit(()->{}).get();
+			Assert.assertTrue(loadedPages.contains(pageIndex));
+			Assert.assertEquals(loader.getIfLoaded(index).getSAMString(), expect.get(index));
+			}
+		finally
+			{
+			singleThread.shutdownNow();
+			}
+		}
+	@Test
+	public void testIterator() throws Exception {
+		try(SamReader sr = open()) {
+			final PagedRecordLoader<SAMRecord> loader = PagedRecordLoader.forIterator(
+					()->sr.iterator(),
+					null,
+					95,
+					this.executorService
+					).
+					setPageSize(10);
+			loader.start(null,null).get();
+			Assert.assertEquals(loader.size(), 95);
+			Assert.assertNotNull(loader.get(94));
+			}
+		}
+	}
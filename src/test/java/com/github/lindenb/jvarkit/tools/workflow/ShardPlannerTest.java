@@ -0,0 +1,129 @@
+package com.github.lindenb.jvarkit.tools.workflow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.Interval;
+
+public class ShardPlannerTest extends TestUtils {
+	
+	/** check the shards cover all the callable regions, in order, without overlap */
+	private void assertCovers(final List<ShardPlanner.Shard> shards,final List<Interval> callable) {
+		final List<Interval> L = new ArrayList<>();
+		for(final ShardPlanner.Shard shard:shards) {
+			Assert.assertFalse(shard.getIntervals().isEmpty());
+			L.addAll(shard.getIntervals());
+			}
+		int i=0;
+		for(final Interval r:callable) {
+			int pos = r.getStart();
+			while(pos<=r.getEnd()) {
+				Assert.assertTrue(i< L.size());
+				final Interval s = L.get(i++);
+				Assert.assertEquals(s.getContig(), r.getContig());
+				Assert.assertEquals(s.getStart(), pos);
+				Assert.assertTrue(s.getEnd()<=r.getEnd());
+				pos = s.getEnd()+1;
+				}
+			}
+		Assert.assertEquals(i, L.size());
+		}
+	
+	@Test
+	public void testLength() {
+		final List<Interval> callable = Arrays.asList(
+			new Interval("1",1,100_000),
+			new Interval("1",150_001,400_000),
+			new Interval("2",1,50_000)
+			);
+		final ShardPlanner planner = new ShardPlanner(callable, 1_000);
+		final List<ShardPlanner.Shard> shards = planner.plan(4);
+		Assert.assertEquals(shards.size(), 4);
+		assertCovers(shards,callable);
+		for(final ShardPlanner.Shard shard:shards) {
+			final int len = shard.getIntervals().stream().mapToInt(R->R.length()).sum();
+			Assert.assertTrue(Math.abs(len-100_000)<=1, "length "+len);
+			}
+		}
+	
+	@Test
+	public void testTargets() {
+		final List<Interval> callable = Arrays.asList(
+			new Interval("1",1,1_000_000),
+			new Interval("2",1,1_000_000)
+			);
+		final List<Interval> targets = new ArrayList<>();
+		for(int i=0;i< 1_000;i++) {
+			final int start= 1+this.random.nextInt(100_000);
+			targets.add(new Interval("1",start,start+this.random.nextInt(200)));
+			}
+		targets.add(new Interval("2",900_000,999_999));
+		final ShardPlanner planner = new ShardPlanner(callable, 10_000);
+		planner.addTargets(targets);
+		final List<ShardPlanner.Shard> shards = planner.plan(10);
+		assertCovers(shards,callable);
+		final double total = shards.stream().mapToDouble(S->S.getCost()).sum();
+		for(final ShardPlanner.Shard shard:shards) {
+			Assert.assertEquals(shard.getCost(), total/shards.size(), total/100.0);
+			}
+		// most of the shards are in the dense region of contig 1
+		Assert.assertTrue(shards.stream().filter(S->S.getIntervals().get(0).getContig().equals("1")).count()>=2);
+		}
+	
+	@Test
+	public void testBamIndex() throws IOException {
+		final List<Interval> callable = new ArrayList<>();
+		final List<String> lines = java.nio.file.Files.readAllLines(new File(SRC_TEST_RESOURCE+"/rotavirus_rf.fa.fai").toPath());
+		for(final String line:lines) {
+			final String tokens[]=line.split("\t");
+			callable.add(new Interval(tokens[0],1,Integer.parseInt(tokens[1])));
+			}
+		final ShardPlanner planner = new ShardPlanner(callable, 100);
+		for(int i=1;i<=5;i++) {
+			Assert.assertTrue(planner.addBam(new File(SRC_TEST_RESOURCE+"/S"+i+".bam")));
+			}
+		final List<ShardPlanner.Shard> shards = planner.plan(3);
+		Assert.assertEquals(shards.size(), 3);
+		assertCovers(shards,callable);
+		final double total = shards.stream().mapToDouble(S->S.getCost()).sum();
+		Assert.assertTrue(total>0.0);
+		for(final ShardPlanner.Shard shard:shards) {
+			Assert.assertEquals(shard.getCost(), total/shards.size(), total/10.0);
+			}
+		
+		final File bed = createTmpFile(".bed");
+		try(PrintWriter pw=new PrintWriter(bed)) {
+			ShardPlanner.writeBed(shards, pw);
+			}
+		assertIsBed(bed);
+		}
+	
+	@Test
+	public void testCallableRegions() throws IOException {
+		final File fasta = createTmpFile(".fa");
+		try(PrintWriter pw=new PrintWriter(fasta)) {
+			pw.println(">chr1");
+			pw.println("NNNNACGTACGTNNAC");
+			pw.println("GTNNNNNNNNNNACGT");
+			pw.println(">chr2");
+			pw.println("NNNNNNNNNN");
+			pw.println(">chr3");
+			pw.println("ACGT");
+			}
+		final List<Interval> L = ShardPlanner.callableRegions(fasta, 4);
+		Assert.assertEquals(L, Arrays.asList(
+			new Interval("chr1",5,18),
+			new Interval("chr1",29,32),
+			new Interval("chr3",1,4)
+			));
+		}
+	}
@@ -0,0 +1,95 @@
+package com.github.lindenb.jvarkit.util.align;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark: Dpal vs BandedAligner, aligning reads against a reference window.
+ * 
+ * Compiled with the JMH annotation processor and run by the gradle task 'jmh':
+ * 
+ * ./gradlew jmh -Djvarkit.jmh.args="BandedAlignerBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class BandedAlignerBenchmark {
+	@Param({"100","250"})
+	public int readLength;
+	@Param({"1000"})
+	public int windowLength;
+	
+	private static final int N_READS = 20;
+	private String window;
+	private final List<String> reads = new ArrayList<>();
+	private int diagonals[];
+	private Dpal dpal;
+	private BandedAligner localAligner;
+	private BandedAligner semiGlobalAligner;
+	
+	@Setup
+	public void setup() {
+		final Random random = new Random(0L);
+		final StringBuilder sb = new StringBuilder();
+		while(sb.length()< this.windowLength) sb.append("ACGT".charAt(random.nextInt(4)));
+		this.window = sb.toString();
+		this.reads.clear();
+		this.diagonals = new int[N_READS];
+		for(int i=0;i< N_READS;i++) {
+			final int start = random.nextInt(this.windowLength-this.readLength);
+			final StringBuilder read = new StringBuilder(this.window.substring(start, start+this.readLength));
+			// a few mismatches and a deletion
+			for(int k=0;k< 3;k++) read.setCharAt(random.nextInt(read.length()), 'N');
+			read.delete(this.readLength/2, this.readLength/2+3);
+			this.reads.add(read.toString());
+			this.diagonals[i] = start;
+			}
+		this.dpal = new Dpal();
+		this.localAligner = new BandedAligner(BandedAligner.Mode.LOCAL);
+		this.semiGlobalAligner = new BandedAligner(BandedAligner.Mode.SEMI_GLOBAL);
+	}
+	
+	@Benchmark
+	public void dpal(final Blackhole bh) {
+		for(final String read: this.reads) {
+			bh.consume(this.dpal.dpal(this.window, read).getScore());
+			}
+	}
+	
+	@Benchmark
+	public void bandedAlignerFull(final Blackhole bh) {
+		bh.consume(this.localAligner.align(this.window, this.reads, null, -1));
+	}
+	
+	@Benchmark
+	public void bandedAlignerBand16(final Blackhole bh) {
+		bh.consume(this.semiGlobalAligner.align(this.window, this.reads, this.diagonals, 16));
+	}
+	
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().
+			include(BandedAlignerBenchmark.class.getSimpleName()).
+			build()).run();
+	}
+}
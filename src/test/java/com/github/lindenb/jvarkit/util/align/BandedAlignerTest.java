@@ -0,0 +1,142 @@
+package com.github.lindenb.jvarkit.util.align;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.CigarElement;
+
+public class BandedAlignerTest extends TestUtils {
+	private final BandedAligner.Scoring scoring = new BandedAligner.Scoring();
+	
+	private String randomDna(int len) {
+		final StringBuilder sb = new StringBuilder(len);
+		while(sb.length()< len) sb.append("ACGT".charAt(this.random.nextInt(4)));
+		return sb.toString();
+		}
+	
+	/** copy a part of the reference with a few mismatches and indels */
+	private String mutate(final String s) {
+		final StringBuilder sb = new StringBuilder();
+		int i=0;
+		while(i< s.length()) {
+			final int r = this.random.nextInt(100);
+			if(r==0) { sb.append(randomDna(1+this.random.nextInt(3)));}
+			else if(r==1) { i+= 1+this.random.nextInt(3);}
+			else if(r<4) { sb.append('N'); i++;}
+			else if(r<6) { sb.append(randomDna(1)); i++;}
+			else { sb.append(s.charAt(i)); i++;}
+			}
+		return sb.toString();
+		}
+	
+	private int baseScore(char a,char b) {
+		if(a=='N' || b=='N') return -25;
+		return a==b?100:-120;
+		}
+	
+	/** recompute the score of an alignment from its cigar */
+	private int score(final BandedAligner.Result r,final String query,final String ref) {
+		int s=0;
+		int qi = r.getQueryStart();
+		int ri = r.getRefStart();
+		int readLen = 0;
+		for(final CigarElement ce:r.getCigar()) {
+			switch(ce.getOperator()) {
+				case S: readLen+=ce.getLength(); break;
+				case M:
+					for(int k=0;k< ce.getLength();k++) s+= baseScore(query.charAt(qi++),ref.charAt(ri++));
+					readLen+=ce.getLength();
+					break;
+				case I: s+= scoring.getGapOpen()+(ce.getLength()-1)*scoring.getGapExtend(); qi+=ce.getLength(); readLen+=ce.getLength(); break;
+				case D: s+= scoring.getGapOpen()+(ce.getLength()-1)*scoring.getGapExtend(); ri+=ce.getLength(); break;
+				default: Assert.fail();
+				}
+			}
+		Assert.assertEquals(qi, r.getQueryEnd());
+		Assert.assertEquals(ri, r.getRefEnd());
+		Assert.assertEquals(readLen, query.length());
+		return s;
+		}
+	
+	@Test
+	public void testIdentical() {
+		final String ref = randomDna(300);
+		final String query = ref.substring(100, 200);
+		for(BandedAligner.Mode mode: new BandedAligner.Mode[] {BandedAligner.Mode.LOCAL,BandedAligner.Mode.SEMI_GLOBAL}) {
+			final BandedAligner aligner = new BandedAligner(mode);
+			final BandedAligner.Result r = aligner.align(query, ref);
+			Assert.assertEquals(r.getScore(), 100*100);
+			Assert.assertEquals(r.getRefStart(), 100);
+			Assert.assertEquals(r.getCigar().toString(), "100M");
+			final BandedAligner.Result r2 = aligner.align(BandedAligner.encode(query), BandedAligner.encode(ref), 100, 5);
+			Assert.assertEquals(r2.getCigar().toString(), "100M");
+			Assert.assertEquals(r2.getScore(), r.getScore());
+			}
+		}
+	
+	@Test
+	public void testDeletion() {
+		final String ref = randomDna(300);
+		final String query = ref.substring(100, 150)+ref.substring(155,200);
+		final BandedAligner.Result r = new BandedAligner(BandedAligner.Mode.SEMI_GLOBAL).
+				align(BandedAligner.encode(query), BandedAligner.encode(ref), 100, 10);
+		Assert.assertEquals(r.getCigar().toString(), "50M5D45M");
+		Assert.assertEquals(r.getRefStart(), 100);
+		}
+	
+	@Test
+	public void testScoreIsConsistentWithCigar() {
+		for(BandedAligner.Mode mode: BandedAligner.Mode.values()) {
+			final BandedAligner aligner = new BandedAligner(mode,scoring);
+			for(int n=0;n< 100;n++) {
+				final String ref = randomDna(50+this.random.nextInt(200));
+				final int start = this.random.nextInt(ref.length()/2);
+				final String query = mode.equals(BandedAligner.Mode.GLOBAL)?
+						mutate(ref):
+						mutate(ref.substring(start, start + this.random.nextInt(ref.length()-start)));
+				final BandedAligner.Result full = aligner.align(query, ref);
+				Assert.assertNotNull(full);
+				Assert.assertEquals(score(full,query,ref), full.getScore(),full.toString());
+				
+				// a band containing all the diagonals gives the same score
+				final BandedAligner.Result wide = aligner.align(BandedAligner.encode(query), BandedAligner.encode(ref),
+						this.random.nextInt(10), ref.length()+query.length()+10);
+				Assert.assertEquals(wide.getScore(), full.getScore());
+				
+				// narrow band: the score can't be better
+				final BandedAligner.Result narrow = aligner.align(BandedAligner.encode(query), BandedAligner.encode(ref),
+						mode.equals(BandedAligner.Mode.GLOBAL)?0:start, 10);
+				if(narrow!=null) {
+					Assert.assertTrue(narrow.getScore() <= full.getScore());
+					Assert.assertEquals(score(narrow,query,ref), narrow.getScore(),narrow.toString());
+					}
+				}
+			}
+		}
+	
+	@Test
+	public void testBatch() {
+		final String ref = randomDna(1000);
+		final List<String> queries = new ArrayList<>();
+		final int diagonals[] = new int[50];
+		for(int i=0;i< diagonals.length;i++) {
+			diagonals[i] = this.random.nextInt(900);
+			queries.add(ref.substring(diagonals[i], diagonals[i]+100));
+			}
+		final BandedAligner aligner = new BandedAligner(BandedAligner.Mode.SEMI_GLOBAL);
+		final List<BandedAligner.Result> results = aligner.align(ref, queries, diagonals, 8);
+		Assert.assertEquals(results.size(), queries.size());
+		for(int i=0;i< diagonals.length;i++) {
+			Assert.assertEquals(results.get(i).getRefStart(), diagonals[i]);
+			Assert.assertEquals(results.get(i).getCigar().toString(), "100M");
+			}
+		Assert.assertNull(aligner.align(BandedAligner.encode("ACGT"), BandedAligner.encode(ref), 5000, 10));
+		Assert.assertEquals(Arrays.asList(aligner.align(queries.get(0), ref).getRefStart()),Arrays.asList(diagonals[0]));
+		}
+	}
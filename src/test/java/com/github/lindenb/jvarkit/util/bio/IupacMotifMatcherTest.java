@@ -0,0 +1,79 @@
+package com.github.lindenb.jvarkit.util.bio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class IupacMotifMatcherTest {
+	@Test
+	public void testSimple() {
+		final IupacMotifMatcher<String> matcher = new IupacMotifMatcher<>();
+		matcher.add("GAATTC", "EcoRI");
+		matcher.add("GCNGC", "Fnu4HI");
+		matcher.add("rgcy", "CviJI");
+		Assert.assertEquals(matcher.size(), 3);
+		Assert.assertEquals(matcher.getMaxLength(), 6);
+		Assert.assertEquals(matcher.get(2).getBases(), "RGCY");
+		final List<String> hits = matcher.findAll("nngaattcGCAGCnAGCT").
+				stream().
+				map(H->H.getUserData()+":"+H.getStart()+"-"+H.getEnd()).
+				collect(Collectors.toList());
+		Assert.assertEquals(hits.size(), 3);
+		Assert.assertEquals(hits.get(0), "EcoRI:2-8");
+		Assert.assertEquals(hits.get(1), "Fnu4HI:8-13");
+		Assert.assertEquals(hits.get(2), "CviJI:14-18");
+		}
+	
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void testBadMotif() {
+		new IupacMotifMatcher<String>().add("GAA-TTC", "x");
+		}
+	
+	/** compare with the per-enzyme scan previously used by VcfRebase */
+	@Test
+	public void testSameAsNaiveScan() {
+		final Rebase rebase = Rebase.createDefaultRebase();
+		final IupacMotifMatcher<Rebase.EnzymeSite> matcher = rebase.createMatcher();
+		final Random rand = new Random(0L);
+		final StringBuilder sb = new StringBuilder();
+		for(int i=0;i< 50_000;++i) sb.append("ACGTNacgt".charAt(rand.nextInt(i%1000<500?4:9)));
+		final String seq = sb.toString();
+		
+		final List<String> expect = new ArrayList<>();
+		for(int y=0;y< seq.length();++y)
+			{
+			for(final Rebase.Enzyme enz:rebase)
+				{
+				for(int strand=0;strand<2;++strand)
+					{
+					int x=0;
+					for(x=0;x< enz.size() && y+x < seq.length();++x)
+						{
+						final char c=(strand==0?
+								enz.at(x):
+								AcidNucleics.complement(enz.at((enz.size()-1)-x))
+								);
+						if(!Rebase.compatible(seq.charAt(y+x),c)) break;
+						}
+					if(x==enz.size())
+						{
+						expect.add(enz.getName()+":"+y+":"+(strand==0?'+':'-'));
+						}
+					if(enz.isPalindromic()) break;
+					}
+				}
+			}
+		
+		final List<String> found = matcher.findAll(seq).stream().
+			map(H->H.getUserData().getEnzyme().getName()+":"+H.getStart()+":"+H.getUserData().getStrand()).
+			collect(Collectors.toList());
+		Assert.assertFalse(expect.isEmpty());
+		expect.sort(String::compareTo);
+		found.sort(String::compareTo);
+		Assert.assertEquals(found, expect);
+		}
+	}
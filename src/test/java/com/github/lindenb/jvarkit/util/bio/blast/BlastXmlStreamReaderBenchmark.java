@@ -0,0 +1,146 @@
+package com.github.lindenb.jvarkit.util.bio.blast;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.XMLEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.lindenb.jvarkit.tools.blast2sam.BlastToSam;
+
+/**
+ * JMH benchmark: reading a BLAST XML file with the JAXB classes vs BlastXmlStreamReader,
+ * and blast2sam with one or four threads.
+ * 
+ * The input is the iterations of src/test/resources/rotavirus_rf.blastn.01.xml (40Kb) repeated 'copies' times.
+ * Use '-p copies=50000' to get a 2Gb file.
+ * 
+ * Compiled (with the classes generated from the BLAST DTD) and run by the gradle task 'jmh':
+ * 
+ * ./gradlew jmh -Djvarkit.jmh.args="-p copies=50000 BlastXmlStreamReaderBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=2,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class BlastXmlStreamReaderBenchmark {
+	private static final String SRC_TEST_RESOURCE="./src/test/resources";
+	@Param({"1000"})
+	public int copies;
+	
+	private File xmlFile;
+	private File samFile;
+	private JAXBContext jaxbContext;
+	private Class<?> iterationClass;
+	
+	@Setup
+	public void setup() throws Exception {
+		final String xml = new String(Files.readAllBytes(Paths.get(SRC_TEST_RESOURCE,"rotavirus_rf.blastn.01.xml")));
+		final String startTag = "<BlastOutput_iterations>";
+		final String endTag = "</BlastOutput_iterations>";
+		final int start = xml.indexOf(startTag)+startTag.length();
+		final int end = xml.indexOf(endTag);
+		final String iterations = xml.substring(start, end);
+		this.xmlFile = File.createTempFile("blast.", ".xml");
+		this.xmlFile.deleteOnExit();
+		try(PrintWriter pw = new PrintWriter(this.xmlFile)) {
+			pw.print(xml.substring(0, start));
+			for(int i=0;i< this.copies;i++) pw.print(iterations);
+			pw.print(xml.substring(end));
+			}
+		this.samFile = File.createTempFile("blast.", ".sam");
+		this.samFile.deleteOnExit();
+		// loaded by name: the JAXB classes are generated at build time
+		this.iterationClass = Class.forName("gov.nih.nlm.ncbi.blast.Iteration");
+		this.jaxbContext = JAXBContext.newInstance("gov.nih.nlm.ncbi.blast");
+	}
+	
+	@TearDown
+	public void tearDown() {
+		this.xmlFile.delete();
+		this.samFile.delete();
+	}
+	
+	@Benchmark
+	public void jaxb(final Blackhole bh) throws Exception {
+		final Unmarshaller unmarshaller = this.jaxbContext.createUnmarshaller();
+		try(InputStream in=new FileInputStream(this.xmlFile)) {
+			final XMLEventReader r = BlastXmlStreamReader.createXMLInputFactory().createXMLEventReader(in);
+			while(r.hasNext()) {
+				final XMLEvent evt = r.peek();
+				if(evt.isStartElement() && evt.asStartElement().getName().getLocalPart().equals("Iteration")) {
+					bh.consume(unmarshaller.unmarshal(r, this.iterationClass).getValue());
+					}
+				else
+					{
+					r.next();
+					}
+				}
+			r.close();
+			}
+	}
+	
+	@Benchmark
+	public void streamReader(final Blackhole bh) throws IOException {
+		try(BlastXmlStreamReader r=new BlastXmlStreamReader(new BufferedReader(new FileReader(this.xmlFile)))) {
+			final BlastIterationRecord rec = new BlastIterationRecord();
+			while(r.next(rec)) {
+				bh.consume(rec.getHsps().size());
+				}
+			}
+	}
+	
+	private void blastToSam(final int jobs) {
+		if(new BlastToSam().instanceMain(new String[] {
+			"-o",this.samFile.getPath(),
+			"-r",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+			"-j",String.valueOf(jobs),
+			this.xmlFile.getPath()
+			})!=0) throw new IllegalStateException("blast2sam failed");
+	}
+	
+	@Benchmark
+	public void blastToSam1Thread() {
+		blastToSam(1);
+	}
+	
+	@Benchmark
+	public void blastToSam4Threads() {
+		blastToSam(4);
+	}
+	
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().
+			include(BlastXmlStreamReaderBenchmark.class.getSimpleName()).
+			build()).run();
+	}
+}
@@ -0,0 +1,90 @@
+package com.github.lindenb.jvarkit.util.bio.blast;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class BlastXmlStreamReaderTest extends TestUtils {
+	
+	@Test
+	public void testRotavirus() throws IOException {
+		try(BlastXmlStreamReader r=new BlastXmlStreamReader(new FileInputStream(SRC_TEST_RESOURCE+"/rotavirus_rf.blastn.01.xml"))) {
+			Assert.assertEquals(r.getProgram(), "blastn");
+			Assert.assertEquals(r.getVersion(), "BLASTN 2.2.31+");
+			Assert.assertEquals(r.getDb(), "rotavirus_rf.fa");
+			final BlastIterationRecord rec = new BlastIterationRecord();
+			int nIter=0;
+			int nHsp=0;
+			final List<BlastIterationRecord> copies = new ArrayList<>();
+			while(r.next(rec)) {
+				nIter++;
+				Assert.assertEquals(rec.getIterNum(), nIter);
+				Assert.assertTrue(rec.getQueryLen()>0);
+				for(final BlastHspRecord hsp: rec.getHsps()) {
+					Assert.assertEquals(hsp.getQseq().length(), hsp.getAlignLength());
+					Assert.assertEquals(hsp.getHseq().length(), hsp.getAlignLength());
+					Assert.assertEquals(hsp.getMidline().length(), hsp.getAlignLength());
+					Assert.assertTrue(hsp.getHitDef().startsWith("RF"));
+					nHsp++;
+					}
+				copies.add(rec.copy());
+				}
+			Assert.assertEquals(nIter, 16);
+			Assert.assertEquals(nHsp, 9);
+			Assert.assertEquals(copies.stream().mapToInt(R->R.getHsps().size()).sum(), 9);
+			Assert.assertNull(r.next());
+			
+			final BlastHspRecord hsp = copies.get(0).getHsps().get(0);
+			Assert.assertEquals(copies.get(0).getQueryDef(),"AF338247.1 Human rotavirus A strain M clone M1 NSP3 genes, complete cds");
+			Assert.assertEquals(hsp.getHitDef(),"RF07");
+			Assert.assertEquals(hsp.getHitAccession(),"6");
+			Assert.assertEquals(hsp.getHitLen(),1074);
+			Assert.assertEquals(hsp.getBitScore(),1027.86,0.001);
+			Assert.assertEquals(hsp.getQueryFrom1(),964);
+			Assert.assertEquals(hsp.getQueryTo1(),2032);
+			Assert.assertEquals(hsp.getHitFrom1(),6);
+			Assert.assertEquals(hsp.getHitTo1(),1074);
+			Assert.assertEquals(hsp.getGaps(),2);
+			Assert.assertTrue(hsp.isPlusPlus());
+			}
+		}
+	
+	@Test
+	public void testRecycle() throws IOException {
+		final String xml="<?xml version=\"1.0\"?>\n"+
+			"<!DOCTYPE BlastOutput PUBLIC \"-//NCBI//NCBI BlastOutput/EN\" \"http://www.ncbi.nlm.nih.gov/dtd/NCBI_BlastOutput.dtd\">\n"+
+			"<BlastOutput><BlastOutput_program>blastn</BlastOutput_program><BlastOutput_iterations>"+
+			"<Iteration><Iteration_iter-num>1</Iteration_iter-num><Iteration_query-def>q1</Iteration_query-def><Iteration_hits>"+
+			"<Hit><Hit_def>h1</Hit_def><Hit_hsps><Hsp><Hsp_hit-from>10</Hsp_hit-from><Hsp_hit-to>8</Hsp_hit-to><Hsp_midline>|||</Hsp_midline></Hsp><Hsp><Hsp_num>2</Hsp_num></Hsp></Hit_hsps></Hit>"+
+			"<Hit><Hit_def>h2</Hit_def><Hit_hsps><Hsp><Hsp_evalue>1e-10</Hsp_evalue></Hsp></Hit_hsps></Hit>"+
+			"</Iteration_hits></Iteration>"+
+			"<Iteration><Iteration_iter-num>2</Iteration_iter-num><Iteration_query-def>q2</Iteration_query-def>"+
+			"<Iteration_hits></Iteration_hits><Iteration_message>No hits found</Iteration_message></Iteration>"+
+			"</BlastOutput_iterations></BlastOutput>";
+		try(BlastXmlStreamReader r=new BlastXmlStreamReader(new StringReader(xml))) {
+			final BlastIterationRecord rec = new BlastIterationRecord();
+			Assert.assertTrue(r.next(rec));
+			Assert.assertEquals(rec.getQueryDef(), "q1");
+			Assert.assertEquals(rec.getHsps().size(), 3);
+			Assert.assertEquals(rec.getHsps().get(0).getHitDef(), "h1");
+			Assert.assertEquals(rec.getHsps().get(0).getAlignLength(), 3);
+			Assert.assertTrue(rec.getHsps().get(0).isPlusMinus());
+			Assert.assertEquals(rec.getHsps().get(1).getHitDef(), "h1");
+			Assert.assertEquals(rec.getHsps().get(1).getHspNum(), 2);
+			Assert.assertEquals(rec.getHsps().get(2).getHitDef(), "h2");
+			Assert.assertEquals(rec.getHsps().get(2).getEvalue(), 1e-10);
+			Assert.assertTrue(r.next(rec));
+			Assert.assertEquals(rec.getQueryDef(), "q2");
+			Assert.assertEquals(rec.getMessage(), "No hits found");
+			Assert.assertTrue(rec.getHsps().isEmpty());
+			Assert.assertFalse(r.next(rec));
+			}
+		}
+	}
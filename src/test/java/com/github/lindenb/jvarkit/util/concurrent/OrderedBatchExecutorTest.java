@@ -0,0 +1,57 @@
+package com.github.lindenb.jvarkit.util.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class OrderedBatchExecutorTest {
+
+	@DataProvider(name="threads")
+	public Object[][] getThreads() {
+		return new Object[][] {{1,10},{3,7},{4,1000}};
+		}
+
+	@Test(dataProvider="threads")
+	public void testOrdered(final int nThreads,final int batchSize) throws Exception {
+		final List<Integer> input = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+		final List<Integer> output = new ArrayList<>();
+		final Set<Object> states = Collections.synchronizedSet(new HashSet<>());
+		OrderedBatchExecutor.forEachOrdered(input.iterator(), nThreads, batchSize,
+			()->new Object(),
+			(state,x)->{ states.add(state); return x*3;},
+			Y->output.add(Y)
+			);
+		Assert.assertEquals(output, input.stream().map(X->X*3).collect(Collectors.toList()));
+		// one state per thread
+		Assert.assertTrue(states.size() <= Math.max(1, nThreads));
+		}
+
+	@Test(dataProvider="threads")
+	public void testStop(final int nThreads,final int batchSize) throws Exception {
+		final List<Integer> output = new ArrayList<>();
+		OrderedBatchExecutor.forEachOrdered(IntStream.range(0, 500).boxed().iterator(), nThreads, batchSize,
+			()->null,
+			(state,x)->x%2==0?x:null,
+			Y->{ if(Y!=null) output.add(Y); return output.size()<10;}
+			);
+		Assert.assertEquals(output, IntStream.range(0, 10).map(X->X*2).boxed().collect(Collectors.toList()));
+		}
+
+	@Test(expectedExceptions=IOException.class)
+	public void testError() throws Exception {
+		OrderedBatchExecutor.forEachOrdered(IntStream.range(0, 100).boxed().iterator(), 2, 10,
+			()->null,
+			(state,x)->{ if(x==50) throw new IOException("boum"); return x;},
+			Y->true
+			);
+		}
+	}
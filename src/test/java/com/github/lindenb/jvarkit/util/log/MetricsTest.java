@@ -0,0 +1,104 @@
+package com.github.lindenb.jvarkit.util.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class MetricsTest extends TestUtils{
+
+@Test
+void testTimer() {
+	final Metrics.Timer t = Metrics.getInstance().timer("test.timer");
+	for(int i=1;i<=100;i++) t.record(i*1000L);
+	Assert.assertEquals(t.getCount(), 100L);
+	Assert.assertEquals(t.getMax(), 100_000L);
+	Assert.assertEquals(t.getMean(), 50_500L);
+	Assert.assertTrue(t.getQuantile(0.5) >= 50_000L);
+	Assert.assertTrue(t.getQuantile(0.5) < 2 * 50_000L);
+	Assert.assertEquals(t.getQuantile(1.0), 100_000L);
+	}
+
+@Test
+void testProgressAndJmx() throws Exception {
+	final Metrics metrics = Metrics.getInstance();
+	metrics.start("test");
+	try(VCFFileReader r=new VCFFileReader(new File(SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz"),false)) {
+		final long n = ProgressFactory.newInstance().dictionary(r).stream(r.iterator()).count();
+		Assert.assertTrue(n>0);
+		Assert.assertEquals(metrics.counter(Metrics.RECORDS).get(), n);
+		Assert.assertEquals(metrics.timer(Metrics.RECORD_TIME).getCount(), n-1);
+		Assert.assertEquals(
+			ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName("com.github.lindenb.jvarkit:type=Metrics"), Metrics.RECORDS),
+			n);
+		}
+	finally
+		{
+		metrics.stop();
+		}
+	}
+
+@Test
+void testNestedStart() {
+	final Metrics metrics = Metrics.getInstance();
+	metrics.start("outer");
+	try {
+		metrics.counter("test.nested").add(5L);
+		metrics.start("inner");
+		metrics.counter("test.nested").add(1L);
+		metrics.stop();
+		Assert.assertEquals(metrics.counter("test.nested").get(), 6L);
+		Assert.assertEquals(metrics.snapshot().get("program"), "outer");
+		}
+	finally
+		{
+		metrics.stop();
+		}
+	}
+
+@Test
+void testSpillsInProcessTmpDirectory() throws IOException {
+	final Metrics metrics = Metrics.getInstance();
+	final File shared = Files.createTempDirectory("metrics").toFile();
+	final File mine = metrics.getProcessTmpDirectory(shared);
+	// a file spilled by another process and a file spilled by this process
+	final File other = File.createTempFile("sortingcollection.", ".tmp", shared);
+	File spilled = null;
+	try {
+		Assert.assertEquals(mine.getParentFile(), shared.getAbsoluteFile());
+		Assert.assertEquals(metrics.getProcessTmpDirectory(shared), mine);
+		final long n = ((Number)metrics.snapshot().get("tmp.spill.files")).longValue();
+		spilled = File.createTempFile("sortingcollection.", ".tmp", mine);
+		Assert.assertEquals(((Number)metrics.snapshot().get("tmp.spill.files")).longValue(), n+1L);
+		}
+	finally
+		{
+		if(spilled!=null) spilled.delete();
+		other.delete();
+		mine.delete();
+		shared.delete();
+		}
+	}
+
+@Test
+void testJson() throws IOException {
+	final File json = createTmpFile(".json");
+	Metrics.getInstance().counter("test.counter").add(3L);
+	Metrics.getInstance().dump(json);
+	final JsonObject o = new JsonParser().parse(new String(Files.readAllBytes(json.toPath()))).getAsJsonObject();
+	Assert.assertEquals(o.get("test.counter").getAsLong(), 3L);
+	Assert.assertTrue(o.has("gc.count"));
+	Assert.assertTrue(o.has("tmp.spill.files"));
+	}
+}
@@ -0,0 +1,82 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.IOUtil;
+
+
+public class BatchFastqReaderTest
+	extends TestUtils
+	{
+	@DataProvider(name = "src1")
+		public Object[][] createData1() {
+		 return new ParamCombiner().
+			 initList(collectAllFastq()).
+			 product(1,4).
+			 build();
+		}
+	
+	private void compare(final File fq,final File input,final int nThreads) throws IOException {
+		final FourLinesFastqReader r1=new FourLinesFastqReader(fq);
+		final BatchFastqReader r2= BatchFastqReader.open(input,nThreads);
+		while(r1.hasNext())
+			{
+			Assert.assertTrue(r2.hasNext());
+			final FastqRecord rec1 = r1.next();
+			final FastqRecord rec2 = r2.next();
+			Assert.assertEquals(rec2.getReadName(),rec1.getReadName());
+			Assert.assertEquals(rec2.getReadString(),rec1.getReadString());
+			Assert.assertEquals(rec2.getBaseQualityString(),rec1.getBaseQualityString());
+			}
+		Assert.assertFalse(r2.hasNext());
+		r1.close();
+		r2.close();
+		}
+	
+	@Test(dataProvider="src1")
+	public void testGzip(final String input,final int nThreads) throws IOException
+		{
+		compare(new File(input), new File(input), nThreads);
+		}
+	
+	@Test(dataProvider="src1")
+	public void testBgzf(final String input,final int nThreads) throws IOException
+		{
+		final File bgzf = createTmpFile(".fq.gz");
+		try(OutputStream out = new BlockCompressedOutputStream(bgzf)) {
+			IOUtil.copyStream(IOUtil.openFileForReading(new File(input)), out);
+			}
+		compare(new File(input), bgzf, nThreads);
+		}
+	
+	@Test(dataProvider="src1")
+	public void testBatch(final String input,final int nThreads) throws IOException
+		{
+		final FourLinesFastqReader r1=new FourLinesFastqReader(new File(input));
+		final BatchFastqReader r2= BatchFastqReader.open(new File(input),nThreads);
+		BatchFastqReader.Batch batch;
+		while((batch=r2.nextBatch())!=null)
+			{
+			Assert.assertTrue(batch.size()>0);
+			for(final BatchFastqReader.Record rec: batch) {
+				Assert.assertTrue(r1.hasNext());
+				final FastqRecord rec1 = r1.next();
+				Assert.assertEquals(rec.length(),rec1.getReadLength());
+				Assert.assertEquals(rec.getReadString(),rec1.getReadString());
+				}
+			}
+		Assert.assertFalse(r1.hasNext());
+		r1.close();
+		r2.close();
+		}
+	}
@@ -0,0 +1,163 @@
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.math.stats.Percentile;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.util.Interval;
+
+public class DepthPyramidTest extends TestUtils
+	{
+	@DataProvider(name="src1")
+	public Object[][] getBams() {
+		return new Object[][] {
+			{SRC_TEST_RESOURCE+"/S1.bam"},
+			{SRC_TEST_RESOURCE+"/S4.bam"}
+			};
+		}
+	
+	/* per-base depth, computed the way WesCnvTView does */
+	private int[] depth(final SamReader sr,final Interval r) {
+		final int depth[] = new int[r.length()];
+		try(SAMRecordIterator iter = sr.queryOverlapping(r.getContig(), r.getStart(), r.getEnd())) {
+			while(iter.hasNext()) {
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				int ref1 = rec.getStart();
+				for(final CigarElement ce: rec.getCigar()) {
+					if(!ce.getOperator().consumesReferenceBases()) continue;
+					if(ce.getOperator().consumesReadBases()) {
+						for(int x=0;x< ce.getLength();++x) {
+							final int pos = ref1+x;
+							if(pos < r.getStart() || pos > r.getEnd()) continue;
+							depth[pos-r.getStart()]++;
+							}
+						}
+					ref1 += ce.getLength();
+					}
+				}
+			}
+		return depth;
+		}
+	
+	@Test(dataProvider="src1")
+	public void testWholeContigs(final String bam) throws IOException {
+		final File out = createTmpFile(DepthPyramid.SUFFIX);
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(new File(bam))) {
+			final List<Interval> regions = new ArrayList<>();
+			for(final SAMSequenceRecord ssr: sr.getFileHeader().getSequenceDictionary().getSequences()) {
+				regions.add(new Interval(ssr.getSequenceName(), 1, ssr.getSequenceLength()));
+				}
+			DepthPyramid.build(sr, new File(bam), regions, null, out);
+			try(DepthPyramid pyramid = DepthPyramid.open(out)) {
+				Assert.assertTrue(pyramid.isUpToDate(new File(bam)));
+				for(final Interval r: regions) {
+					Assert.assertTrue(pyramid.contains(r.getContig(), r.getStart(), r.getEnd()));
+					Assert.assertFalse(pyramid.contains(r.getContig(), r.getStart(), r.getEnd()+1));
+					final int depth[] = depth(sr, r);
+					for(int i=0;i< 50;i++) {
+						final int start = 1 + this.random.nextInt(r.length());
+						final int end = Math.min(r.getEnd(), start + this.random.nextInt(i%2==0?200:r.length()));
+						final int values[] = Arrays.copyOfRange(depth, start-1, end);
+						for(final Percentile.Type type: new Percentile.Type[] {Percentile.Type.MIN,Percentile.Type.MAX,Percentile.Type.SUM,Percentile.Type.AVERAGE}) {
+							final double expect = Percentile.of(type).evaluate(values);
+							final double found = pyramid.evaluate(r.getContig(), start, end, type).getDepth();
+							Assert.assertEquals(found, expect, 1E-3 * Math.max(1.0, expect), type+" "+r.getContig()+":"+start+"-"+end);
+							}
+						final double median = pyramid.evaluate(r.getContig(), start, end, Percentile.Type.MEDIAN).getDepth();
+						if(values.length <= 256) {
+							Assert.assertEquals(median, Percentile.median().evaluate(values));
+							}
+						else
+							{
+							Assert.assertTrue(median >= Percentile.min().evaluate(values));
+							Assert.assertTrue(median <= Percentile.max().evaluate(values));
+							}
+						}
+					}
+				}
+			}
+		}
+	
+	@Test
+	public void testRegions() throws IOException {
+		final File out = createTmpFile(DepthPyramid.SUFFIX);
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(new File(SRC_TEST_RESOURCE+"/S1.bam"))) {
+			final List<Interval> regions = Arrays.asList(
+				new Interval("RF01", 100, 200),
+				new Interval("RF01", 150, 300),
+				new Interval("RF01", 301, 400),
+				new Interval("RF02", 10, 10)
+				);
+			DepthPyramid.build(sr, null, regions, null, out);
+			try(DepthPyramid pyramid = DepthPyramid.open(out)) {
+				Assert.assertFalse(pyramid.isUpToDate(new File(SRC_TEST_RESOURCE+"/S1.bam")));
+				// merged regions
+				Assert.assertTrue(pyramid.contains("RF01", 100, 400));
+				Assert.assertFalse(pyramid.contains("RF01", 99, 400));
+				Assert.assertTrue(pyramid.contains("RF02", 10, 10));
+				Assert.assertFalse(pyramid.contains("RF03", 10, 10));
+				final int depth[] = depth(sr, new Interval("RF01", 100, 400));
+				Assert.assertEquals(
+					pyramid.evaluate("RF01", 100, 400, Percentile.Type.SUM).getDepth(),
+					Arrays.stream(depth).sum(),
+					1E-3
+					);
+				}
+			}
+		}
+	
+	@Test
+	public void testFilterAndRegions() throws Exception {
+		final File dir = Files.createTempDirectory("tmp").toFile();
+		final File bam = new File(dir, "S1.bam");
+		Files.copy(new File(SRC_TEST_RESOURCE+"/S1.bam").toPath(), bam.toPath());
+		Files.copy(new File(SRC_TEST_RESOURCE+"/S1.bam.bai").toPath(), new File(dir, "S1.bam.bai").toPath());
+		final File out = DepthPyramid.getDefaultFile(bam);
+		final SamRecordFilter filter = SamFilterParser.build("Duplicate()");
+		final List<Interval> regions = Arrays.asList(new Interval("RF01", 100, 200), new Interval("RF01", 150, 300));
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(bam)) {
+			DepthPyramid.build(sr, bam, regions, filter, out);
+			}
+		try(DepthPyramid pyramid = DepthPyramid.open(out)) {
+			Assert.assertEquals(pyramid.getFilterExpression(), "Duplicate()");
+			Assert.assertTrue(pyramid.isUpToDate(bam, regions, SamFilterParser.build("Duplicate()")));
+			// same merged regions
+			Assert.assertTrue(pyramid.isUpToDate(bam, Arrays.asList(new Interval("RF01", 100, 300)), filter));
+			Assert.assertFalse(pyramid.isUpToDate(bam, Arrays.asList(new Interval("RF01", 100, 301)), filter));
+			Assert.assertFalse(pyramid.isUpToDate(bam, regions, SamFilterParser.ACCEPT_ALL));
+			Assert.assertFalse(pyramid.isUpToDate(bam, regions, null));
+			}
+		Assert.assertNull(DepthPyramid.openForBam(bam, SamFilterParser.ACCEPT_ALL));
+		try(DepthPyramid pyramid = DepthPyramid.openForBam(bam, filter)) {
+			Assert.assertNotNull(pyramid);
+			}
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(bam)) {
+			DepthPyramid.build(sr, bam, regions, SamFilterParser.ACCEPT_ALL, out);
+			}
+		try(DepthPyramid pyramid = DepthPyramid.openForBam(bam, null)) {
+			Assert.assertNotNull(pyramid);
+			Assert.assertEquals(pyramid.getFilterExpression(), "");
+			}
+		for(final File f:dir.listFiles()) deleteOnExit(f);
+		deleteOnExit(dir);
+		}
+	}